@@ -0,0 +1,151 @@
+package net.xmeter.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compares a JMH result file (-rf csv) with the stored baseline, benchmark by benchmark and for
+ * every parameter combination. Compared are the score (throughput, higher is better) and the
+ * gc.alloc.rate.norm of the gc profiler (bytes per operation, lower is better). A difference only
+ * counts as a regression when it is larger than the threshold and than both error margins together.
+ * <p>
+ * Usage: BaselineComparison baseline.csv current.csv [thresholdPercent]
+ * <p>
+ * Exits with 1 if anything regressed, so a build can fail on it.
+ */
+public class BaselineComparison {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String ALLOCATION = "gc.alloc.rate.norm";
+    // allocation differences below this are rounding of the profiler, e.g. 0.001 vs 0.002 B/op
+    private static final double ALLOCATION_NOISE = 1.0;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BaselineComparison baseline.csv current.csv [thresholdPercent]");
+            System.exit(2);
+        }
+        double threshold = (args.length > 2 ? Double.parseDouble(args[2]) : 5) / 100;
+        Map<String, Result> baseline = read(args[0]);
+        Map<String, Result> current = read(args[1]);
+
+        int regressions = 0;
+        for (Map.Entry<String, Result> entry : current.entrySet()) {
+            Result now = entry.getValue();
+            Result before = baseline.get(entry.getKey());
+            if (before == null) {
+                System.out.println(String.format(Locale.ROOT, "NEW        %-90s %14.3f %s", entry.getKey(), now.score, now.unit));
+                continue;
+            }
+            boolean allocation = entry.getKey().contains(ALLOCATION);
+            double change = before.score != 0 ? (now.score - before.score) / Math.abs(before.score) : 0;
+            boolean significant = Math.abs(now.score - before.score) > before.error + now.error
+                    && (!allocation || Math.abs(now.score - before.score) > ALLOCATION_NOISE);
+            boolean worse = allocation ? change > threshold : change < -threshold;
+            boolean better = allocation ? change < -threshold : change > threshold;
+            String verdict = "same";
+            if (significant && worse) {
+                verdict = "REGRESSION";
+                regressions++;
+            } else if (significant && better) {
+                verdict = "improved";
+            }
+            System.out.println(String.format(Locale.ROOT, "%-10s %-90s %14.3f -> %14.3f %s (%+.1f%%)", verdict, entry.getKey(),
+                    before.score, now.score, now.unit, change * 100));
+        }
+        for (String key : baseline.keySet()) {
+            if (!current.containsKey(key)) {
+                System.out.println(String.format(Locale.ROOT, "MISSING    %s", key));
+            }
+        }
+        System.out.println(regressions + " regression(s) beyond " + (threshold * 100) + "%.");
+        System.exit(regressions > 0 ? 1 : 0);
+    }
+
+    /**
+     * @return primary and allocation results keyed by benchmark, metric and parameters.
+     */
+    static Map<String, Result> read(String file) throws IOException {
+        Map<String, Result> results = new LinkedHashMap<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8))) {
+            String line = reader.readLine();
+            if (line == null) {
+                return results;
+            }
+            List<String> header = split(line);
+            int score = header.indexOf("Score");
+            int error = header.indexOf("Score Error (99.9%)");
+            int unit = header.indexOf("Unit");
+            if (score < 0 || unit < 0) {
+                throw new IOException(file + " is not a JMH csv result file.");
+            }
+            while ((line = reader.readLine()) != null) {
+                if ("".equals(line.trim())) {
+                    continue;
+                }
+                List<String> fields = split(line);
+                String name = fields.get(0);
+                int metric = name.indexOf(':');
+                if (metric >= 0 && !name.endsWith(ALLOCATION)) {
+                    continue;
+                }
+                StringBuilder key = new StringBuilder(name);
+                for (int i = unit + 1; i < fields.size(); i++) {
+                    key.append(i == unit + 1 ? " " : ",").append(header.get(i).replace("Param: ", "")).append('=').append(fields.get(i));
+                }
+                results.put(key.toString(), new Result(parse(fields.get(score)), error >= 0 ? parse(fields.get(error)) : 0, fields.get(unit)));
+            }
+        }
+        return results;
+    }
+
+    private static double parse(String value) {
+        if ("".equals(value) || "NaN".equals(value)) {
+            return 0;
+        }
+        return Double.parseDouble(value);
+    }
+
+    private static List<String> split(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = !quoted;
+                }
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    static class Result {
+        final double score;
+        final double error;
+        final String unit;
+
+        Result(double score, double error, String unit) {
+            this.score = score;
+            this.error = Double.isNaN(error) ? 0 : error;
+            this.unit = unit;
+        }
+    }
+}
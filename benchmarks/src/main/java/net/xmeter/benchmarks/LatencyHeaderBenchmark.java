@@ -0,0 +1,56 @@
+package net.xmeter.benchmarks;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import net.xmeter.CoAPConstants;
+import net.xmeter.payload.LatencyHeader;
+
+/**
+ * Reading the send time of a received payload, in the binary header and in the older text format.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LatencyHeaderBenchmark {
+    private byte[] binary;
+    private byte[] legacy;
+    private byte[] plain;
+
+    @Setup
+    public void setUp() {
+        byte[] content = new byte[256];
+        binary = LatencyHeader.prepend(content, 1, 0);
+        legacy = (System.currentTimeMillis() + CoAPConstants.TIME_STAMP_SEP_FLAG + new String(new char[256]).replace('\0', 'a'))
+                .getBytes(Charset.forName("US-ASCII"));
+        plain = content;
+    }
+
+    @Benchmark
+    public long elapsedBinary() {
+        return LatencyHeader.elapsedNanos(binary);
+    }
+
+    @Benchmark
+    public long elapsedLegacy() {
+        return LatencyHeader.elapsedNanos(legacy);
+    }
+
+    @Benchmark
+    public long elapsedNoTimestamp() {
+        return LatencyHeader.elapsedNanos(plain);
+    }
+
+    @Benchmark
+    public byte[] prepend() {
+        return LatencyHeader.prepend(plain, 1, 0);
+    }
+}
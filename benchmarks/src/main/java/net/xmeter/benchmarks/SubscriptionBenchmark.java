@@ -0,0 +1,72 @@
+package net.xmeter.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import net.xmeter.SubBean;
+import net.xmeter.SubBeanWindow;
+import net.xmeter.engine.SubscriptionHandler;
+import net.xmeter.payload.LatencyHeader;
+
+/**
+ * The notification handler of the subscribe sampler and the SubBean aggregation behind it, with
+ * one receiving thread and with several threads writing into the same window.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SubscriptionBenchmark {
+    @Param({ "true", "false" })
+    public boolean addTimestamp;
+
+    @Param({ "0", "100" })
+    public int captureSize;
+
+    private SubBeanWindow window;
+    private SubscriptionHandler handler;
+    private byte[] payload;
+
+    @Setup
+    public void setUp() {
+        window = new SubBeanWindow(0, captureSize, true);
+        handler = new SubscriptionHandler(window, addTimestamp);
+        payload = LatencyHeader.prepend(new byte[256], 1, 0);
+    }
+
+    /**
+     * Closes the window as the sampler does at the end of every sample, so counters stay small.
+     */
+    @Setup(Level.Iteration)
+    public void rotate() {
+        window.rotate();
+    }
+
+    @Benchmark
+    public void onPayload() {
+        handler.onPayload(payload);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void onPayloadContended() {
+        handler.onPayload(payload);
+    }
+
+    @Benchmark
+    public SubBean claimAndComplete() {
+        SubBean bean = window.claim();
+        bean.addReceivedMessageSize(payload.length);
+        window.complete(bean);
+        return bean;
+    }
+}
@@ -0,0 +1,48 @@
+package net.xmeter.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import net.xmeter.Util;
+import net.xmeter.payload.PayloadPool;
+
+/**
+ * Payload and client id generation, next to the pooled payloads the publish sampler sends instead.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class UtilBenchmark {
+    @Param({ "16", "256", "1024" })
+    public int size;
+
+    private PayloadPool pool;
+
+    @Setup
+    public void setUp() {
+        pool = PayloadPool.forSpec(String.valueOf(size));
+    }
+
+    @Benchmark
+    public String generatePayload() {
+        return Util.generatePayload(size);
+    }
+
+    @Benchmark
+    public byte[] payloadPoolNext() {
+        return pool.next();
+    }
+
+    @Benchmark
+    public String generateClientId() {
+        return Util.generateClientId("coap_pub_");
+    }
+}
@@ -0,0 +1,82 @@
+package net.xmeter.samplers;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.JMeterVariables;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import net.xmeter.SubBean;
+import net.xmeter.stats.LatencyHistogram;
+
+/**
+ * Filling a SampleResult after a publish or a subscriber window with the samplers' own code, the
+ * fixed cost every sample pays on top of the CoAP exchange. In the samplers' package to reach the
+ * package-private fill methods.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SampleResultBenchmark {
+    @Param({ "true", "false" })
+    public boolean addTimestamp;
+
+    private CoAPPubSampler pubSampler;
+    private CoAPSubSampler subSampler;
+    private Request request;
+    private CoapResponse response;
+    private SubBean bean;
+
+    @Setup
+    public void setUp() {
+        JMeterContextService.getContext().setVariables(new JMeterVariables());
+        pubSampler = new CoAPPubSampler();
+        pubSampler.setName("CoAP Pub Sampler");
+        subSampler = new CoAPSubSampler();
+        subSampler.setName("CoAP Sub Sampler");
+        subSampler.setAddTimestamp(addTimestamp);
+
+        request = Request.newPut();
+        request.setPayload(new byte[256]);
+        Response changed = new Response(ResponseCode.CHANGED);
+        changed.setPayload(new byte[0]);
+        response = new CoapResponse(changed) {
+        };
+
+        bean = new SubBean(new LatencyHistogram(), null);
+        for (int i = 0; i < 100; i++) {
+            bean.incrementReceivedCount();
+            bean.addReceivedMessageSize(256);
+            bean.getLatencies().record((i + 1) * 100000L);
+        }
+    }
+
+    @Benchmark
+    public SampleResult publishResult() {
+        SampleResult result = new SampleResult();
+        result.setSampleLabel(pubSampler.getName());
+        result.sampleStart();
+        result.sampleEnd();
+        return pubSampler.fillPublishResult(result, request, response);
+    }
+
+    @Benchmark
+    public SampleResult subscribeResult() {
+        SampleResult result = new SampleResult();
+        result.setSampleLabel(subSampler.getName());
+        result.sampleStart();
+        return subSampler.fillWindowResult(result, bean);
+    }
+}
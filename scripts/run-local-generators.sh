@@ -0,0 +1,48 @@
+#!/bin/sh
+# Runs one test split over several load driver processes on this machine against the stand-in
+# server, then merges their snapshots into one report.
+#
+# Usage: scripts/run-local-generators.sh config.properties|plan.jmx [generators] [key=value ...]
+# Build first with: mvn -B package (target/*-jar-with-dependencies.jar)
+set -e
+
+if [ $# -lt 1 ]; then
+    echo "Usage: $0 config.properties|plan.jmx [generators] [key=value ...]" >&2
+    exit 2
+fi
+CONFIG=$1
+shift
+GENERATORS=${1:-2}
+[ $# -gt 0 ] && shift
+
+JAR=$(ls target/*-jar-with-dependencies.jar | head -n 1)
+OUT=${OUT:-generators}
+PORT=${PORT:-5683}
+mkdir -p "$OUT"
+
+java -cp "$JAR" net.xmeter.test.StandInServer "$PORT" > "$OUT/server.log" 2>&1 &
+SERVER=$!
+trap 'kill $SERVER 2>/dev/null' EXIT
+sleep 2
+
+PIDS=""
+i=0
+while [ $i -lt "$GENERATORS" ]; do
+    java -cp "$JAR" net.xmeter.driver.LoadDriver "$CONFIG" coap.server=127.0.0.1 coap.port="$PORT" \
+        coap.generator_index=$i coap.generator_count="$GENERATORS" \
+        driver.histogram_file="$OUT/histogram.txt" driver.snapshot_file="$OUT/snapshot.txt" "$@" \
+        > "$OUT/generator-$i.log" 2>&1 &
+    PIDS="$PIDS $!"
+    i=$((i + 1))
+done
+for pid in $PIDS; do
+    wait "$pid"
+done
+
+SNAPSHOTS=""
+i=0
+while [ $i -lt "$GENERATORS" ]; do
+    SNAPSHOTS="$SNAPSHOTS $OUT/snapshot-$i.txt"
+    i=$((i + 1))
+done
+java -cp "$JAR" net.xmeter.driver.MergeSnapshots -o "$OUT/histogram-merged.txt" $SNAPSHOTS
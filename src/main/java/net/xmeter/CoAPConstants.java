@@ -6,6 +6,7 @@ public interface CoAPConstants {
     public static final String LIFE_TIME = "10000";
     public static final String ENDPOINT = "SYD";
     public static final String CONN_TIMEOUT = "coap.conn_timeout";
+    public static final String ENDPOINT_POOL_SIZE = "coap.endpoint_pool_size";
     
     public static final String PROTOCOL = "coap.protocol";
     public static final String DUAL_AUTH = "coap.dual_ssl_authentication";
@@ -13,6 +14,17 @@ public interface CoAPConstants {
     public static final String CERT_FILE_PATH2 = "coap.clientcert_file_path";
     public static final String KEY_FILE_PWD1 = "coap.keystore_password";
     public static final String KEY_FILE_PWD2 = "coap.clientcert_password";
+    public static final String CERT_FILE_PATH3 = "coap.clientkey_file_path";
+    public static final String DTLS_MODE = "coap.dtls_mode";
+    public static final String CREDENTIALS_DIR = "coap.credentials_dir";
+    public static final String FLEET_FILE = "coap.fleet_file";
+    public static final String FLEET_OFFSET = "coap.fleet_offset";
+    public static final String GENERATOR_INDEX = "coap.generator_index";
+    public static final String GENERATOR_COUNT = "coap.generator_count";
+    public static final String GENERATOR_SNAPSHOT_FILE = "coap.snapshot_file";
+    public static final String DEVICE_INDEX = "coap.device_index";
+    public static final String DEVICE_ENDPOINT = "coap.device_endpoint";
+    public static final String DTLS_HANDSHAKE_TIME = "coap.dtls_handshake_time";
 
     public static final String CONN_CLIENT_ID_PREFIX = "coap.client_id_prefix";
     public static final String CONN_CLIENT_ID_SUFFIX = "coap.client_id_suffix";
@@ -20,7 +32,7 @@ public interface CoAPConstants {
     public static final String PASSWORD_AUTH = "coap.password";
 
     public static final String COAP_MESSAGE_TYPE = "coap.message_type";
-    public static final String METHOD_TYPE = "coap.message_type";
+    public static final String METHOD_TYPE = "coap.method_type";
     public static final String MESSAGE_ID = "coap.message_id";
     public static final String TOKEN = "coap.token";
     public static final String RESOURCE_PATH = "coap.resource_path";
@@ -29,6 +41,9 @@ public interface CoAPConstants {
     public static final String PAYLOAD_FIX_LENGTH = "coap.payload_type_fixed_length";
     public static final String PAYLOAD_TO_BE_SENT = "coap.payload_to_sent";
     public static final String PAYLOAD_SIZE = "coap.payload_size";
+    public static final String CORPUS_FILE = "coap.corpus_file";
+    public static final String CORPUS_SELECTION = "coap.corpus_selection";
+    public static final String CORPUS_INDEX = "coap.corpus_index";
     
     public static final String ADD_TIMESTAMP = "coap.add_timestamp";
     public static final String TIME_STAMP = "coap.time_stamp";
@@ -36,16 +51,72 @@ public interface CoAPConstants {
     
     public static final String SAMPLE_CONDITION_VALUE = "coap.sample_condition_value";
     public static final String SAMPLE_CONDITION = "coap.sample_condition";
+    public static final String SAMPLE_ALIGN_TO_CLOCK = "coap.sample_align_to_clock";
     
     public static final String DEBUG_RESPONSE = "coap.debug_response";
+    public static final String DEBUG_CAPTURE_SIZE = "coap.debug_capture_size";
+    public static final String DEBUG_CAPTURE_MODE = "coap.debug_capture_mode";
+    
+    public static final String LWM2M_OPERATION = "coap.lwm2m_operation";
+    public static final String MODEL_DIRS = "coap.model_dirs";
+    public static final String MODEL_LOAD_TIME = "coap.model_load_time";
+    public static final String PUBLISH_RATE = "coap.publish_rate";
+    public static final String MAX_IN_FLIGHT = "coap.max_in_flight";
+    public static final String REPORT_INTERVAL = "coap.report_interval";
+    public static final String BLOCK_SIZE = "coap.block_size";
+    public static final String BLOCK_FILE = "coap.block_file";
+    public static final String BLOCK_TOTAL_SIZE = "coap.block_total_size";
+    public static final String BLOCK_THROUGHPUT = "coap.block_throughput";
+    public static final String SENSOR_OBJECTS = "coap.sensor_objects";
+    public static final String SENSOR_INTERVAL = "coap.sensor_interval";
+    public static final String NOTIFICATION_RATE = "coap.notification_rate";
+    public static final String COMMUNICATION_PERIOD = "coap.communication_period";
+    public static final String UPDATE_JITTER = "coap.update_jitter";
+    public static final String MISSED_UPDATES = "coap.missed_updates";
+    
+    public static final String LATENCY_MIN = "coap.latency_min";
+    public static final String LATENCY_MAX = "coap.latency_max";
+    public static final String LATENCY_P50 = "coap.latency_p50";
+    public static final String LATENCY_P90 = "coap.latency_p90";
+    public static final String LATENCY_P99 = "coap.latency_p99";
+    public static final String LATENCY_P999 = "coap.latency_p999";
+    public static final String IN_FLIGHT_MEAN = "coap.in_flight_mean";
+    public static final String IN_FLIGHT_MAX = "coap.in_flight_max";
     
     public static final String PAYLOAD_TYPE_RANDOM_STR_WITH_FIX_LEN = "Random string with fixed length";
     public static final String PAYLOAD_TYPE_HEX_STRING = "Hex string";
     public static final String PAYLOAD_TYPE_STRING = "String";
+    public static final String PAYLOAD_TYPE_CORPUS = "Corpus file";
+    
+    public static final String CORPUS_ROUND_ROBIN = "Round robin";
+    public static final String CORPUS_RANDOM = "Random";
+    public static final String CORPUS_BY_INDEX = "By index";
+    
+    public static final String LWM2M_OPERATION_REGISTER_DEREGISTER = "Register and deregister per sample";
+    public static final String LWM2M_OPERATION_REGISTER = "Register";
+    public static final String LWM2M_OPERATION_UPDATE = "Update";
+    public static final String LWM2M_OPERATION_DEREGISTER = "Deregister";
+    public static final String OPERATION_PUBLISH = "Publish";
+    public static final String OPERATION_PUBLISH_AT_RATE = "Publish at constant rate";
+    public static final String OPERATION_PUBLISH_PIPELINED = "Publish pipelined";
+    public static final String OPERATION_BLOCK_UPLOAD = "Block-wise upload";
+    public static final String OPERATION_BLOCK_DOWNLOAD = "Block-wise download";
+    public static final String OPERATION_NOTIFY = "Register and notify";
+    public static final String OPERATION_KEEP_REGISTERED = "Register and keep updating";
     
     public static final String SAMPLE_ON_CONDITION_OPTION1 = "elapsed with specified time (ms)";
     public static final String SAMPLE_ON_CONDITION_OPTION2 = "number of received messages";
     
+    public static final String PROTOCOL_UDP = "UDP";
+    public static final String PROTOCOL_DTLS = "UDP + DTLS";
+    
+    public static final String DTLS_MODE_PSK = "PSK";
+    public static final String DTLS_MODE_RPK = "RPK";
+    public static final String DTLS_MODE_X509 = "X.509";
+    
+    public static final String DEBUG_CAPTURE_FIRST = "first";
+    public static final String DEBUG_CAPTURE_LAST = "last";
+    
     public static final int MAX_CLIENT_ID_LENGTH = 23;
     
     public static final String DEFAULT_SERVER = "localhost";
@@ -53,7 +124,14 @@ public interface CoAPConstants {
     public static final String DEFAULT_LIFT_TIME = "10000";
     public static final String DEFAULT_ENDPOINT = "SYD";
     public static final String DEFAULT_CONN_TIME_OUT = "10";
-    public static final String DEFAULT_PROTOCOL = "UDP";
+    public static final String DEFAULT_ENDPOINT_POOL_SIZE = "0";
+    public static final String DEFAULT_PROTOCOL = PROTOCOL_UDP;
+    public static final String DEFAULT_DTLS_MODE = DTLS_MODE_PSK;
+    public static final String DEFAULT_FLEET_FILE = "";
+    public static final String DEFAULT_FLEET_OFFSET = "0";
+    public static final String DEFAULT_GENERATOR_INDEX = "0";
+    public static final String DEFAULT_GENERATOR_COUNT = "0";
+    public static final String DEFAULT_GENERATOR_SNAPSHOT_FILE = "snapshot.txt";
     
     public static final String DEFAULT_USERNAME = "coap_user";
     public static final String DEFAULT_PASSWORD = "coap_secret";
@@ -75,8 +153,26 @@ public interface CoAPConstants {
     public static final String DEFAULT_SAMPLE_VALUE_ELAPSED_TIME_SEC = "1000";
     
     public static final boolean DEFAULT_ADD_TIMESTAMP = false;
+    public static final String DEFAULT_DEBUG_CAPTURE_SIZE = "100";
+    public static final String DEFAULT_DEBUG_CAPTURE_MODE = DEBUG_CAPTURE_LAST;
     public static final String DEFAULT_PAYLOAD_FIX_LENGTH = "1024";
+    public static final String DEFAULT_CORPUS_FILE = "";
+    public static final String DEFAULT_CORPUS_SELECTION = CORPUS_ROUND_ROBIN;
+    public static final String DEFAULT_CORPUS_INDEX = "0";
     
     public static final boolean DEFAULT_ADD_CLIENT_ID_SUFFIX = true;
+    
+    public static final String DEFAULT_LWM2M_OPERATION = LWM2M_OPERATION_REGISTER_DEREGISTER;
+    public static final String DEFAULT_MODEL_DIRS = "";
+    public static final String DEFAULT_PUBLISH_RATE = "10";
+    public static final String DEFAULT_MAX_IN_FLIGHT = "100";
+    public static final String DEFAULT_REPORT_INTERVAL = "1000";
+    public static final String DEFAULT_BLOCK_SIZE = "1024";
+    public static final String DEFAULT_BLOCK_FILE = "";
+    public static final String DEFAULT_BLOCK_TOTAL_SIZE = "65536";
+    public static final String DEFAULT_SENSOR_OBJECTS = "3303,7";
+    public static final String DEFAULT_SENSOR_INTERVAL = "10000";
+    public static final String DEFAULT_COMMUNICATION_PERIOD = "30000";
+    public static final String DEFAULT_UPDATE_JITTER = "10";
 
 }
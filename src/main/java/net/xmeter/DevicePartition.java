@@ -0,0 +1,73 @@
+package net.xmeter;
+
+import java.io.File;
+
+/**
+ * Splits the device space of a test among several load generator processes. Device n of
+ * generator k out of count is the global device offset + n * count + k, so the generators never
+ * simulate the same device and every run simulates the same devices, however many each generator
+ * starts. Without generators (count 0) device n is offset + n, as with a single JMeter instance.
+ * <p>
+ * The global device number selects the fleet entry and, without fleet, replaces the random client
+ * id suffix.
+ */
+public class DevicePartition {
+    private final long offset;
+    private final int index;
+    private final int count;
+
+    /**
+     * @param offset global number of device 0 of generator 0.
+     * @param index index of this generator, from 0.
+     * @param count number of generators, 0 for no partitioning.
+     */
+    public DevicePartition(long offset, int index, int count) {
+        if (count < 0 || (count > 0 && (index < 0 || index >= count))) {
+            throw new IllegalArgumentException("Generator index " + index + " is not within the " + count + " generators.");
+        }
+        this.offset = offset;
+        this.index = index;
+        this.count = count;
+    }
+
+    public boolean isPartitioned() {
+        return count > 0;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the file, with the generator index added before the extension when the devices are
+     *         partitioned, e.g. histogram-2.txt, so that the generators of one test can share a directory.
+     */
+    public File getGeneratorFile(String name) {
+        File file = new File(name);
+        if (!isPartitioned()) {
+            return file;
+        }
+        String fileName = file.getName();
+        int dot = fileName.lastIndexOf('.');
+        String indexed = dot > 0 ? fileName.substring(0, dot) + "-" + index + fileName.substring(dot) : fileName + "-" + index;
+        return new File(file.getParentFile(), indexed);
+    }
+
+    /**
+     * @param localDevice number of the device within this generator, e.g. the JMeter thread number.
+     */
+    public long getDevice(long localDevice) {
+        if (count == 0) {
+            return offset + localDevice;
+        }
+        return offset + localDevice * count + index;
+    }
+}
@@ -0,0 +1,58 @@
+package net.xmeter;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The device ranges of the thread groups of one test. Thread N of a group simulates device N of
+ * the partition of its sampler, whose offset is the first device configured for the group, so the
+ * range of a group depends on the test plan only and never on the order its threads start in.
+ * A group of T threads covers T devices, T * count of the global device space with count
+ * generators, and the ranges of different groups must not overlap.
+ */
+public class GroupDeviceRanges {
+    private final Map<Object, Range> ranges = new IdentityHashMap<>();
+
+    private static class Range {
+        final String name;
+        final long first;
+        final long end;
+
+        Range(String name, long first, long end) {
+            this.name = name;
+            this.first = first;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Adds the range of a group, again for every thread of it.
+     * @param group the thread group, compared by identity.
+     * @throws IllegalArgumentException if the range overlaps that of another group, or the group
+     *         was registered with another first device before.
+     */
+    public synchronized void register(Object group, String name, DevicePartition partition, int threads) {
+        long first = partition.getOffset();
+        long end = first + (long) threads * Math.max(partition.getCount(), 1);
+        Range registered = ranges.get(group);
+        if (registered != null) {
+            if (registered.first != first || registered.end != end) {
+                throw new IllegalArgumentException("The samplers of thread group " + name + " use different first devices, "
+                        + registered.first + " and " + first + ".");
+            }
+            return;
+        }
+        for (Range other : ranges.values()) {
+            if (first < other.end && other.first < end) {
+                throw new IllegalArgumentException("The devices " + first + " to " + (end - 1) + " of thread group " + name
+                        + " overlap the devices " + other.first + " to " + (other.end - 1) + " of thread group " + other.name
+                        + ", give each thread group its own first device.");
+            }
+        }
+        ranges.put(group, new Range(name, first, end));
+    }
+
+    public synchronized void clear() {
+        ranges.clear();
+    }
+}
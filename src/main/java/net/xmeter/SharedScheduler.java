@@ -0,0 +1,77 @@
+package net.xmeter;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One timer thread shared by all samplers of the JVM for periodic, short signalling tasks
+ * (e.g. closing subscriber windows), instead of a sleeping thread per JMeter thread.
+ * Tasks must not block. The timer is reference counted, the last {@link #release()} stops it.
+ */
+public class SharedScheduler {
+    private transient static Logger logger = LoggerFactory.getLogger(SharedScheduler.class.getName());
+
+    private static ScheduledThreadPoolExecutor executor;
+    private static int references = 0;
+
+    private SharedScheduler() {
+    }
+
+    public static synchronized void acquire() {
+        if (executor == null) {
+            executor = new ScheduledThreadPoolExecutor(1, Util.newThreadFactory("coap-shared-timer"));
+            executor.setRemoveOnCancelPolicy(true);
+            executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            logger.info("Started the shared timer.");
+        }
+        references++;
+    }
+
+    public static synchronized void release() {
+        if (executor == null) {
+            return;
+        }
+        references--;
+        if (references <= 0) {
+            executor.shutdownNow();
+            executor = null;
+            references = 0;
+            logger.info("Stopped the shared timer.");
+        }
+    }
+
+    /**
+     * Runs the task every periodMillis. With alignToClock the first run happens at the next
+     * multiple of the period in wall-clock time, so that threads and load generators with the
+     * same period close their windows at the same instants.
+     */
+    public static synchronized ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long periodMillis, boolean alignToClock) {
+        if (executor == null) {
+            throw new IllegalStateException("The shared timer is not started.");
+        }
+        long initialDelay = alignToClock ? alignedDelay(System.currentTimeMillis(), periodMillis) : periodMillis;
+        return executor.scheduleAtFixedRate(task, initialDelay, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs the task every periodMillis, the first time after initialDelayMillis. A random initial
+     * delay spreads tasks of the same period (e.g. one per device) over the whole period.
+     */
+    public static synchronized ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long initialDelayMillis, long periodMillis) {
+        if (executor == null) {
+            throw new IllegalStateException("The shared timer is not started.");
+        }
+        return executor.scheduleAtFixedRate(task, initialDelayMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return milliseconds from now until the next multiple of the period.
+     */
+    public static long alignedDelay(long nowMillis, long periodMillis) {
+        return periodMillis - (nowMillis % periodMillis);
+    }
+}
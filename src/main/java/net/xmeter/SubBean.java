@@ -1,44 +1,103 @@
 package net.xmeter;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import net.xmeter.stats.LatencyHistogram;
+import net.xmeter.stats.PayloadCapture;
+
+/**
+ * Messages received by a subscriber within one sample. Updated concurrently by the
+ * receiving threads without locking, see {@link SubBeanWindow}.
+ */
 public class SubBean {
-	private int receivedMessageSize = 0;
-	private int receivedCount = 0;
-	private double avgElapsedTime = 0f;
+	private final AtomicInteger receivedMessageSize = new AtomicInteger();
+	private final AtomicInteger receivedCount = new AtomicInteger();
+	private final AtomicInteger claimedCount = new AtomicInteger();
+	private final LatencyHistogram latencies;
+
+	private final PayloadCapture capture;
+
+	public SubBean() {
+		this(null);
+	}
 
-	private List<String> contents = new ArrayList<String>();
+	/**
+	 * @param capture where to keep received payloads for debugging, or null to keep none.
+	 */
+	public SubBean(PayloadCapture capture) {
+		this(new LatencyHistogram(), capture);
+	}
+
+	/**
+	 * @param latencies an empty histogram to record into, e.g. one recycled by {@link SubBeanWindow}.
+	 * @param capture where to keep received payloads for debugging, or null to keep none.
+	 */
+	public SubBean(LatencyHistogram latencies, PayloadCapture capture) {
+		this.latencies = latencies;
+		this.capture = capture;
+	}
 
 	public int getReceivedMessageSize() {
-		return receivedMessageSize;
+		return receivedMessageSize.get();
 	}
 
 	public void setReceivedMessageSize(int receivedMessageSize) {
-		this.receivedMessageSize = receivedMessageSize;
+		this.receivedMessageSize.set(receivedMessageSize);
+	}
+
+	public void addReceivedMessageSize(int size) {
+		receivedMessageSize.addAndGet(size);
 	}
 
 	public int getReceivedCount() {
-		return receivedCount;
+		return receivedCount.get();
 	}
 
 	public void setReceivedCount(int receivedCount) {
-		this.receivedCount = receivedCount;
+		this.receivedCount.set(receivedCount);
+	}
+
+	/**
+	 * Marks one message as fully accounted in this bean.
+	 * @return the number of accounted messages including this one.
+	 */
+	public int incrementReceivedCount() {
+		return receivedCount.incrementAndGet();
+	}
+
+	/**
+	 * Reserves a slot for a message that is about to be accounted in this bean.
+	 * @return the number of reserved slots including this one.
+	 */
+	public int claim() {
+		return claimedCount.incrementAndGet();
 	}
 
-	public double getAvgElapsedTime() {
-		return avgElapsedTime;
+	/**
+	 * Gives back a slot reserved with {@link #claim()} without accounting a message in it.
+	 */
+	public void unclaim() {
+		claimedCount.decrementAndGet();
 	}
 
-	public void setAvgElapsedTime(double avgElapsedTime) {
-		this.avgElapsedTime = avgElapsedTime;
+	/**
+	 * @return true when every reserved slot has been accounted.
+	 */
+	public boolean isSettled() {
+		return claimedCount.get() == receivedCount.get();
 	}
 
-	public List<String> getContents() {
-		return contents;
+	/**
+	 * @return publish to receive latency of the messages in this batch, in nanoseconds.
+	 */
+	public LatencyHistogram getLatencies() {
+		return latencies;
 	}
 
-	public void setContents(List<String> contents) {
-		this.contents = contents;
+	/**
+	 * @return the captured payloads, or null if capturing is off.
+	 */
+	public PayloadCapture getCapture() {
+		return capture;
 	}
 }
@@ -0,0 +1,149 @@
+package net.xmeter;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.xmeter.stats.LatencyHistogram;
+import net.xmeter.stats.PayloadCapture;
+
+/**
+ * Lock-free accounting of received messages for one subscriber.
+ * <p>
+ * Receiving threads always write into the current {@link SubBean}, which is swapped atomically:
+ * in count mode by the thread that fills the last slot of the batch, in time mode by the sampler
+ * when the window elapses. The cost per message is constant and receiving threads never wait
+ * for the sampler thread.
+ * <p>
+ * The latency histogram of a bean is the only large part of it. Beans handed to the sampler are
+ * given back with {@link #recycle(SubBean)} once reported, and their histogram is reused by a later
+ * bean, so that even one bean per message does not allocate a histogram per message.
+ */
+public class SubBeanWindow {
+    /** Histograms kept for reuse, the current bean, one being reported and a few queued batches. */
+    private static final int SPARE_HISTOGRAMS = 4;
+
+    private final int batchSize;
+    private final int captureSize;
+    private final boolean captureLast;
+    private final AtomicReference<SubBean> current;
+    private final ConcurrentLinkedQueue<SubBean> completed = new ConcurrentLinkedQueue<SubBean>();
+    private final Semaphore completedSignal = new Semaphore(0);
+    private final ArrayBlockingQueue<LatencyHistogram> spareHistograms = new ArrayBlockingQueue<LatencyHistogram>(SPARE_HISTOGRAMS);
+
+    /**
+     * @param batchSize messages per batch, or 0 to let the sampler close windows by time.
+     */
+    public SubBeanWindow(int batchSize) {
+        this(batchSize, 0, false);
+    }
+
+    /**
+     * @param batchSize messages per batch, or 0 to let the sampler close windows by time.
+     * @param captureSize payloads to keep per batch for debugging, 0 to keep none.
+     * @param captureLast keep the last payloads of a batch instead of the first ones.
+     */
+    public SubBeanWindow(int batchSize, int captureSize, boolean captureLast) {
+        this.batchSize = batchSize;
+        this.captureSize = captureSize;
+        this.captureLast = captureLast;
+        this.current = new AtomicReference<SubBean>(newBean());
+    }
+
+    private SubBean newBean() {
+        LatencyHistogram latencies = spareHistograms.poll();
+        return new SubBean(latencies != null ? latencies : new LatencyHistogram(),
+                captureSize > 0 ? new PayloadCapture(captureSize, captureLast) : null);
+    }
+
+    /**
+     * Gives back a bean returned by {@link #awaitBatch()}, {@link #awaitWindow()} or {@link #rotate()}
+     * once it has been reported, its histogram is reset and reused. The bean must not be read
+     * afterwards.
+     */
+    public void recycle(SubBean bean) {
+        LatencyHistogram latencies = bean.getLatencies();
+        latencies.reset();
+        spareHistograms.offer(latencies);
+    }
+
+    /**
+     * Reserves a slot in the current bean. The caller records its message into the returned bean
+     * and then calls {@link #complete(SubBean)}.
+     */
+    public SubBean claim() {
+        while (true) {
+            SubBean bean = current.get();
+            int slot = bean.claim();
+            if (batchSize <= 0) {
+                if (current.get() == bean) {
+                    // Claimed before any rotation took the bean, the rotation waits for this message.
+                    return bean;
+                }
+                // Rotated between reading and claiming, the window may be reported already.
+                bean.unclaim();
+                continue;
+            }
+            if (slot < batchSize) {
+                return bean;
+            }
+            if (slot == batchSize) {
+                // This message fills the batch, later messages go to a fresh bean.
+                current.compareAndSet(bean, newBean());
+                return bean;
+            }
+            // Batch already full and about to be swapped by the thread that filled it.
+            Thread.yield();
+        }
+    }
+
+    public void complete(SubBean bean) {
+        int count = bean.incrementReceivedCount();
+        if (batchSize > 0 && count == batchSize) {
+            completed.add(bean);
+            completedSignal.release();
+        }
+    }
+
+    /**
+     * Count mode, blocks until a full batch is available.
+     * @return the batch, or null if no batch was completed (e.g. interrupted by {@link #wakeUp()}).
+     */
+    public SubBean awaitBatch() throws InterruptedException {
+        completedSignal.acquire();
+        return completed.poll();
+    }
+
+    /**
+     * Wakes up a sampler thread blocked in {@link #awaitBatch()} without a batch, or closes the
+     * window of a sampler blocked in {@link #awaitWindow()}.
+     */
+    public void wakeUp() {
+        completedSignal.release();
+    }
+
+    /**
+     * Time mode, blocks until the window timer calls {@link #wakeUp()} and then closes the window.
+     * Signals that piled up while the sampler was busy are collapsed into one window.
+     * @return the closed window.
+     */
+    public SubBean awaitWindow() throws InterruptedException {
+        completedSignal.acquire();
+        completedSignal.drainPermits();
+        return rotate();
+    }
+
+    /**
+     * Time mode, closes the current window and starts a new one.
+     * @return the closed window.
+     */
+    public SubBean rotate() {
+        SubBean bean = current.getAndSet(newBean());
+        // Let receivers that already reserved a slot finish their update.
+        while (!bean.isSettled()) {
+            Thread.yield();
+        }
+        return bean;
+    }
+}
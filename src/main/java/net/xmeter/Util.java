@@ -1,40 +1,46 @@
 package net.xmeter;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStream;
-import java.security.KeyStore;
 import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
+import java.util.Arrays;
 import java.util.UUID;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
-import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
-import org.apache.http.ssl.SSLContexts;
 import org.apache.jmeter.services.FileServer;
 //import org.apache.jorphan.logging.LoggingManager;
 //import org.apache.log.Logger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import net.xmeter.coap.CredentialRegistry;
 import net.xmeter.samplers.AbstractCoAPSampler;
 
 public class Util implements CoAPConstants {
 	
-	private static SecureRandom random = new SecureRandom();
-    private static char[] seeds = "abcdefghijklmnopqrstuvwxmy0123456789".toCharArray();
+    private static char[] seeds = "abcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+    private static final String BASE64_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
     //private transient static Logger logger = LoggingManager.getLoggerForClass();
     private transient static Logger logger = LoggerFactory.getLogger(Util.class.getName());
 
+	/**
+	 * @return the prefix followed by random characters up to {@link #MAX_CLIENT_ID_LENGTH}, the
+	 *         prefix alone if it is that long already.
+	 */
 	public static String generateClientId(String prefix) {
-		int leng = prefix.length();
-		int postLeng = MAX_CLIENT_ID_LENGTH - leng;
+		int postLeng = Math.max(0, MAX_CLIENT_ID_LENGTH - prefix.length());
+		if (postLeng == 0) {
+			return prefix;
+		}
 		UUID uuid = UUID.randomUUID();
 		String string = uuid.toString().replace("-", "");
-		String post = string.substring(0, postLeng);
+		String post = string.substring(0, Math.min(postLeng, string.length()));
 		return prefix + post;
 	}
 
@@ -55,56 +61,114 @@ public class Util implements CoAPConstants {
 
 			return sslContext;
 		} else {
-			logger.info("Configured with dual SSL, trying to load key files.");
-			String KEYSTORE_PASS = sampler.getKeyStorePassword();
-			String CLIENTCERT_PASS = sampler.getClientCertPassword();
-
-			String baseDir = FileServer.getFileServer().getBaseDir();
-			if(baseDir != null && (!baseDir.endsWith("/"))) {
-				baseDir += "/";
-			}
-			String file1 = sampler.getKeyStoreFilePath();
-			
-			File theFile1 = new File(file1);
-			if(!theFile1.exists()) {
-				file1 = baseDir + file1;
-				theFile1 = new File(file1);
-				if(!theFile1.exists()) {
-					throw new RuntimeException("Cannot find file : " + sampler.getKeyStoreFilePath());
-				}
-			}
-			
-			String file2 = sampler.getClientCertFilePath();
-			File theFile2 = new File(file2);
-			if(!theFile2.exists()) {
-				file2 = baseDir + file2;
-				theFile2 = new File(file2);
-				if(!theFile2.exists()) {
-					throw new RuntimeException("Cannot find file : " + sampler.getClientCertFilePath());
-				}
-			}
-			
-			try(InputStream is_cacert = new FileInputStream(theFile1); InputStream is_client = new FileInputStream(theFile2)) {
-				KeyStore tks = KeyStore.getInstance(KeyStore.getDefaultType()); // jks
-				tks.load(is_cacert, KEYSTORE_PASS.toCharArray());
-
-				KeyStore cks = KeyStore.getInstance("PKCS12");
-				cks.load(is_client, CLIENTCERT_PASS.toCharArray());
+			// Key stores are decoded once per path and password, not once per thread.
+			return CredentialRegistry.getSslContext(sampler.getKeyStoreFilePath(), sampler.getKeyStorePassword(),
+					sampler.getClientCertFilePath(), sampler.getClientCertPassword());
+		}
+	}
+	
+	/**
+	 * @return a factory for daemon threads named prefix-1, prefix-2, ...
+	 */
+	public static ThreadFactory newThreadFactory(final String prefix) {
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
 
-				SSLContext sslContext = SSLContexts.custom().loadTrustMaterial(tks, new TrustSelfSignedStrategy()) // use it to customize
-						.loadKeyMaterial(cks, CLIENTCERT_PASS.toCharArray()) // load client certificate
-						.build();
-				return sslContext;
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
 			}
+		};
+	}
+	
+	/**
+	 * Resolves the path as is, or relative to the base directory of the test plan.
+	 * @return the existing file, or null if it cannot be found.
+	 */
+	public static File resolveFile(String path) {
+		File file = new File(path);
+		if(file.exists()) {
+			return file;
+		}
+		String baseDir = FileServer.getFileServer().getBaseDir();
+		if(baseDir != null && (!baseDir.endsWith("/"))) {
+			baseDir += "/";
 		}
+		file = new File(baseDir + path);
+		if(file.exists()) {
+			return file;
+		}
+		return null;
 	}
 	
+	/**
+	 * Generates a single random payload, use {@link net.xmeter.payload.PayloadPool} on hot paths.
+	 */
 	public static String generatePayload(int size) {
-		StringBuffer res = new StringBuffer();
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		char[] res = new char[size];
 		for(int i = 0; i < size; i++) {
-			res.append(seeds[random.nextInt(seeds.length - 1)]);
+			res[i] = seeds[random.nextInt(seeds.length)];
+		}
+		return new String(res);
+	}
+	
+	/**
+	 * Decodes hex digits, e.g. a PSK or a payload, without javax.xml.bind which is gone from Java 11.
+	 * @throws IllegalArgumentException if the length is odd or a character is not a hex digit.
+	 */
+	public static byte[] parseHex(String hex) {
+		if (hex.length() % 2 != 0) {
+			throw new IllegalArgumentException("Hex string needs an even number of digits: " + hex);
+		}
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			int high = Character.digit(hex.charAt(2 * i), 16);
+			int low = Character.digit(hex.charAt(2 * i + 1), 16);
+			if (high < 0 || low < 0) {
+				throw new IllegalArgumentException("Not a hex string: " + hex);
+			}
+			bytes[i] = (byte) ((high << 4) | low);
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Decodes standard Base64 as found in PEM files, whitespace is skipped.
+	 * @throws IllegalArgumentException if a character is not Base64 or the padding is wrong.
+	 */
+	public static byte[] parseBase64(String base64) {
+		byte[] bytes = new byte[base64.length() * 3 / 4];
+		int length = 0;
+		int bits = 0;
+		int buffer = 0;
+		int padding = 0;
+		for (int i = 0; i < base64.length(); i++) {
+			char c = base64.charAt(i);
+			if (Character.isWhitespace(c)) {
+				continue;
+			}
+			if (c == '=') {
+				padding++;
+				continue;
+			}
+			int value = BASE64_ALPHABET.indexOf(c);
+			if (value < 0 || padding > 0) {
+				throw new IllegalArgumentException("Not a Base64 string at position " + i + ".");
+			}
+			buffer = (buffer << 6) | value;
+			bits += 6;
+			if (bits >= 8) {
+				bits -= 8;
+				bytes[length++] = (byte) (buffer >> bits);
+			}
+		}
+		if (padding > 2 || bits >= 6) {
+			throw new IllegalArgumentException("Invalid Base64 padding.");
 		}
-		return res.toString();
+		return length == bytes.length ? bytes : Arrays.copyOf(bytes, length);
 	}
     
 }
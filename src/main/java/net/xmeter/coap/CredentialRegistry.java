@@ -0,0 +1,324 @@
+package net.xmeter.coap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
+import org.apache.http.ssl.SSLContexts;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.xmeter.CoAPConstants;
+import net.xmeter.Util;
+
+/**
+ * Process-wide cache of key material.
+ * Every key store or key file is read, decoded and validated once per path and password, and the
+ * resulting immutable material is shared by every sampler thread. A failed load is cached as well,
+ * so a bad path fails every thread fast instead of hitting the disk again. Paths are resolved once
+ * as well, and passwords only enter the cache keys as digests.
+ * <p>
+ * Per-device credentials live in a directory and are only read when a device asks for them:
+ * <ul>
+ * <li>PSK, &lt;device&gt;.psk holding the key in hex, the device name is the identity.</li>
+ * <li>RPK and X.509, &lt;device&gt;.p12 opened with the directory password, or &lt;device&gt;.crt (or .pem)
+ * plus the PKCS8 key &lt;device&gt;.key.</li>
+ * </ul>
+ */
+public class CredentialRegistry implements CoAPConstants {
+    private transient static Logger logger = LoggerFactory.getLogger(CredentialRegistry.class.getName());
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final ConcurrentMap<String, Holder<X509Certificate[]>> trusts = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Holder<Identity>> identities = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Holder<SSLContext>> sslContexts = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Holder<DtlsCredentials>> devices = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, String> canonicalPaths = new ConcurrentHashMap<>();
+
+    private CredentialRegistry() {
+    }
+
+    /**
+     * @return the trusted certificates of the key store or certificate file, loaded once.
+     */
+    public static X509Certificate[] getTrustedCertificates(final String path, final String password)
+            throws IOException, GeneralSecurityException {
+        X509Certificate[] certificates = holder(trusts, key(path, password), new Loader<X509Certificate[]>() {
+            @Override
+            public X509Certificate[] load() throws IOException, GeneralSecurityException {
+                X509Certificate[] loaded = DtlsCredentials.loadCertificates(path, password);
+                for (X509Certificate certificate : loaded) {
+                    checkValidity(certificate, path);
+                }
+                return loaded;
+            }
+        }, path).get();
+        return certificates.clone();
+    }
+
+    /**
+     * @param certPath PKCS12 key store, or certificate file when the key comes from keyPath.
+     * @return the private key and certificate chain, loaded and checked to belong together once.
+     */
+    static Identity getIdentity(final String certPath, final String certPassword, final String keyPath)
+            throws IOException, GeneralSecurityException {
+        String key = key(certPath, certPassword) + '\u0000' + (DtlsCredentials.isKeyStore(certPath) ? "" : canonical(keyPath));
+        return holder(identities, key, new Loader<Identity>() {
+            @Override
+            public Identity load() throws IOException, GeneralSecurityException {
+                return loadIdentity(certPath, certPassword, keyPath);
+            }
+        }, certPath).get();
+    }
+
+    /**
+     * @return TLS context trusting the key store and authenticating with the PKCS12 client store, built once.
+     */
+    public static SSLContext getSslContext(final String keyStorePath, final String keyStorePassword,
+            final String clientCertPath, final String clientCertPassword) throws IOException, GeneralSecurityException {
+        String key = key(keyStorePath, keyStorePassword) + '\u0000' + key(clientCertPath, clientCertPassword);
+        return holder(sslContexts, key, new Loader<SSLContext>() {
+            @Override
+            public SSLContext load() throws IOException, GeneralSecurityException {
+                KeyStore tks = DtlsCredentials.loadKeyStore(keyStorePath, keyStorePassword);
+                KeyStore cks = KeyStore.getInstance("PKCS12");
+                try (InputStream in = new FileInputStream(resolve(clientCertPath))) {
+                    cks.load(in, clientCertPassword.toCharArray());
+                }
+                return SSLContexts.custom().loadTrustMaterial(tks, new TrustSelfSignedStrategy())
+                        .loadKeyMaterial(cks, clientCertPassword.toCharArray()).build();
+            }
+        }, keyStorePath).get();
+    }
+
+    /**
+     * Looks up the credentials of one device in the directory, reading its files on first use only.
+     * @param trusted certificates trusted by every device of the directory, may be empty for PSK and RPK.
+     */
+    public static DtlsCredentials getDeviceCredentials(final String dir, final String password, final String mode,
+            final X509Certificate[] trusted, final String device) throws IOException, GeneralSecurityException {
+        String key = key(dir, password) + '\u0000' + mode + '\u0000' + device;
+        return holder(devices, key, new Loader<DtlsCredentials>() {
+            @Override
+            public DtlsCredentials load() throws IOException, GeneralSecurityException {
+                File directory = resolve(dir);
+                if (DTLS_MODE_PSK.equals(mode)) {
+                    File file = new File(directory, device + ".psk");
+                    if (!file.isFile()) {
+                        throw new IOException("Cannot find file : " + file.getPath());
+                    }
+                    String hex = new String(Files.readAllBytes(file.toPath()), UTF_8).trim();
+                    try {
+                        return DtlsCredentials.psk(device, Util.parseHex(hex));
+                    } catch (IllegalArgumentException e) {
+                        throw new GeneralSecurityException(file.getPath() + " does not hold a hex key.", e);
+                    }
+                }
+                Identity identity;
+                File store = new File(directory, device + ".p12");
+                if (store.isFile()) {
+                    identity = loadIdentity(store.getPath(), password, null);
+                } else {
+                    File cert = new File(directory, device + ".crt");
+                    if (!cert.isFile()) {
+                        cert = new File(directory, device + ".pem");
+                    }
+                    identity = loadIdentity(cert.getPath(), null, new File(directory, device + ".key").getPath());
+                }
+                return DtlsCredentials.of(mode, identity, trusted);
+            }
+        }, dir + "/" + device).get();
+    }
+
+    /**
+     * Drops all cached material and resolved paths, e.g. after key files were replaced between two test runs.
+     */
+    public static void clear() {
+        trusts.clear();
+        identities.clear();
+        sslContexts.clear();
+        devices.clear();
+        canonicalPaths.clear();
+    }
+
+    private static Identity loadIdentity(String certPath, String certPassword, String keyPath)
+            throws IOException, GeneralSecurityException {
+        PrivateKey privateKey;
+        X509Certificate[] chain;
+        if (DtlsCredentials.isKeyStore(certPath)) {
+            KeyStore store = DtlsCredentials.loadKeyStore(certPath, certPassword);
+            String alias = DtlsCredentials.findKeyAlias(store);
+            privateKey = (PrivateKey) store.getKey(alias, certPassword == null ? null : certPassword.toCharArray());
+            chain = DtlsCredentials.toX509(store.getCertificateChain(alias));
+        } else {
+            chain = DtlsCredentials.loadCertificates(certPath, null);
+            privateKey = DtlsCredentials.loadPrivateKey(keyPath);
+        }
+        if (chain.length == 0) {
+            throw new GeneralSecurityException("No client certificate found in " + certPath);
+        }
+        checkValidity(chain[0], certPath);
+        checkKeyPair(privateKey, chain[0], certPath);
+        return new Identity(privateKey, chain);
+    }
+
+    private static void checkValidity(X509Certificate certificate, String path) {
+        try {
+            certificate.checkValidity();
+        } catch (CertificateException e) {
+            // Test beds often run on expired certificates, the server decides.
+            logger.warn("Certificate {} in {} is not valid now: {}", certificate.getSubjectX500Principal(), path, e.getMessage());
+        }
+    }
+
+    /**
+     * Signs a probe with the private key and verifies it with the certificate, so a key that does
+     * not belong to the certificate fails at load time instead of in every handshake.
+     */
+    private static void checkKeyPair(PrivateKey privateKey, X509Certificate certificate, String path)
+            throws GeneralSecurityException {
+        String algorithm = "EC".equals(privateKey.getAlgorithm()) ? "SHA256withECDSA" : "SHA256with" + privateKey.getAlgorithm();
+        byte[] probe = path.getBytes(UTF_8);
+        Signature signer = Signature.getInstance(algorithm);
+        signer.initSign(privateKey);
+        signer.update(probe);
+        byte[] signature = signer.sign();
+        Signature verifier = Signature.getInstance(algorithm);
+        verifier.initVerify(certificate.getPublicKey());
+        verifier.update(probe);
+        if (!verifier.verify(signature)) {
+            throw new GeneralSecurityException("The private key does not match the certificate in " + path);
+        }
+    }
+
+    private static String key(String path, String password) throws IOException {
+        return canonical(path) + '\u0000' + digest(password);
+    }
+
+    /**
+     * @return the canonical path of the file, looked up on the file system once per path.
+     */
+    private static String canonical(String path) throws IOException {
+        String canonical = path == null ? null : canonicalPaths.get(path);
+        if (canonical == null) {
+            canonical = resolve(path).getCanonicalPath();
+            canonicalPaths.put(path, canonical);
+        }
+        return canonical;
+    }
+
+    /**
+     * @return the SHA-256 digest of the password in hex, so that no password is kept in a cache key.
+     */
+    private static String digest(String password) {
+        if (password == null) {
+            return "";
+        }
+        try {
+            return new BigInteger(1, MessageDigest.getInstance("SHA-256").digest(password.getBytes(UTF_8))).toString(16);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+
+    private static File resolve(String path) throws IOException {
+        File file = path == null ? null : Util.resolveFile(path);
+        if (file == null) {
+            throw new IOException("Cannot find file : " + path);
+        }
+        return file;
+    }
+
+    private static <T> Holder<T> holder(ConcurrentMap<String, Holder<T>> holders, String key, Loader<T> loader, String name) {
+        Holder<T> holder = holders.get(key);
+        if (holder == null) {
+            Holder<T> created = new Holder<T>(loader, name);
+            holder = holders.putIfAbsent(key, created);
+            if (holder == null) {
+                holder = created;
+            }
+        }
+        return holder;
+    }
+
+    /**
+     * Private key and certificate chain of a client, shared read-only.
+     */
+    static class Identity {
+        final PrivateKey privateKey;
+        final X509Certificate[] chain;
+
+        Identity(PrivateKey privateKey, X509Certificate[] chain) {
+            this.privateKey = privateKey;
+            this.chain = chain;
+        }
+    }
+
+    private interface Loader<T> {
+        T load() throws IOException, GeneralSecurityException;
+    }
+
+    private static class Holder<T> {
+        private final String name;
+        private Loader<T> loader;
+        private volatile T value;
+        private volatile Exception failure;
+
+        Holder(Loader<T> loader, String name) {
+            this.loader = loader;
+            this.name = name;
+        }
+
+        T get() throws IOException, GeneralSecurityException {
+            T result = value;
+            if (result == null) {
+                synchronized (this) {
+                    result = value;
+                    if (result == null && failure == null) {
+                        long start = System.nanoTime();
+                        try {
+                            result = loader.load();
+                            value = result;
+                            logger.info("Loaded key material {} in {} ms.", name, (System.nanoTime() - start) / 1000000);
+                        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+                            failure = e;
+                            logger.error("Failed to load key material " + name + ": " + e.getMessage());
+                        }
+                        loader = null;
+                    }
+                }
+                if (result == null) {
+                    rethrow(failure);
+                }
+            }
+            return result;
+        }
+
+        private static void rethrow(Exception e) throws IOException, GeneralSecurityException {
+            if (e instanceof IOException) {
+                throw (IOException) e;
+            }
+            if (e instanceof GeneralSecurityException) {
+                throw (GeneralSecurityException) e;
+            }
+            throw (RuntimeException) e;
+        }
+    }
+}
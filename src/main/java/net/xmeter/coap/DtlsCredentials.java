@@ -0,0 +1,241 @@
+package net.xmeter.coap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.List;
+
+import org.eclipse.californium.scandium.config.DtlsConnectorConfig;
+import org.eclipse.californium.scandium.dtls.CertificateType;
+import org.eclipse.californium.scandium.dtls.pskstore.StaticPskStore;
+import org.eclipse.leshan.client.object.Security;
+
+import net.xmeter.CoAPConstants;
+import net.xmeter.Util;
+
+/**
+ * Immutable key material of a DTLS client for one of the three modes:
+ * <ul>
+ * <li>PSK, identity and key are the user name and password of the sampler.</li>
+ * <li>RPK, the client key pair is sent as raw public key, any server key is accepted.</li>
+ * <li>X.509, the client certificate chain is sent and the server chain is validated against the trusted certificates.</li>
+ * </ul>
+ * Trusted certificates come from a key store (.jks, .p12, .pfx) or certificate file (PEM or DER).
+ * The client identity comes from a PKCS12 key store, or from a certificate file plus an unencrypted PKCS8 key (PEM or DER).
+ * Instances only hold references to the shared material of the {@link CredentialRegistry}.
+ */
+public class DtlsCredentials implements CoAPConstants {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String mode;
+    private final String pskIdentity;
+    private final byte[] pskKey;
+    private final PrivateKey privateKey;
+    private final PublicKey publicKey;
+    private final X509Certificate[] certificateChain;
+    private final X509Certificate[] trustedCertificates;
+
+    private DtlsCredentials(String mode, String pskIdentity, byte[] pskKey, PrivateKey privateKey, PublicKey publicKey,
+            X509Certificate[] certificateChain, X509Certificate[] trustedCertificates) {
+        this.mode = mode;
+        this.pskIdentity = pskIdentity;
+        this.pskKey = pskKey;
+        this.privateKey = privateKey;
+        this.publicKey = publicKey;
+        this.certificateChain = certificateChain;
+        this.trustedCertificates = trustedCertificates;
+    }
+
+    public static DtlsCredentials psk(String identity, byte[] key) {
+        return new DtlsCredentials(DTLS_MODE_PSK, identity, key.clone(), null, null, null, new X509Certificate[0]);
+    }
+
+    /**
+     * Key files are read through the {@link CredentialRegistry}, so every thread asking for the same
+     * files shares one decoded copy.
+     * @param mode one of {@link #DTLS_MODE_PSK}, {@link #DTLS_MODE_RPK} or {@link #DTLS_MODE_X509}.
+     */
+    public static DtlsCredentials load(String mode, String pskIdentity, String pskKey, String trustPath, String trustPassword,
+            String certPath, String certPassword, String keyPath) throws IOException, GeneralSecurityException {
+        if (DTLS_MODE_PSK.equals(mode)) {
+            return psk(pskIdentity, pskKey.getBytes(UTF_8));
+        }
+        return of(mode, CredentialRegistry.getIdentity(certPath, certPassword, keyPath), loadTrusted(mode, trustPath, trustPassword));
+    }
+
+    /**
+     * @return the trusted certificates for the mode, empty if no trust file is configured and the mode allows it.
+     */
+    public static X509Certificate[] loadTrusted(String mode, String trustPath, String trustPassword)
+            throws IOException, GeneralSecurityException {
+        X509Certificate[] trusted = isEmpty(trustPath) ? new X509Certificate[0]
+                : CredentialRegistry.getTrustedCertificates(trustPath, trustPassword);
+        if (DTLS_MODE_X509.equals(mode) && trusted.length == 0) {
+            throw new GeneralSecurityException("X.509 mode needs trusted CA certificates.");
+        }
+        return trusted;
+    }
+
+    static DtlsCredentials of(String mode, CredentialRegistry.Identity identity, X509Certificate[] trusted) {
+        return new DtlsCredentials(mode, null, null, identity.privateKey, identity.chain[0].getPublicKey(), identity.chain, trusted);
+    }
+
+    /**
+     * @return a client-only builder holding the identity and trust of these credentials.
+     */
+    public DtlsConnectorConfig.Builder newConfigBuilder() {
+        DtlsConnectorConfig.Builder builder = new DtlsConnectorConfig.Builder();
+        builder.setAddress(new InetSocketAddress(0));
+        builder.setClientOnly();
+        if (DTLS_MODE_PSK.equals(mode)) {
+            builder.setPskStore(new StaticPskStore(pskIdentity, pskKey));
+        } else if (DTLS_MODE_RPK.equals(mode)) {
+            builder.setIdentity(privateKey, publicKey);
+            builder.setRpkTrustAll();
+        } else {
+            builder.setIdentity(privateKey, certificateChain, CertificateType.X_509);
+            builder.setTrustStore(trustedCertificates);
+        }
+        return builder;
+    }
+
+    /**
+     * @return the LwM2M security instance for a client of the server at the coaps:// URI.
+     */
+    public Security toSecurity(String serverUri, int shortServerId) {
+        if (DTLS_MODE_PSK.equals(mode)) {
+            return Security.psk(serverUri, shortServerId, pskIdentity.getBytes(UTF_8), pskKey);
+        }
+        if (trustedCertificates.length == 0) {
+            throw new IllegalStateException("LwM2M " + mode + " needs the server certificate as trusted certificate.");
+        }
+        if (DTLS_MODE_RPK.equals(mode)) {
+            return Security.rpk(serverUri, shortServerId, publicKey.getEncoded(), privateKey.getEncoded(),
+                    trustedCertificates[0].getPublicKey().getEncoded());
+        }
+        try {
+            return Security.x509(serverUri, shortServerId, certificateChain[0].getEncoded(), privateKey.getEncoded(),
+                    trustedCertificates[0].getEncoded());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    static X509Certificate[] loadCertificates(String path, String password) throws IOException, GeneralSecurityException {
+        if (isKeyStore(path)) {
+            KeyStore store = loadKeyStore(path, password);
+            List<X509Certificate> certificates = new ArrayList<X509Certificate>();
+            Enumeration<String> aliases = store.aliases();
+            while (aliases.hasMoreElements()) {
+                Certificate certificate = store.getCertificate(aliases.nextElement());
+                if (certificate instanceof X509Certificate) {
+                    certificates.add((X509Certificate) certificate);
+                }
+            }
+            return certificates.toArray(new X509Certificate[certificates.size()]);
+        }
+        try (InputStream in = new FileInputStream(resolve(path))) {
+            Collection<? extends Certificate> certificates = CertificateFactory.getInstance("X.509").generateCertificates(in);
+            return toX509(certificates.toArray(new Certificate[certificates.size()]));
+        }
+    }
+
+    static PrivateKey loadPrivateKey(String path) throws IOException, GeneralSecurityException {
+        byte[] encoded = Files.readAllBytes(resolve(path).toPath());
+        String text = new String(encoded, UTF_8);
+        if (text.contains("-----BEGIN")) {
+            if (!text.contains("BEGIN PRIVATE KEY")) {
+                throw new GeneralSecurityException("Only unencrypted PKCS8 keys are supported: " + path);
+            }
+            encoded = Util.parseBase64(text.replaceAll("-----[A-Z ]+-----", ""));
+        }
+        PKCS8EncodedKeySpec spec = new PKCS8EncodedKeySpec(encoded);
+        try {
+            return KeyFactory.getInstance("EC").generatePrivate(spec);
+        } catch (GeneralSecurityException e) {
+            return KeyFactory.getInstance("RSA").generatePrivate(spec);
+        }
+    }
+
+    static KeyStore loadKeyStore(String path, String password) throws IOException, GeneralSecurityException {
+        String lower = path.toLowerCase();
+        KeyStore store = KeyStore.getInstance(lower.endsWith(".p12") || lower.endsWith(".pfx") ? "PKCS12" : KeyStore.getDefaultType());
+        try (InputStream in = new FileInputStream(resolve(path))) {
+            store.load(in, toChars(password));
+        }
+        return store;
+    }
+
+    static String findKeyAlias(KeyStore store) throws GeneralSecurityException {
+        Enumeration<String> aliases = store.aliases();
+        while (aliases.hasMoreElements()) {
+            String alias = aliases.nextElement();
+            if (store.isKeyEntry(alias)) {
+                return alias;
+            }
+        }
+        throw new GeneralSecurityException("No private key entry in the client key store.");
+    }
+
+    static boolean isKeyStore(String path) {
+        String lower = path == null ? "" : path.toLowerCase();
+        return lower.endsWith(".jks") || lower.endsWith(".p12") || lower.endsWith(".pfx") || lower.endsWith(".keystore");
+    }
+
+    static X509Certificate[] toX509(Certificate[] certificates) {
+        if (certificates == null) {
+            return new X509Certificate[0];
+        }
+        List<X509Certificate> result = new ArrayList<X509Certificate>();
+        for (Certificate certificate : certificates) {
+            if (certificate instanceof X509Certificate) {
+                result.add((X509Certificate) certificate);
+            }
+        }
+        return result.toArray(new X509Certificate[result.size()]);
+    }
+
+    private static File resolve(String path) throws IOException {
+        File file = Util.resolveFile(path);
+        if (file == null) {
+            throw new IOException("Cannot find file : " + path);
+        }
+        return file;
+    }
+
+    private static char[] toChars(String password) {
+        return password == null ? null : password.toCharArray();
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || "".equals(value.trim());
+    }
+
+    /**
+     * Keys are never part of the string form.
+     */
+    @Override
+    public String toString() {
+        return "DtlsCredentials[" + mode + "]";
+    }
+}
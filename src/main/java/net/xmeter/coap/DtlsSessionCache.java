@@ -0,0 +1,106 @@
+package net.xmeter.coap;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.californium.scandium.dtls.ClientSessionCache;
+import org.eclipse.californium.scandium.dtls.DTLSSession;
+import org.eclipse.californium.scandium.dtls.SessionId;
+import org.eclipse.californium.scandium.dtls.SessionTicket;
+
+/**
+ * Client side DTLS sessions of one simulated device, one per server. The cache outlives the
+ * connectors of the device: a {@link TimedDtlsConnector} created with it starts with these sessions
+ * and resumes them with an abbreviated handshake, e.g. when the device registers again on a new
+ * LwM2M client. A session is bound to the identity of the device, so devices never share a cache.
+ * <p>
+ * When full, the least recently used session is evicted and its server gets a full handshake again.
+ */
+public class DtlsSessionCache implements ClientSessionCache {
+    public static final int DEFAULT_MAX_SESSIONS = 16;
+
+    private final Map<InetSocketAddress, Session> sessions;
+
+    private static class Session {
+        final SessionId id;
+        final SessionTicket ticket;
+
+        Session(SessionId id, SessionTicket ticket) {
+            this.id = id;
+            this.ticket = ticket;
+        }
+    }
+
+    public DtlsSessionCache() {
+        this(DEFAULT_MAX_SESSIONS);
+    }
+
+    public DtlsSessionCache(final int maxSessions) {
+        sessions = new LinkedHashMap<InetSocketAddress, Session>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<InetSocketAddress, Session> eldest) {
+                return size() > maxSessions;
+            }
+        };
+    }
+
+    @Override
+    public synchronized void put(DTLSSession session) {
+        if (session == null || session.getPeer() == null || session.getSessionIdentifier() == null) {
+            return;
+        }
+        SessionTicket ticket = session.getSessionTicket();
+        if (ticket != null) {
+            sessions.put(session.getPeer(), new Session(session.getSessionIdentifier(), ticket));
+        }
+    }
+
+    @Override
+    public synchronized SessionTicket get(SessionId id) {
+        for (Session entry : sessions.values()) {
+            if (entry.id.equals(id)) {
+                return entry.ticket;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized void remove(SessionId id) {
+        Iterator<Session> it = sessions.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().id.equals(id)) {
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public synchronized SessionTicket getSessionTicket(InetSocketAddress peer) {
+        Session entry = sessions.get(peer);
+        return entry != null ? entry.ticket : null;
+    }
+
+    @Override
+    public synchronized SessionId getSessionIdentity(InetSocketAddress peer) {
+        Session entry = sessions.get(peer);
+        return entry != null ? entry.id : null;
+    }
+
+    /**
+     * @return the servers with a session, a copy that is not affected by later changes.
+     */
+    @Override
+    public synchronized Iterator<InetSocketAddress> iterator() {
+        return new ArrayList<InetSocketAddress>(sessions.keySet()).iterator();
+    }
+
+    public synchronized int size() {
+        return sessions.size();
+    }
+}
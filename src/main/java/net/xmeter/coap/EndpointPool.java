@@ -0,0 +1,162 @@
+package net.xmeter.coap;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.CoapStackFactory;
+import org.eclipse.californium.core.network.Endpoint;
+import org.eclipse.californium.core.network.Outbox;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.core.network.stack.BaseCoapStack;
+import org.eclipse.californium.core.network.stack.CoapStack;
+import org.eclipse.californium.core.network.stack.CongestionControlLayer;
+import org.eclipse.californium.core.network.stack.ExchangeCleanupLayer;
+import org.eclipse.californium.core.network.stack.Layer;
+import org.eclipse.californium.core.network.stack.ObserveLayer;
+import org.eclipse.californium.core.network.stack.ReliabilityLayer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.xmeter.Util;
+
+/**
+ * A small set of UDP endpoints and executors shared by all simulated devices of a test plan.
+ * Devices are spread round-robin over the endpoints, each keeps its own client id while
+ * Californium keeps the tokens of the exchanges unique per endpoint.
+ * Pools are reference counted by size, the last {@link #release(EndpointPool)} destroys it.
+ */
+public class EndpointPool {
+    private transient static Logger logger = LoggerFactory.getLogger(EndpointPool.class.getName());
+
+    private static final Map<Integer, EndpointPool> pools = new HashMap<>();
+
+    /**
+     * The UDP stack of Californium without its blockwise layer: requests carrying their own Block1
+     * or Block2 option go out as they are, one message per block, and block responses are handed
+     * back one by one instead of being followed up by the layer.
+     */
+    public static final CoapStackFactory NON_BLOCKWISE_STACK = new CoapStackFactory() {
+        @Override
+        public CoapStack createCoapStack(String protocol, NetworkConfig config, Outbox outbox, Object customStackArgument) {
+            return new NonBlockwiseStack(config, outbox);
+        }
+    };
+
+    private final int size;
+    private final CoapEndpoint[] endpoints;
+    private final ScheduledExecutorService mainExecutor;
+    private final ScheduledExecutorService secondaryExecutor;
+    private final NetworkConfig networkConfig;
+    private final AtomicInteger next = new AtomicInteger();
+    private int references = 0;
+
+    private EndpointPool(int size) throws IOException {
+        this.size = size;
+        int threads = Runtime.getRuntime().availableProcessors();
+        this.mainExecutor = Executors.newScheduledThreadPool(threads, Util.newThreadFactory("coap-pool-" + size + "-main"));
+        this.secondaryExecutor = Executors.newScheduledThreadPool(1, Util.newThreadFactory("coap-pool-" + size + "-timer"));
+        this.networkConfig = createNetworkConfig();
+        this.endpoints = new CoapEndpoint[size];
+        try {
+            for (int i = 0; i < size; i++) {
+                CoapEndpoint endpoint = new CoapEndpoint.Builder()
+                        .setNetworkConfig(networkConfig)
+                        .setInetSocketAddress(new InetSocketAddress(0))
+                        .build();
+                endpoint.setExecutors(mainExecutor, secondaryExecutor);
+                endpoint.start();
+                endpoints[i] = endpoint;
+            }
+        } catch (IOException e) {
+            destroy();
+            throw e;
+        }
+        logger.info("Started {} shared CoAP endpoints with {} worker threads.", size, threads);
+    }
+
+    /**
+     * A network config with a single receiver and sender thread per socket, the protocol stage runs
+     * on the shared executors.
+     */
+    public static NetworkConfig createNetworkConfig() {
+        NetworkConfig config = NetworkConfig.createStandardWithoutFile();
+        config.setInt(NetworkConfig.Keys.NETWORK_STAGE_RECEIVER_THREAD_COUNT, 1);
+        config.setInt(NetworkConfig.Keys.NETWORK_STAGE_SENDER_THREAD_COUNT, 1);
+        return config;
+    }
+
+    /**
+     * @return a started endpoint of its own on any port, using {@link #NON_BLOCKWISE_STACK}.
+     */
+    public static CoapEndpoint newNonBlockwiseEndpoint() throws IOException {
+        CoapEndpoint endpoint = new CoapEndpoint.Builder()
+                .setNetworkConfig(createNetworkConfig())
+                .setInetSocketAddress(new InetSocketAddress(0))
+                .setCoapStackFactory(NON_BLOCKWISE_STACK)
+                .build();
+        endpoint.start();
+        return endpoint;
+    }
+
+    public static synchronized EndpointPool acquire(int size) throws IOException {
+        EndpointPool pool = pools.get(size);
+        if (pool == null) {
+            pool = new EndpointPool(size);
+            pools.put(size, pool);
+        }
+        pool.references++;
+        return pool;
+    }
+
+    public static synchronized void release(EndpointPool pool) {
+        if (pool == null) {
+            return;
+        }
+        pool.references--;
+        if (pool.references <= 0) {
+            pools.remove(pool.size);
+            pool.destroy();
+        }
+    }
+
+    /**
+     * @return the next endpoint in round-robin order.
+     */
+    public Endpoint next() {
+        return endpoints[(next.getAndIncrement() & Integer.MAX_VALUE) % size];
+    }
+
+    public ScheduledExecutorService getExecutor() {
+        return mainExecutor;
+    }
+
+    public NetworkConfig getNetworkConfig() {
+        return networkConfig;
+    }
+
+    private void destroy() {
+        for (CoapEndpoint endpoint : endpoints) {
+            if (endpoint != null) {
+                endpoint.destroy();
+            }
+        }
+        mainExecutor.shutdownNow();
+        secondaryExecutor.shutdownNow();
+        logger.info("Destroyed {} shared CoAP endpoints.", size);
+    }
+
+    private static class NonBlockwiseStack extends BaseCoapStack {
+        NonBlockwiseStack(NetworkConfig config, Outbox outbox) {
+            super(outbox);
+            ReliabilityLayer reliability = config.getBoolean(NetworkConfig.Keys.USE_CONGESTION_CONTROL)
+                    ? CongestionControlLayer.newImplementation(config) : new ReliabilityLayer(config);
+            setLayers(new Layer[] { new ExchangeCleanupLayer(config), new ObserveLayer(config), reliability });
+        }
+    }
+}
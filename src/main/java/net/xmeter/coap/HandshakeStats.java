@@ -0,0 +1,56 @@
+package net.xmeter.coap;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * DTLS handshakes of one simulated device, recorded by {@link TimedDtlsConnector} and picked up by the
+ * sampler to report handshake time apart from request time.
+ */
+public class HandshakeStats {
+    private final AtomicLong lastNanos = new AtomicLong(-1);
+    private final AtomicBoolean lastResumed = new AtomicBoolean();
+    private final AtomicLong fullCount = new AtomicLong();
+    private final AtomicLong resumedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    public void recordCompleted(long nanos, boolean resumed) {
+        if (resumed) {
+            resumedCount.incrementAndGet();
+        } else {
+            fullCount.incrementAndGet();
+        }
+        lastResumed.set(resumed);
+        lastNanos.set(nanos);
+    }
+
+    public void recordFailed() {
+        failedCount.incrementAndGet();
+    }
+
+    /**
+     * @return duration of the handshake completed since the previous call in nanoseconds, or -1 if there was none.
+     */
+    public long takeLastNanos() {
+        return lastNanos.getAndSet(-1);
+    }
+
+    /**
+     * @return true if the last handshake was abbreviated (session resumption).
+     */
+    public boolean isLastResumed() {
+        return lastResumed.get();
+    }
+
+    public long getFullCount() {
+        return fullCount.get();
+    }
+
+    public long getResumedCount() {
+        return resumedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+}
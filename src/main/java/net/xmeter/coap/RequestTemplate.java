@@ -0,0 +1,186 @@
+package net.xmeter.coap;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.OptionSet;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.elements.AddressEndpointContext;
+import org.eclipse.californium.elements.EndpointContext;
+
+import net.xmeter.CoAPConstants;
+
+/**
+ * Method, type, destination and options of a request, resolved once and stamped onto a new
+ * {@link Request} for every message. Californium messages cannot be sent twice, so only the
+ * cheap copy is done per message.
+ */
+public class RequestTemplate implements CoAPConstants {
+    private final CoAP.Code code;
+    private final CoAP.Type type;
+    private final OptionSet options;
+    private final EndpointContext destination;
+    private final Integer messageId;
+    private final AtomicBoolean messageIdUsed = new AtomicBoolean();
+    private final byte[] token;
+    private final String scheme;
+
+    private RequestTemplate(Builder builder) {
+        this.code = builder.code;
+        this.type = builder.confirmable ? CoAP.Type.CON : CoAP.Type.NON;
+        this.destination = new AddressEndpointContext(new InetSocketAddress(builder.host, builder.port));
+        this.messageId = builder.messageId;
+        this.token = builder.token;
+        this.scheme = builder.secure ? "coaps" : "coap";
+
+        OptionSet options = new OptionSet();
+        applyResourcePath(options, builder.resourcePath);
+        if (builder.query != null && !"".equals(builder.query)) {
+            options.setUriQuery(builder.query);
+        }
+        if (builder.contentFormat >= 0) {
+            options.setContentFormat(builder.contentFormat);
+        }
+        this.options = options;
+    }
+
+    /**
+     * Adds the resource path to the options, the part after the "mqtt/" or "ps/" prefix
+     * is a single segment (the topic).
+     */
+    public static void applyResourcePath(OptionSet options, String resourcePath) {
+        String path = resourcePath;
+        if (path.startsWith("/")) {
+            path = path.substring("/".length());
+        }
+        if (path.startsWith("mqtt/")) {
+            options.addUriPath("mqtt").addUriPath(path.substring("mqtt/".length()));
+        } else if (path.startsWith("ps/")) {
+            options.addUriPath("ps").addUriPath(path.substring("ps/".length()));
+        } else {
+            options.addUriPath(path);
+        }
+    }
+
+    /**
+     * A request with the configured token. The configured message id is only applied to the first
+     * request of the template, the server would drop later requests with the same id as duplicates.
+     */
+    public Request newRequest(byte[] payload) {
+        Request request = new Request(code, type);
+        request.setOptions(options);
+        request.setDestinationContext(destination);
+        request.setScheme(scheme);
+        if (messageId != null && messageIdUsed.compareAndSet(false, true)) {
+            request.setMID(messageId);
+        }
+        if (token != null) {
+            request.setToken(token);
+        }
+        if (payload != null) {
+            request.setPayload(payload);
+        }
+        return request;
+    }
+
+    /**
+     * A request for pipelined sending: the configured message id and token are not applied, the
+     * endpoint assigns the message id and the caller provides a token unique among its outstanding requests.
+     */
+    public Request newAsyncRequest(byte[] payload, byte[] token) {
+        Request request = new Request(code, type);
+        request.setOptions(options);
+        request.setDestinationContext(destination);
+        request.setScheme(scheme);
+        request.setToken(token);
+        if (payload != null) {
+            request.setPayload(payload);
+        }
+        return request;
+    }
+
+    /**
+     * @return true if the value names a request method, e.g. PUT.
+     */
+    public static boolean isMethod(String value) {
+        String method = value.trim().toUpperCase();
+        return "GET".equals(method) || "POST".equals(method) || "PUT".equals(method) || "DELETE".equals(method);
+    }
+
+    public boolean isConfirmable() {
+        return type == CoAP.Type.CON;
+    }
+
+    public static class Builder {
+        private CoAP.Code code = CoAP.Code.PUT;
+        private boolean confirmable = true;
+        private String host = DEFAULT_SERVER;
+        private int port = Integer.parseInt(DEFAULT_PORT);
+        private String resourcePath = DEFAULT_RESPURCE_PATH;
+        private String query;
+        private int contentFormat = -1;
+        private Integer messageId;
+        private byte[] token;
+        private boolean secure = false;
+
+        public Builder setMethod(String method) {
+            this.code = CoAP.Code.valueOf(method.trim().toUpperCase());
+            return this;
+        }
+
+        public Builder setMessageType(String messageType) {
+            this.confirmable = DEFAULT_COAP_MESSAGE_TYPE.equalsIgnoreCase(messageType.trim());
+            return this;
+        }
+
+        public Builder setDestination(String host, int port) {
+            this.host = host;
+            this.port = port;
+            return this;
+        }
+
+        public Builder setResourcePath(String resourcePath) {
+            this.resourcePath = resourcePath;
+            return this;
+        }
+
+        public Builder setQuery(String query) {
+            this.query = query;
+            return this;
+        }
+
+        public Builder setContentFormat(int contentFormat) {
+            this.contentFormat = contentFormat;
+            return this;
+        }
+
+        /**
+         * @param messageId message id of the first request, empty to let the endpoint assign all.
+         */
+        public Builder setMessageId(String messageId) {
+            this.messageId = "".equals(messageId.trim()) ? null : Integer.valueOf(messageId.trim());
+            return this;
+        }
+
+        /**
+         * @param token fixed token, empty to let the endpoint assign one.
+         */
+        public Builder setToken(String token) {
+            this.token = "".equals(token) ? null : token.getBytes();
+            return this;
+        }
+
+        /**
+         * @param secure true to send with the coaps scheme over a DTLS endpoint.
+         */
+        public Builder setSecure(boolean secure) {
+            this.secure = secure;
+            return this;
+        }
+
+        public RequestTemplate build() {
+            return new RequestTemplate(this);
+        }
+    }
+}
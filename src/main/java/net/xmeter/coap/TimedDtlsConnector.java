@@ -0,0 +1,85 @@
+package net.xmeter.coap;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.elements.Connector;
+import org.eclipse.californium.scandium.DTLSConnector;
+import org.eclipse.californium.scandium.config.DtlsConnectorConfig;
+import org.eclipse.californium.scandium.dtls.Handshaker;
+import org.eclipse.californium.scandium.dtls.ResumingClientHandshaker;
+import org.eclipse.californium.scandium.dtls.SessionAdapter;
+import org.eclipse.leshan.core.californium.DefaultEndpointFactory;
+
+/**
+ * DTLS connector of one device that records the duration of every handshake, full or abbreviated,
+ * into a {@link HandshakeStats}. Its sessions are kept in the device's {@link DtlsSessionCache}, the
+ * sessions found there when the connector is created are resumed with an abbreviated handshake.
+ */
+public class TimedDtlsConnector extends DTLSConnector {
+    private final HandshakeStats stats;
+
+    public TimedDtlsConnector(DtlsConnectorConfig config, HandshakeStats stats, DtlsSessionCache sessions) {
+        super(config, sessions);
+        this.stats = stats;
+        // The connection store is filled from the cache by the super constructor, start() is final
+        // so the resumption is requested here, before the first message to the server goes out.
+        for (InetSocketAddress peer : sessions) {
+            forceResumeSessionFor(peer);
+        }
+    }
+
+    @Override
+    protected void onInitializeHandshaker(Handshaker handshaker) {
+        super.onInitializeHandshaker(handshaker);
+        final long startedAt = System.nanoTime();
+        handshaker.addSessionListener(new SessionAdapter() {
+            @Override
+            public void handshakeCompleted(Handshaker handshaker) {
+                stats.recordCompleted(System.nanoTime() - startedAt, handshaker instanceof ResumingClientHandshaker);
+            }
+
+            @Override
+            public void handshakeFailed(Handshaker handshaker, Throwable error) {
+                stats.recordFailed();
+            }
+        });
+    }
+
+    /**
+     * @param blockwise false for a stack without blockwise layer, see {@link EndpointPool#NON_BLOCKWISE_STACK}.
+     * @return a started client endpoint securing its exchanges with the given credentials.
+     */
+    public static CoapEndpoint newEndpoint(DtlsCredentials credentials, NetworkConfig config, HandshakeStats stats,
+            DtlsSessionCache sessions, boolean blockwise) throws IOException {
+        CoapEndpoint.Builder builder = new CoapEndpoint.Builder()
+                .setNetworkConfig(config)
+                .setConnector(new TimedDtlsConnector(credentials.newConfigBuilder().build(), stats, sessions));
+        if (!blockwise) {
+            builder.setCoapStackFactory(EndpointPool.NON_BLOCKWISE_STACK);
+        }
+        CoapEndpoint endpoint = builder.build();
+        endpoint.start();
+        return endpoint;
+    }
+
+    /**
+     * Lets Leshan create its secured endpoint on a {@link TimedDtlsConnector}.
+     */
+    public static class EndpointFactory extends DefaultEndpointFactory {
+        private final HandshakeStats stats;
+        private final DtlsSessionCache sessions;
+
+        public EndpointFactory(HandshakeStats stats, DtlsSessionCache sessions) {
+            this.stats = stats;
+            this.sessions = sessions;
+        }
+
+        @Override
+        protected Connector createSecuredConnector(DtlsConnectorConfig dtlsConfig) {
+            return new TimedDtlsConnector(dtlsConfig, stats, sessions);
+        }
+    }
+}
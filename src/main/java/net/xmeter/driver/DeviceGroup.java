@@ -0,0 +1,173 @@
+package net.xmeter.driver;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.xmeter.CoAPConstants;
+import net.xmeter.DevicePartition;
+import net.xmeter.Util;
+import net.xmeter.coap.EndpointPool;
+import net.xmeter.lwm2m.DeviceDefinition;
+import net.xmeter.lwm2m.DeviceFleet;
+
+/**
+ * The simulated devices of one driver run, all doing what the configured sampler does. Devices
+ * are started one by one from the connect threads and their results are collected by the
+ * reporting thread. None of them has a thread of its own, except publishers with
+ * driver.device_threads set.
+ */
+public abstract class DeviceGroup implements CoAPConstants {
+    private transient static Logger logger = LoggerFactory.getLogger(DeviceGroup.class.getName());
+
+    protected final DriverConfig config;
+    protected final EndpointPool pool;
+    private final DeviceFleet fleet;
+    private final DevicePartition partition;
+    private final AtomicInteger started = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final ConcurrentMap<String, AtomicInteger> failures = new ConcurrentHashMap<>();
+
+    /**
+     * @param pool shared endpoints of the devices, or null to let every client use its own.
+     */
+    protected DeviceGroup(DriverConfig config, EndpointPool pool) throws IOException {
+        if (PROTOCOL_DTLS.equals(config.get(PROTOCOL, DEFAULT_PROTOCOL))) {
+            throw new IllegalArgumentException("The load driver simulates devices on plain UDP only.");
+        }
+        this.config = config;
+        this.pool = pool;
+        partition = config.getPartition();
+        String fleetFile = config.get(FLEET_FILE, DEFAULT_FLEET_FILE);
+        if ("".equals(fleetFile)) {
+            fleet = null;
+        } else {
+            File file = Util.resolveFile(fleetFile);
+            if (file == null) {
+                throw new IOException("Cannot find file : " + fleetFile);
+            }
+            fleet = DeviceFleet.forFile(file);
+        }
+    }
+
+    /**
+     * @return the group for the configured sampler and operation.
+     * @throws IllegalArgumentException for DTLS and for operations that need a thread per device.
+     */
+    public static DeviceGroup create(DriverConfig config, EndpointPool pool) throws IOException {
+        if (config.isSubscriber()) {
+            return new SubscriberGroup(config, pool);
+        }
+        if (config.isPublishOperation()) {
+            return new PublisherGroup(config, pool);
+        }
+        String operation = config.getOperation();
+        if (!OPERATION_KEEP_REGISTERED.equals(operation) && !OPERATION_NOTIFY.equals(operation)) {
+            throw new IllegalArgumentException("The load driver has no sample loop for " + operation + ", set "
+                    + LWM2M_OPERATION + " to " + OPERATION_KEEP_REGISTERED + " or " + OPERATION_NOTIFY + ", or use the sampler.");
+        }
+        return new LwM2mGroup(config, pool);
+    }
+
+    /**
+     * Starts one device, called concurrently from the connect threads. Failures are counted by
+     * cause, the first one of each cause is logged.
+     * @param device number of the device in this run, from 0, see {@link DevicePartition} for the
+     *        device it simulates.
+     */
+    public void start(int device) {
+        try {
+            long globalDevice = partition.getDevice(device);
+            DeviceDefinition definition = fleet != null ? fleet.get(globalDevice) : null;
+            if (startDevice(device, definition, getDeviceName(definition, globalDevice))) {
+                started.incrementAndGet();
+                return;
+            }
+            recordFailure(device, "Rejected or timed out", null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            recordFailure(device, "Interrupted", null);
+        } catch (Exception e) {
+            recordFailure(device, e.getClass().getSimpleName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void recordFailure(int device, String cause, Exception e) {
+        failed.incrementAndGet();
+        AtomicInteger count = failures.get(cause);
+        if (count == null) {
+            AtomicInteger first = new AtomicInteger();
+            count = failures.putIfAbsent(cause, first);
+            if (count == null) {
+                count = first;
+                logger.warn("Failed to start device " + device + ": " + cause + ", further devices failing alike are only counted.", e);
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * @param definition the fleet entry of the device, null without fleet file.
+     * @param name client id or endpoint name of the device.
+     * @return false if the device could not be started, e.g. its registration was rejected.
+     */
+    protected abstract boolean startDevice(int device, DeviceDefinition definition, String name) throws Exception;
+
+    /**
+     * Adds the results since the previous call to the report, called from the reporting thread.
+     */
+    public abstract void collect(LoadReport report);
+
+    /**
+     * Stops all devices, results after the last {@link #collect(LoadReport)} are dropped.
+     */
+    public abstract void stop();
+
+    public int getStarted() {
+        return started.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return the number of devices that failed to start by cause, e.g. the exception and its message.
+     */
+    public Map<String, Integer> getFailures() {
+        Map<String, Integer> counts = new TreeMap<>();
+        for (Map.Entry<String, AtomicInteger> entry : failures.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    /**
+     * @return the name of the fleet device, or a client id built from the prefix as the samplers do.
+     */
+    protected String getDeviceName(DeviceDefinition definition, long globalDevice) {
+        if (definition != null) {
+            return definition.getEndpoint();
+        }
+        if (!config.isClientIdSuffix()) {
+            return config.getClientIdPrefix();
+        }
+        return partition.isPartitioned() ? config.getClientIdPrefix() + globalDevice : Util.generateClientId(config.getClientIdPrefix());
+    }
+
+    public DevicePartition getPartition() {
+        return partition;
+    }
+
+    protected String getResourcePath(DeviceDefinition definition) {
+        String path = config.get(RESOURCE_PATH, DEFAULT_RESPURCE_PATH);
+        return definition != null ? definition.getResourcePath(path) : path;
+    }
+}
@@ -0,0 +1,289 @@
+package net.xmeter.driver;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import net.xmeter.CoAPConstants;
+import net.xmeter.DevicePartition;
+import net.xmeter.coap.RequestTemplate;
+
+/**
+ * Settings of the load driver: the sampler properties under the {@link CoAPConstants} keys, with
+ * the same defaults as the samplers, plus the driver.* keys below in place of the thread group.
+ * <p>
+ * They are read from a properties file or taken from a JMeter test plan (.jmx): the first thread
+ * group gives devices, ramp-up and duration, the first CoAP sampler its properties. Values holding
+ * JMeter variables or functions cannot be resolved and are left at their defaults.
+ */
+public class DriverConfig implements CoAPConstants {
+    private transient static Logger logger = LoggerFactory.getLogger(DriverConfig.class.getName());
+
+    public static final String SAMPLER = "driver.sampler";
+    public static final String DEVICES = "driver.devices";
+    public static final String RAMP_UP = "driver.ramp_up";
+    public static final String DURATION = "driver.duration";
+    public static final String CONNECT_THREADS = "driver.connect_threads";
+    public static final String SENDER_THREADS = "driver.sender_threads";
+    /** Empty to let the sender threads serve all publishers, platform or virtual to give every publisher a thread of its own. */
+    public static final String DEVICE_THREADS = "driver.device_threads";
+    public static final String HISTOGRAM_FILE = "driver.histogram_file";
+    public static final String SNAPSHOT_FILE = "driver.snapshot_file";
+
+    public static final String SAMPLER_PUB = "pub";
+    public static final String SAMPLER_SUB = "sub";
+
+    public static final String DEFAULT_SAMPLER = SAMPLER_PUB;
+    public static final String DEFAULT_DEVICES = "100";
+    public static final String DEFAULT_RAMP_UP = "10";
+    public static final String DEFAULT_DURATION = "60";
+    public static final String DEFAULT_CONNECT_THREADS = "16";
+    public static final String DEFAULT_SENDER_THREADS = String.valueOf(Runtime.getRuntime().availableProcessors());
+    public static final String DEFAULT_DEVICE_THREADS = "";
+    public static final String DEFAULT_HISTOGRAM_FILE = "histogram.txt";
+    public static final String DEFAULT_SNAPSHOT_FILE = "snapshot.txt";
+
+    private static final String PUB_SAMPLER_CLASS = "net.xmeter.samplers.CoAPPubSampler";
+    private static final String SUB_SAMPLER_CLASS = "net.xmeter.samplers.CoAPSubSampler";
+
+    private final Properties properties = new Properties();
+
+    /**
+     * @param file a .properties file or a JMeter test plan (.jmx).
+     */
+    public static DriverConfig load(File file) throws IOException {
+        DriverConfig config = new DriverConfig();
+        if (file.getName().toLowerCase().endsWith(".jmx")) {
+            config.loadTestPlan(file);
+        } else {
+            try (InputStream in = new FileInputStream(file)) {
+                config.properties.load(in);
+            }
+        }
+        return config;
+    }
+
+    private void loadTestPlan(File file) throws IOException {
+        Document plan;
+        try {
+            plan = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+        } catch (Exception e) {
+            throw new IOException("Cannot read the test plan " + file + ": " + e.getMessage(), e);
+        }
+        boolean threadGroupFound = false;
+        boolean samplerFound = false;
+        NodeList elements = plan.getElementsByTagName("*");
+        for (int i = 0; i < elements.getLength(); i++) {
+            Element element = (Element) elements.item(i);
+            String testClass = element.getAttribute("testclass");
+            if (!threadGroupFound && "ThreadGroup".equals(testClass) && isEnabled(element)) {
+                threadGroupFound = true;
+                Properties group = readProperties(element);
+                copy(group, "ThreadGroup.num_threads", DEVICES);
+                copy(group, "ThreadGroup.ramp_time", RAMP_UP);
+                copy(group, "ThreadGroup.duration", DURATION);
+            } else if (!samplerFound && (PUB_SAMPLER_CLASS.equals(testClass) || SUB_SAMPLER_CLASS.equals(testClass))
+                    && isEnabled(element)) {
+                samplerFound = true;
+                properties.setProperty(SAMPLER, SUB_SAMPLER_CLASS.equals(testClass) ? SAMPLER_SUB : SAMPLER_PUB);
+                Properties sampler = readProperties(element);
+                for (String key : sampler.stringPropertyNames()) {
+                    copy(sampler, key, key);
+                }
+                migrateMethodType();
+            }
+        }
+        if (!samplerFound) {
+            throw new IOException("No enabled CoAP sampler in the test plan " + file + ".");
+        }
+    }
+
+    /**
+     * Test plans saved before the method got its own key hold the method under coap.message_type.
+     */
+    private void migrateMethodType() {
+        String messageType = properties.getProperty(COAP_MESSAGE_TYPE);
+        if (messageType != null && properties.getProperty(METHOD_TYPE) == null && RequestTemplate.isMethod(messageType)) {
+            properties.setProperty(METHOD_TYPE, messageType.trim());
+            properties.remove(COAP_MESSAGE_TYPE);
+        }
+    }
+
+    private static boolean isEnabled(Element element) {
+        return !"false".equals(element.getAttribute("enabled"));
+    }
+
+    /**
+     * @return the simple properties directly below the element, e.g. stringProp and boolProp.
+     */
+    private static Properties readProperties(Element element) {
+        Properties values = new Properties();
+        NodeList children = element.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            Node child = children.item(i);
+            if (child instanceof Element && child.getNodeName().endsWith("Prop") && ((Element) child).hasAttribute("name")
+                    && ((Element) child).getElementsByTagName("*").getLength() == 0) {
+                values.setProperty(((Element) child).getAttribute("name"), child.getTextContent());
+            }
+        }
+        return values;
+    }
+
+    private void copy(Properties from, String fromKey, String toKey) {
+        String value = from.getProperty(fromKey);
+        if (value == null) {
+            return;
+        }
+        if (value.contains(JMETER_VARIABLE_PREFIX)) {
+            logger.warn("Cannot resolve {} = {} outside JMeter, using the default value.", fromKey, value);
+            return;
+        }
+        properties.setProperty(toKey, value);
+    }
+
+    /**
+     * Overrides a setting, e.g. from a key=value argument of the command line.
+     */
+    public void set(String key, String value) {
+        properties.setProperty(key, value);
+    }
+
+    public String get(String key, String defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null || "".equals(value.trim()) ? defaultValue : value.trim();
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        return Boolean.parseBoolean(get(key, String.valueOf(defaultValue)));
+    }
+
+    public int getInt(String key, String defaultValue) {
+        return (int) getPositive(key, defaultValue);
+    }
+
+    public long getLong(String key, String defaultValue) {
+        return (long) getPositive(key, defaultValue);
+    }
+
+    /**
+     * @return the value, or the default value if the value is not a positive number.
+     */
+    public double getPositive(String key, String defaultValue) {
+        try {
+            double value = Double.parseDouble(get(key, defaultValue));
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // use the default value below
+        }
+        return Double.parseDouble(defaultValue);
+    }
+
+    /**
+     * @return a duration configured in seconds, 0 allowed, in milliseconds.
+     */
+    public long getSecondsAsMillis(String key, String defaultSeconds) {
+        try {
+            double seconds = Double.parseDouble(get(key, defaultSeconds));
+            if (seconds >= 0) {
+                return (long) (seconds * 1000);
+            }
+        } catch (NumberFormatException e) {
+            // use the default value below
+        }
+        return (long) (Double.parseDouble(defaultSeconds) * 1000);
+    }
+
+    public boolean isSubscriber() {
+        return SAMPLER_SUB.equalsIgnoreCase(get(SAMPLER, DEFAULT_SAMPLER));
+    }
+
+    public String getOperation() {
+        return get(LWM2M_OPERATION, DEFAULT_LWM2M_OPERATION);
+    }
+
+    public boolean isPublishOperation() {
+        String operation = getOperation();
+        return OPERATION_PUBLISH.equals(operation) || OPERATION_PUBLISH_AT_RATE.equals(operation)
+                || OPERATION_PUBLISH_PIPELINED.equals(operation);
+    }
+
+    public String getServer() {
+        return get(SERVER, DEFAULT_SERVER);
+    }
+
+    public int getPort() {
+        return getInt(PORT, DEFAULT_PORT);
+    }
+
+    public String getServerUri() {
+        return "coap://" + getServer() + ":" + getPort();
+    }
+
+    public long getConnTimeoutMillis() {
+        return getLong(CONN_TIMEOUT, DEFAULT_CONN_TIME_OUT) * 1000;
+    }
+
+    public int getEndpointPoolSize() {
+        try {
+            return Math.max(0, Integer.parseInt(get(ENDPOINT_POOL_SIZE, DEFAULT_ENDPOINT_POOL_SIZE)));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return the client id prefix, or the endpoint name for LwM2M operations, as the samplers use it.
+     */
+    public String getClientIdPrefix() {
+        if (!isSubscriber() && !isPublishOperation()) {
+            return get(ENDPOINT, DEFAULT_ENDPOINT);
+        }
+        return get(CONN_CLIENT_ID_PREFIX, isSubscriber() ? DEFAULT_CONN_PREFIX_FOR_SUB : DEFAULT_CONN_PREFIX_FOR_PUB);
+    }
+
+    public boolean isClientIdSuffix() {
+        return getBoolean(CONN_CLIENT_ID_SUFFIX, DEFAULT_ADD_CLIENT_ID_SUFFIX);
+    }
+
+    public String getQuery(String clientId) {
+        return "c=" + clientId + "&u=" + get(USER_NAME_AUTH, DEFAULT_USERNAME) + "&p=" + get(PASSWORD_AUTH, DEFAULT_PASSWORD);
+    }
+
+    /**
+     * @return the share of the devices of this driver, from coap.fleet_offset, coap.generator_index
+     *         and coap.generator_count as for the samplers.
+     * @throws IllegalArgumentException if the generator index is not below the generator count.
+     */
+    public DevicePartition getPartition() {
+        try {
+            return new DevicePartition(Long.parseLong(get(FLEET_OFFSET, DEFAULT_FLEET_OFFSET)),
+                    Integer.parseInt(get(GENERATOR_INDEX, DEFAULT_GENERATOR_INDEX)), Integer.parseInt(get(GENERATOR_COUNT, DEFAULT_GENERATOR_COUNT)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid fleet offset or generator: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the configured file, see {@link DevicePartition#getGeneratorFile(String)}.
+     */
+    public File getGeneratorFile(String key, String defaultValue) {
+        return getPartition().getGeneratorFile(get(key, defaultValue));
+    }
+
+    public long getReportIntervalMillis() {
+        return getLong(REPORT_INTERVAL, DEFAULT_REPORT_INTERVAL);
+    }
+}
@@ -0,0 +1,186 @@
+package net.xmeter.driver;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.xmeter.DevicePartition;
+import net.xmeter.Util;
+import net.xmeter.coap.EndpointPool;
+
+/**
+ * Runs the publish, subscribe or LwM2M device logic of the samplers for a large number of
+ * simulated devices without JMeter: no sampler per device, no listeners, and no thread per device
+ * unless driver.device_threads asks for one, on a virtual thread where available. Devices
+ * are started evenly over the ramp-up, a line with the counters and latencies of the last interval
+ * is printed every coap.report_interval ms, and after the duration the totals are printed and the
+ * latency distributions written to driver.histogram_file, the totals also to driver.snapshot_file.
+ * <p>
+ * Several drivers, e.g. on several hosts, share the devices of one test with coap.generator_index
+ * and coap.generator_count, each then adds its index to the file names and
+ * {@link MergeSnapshots} combines their snapshots.
+ * <p>
+ * Usage: LoadDriver config.properties|plan.jmx [key=value ...]
+ * <p>
+ * The keys are those of {@link net.xmeter.CoAPConstants} and {@link DriverConfig}, arguments
+ * override the file.
+ */
+public class LoadDriver {
+    private transient static Logger logger = LoggerFactory.getLogger(LoadDriver.class.getName());
+
+    private final DriverConfig config;
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private volatile boolean stopped = false;
+    private volatile Thread runner;
+
+    public LoadDriver(DriverConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Runs the test until the duration has passed or {@link #stop()} is called.
+     * @return the totals of the run.
+     */
+    public LoadReport run() throws IOException {
+        runner = Thread.currentThread();
+        try {
+            return runDevices();
+        } finally {
+            finished.countDown();
+        }
+    }
+
+    private LoadReport runDevices() throws IOException {
+        int devices = config.getInt(DriverConfig.DEVICES, DriverConfig.DEFAULT_DEVICES);
+        long rampUpMillis = config.getSecondsAsMillis(DriverConfig.RAMP_UP, DriverConfig.DEFAULT_RAMP_UP);
+        long durationMillis = config.getSecondsAsMillis(DriverConfig.DURATION, DriverConfig.DEFAULT_DURATION);
+        long intervalMillis = config.getReportIntervalMillis();
+
+        int poolSize = config.getEndpointPoolSize();
+        EndpointPool pool = poolSize > 0 ? EndpointPool.acquire(poolSize) : null;
+        DeviceGroup group = null;
+        ScheduledExecutorService connector = null;
+        LoadReport total = new LoadReport();
+        long start = System.currentTimeMillis();
+        try {
+            group = DeviceGroup.create(config, pool);
+            logger.info("Starting {} devices of {} against {} over {} ms.", devices,
+                    config.isSubscriber() ? "Subscribe" : config.getOperation(), config.getServerUri(), rampUpMillis);
+            connector = Executors.newScheduledThreadPool(config.getInt(DriverConfig.CONNECT_THREADS, DriverConfig.DEFAULT_CONNECT_THREADS),
+                    Util.newThreadFactory("driver-connect"));
+            start = System.currentTimeMillis();
+            for (int i = 0; i < devices; i++) {
+                final int device = i;
+                final DeviceGroup starting = group;
+                connector.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        starting.start(device);
+                    }
+                }, rampUpMillis * i / devices, TimeUnit.MILLISECONDS);
+            }
+
+            long end = start + durationMillis;
+            long nextReport = start + intervalMillis;
+            while (!stopped) {
+                long now = System.currentTimeMillis();
+                long wakeUp = Math.min(nextReport, end);
+                if (wakeUp > now) {
+                    try {
+                        Thread.sleep(wakeUp - now);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+                LoadReport interval = new LoadReport();
+                group.collect(interval);
+                total.add(interval);
+                System.out.println(String.format(Locale.ROOT, "%8.1f s devices=%d/%d start_failed=%d",
+                        (System.currentTimeMillis() - start) / 1000.0, group.getStarted(), devices, group.getFailed())
+                        + interval.formatLine());
+                nextReport += intervalMillis;
+                if (System.currentTimeMillis() >= end) {
+                    break;
+                }
+            }
+        } finally {
+            if (connector != null) {
+                connector.shutdownNow();
+            }
+            if (group != null) {
+                group.stop();
+            }
+            EndpointPool.release(pool);
+        }
+
+        long elapsedMillis = System.currentTimeMillis() - start;
+        System.out.println(String.format(Locale.ROOT, "%nDevices started %d of %d, failed %d, in %.1f s.", group.getStarted(), devices,
+                group.getFailed(), elapsedMillis / 1000.0));
+        for (Map.Entry<String, Integer> failure : group.getFailures().entrySet()) {
+            System.out.println(String.format(Locale.ROOT, "%8d failed to start: %s", failure.getValue(), failure.getKey()));
+        }
+        System.out.print(total.formatSummary(elapsedMillis));
+        File histogramFile = config.getGeneratorFile(DriverConfig.HISTOGRAM_FILE, DriverConfig.DEFAULT_HISTOGRAM_FILE);
+        total.writeHistograms(histogramFile);
+        System.out.println("Latency distributions written to " + histogramFile + ".");
+
+        LoadReport snapshot = new LoadReport();
+        snapshot.add(MergeSnapshots.DEVICES_STARTED, group.getStarted());
+        snapshot.add(MergeSnapshots.DEVICES_FAILED, group.getFailed());
+        snapshot.add(total);
+        File snapshotFile = config.getGeneratorFile(DriverConfig.SNAPSHOT_FILE, DriverConfig.DEFAULT_SNAPSHOT_FILE);
+        DevicePartition partition = group.getPartition();
+        new LoadSnapshot(partition.getIndex(), partition.getCount(), elapsedMillis, snapshot).write(snapshotFile);
+        System.out.println("Snapshot for merging written to " + snapshotFile + ".");
+        return total;
+    }
+
+    /**
+     * Ends the run early, the totals so far are still reported.
+     */
+    public void stop() {
+        stopped = true;
+        Thread thread = runner;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: LoadDriver config.properties|plan.jmx [key=value ...]");
+            System.exit(2);
+        }
+        DriverConfig config = DriverConfig.load(new File(args[0]));
+        for (int i = 1; i < args.length; i++) {
+            int separator = args[i].indexOf('=');
+            if (separator <= 0) {
+                System.err.println("Expected key=value: " + args[i]);
+                System.exit(2);
+            }
+            config.set(args[i].substring(0, separator), args[i].substring(separator + 1));
+        }
+        final LoadDriver driver = new LoadDriver(config);
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                driver.stop();
+                try {
+                    driver.finished.await(30, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    // exiting anyway
+                }
+            }
+        });
+        driver.run();
+        System.exit(0);
+    }
+}
@@ -0,0 +1,147 @@
+package net.xmeter.driver;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import net.xmeter.stats.LatencyHistogram;
+
+/**
+ * Named counters and latency histograms of the load driver, for one report interval or the whole
+ * run. Filled by the reporting thread only, not thread safe.
+ */
+public class LoadReport {
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+    private static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99", "p99.9" };
+
+    private final Map<String, Long> counters = new LinkedHashMap<>();
+    private final Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+
+    public void add(String counter, long value) {
+        Long current = counters.get(counter);
+        counters.put(counter, current == null ? value : current + value);
+    }
+
+    public void add(String histogram, LatencyHistogram values) {
+        LatencyHistogram total = getHistogram(histogram);
+        if (values.getCount() > 0) {
+            total.add(values);
+        }
+    }
+
+    public void record(String histogram, long valueNanos) {
+        getHistogram(histogram).record(valueNanos);
+    }
+
+    public void add(LoadReport other) {
+        for (Map.Entry<String, Long> counter : other.counters.entrySet()) {
+            add(counter.getKey(), counter.getValue());
+        }
+        for (Map.Entry<String, LatencyHistogram> histogram : other.histograms.entrySet()) {
+            add(histogram.getKey(), histogram.getValue());
+        }
+    }
+
+    public long getCounter(String counter) {
+        Long value = counters.get(counter);
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * @return the histogram, created empty on first use.
+     */
+    public LatencyHistogram getHistogram(String histogram) {
+        LatencyHistogram values = histograms.get(histogram);
+        if (values == null) {
+            values = new LatencyHistogram();
+            histograms.put(histogram, values);
+        }
+        return values;
+    }
+
+    Map<String, Long> getCounters() {
+        return Collections.unmodifiableMap(counters);
+    }
+
+    Map<String, LatencyHistogram> getHistograms() {
+        return Collections.unmodifiableMap(histograms);
+    }
+
+    /**
+     * @return one line with the counters and the median and p99 latencies, e.g. for an interval.
+     */
+    public String formatLine() {
+        StringBuilder line = new StringBuilder();
+        for (Map.Entry<String, Long> counter : counters.entrySet()) {
+            line.append(' ').append(counter.getKey()).append('=').append(counter.getValue());
+        }
+        for (Map.Entry<String, LatencyHistogram> histogram : histograms.entrySet()) {
+            LatencyHistogram values = histogram.getValue();
+            if (values.getCount() > 0) {
+                line.append(String.format(Locale.ROOT, " %s(ms) p50=%s p99=%s max=%s", histogram.getKey(),
+                        toMillis(values.getValueAtPercentile(50)), toMillis(values.getValueAtPercentile(99)), toMillis(values.getMax())));
+            }
+        }
+        return line.toString();
+    }
+
+    /**
+     * @param elapsedMillis duration the counters were collected over, for the rates.
+     * @return totals, rates and percentiles, several lines.
+     */
+    public String formatSummary(long elapsedMillis) {
+        double seconds = Math.max(elapsedMillis, 1) / 1000.0;
+        StringBuilder summary = new StringBuilder();
+        for (Map.Entry<String, Long> counter : counters.entrySet()) {
+            summary.append(String.format(Locale.ROOT, "%-24s %14d %14.1f/s%n", counter.getKey(), counter.getValue(),
+                    counter.getValue() / seconds));
+        }
+        for (Map.Entry<String, LatencyHistogram> histogram : histograms.entrySet()) {
+            LatencyHistogram values = histogram.getValue();
+            summary.append(String.format(Locale.ROOT, "%-24s count=%d min=%s", histogram.getKey() + "(ms)", values.getCount(),
+                    toMillis(values.getMin())));
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                summary.append(' ').append(PERCENTILE_NAMES[i]).append('=').append(toMillis(values.getValueAtPercentile(PERCENTILES[i])));
+            }
+            summary.append(String.format(Locale.ROOT, " max=%s mean=%s%n", toMillis(values.getMax()), toMillis((long) values.getMean())));
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Writes the percentile distribution of every histogram: for each bucket holding values, its
+     * upper bound in ms, the share of values at or below it and their count.
+     */
+    public void writeHistograms(File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8")))) {
+            for (Map.Entry<String, LatencyHistogram> histogram : histograms.entrySet()) {
+                LatencyHistogram values = histogram.getValue();
+                out.println("# " + histogram.getKey());
+                out.println(String.format(Locale.ROOT, "%14s %12s %14s", "Value(ms)", "Percentile", "TotalCount"));
+                long[] counts = values.getCounts();
+                long total = values.getCount();
+                long seen = 0;
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] == 0) {
+                        continue;
+                    }
+                    seen += counts[i];
+                    long upper = Math.min(LatencyHistogram.getBucketUpperBound(i), values.getMax());
+                    out.println(String.format(Locale.ROOT, "%14s %12.6f %14d", toMillis(upper), (double) seen / total, seen));
+                }
+                out.println();
+            }
+        }
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1000000.0);
+    }
+}
@@ -0,0 +1,169 @@
+package net.xmeter.driver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+import net.xmeter.stats.LatencyHistogram;
+
+/**
+ * The totals of one load driver process, written at the end of its run so that the results of
+ * several generators can be merged by {@link MergeSnapshots}. Histograms are kept bucket by bucket,
+ * so merged percentiles are the same as if one process had recorded all values.
+ * <p>
+ * The file is plain text, one value per line:
+ * <pre>
+ * generator=2/4
+ * elapsed_ms=60012
+ * buckets=2240
+ * counter.sent=120000
+ * histogram.latency=count min max sum index:count,index:count,...
+ * </pre>
+ */
+public class LoadSnapshot {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String GENERATOR = "generator=";
+    private static final String ELAPSED = "elapsed_ms=";
+    private static final String BUCKETS = "buckets=";
+    private static final String COUNTER = "counter.";
+    private static final String HISTOGRAM = "histogram.";
+
+    private final int generatorIndex;
+    private final int generatorCount;
+    private final long elapsedMillis;
+    private final LoadReport report;
+
+    /**
+     * @param generatorCount number of generators of the test, 0 if the devices were not partitioned.
+     */
+    public LoadSnapshot(int generatorIndex, int generatorCount, long elapsedMillis, LoadReport report) {
+        this.generatorIndex = generatorIndex;
+        this.generatorCount = generatorCount;
+        this.elapsedMillis = elapsedMillis;
+        this.report = report;
+    }
+
+    public int getGeneratorIndex() {
+        return generatorIndex;
+    }
+
+    public int getGeneratorCount() {
+        return generatorCount;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public LoadReport getReport() {
+        return report;
+    }
+
+    public void write(File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), UTF_8))) {
+            out.println(GENERATOR + generatorIndex + "/" + generatorCount);
+            out.println(ELAPSED + elapsedMillis);
+            out.println(BUCKETS + LatencyHistogram.getBucketCount());
+            for (Map.Entry<String, Long> counter : report.getCounters().entrySet()) {
+                out.println(COUNTER + counter.getKey() + "=" + counter.getValue());
+            }
+            for (Map.Entry<String, LatencyHistogram> histogram : report.getHistograms().entrySet()) {
+                LatencyHistogram values = histogram.getValue();
+                StringBuilder line = new StringBuilder(HISTOGRAM).append(histogram.getKey()).append('=').append(values.getCount())
+                        .append(' ').append(values.getMin()).append(' ').append(values.getMax()).append(' ').append(values.getSum()).append(' ');
+                long[] counts = values.getCounts();
+                boolean first = true;
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] != 0) {
+                        if (!first) {
+                            line.append(',');
+                        }
+                        line.append(i).append(':').append(counts[i]);
+                        first = false;
+                    }
+                }
+                out.println(line);
+            }
+        }
+    }
+
+    /**
+     * @throws IOException if the file cannot be read, is not a snapshot, or was written with
+     *         different histogram buckets.
+     */
+    public static LoadSnapshot read(File file) throws IOException {
+        int index = 0;
+        int count = 0;
+        long elapsed = 0;
+        boolean generatorFound = false;
+        LoadReport report = new LoadReport();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if ("".equals(line) || line.startsWith("#")) {
+                    continue;
+                }
+                try {
+                    if (line.startsWith(GENERATOR)) {
+                        String[] generator = line.substring(GENERATOR.length()).split("/");
+                        index = Integer.parseInt(generator[0]);
+                        count = Integer.parseInt(generator[1]);
+                        generatorFound = true;
+                    } else if (line.startsWith(ELAPSED)) {
+                        elapsed = Long.parseLong(line.substring(ELAPSED.length()));
+                    } else if (line.startsWith(BUCKETS)) {
+                        int buckets = Integer.parseInt(line.substring(BUCKETS.length()));
+                        if (buckets != LatencyHistogram.getBucketCount()) {
+                            throw new IOException(file + " has " + buckets + " histogram buckets, expected "
+                                    + LatencyHistogram.getBucketCount() + ".");
+                        }
+                    } else if (line.startsWith(COUNTER)) {
+                        int separator = line.lastIndexOf('=');
+                        report.add(line.substring(COUNTER.length(), separator), Long.parseLong(line.substring(separator + 1)));
+                    } else if (line.startsWith(HISTOGRAM)) {
+                        int separator = line.lastIndexOf('=');
+                        readHistogram(report.getHistogram(line.substring(HISTOGRAM.length(), separator)), line.substring(separator + 1));
+                    } else {
+                        throw new IOException("Unexpected line " + lineNumber + " in " + file + ": " + line);
+                    }
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    throw new IOException("Invalid line " + lineNumber + " in " + file + ": " + line, e);
+                }
+            }
+        }
+        if (!generatorFound) {
+            throw new IOException(file + " is not a load driver snapshot.");
+        }
+        return new LoadSnapshot(index, count, elapsed, report);
+    }
+
+    private static void readHistogram(LatencyHistogram histogram, String value) throws IOException {
+        String[] fields = value.split(" ");
+        long count = Long.parseLong(fields[0]);
+        if (count == 0) {
+            return;
+        }
+        long[] counts = new long[LatencyHistogram.getBucketCount()];
+        long total = 0;
+        for (String bucket : fields[4].split(",")) {
+            int separator = bucket.indexOf(':');
+            long bucketCount = Long.parseLong(bucket.substring(separator + 1));
+            counts[Integer.parseInt(bucket.substring(0, separator))] += bucketCount;
+            total += bucketCount;
+        }
+        if (total != count) {
+            throw new IOException("Histogram buckets hold " + total + " values, expected " + count + ".");
+        }
+        histogram.add(counts, Long.parseLong(fields[1]), Long.parseLong(fields[2]), Long.parseLong(fields[3]));
+    }
+}
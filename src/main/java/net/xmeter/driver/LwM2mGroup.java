@@ -0,0 +1,132 @@
+package net.xmeter.driver;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.leshan.core.model.LwM2mModel;
+import org.eclipse.leshan.core.request.BindingMode;
+
+import net.xmeter.SharedScheduler;
+import net.xmeter.coap.EndpointPool;
+import net.xmeter.lwm2m.DeviceDefinition;
+import net.xmeter.lwm2m.LwM2mDevice;
+import net.xmeter.lwm2m.ObjectModelRegistry;
+import net.xmeter.lwm2m.RegistrationScheduler;
+import net.xmeter.lwm2m.SensorSimulation;
+import net.xmeter.stats.LatencyHistogram;
+import net.xmeter.stats.NotificationStats;
+import net.xmeter.stats.UpdateStats;
+
+/**
+ * LwM2M devices that register once and then stay registered, as with Register and keep updating:
+ * the registration scheduler updates every communication period and, for Register and notify,
+ * the simulated objects change on the shared timer. The scheduled updates of all devices are
+ * recorded into one statistics of the group. The per-sample operations have no sample loop here,
+ * see {@link DeviceGroup#create(DriverConfig, EndpointPool)}.
+ */
+public class LwM2mGroup extends DeviceGroup {
+    private final LwM2mModel model;
+    private final RegistrationScheduler scheduler;
+    private final boolean notify;
+    private final long periodMillis;
+    private final double jitter;
+    private final ConcurrentLinkedQueue<LwM2mDevice> devices = new ConcurrentLinkedQueue<>();
+    private final AtomicReference<LatencyHistogram> registrations = new AtomicReference<>(new LatencyHistogram());
+    private final AtomicReference<UpdateStats> updates = new AtomicReference<>(new UpdateStats());
+    private final AtomicLong registered = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public LwM2mGroup(DriverConfig config, EndpointPool pool) throws IOException {
+        super(config, pool);
+        model = ObjectModelRegistry.getModel(config.get(MODEL_DIRS, DEFAULT_MODEL_DIRS));
+        notify = OPERATION_NOTIFY.equals(config.getOperation());
+        long period;
+        try {
+            period = Long.parseLong(config.get(COMMUNICATION_PERIOD, DEFAULT_COMMUNICATION_PERIOD));
+        } catch (NumberFormatException e) {
+            period = Long.parseLong(DEFAULT_COMMUNICATION_PERIOD);
+        }
+        periodMillis = period;
+        double percent;
+        try {
+            percent = Double.parseDouble(config.get(UPDATE_JITTER, DEFAULT_UPDATE_JITTER));
+        } catch (NumberFormatException e) {
+            percent = Double.parseDouble(DEFAULT_UPDATE_JITTER);
+        }
+        jitter = Math.max(0, Math.min(100, percent)) / 100;
+        scheduler = periodMillis > 0 ? RegistrationScheduler.acquire() : null;
+        if (notify) {
+            SharedScheduler.acquire();
+        }
+    }
+
+    @Override
+    protected boolean startDevice(int device, DeviceDefinition definition, String name) throws Exception {
+        long lifetime = config.getLong(LIFE_TIME, DEFAULT_LIFT_TIME);
+        BindingMode binding = BindingMode.U;
+        if (definition != null) {
+            if (definition.getLifetime() > 0) {
+                lifetime = definition.getLifetime();
+            }
+            if (definition.getBinding() != null) {
+                binding = BindingMode.valueOf(definition.getBinding());
+            }
+        }
+        SensorSimulation sensors = notify ? SensorSimulation.forObjects(config.get(SENSOR_OBJECTS, DEFAULT_SENSOR_OBJECTS)) : null;
+        LwM2mDevice lwm2mDevice = new LwM2mDevice(name, config.getServerUri(), lifetime, binding, model, pool, null, null, null, sensors,
+                scheduler, updates);
+        devices.add(lwm2mDevice);
+        if (!lwm2mDevice.register(config.getConnTimeoutMillis())) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        registered.incrementAndGet();
+        if (lwm2mDevice.getRoundTripMillis() >= 0) {
+            registrations.get().record(lwm2mDevice.getRoundTripMillis() * 1000000L);
+        }
+        if (scheduler != null) {
+            lwm2mDevice.startScheduledUpdates(periodMillis, jitter);
+        }
+        if (sensors != null) {
+            lwm2mDevice.startSensors(config.getLong(SENSOR_INTERVAL, DEFAULT_SENSOR_INTERVAL));
+        }
+        return true;
+    }
+
+    @Override
+    public void collect(LoadReport report) {
+        report.add("registered", registered.getAndSet(0));
+        report.add("registration_failed", rejected.getAndSet(0));
+        report.add("registration", registrations.getAndSet(new LatencyHistogram()));
+        UpdateStats interval = updates.getAndSet(new UpdateStats());
+        report.add("updates", interval.getTriggered());
+        report.add("update_succeeded", interval.getSucceeded());
+        report.add("update_failed", interval.getFailed());
+        report.add("update_missed", interval.getMissed());
+        report.add("update", interval.getLatencies());
+        for (LwM2mDevice device : devices) {
+            if (device.getSensors() != null) {
+                NotificationStats notifications = device.getSensors().rotate();
+                report.add("value_changes", notifications.getChanges());
+                report.add("observations", notifications.getObservations());
+                report.add("notifications", notifications.getNotifications());
+                report.add("notification_failed", notifications.getFailed());
+                report.add("notification_bytes", notifications.getBytes());
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        for (LwM2mDevice device : devices) {
+            device.destroy();
+        }
+        devices.clear();
+        RegistrationScheduler.release(scheduler);
+        if (notify) {
+            SharedScheduler.release();
+        }
+    }
+}
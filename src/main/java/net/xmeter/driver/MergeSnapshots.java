@@ -0,0 +1,110 @@
+package net.xmeter.driver;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+
+import net.xmeter.stats.LatencyHistogram;
+
+/**
+ * Combines the snapshots of the load drivers, or of the JMeter instances (see
+ * {@link net.xmeter.samplers.GeneratorSnapshot}), that shared the devices of one test into one
+ * report, as if a single driver had simulated all devices. Counters are added up, latency histograms merged
+ * bucket by bucket, and rates are computed over the longest run, since the generators run side by
+ * side.
+ * <p>
+ * Usage: MergeSnapshots [-o histogram-merged.txt] snapshot-0.txt snapshot-1.txt ...
+ */
+public class MergeSnapshots {
+    private static final String DEFAULT_HISTOGRAM_FILE = "histogram-merged.txt";
+    static final String DEVICES_STARTED = "devices_started";
+    static final String DEVICES_FAILED = "devices_failed";
+
+    /**
+     * @return the merged totals over all snapshots.
+     * @throws IllegalArgumentException if the snapshots are not from the generators of one test, or
+     *         one generator is there twice, its results would be counted twice.
+     */
+    public static LoadSnapshot merge(List<LoadSnapshot> snapshots) {
+        if (snapshots.isEmpty()) {
+            throw new IllegalArgumentException("No snapshot to merge.");
+        }
+        int count = snapshots.get(0).getGeneratorCount();
+        TreeSet<Integer> generators = new TreeSet<>();
+        LoadReport total = new LoadReport();
+        long elapsedMillis = 0;
+        for (LoadSnapshot snapshot : snapshots) {
+            if (snapshot.getGeneratorCount() != count) {
+                throw new IllegalArgumentException("Snapshots of " + count + " and of " + snapshot.getGeneratorCount()
+                        + " generators cannot be merged.");
+            }
+            if (!generators.add(snapshot.getGeneratorIndex())) {
+                throw new IllegalArgumentException("Generator " + snapshot.getGeneratorIndex() + " is there twice.");
+            }
+            total.add(snapshot.getReport());
+            elapsedMillis = Math.max(elapsedMillis, snapshot.getElapsedMillis());
+        }
+        if (count == 0 && snapshots.size() > 1) {
+            throw new IllegalArgumentException("The snapshots are not partitioned, their devices may overlap. "
+                    + "Run the drivers with coap.generator_index and coap.generator_count.");
+        }
+        return new LoadSnapshot(0, count, elapsedMillis, total);
+    }
+
+    public static void main(String[] args) throws IOException {
+        File histogramFile = new File(DEFAULT_HISTOGRAM_FILE);
+        List<LoadSnapshot> snapshots = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("-o".equals(args[i]) && i + 1 < args.length) {
+                histogramFile = new File(args[++i]);
+            } else {
+                snapshots.add(LoadSnapshot.read(new File(args[i])));
+            }
+        }
+        if (snapshots.isEmpty()) {
+            System.err.println("Usage: MergeSnapshots [-o " + DEFAULT_HISTOGRAM_FILE + "] snapshot-0.txt snapshot-1.txt ...");
+            System.exit(2);
+        }
+
+        LoadSnapshot merged;
+        try {
+            merged = merge(snapshots);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+        int count = merged.getGeneratorCount();
+        if (snapshots.size() < count) {
+            TreeSet<Integer> missing = new TreeSet<>();
+            for (int i = 0; i < count; i++) {
+                missing.add(i);
+            }
+            for (LoadSnapshot snapshot : snapshots) {
+                missing.remove(snapshot.getGeneratorIndex());
+            }
+            System.err.println("Warning: no snapshot of generators " + missing + ", their devices are missing from the report.");
+        }
+
+        LoadReport total = merged.getReport();
+        LoadReport summary = new LoadReport();
+        for (Map.Entry<String, Long> counter : total.getCounters().entrySet()) {
+            if (!DEVICES_STARTED.equals(counter.getKey()) && !DEVICES_FAILED.equals(counter.getKey())) {
+                summary.add(counter.getKey(), counter.getValue());
+            }
+        }
+        for (Map.Entry<String, LatencyHistogram> histogram : total.getHistograms().entrySet()) {
+            summary.add(histogram.getKey(), histogram.getValue());
+        }
+        System.out.println(String.format(Locale.ROOT, "%d snapshots of %d generators, devices started %d, failed %d, in %.1f s.",
+                snapshots.size(), Math.max(count, 1), total.getCounter(DEVICES_STARTED), total.getCounter(DEVICES_FAILED),
+                merged.getElapsedMillis() / 1000.0));
+        System.out.print(summary.formatSummary(merged.getElapsedMillis()));
+        summary.writeHistograms(histogramFile);
+        System.out.println("Latency distributions written to " + histogramFile + ".");
+    }
+}
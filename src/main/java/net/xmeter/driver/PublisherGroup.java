@@ -0,0 +1,381 @@
+package net.xmeter.driver;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.coap.Request;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.xmeter.Util;
+import net.xmeter.coap.EndpointPool;
+import net.xmeter.coap.RequestTemplate;
+import net.xmeter.engine.AsyncPublisher;
+import net.xmeter.engine.DeviceExecutor;
+import net.xmeter.lwm2m.DeviceDefinition;
+import net.xmeter.payload.LatencyHeader;
+import net.xmeter.payload.PayloadCorpus;
+import net.xmeter.payload.PayloadPool;
+import net.xmeter.stats.PublishStats;
+
+/**
+ * Publishers sending on the open-loop schedule of Publish at constant rate: every device sends
+ * coap.publish_rate messages per second, latency is measured from the intended send time and
+ * slots passing while the in-flight window is full are counted as missed. Plain Publish waits for
+ * each response before the next send, so it runs the same schedule with one request in flight.
+ * <p>
+ * A few sender threads serve all devices, each keeps its devices in a queue ordered by the next
+ * send time. With driver.device_threads every device runs on a thread of its own from
+ * {@link DeviceExecutor} instead, as a JMeter thread would: plain Publish blocks for each response
+ * and Publish pipelined, which needs a thread per device, becomes available. All devices record
+ * into one {@link PublishStats}.
+ */
+public class PublisherGroup extends DeviceGroup {
+    private transient static Logger logger = LoggerFactory.getLogger(PublisherGroup.class.getName());
+
+    private static final long EXPIRE_INTERVAL_NANOS = 100000000L;
+
+    private final AtomicReference<PublishStats> stats = new AtomicReference<>(new PublishStats());
+    private final ConcurrentLinkedQueue<CoapClient> clients = new ConcurrentLinkedQueue<>();
+    private final long periodNanos;
+    private final int maxInFlight;
+    private final boolean addTimestamp;
+    private final byte[] fixedPayload;
+    private final PayloadPool payloadPool;
+    private final PayloadCorpus corpus;
+    private final long corpusIndex;
+    private final boolean pipelined;
+    private final Sender[] senders;
+    /** Runs the device loops, null when the senders serve the devices. */
+    private final ExecutorService deviceThreads;
+    private volatile boolean running = true;
+
+    public PublisherGroup(DriverConfig config, EndpointPool pool) throws IOException {
+        super(config, pool);
+        String operation = config.getOperation();
+        String threadMode = config.get(DriverConfig.DEVICE_THREADS, DriverConfig.DEFAULT_DEVICE_THREADS).trim();
+        pipelined = OPERATION_PUBLISH_PIPELINED.equals(operation);
+        if (pipelined && "".equals(threadMode)) {
+            throw new IllegalArgumentException(operation + " needs a thread per device, set " + DriverConfig.DEVICE_THREADS
+                    + " or use " + OPERATION_PUBLISH_AT_RATE + ".");
+        }
+        periodNanos = Math.max(1, (long) (1000000000.0 / config.getPositive(PUBLISH_RATE, DEFAULT_PUBLISH_RATE)));
+        maxInFlight = OPERATION_PUBLISH.equals(operation) ? 1 : config.getInt(MAX_IN_FLIGHT, DEFAULT_MAX_IN_FLIGHT);
+        addTimestamp = config.getBoolean(ADD_TIMESTAMP, DEFAULT_ADD_TIMESTAMP);
+
+        String payloadType = config.get(PAYLOAD_TYPE, PAYLOAD_TYPE_RANDOM_STR_WITH_FIX_LEN);
+        byte[] fixed = null;
+        PayloadPool generated = null;
+        PayloadCorpus records = null;
+        if (PAYLOAD_TYPE_STRING.equals(payloadType)) {
+            fixed = config.get(PAYLOAD_TO_BE_SENT, "").getBytes("UTF-8");
+        } else if (PAYLOAD_TYPE_HEX_STRING.equals(payloadType)) {
+            fixed = Util.parseHex(config.get(PAYLOAD_TO_BE_SENT, "").trim());
+        } else if (PAYLOAD_TYPE_CORPUS.equals(payloadType)) {
+            File file = Util.resolveFile(config.get(CORPUS_FILE, DEFAULT_CORPUS_FILE));
+            if (file == null) {
+                throw new IOException("Cannot find file : " + config.get(CORPUS_FILE, DEFAULT_CORPUS_FILE));
+            }
+            records = PayloadCorpus.acquire(file);
+        } else {
+            generated = PayloadPool.forSpec(config.get(PAYLOAD_FIX_LENGTH, DEFAULT_PAYLOAD_FIX_LENGTH));
+        }
+        fixedPayload = fixed;
+        payloadPool = generated;
+        corpus = records;
+        corpusIndex = Long.parseLong(config.get(CORPUS_INDEX, DEFAULT_CORPUS_INDEX));
+
+        if ("".equals(threadMode)) {
+            deviceThreads = null;
+            senders = new Sender[config.getInt(DriverConfig.SENDER_THREADS, DriverConfig.DEFAULT_SENDER_THREADS)];
+            for (int i = 0; i < senders.length; i++) {
+                senders[i] = new Sender(i);
+            }
+        } else {
+            deviceThreads = DeviceExecutor.create(threadMode, "driver-device");
+            senders = new Sender[0];
+        }
+    }
+
+    @Override
+    protected boolean startDevice(int device, DeviceDefinition definition, String name) throws Exception {
+        RequestTemplate template = new RequestTemplate.Builder()
+                .setMethod(config.get(METHOD_TYPE, DEFAULT_PUB_METHOD_TYPE))
+                .setMessageType(config.get(COAP_MESSAGE_TYPE, DEFAULT_COAP_MESSAGE_TYPE))
+                .setDestination(config.getServer(), config.getPort())
+                .setResourcePath(getResourcePath(definition))
+                .setQuery(config.getQuery(name))
+                .setContentFormat(MediaTypeRegistry.APPLICATION_OCTET_STREAM)
+                .build();
+        CoapClient client = new CoapClient();
+        client.setTimeout(config.getConnTimeoutMillis());
+        if (pool != null) {
+            client.setEndpoint(pool.next());
+        }
+        clients.add(client);
+        AsyncPublisher publisher = new AsyncPublisher(client, template, maxInFlight, config.getConnTimeoutMillis(), stats);
+        Publisher entry = new Publisher(publisher, name.hashCode(), corpusIndex + device);
+        if (deviceThreads != null) {
+            entry.cursor = newCursor(corpusIndex + device);
+            deviceThreads.execute(new DeviceLoop(entry, client, template));
+        } else {
+            senders[device % senders.length].add(entry);
+        }
+        return true;
+    }
+
+    @Override
+    public void collect(LoadReport report) {
+        PublishStats interval = stats.getAndSet(new PublishStats());
+        report.add("sent", interval.getSent());
+        report.add("succeeded", interval.getSucceeded());
+        report.add("failed", interval.getFailed());
+        report.add("timed_out", interval.getTimedOut());
+        report.add("missed", interval.getMissed());
+        report.add("late", interval.getLate());
+        report.add("sent_bytes", interval.getSentBytes());
+        report.add("received_bytes", interval.getReceivedBytes());
+        report.add("latency", interval.getLatencies());
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        for (Sender sender : senders) {
+            sender.stop();
+        }
+        if (deviceThreads != null) {
+            deviceThreads.shutdownNow();
+            try {
+                deviceThreads.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (CoapClient client : clients) {
+            client.shutdown();
+        }
+        clients.clear();
+        PayloadCorpus.release(corpus);
+    }
+
+    private byte[] nextPayload(Publisher publisher) {
+        byte[] content = fixedPayload;
+        if (content == null) {
+            if (publisher.cursor != null) {
+                content = publisher.cursor.next();
+            } else if (corpus != null) {
+                content = corpus.get(publisher.corpusIndex);
+            } else {
+                content = payloadPool.next();
+            }
+        }
+        if (!addTimestamp) {
+            return content;
+        }
+        return LatencyHeader.prepend(content, publisher.publisherId, publisher.sequence++,
+                LatencyHeader.toEpochNanos(publisher.nextSendNanos));
+    }
+
+    /**
+     * @return a cursor for sequential or random corpus selection, null if the records are selected by index.
+     */
+    private PayloadCorpus.Cursor newCursor(long startIndex) {
+        String selection = config.get(CORPUS_SELECTION, DEFAULT_CORPUS_SELECTION);
+        return corpus != null && !CORPUS_BY_INDEX.equals(selection) ? corpus.newCursor(CORPUS_RANDOM.equals(selection), startIndex) : null;
+    }
+
+    private static class Publisher {
+        final AsyncPublisher publisher;
+        final int publisherId;
+        final long corpusIndex;
+        PayloadCorpus.Cursor cursor;
+        long sequence = 0;
+        long nextSendNanos;
+
+        Publisher(AsyncPublisher publisher, int publisherId, long corpusIndex) {
+            this.publisher = publisher;
+            this.publisherId = publisherId;
+            this.corpusIndex = corpusIndex;
+        }
+    }
+
+    private static final Comparator<Publisher> BY_NEXT_SEND = new Comparator<Publisher>() {
+        @Override
+        public int compare(Publisher a, Publisher b) {
+            long difference = a.nextSendNanos - b.nextSendNanos;
+            return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+        }
+    };
+
+    /**
+     * Sends for its share of the devices, new devices start at a random point of their first period.
+     */
+    private class Sender implements Runnable {
+        private final ConcurrentLinkedQueue<Publisher> added = new ConcurrentLinkedQueue<>();
+        private final List<Publisher> publishers = new ArrayList<>();
+        private final PriorityQueue<Publisher> schedule = new PriorityQueue<>(64, BY_NEXT_SEND);
+        private final PayloadCorpus.Cursor cursor;
+        private final Thread thread;
+        private volatile boolean running = true;
+
+        Sender(int index) {
+            cursor = newCursor(corpusIndex + index);
+            thread = Util.newThreadFactory("driver-sender-" + index).newThread(this);
+            thread.start();
+        }
+
+        void add(Publisher publisher) {
+            publisher.cursor = cursor;
+            added.add(publisher);
+            LockSupport.unpark(thread);
+        }
+
+        @Override
+        public void run() {
+            long nextExpire = System.nanoTime() + EXPIRE_INTERVAL_NANOS;
+            while (running) {
+                Publisher next;
+                while ((next = added.poll()) != null) {
+                    next.nextSendNanos = System.nanoTime() + ThreadLocalRandom.current().nextLong(periodNanos);
+                    publishers.add(next);
+                    schedule.add(next);
+                }
+                long now = System.nanoTime();
+                if (now - nextExpire >= 0) {
+                    for (Publisher publisher : publishers) {
+                        publisher.publisher.expire(now);
+                    }
+                    nextExpire = now + EXPIRE_INTERVAL_NANOS;
+                }
+                next = schedule.peek();
+                if (next == null || next.nextSendNanos - now > 0) {
+                    long wakeUp = next != null && next.nextSendNanos - nextExpire < 0 ? next.nextSendNanos : nextExpire;
+                    LockSupport.parkNanos(wakeUp - now);
+                    continue;
+                }
+                schedule.poll();
+                boolean late = now - next.nextSendNanos > periodNanos;
+                try {
+                    if (!next.publisher.trySend(nextPayload(next), next.nextSendNanos, late)) {
+                        next.publisher.recordMissed();
+                    }
+                } catch (Exception e) {
+                    logger.error(e.getMessage(), e);
+                }
+                next.nextSendNanos += periodNanos;
+                schedule.add(next);
+            }
+            for (Publisher publisher : publishers) {
+                publisher.publisher.cancelAll();
+            }
+        }
+
+        void stop() {
+            running = false;
+            LockSupport.unpark(thread);
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * One device on a thread of its own, starting at a random point of its first period. Plain
+     * Publish waits for each response and counts the slots passing meanwhile as missed, Publish at
+     * constant rate sends into the in-flight window and Publish pipelined as fast as it allows.
+     */
+    private class DeviceLoop implements Runnable {
+        private final Publisher device;
+        private final CoapClient client;
+        private final RequestTemplate template;
+
+        DeviceLoop(Publisher device, CoapClient client, RequestTemplate template) {
+            this.device = device;
+            this.client = client;
+            this.template = template;
+        }
+
+        @Override
+        public void run() {
+            AsyncPublisher publisher = device.publisher;
+            long nextExpire = System.nanoTime() + EXPIRE_INTERVAL_NANOS;
+            device.nextSendNanos = System.nanoTime() + ThreadLocalRandom.current().nextLong(periodNanos);
+            try {
+                while (running) {
+                    long now = System.nanoTime();
+                    if (now - nextExpire >= 0) {
+                        publisher.expire(now);
+                        nextExpire = now + EXPIRE_INTERVAL_NANOS;
+                    }
+                    if (pipelined) {
+                        if (publisher.awaitSlot(nextExpire - now)) {
+                            device.nextSendNanos = System.nanoTime();
+                            publisher.sendAcquired(nextPayload(device));
+                        }
+                        continue;
+                    }
+                    if (device.nextSendNanos - now > 0) {
+                        TimeUnit.NANOSECONDS.sleep(Math.min(device.nextSendNanos, nextExpire) - now);
+                        continue;
+                    }
+                    boolean late = now - device.nextSendNanos > periodNanos;
+                    if (maxInFlight == 1) {
+                        sendAndWait(late);
+                    } else if (!publisher.trySend(nextPayload(device), device.nextSendNanos, late)) {
+                        publisher.recordMissed();
+                    }
+                    device.nextSendNanos += periodNanos;
+                }
+            } catch (InterruptedException e) {
+                // stopped
+            } catch (Exception e) {
+                logger.error(e.getMessage(), e);
+            } finally {
+                publisher.cancelAll();
+            }
+        }
+
+        private void sendAndWait(boolean late) {
+            Request request = template.newRequest(nextPayload(device));
+            byte[] sent = request.getBytes();
+            stats.get().recordSent(sent != null ? sent.length : request.getPayloadSize(), late, 1);
+            CoapResponse response;
+            try {
+                response = client.advanced(request);
+            } catch (Exception e) {
+                logger.debug("Publish failed: " + e.getMessage(), e);
+                stats.get().recordError();
+                return;
+            }
+            long now = System.nanoTime();
+            if (response == null) {
+                stats.get().recordTimeout();
+            } else {
+                byte[] received = response.advanced().getBytes();
+                stats.get().recordResponse(now - device.nextSendNanos,
+                        received != null ? received.length : response.advanced().getPayloadSize(), response.isSuccess());
+            }
+            while (now - (device.nextSendNanos + periodNanos) > 0) {
+                stats.get().recordMissed();
+                device.nextSendNanos += periodNanos;
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package net.xmeter.driver;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.coap.Request;
+
+import net.xmeter.SubBean;
+import net.xmeter.SubBeanWindow;
+import net.xmeter.coap.EndpointPool;
+import net.xmeter.coap.RequestTemplate;
+import net.xmeter.engine.SubscriptionHandler;
+import net.xmeter.lwm2m.DeviceDefinition;
+
+/**
+ * Subscribers observing their topic as the subscribe sampler does. All of them account into one
+ * {@link SubBeanWindow} through one {@link SubscriptionHandler}, the window is closed on every
+ * report instead of by a sample condition.
+ */
+public class SubscriberGroup extends DeviceGroup {
+    private final SubBeanWindow window = new SubBeanWindow(0);
+    private final SubscriptionHandler handler;
+    private final ConcurrentLinkedQueue<CoapClient> clients = new ConcurrentLinkedQueue<>();
+
+    public SubscriberGroup(DriverConfig config, EndpointPool pool) throws IOException {
+        super(config, pool);
+        handler = new SubscriptionHandler(window, config.getBoolean(ADD_TIMESTAMP, DEFAULT_ADD_TIMESTAMP));
+    }
+
+    @Override
+    protected boolean startDevice(int device, DeviceDefinition definition, String name) throws Exception {
+        CoapClient client = new CoapClient();
+        if (pool != null) {
+            client.setEndpoint(pool.next());
+        }
+        Request request = Request.newGet();
+        request.setConfirmable(DEFAULT_COAP_MESSAGE_TYPE.equals(config.get(COAP_MESSAGE_TYPE, DEFAULT_COAP_MESSAGE_TYPE)));
+        request.setURI(config.getServerUri());
+        RequestTemplate.applyResourcePath(request.getOptions(), getResourcePath(definition));
+        request.getOptions().setUriQuery(config.getQuery(name));
+        request.setObserve();
+        clients.add(client);
+        client.observe(request, handler);
+        return true;
+    }
+
+    @Override
+    public void collect(LoadReport report) {
+        SubBean bean = window.rotate();
+        report.add("received", bean.getReceivedCount());
+        report.add("received_bytes", bean.getReceivedMessageSize());
+        report.add("latency", bean.getLatencies());
+        window.recycle(bean);
+    }
+
+    @Override
+    public void stop() {
+        for (CoapClient client : clients) {
+            client.shutdown();
+        }
+        clients.clear();
+    }
+}
@@ -0,0 +1,202 @@
+package net.xmeter.engine;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+
+import net.xmeter.coap.RequestTemplate;
+import net.xmeter.stats.PublishStats;
+
+/**
+ * Publishes without waiting for the responses, keeping at most maxInFlight requests outstanding,
+ * either on the caller's schedule ({@link #trySend}) or as fast as the window allows ({@link #awaitSlot}).
+ * Every request carries its own 8 byte token and is answered to its own handler, and the latency is
+ * taken from the time the caller intended to send the request, so delays of the sender itself are
+ * part of the measured latency.
+ * <p>
+ * Requests that are not answered within the timeout are cancelled by {@link #expire(long)}, requests
+ * that fail (e.g. rejected by the endpoint) are counted as failed.
+ */
+public class AsyncPublisher {
+    private final CoapClient client;
+    private final RequestTemplate template;
+    private final int maxInFlight;
+    private final long timeoutNanos;
+    private final int tokenPrefix = ThreadLocalRandom.current().nextInt();
+    private final ConcurrentHashMap<Long, Pending> pending = new ConcurrentHashMap<Long, Pending>();
+    private final Semaphore window;
+    private final AtomicReference<PublishStats> stats;
+    private int sequence = 0;
+
+    /**
+     * An outstanding request, also the handler of its response so that a failure can be told apart
+     * from the other requests.
+     */
+    private class Pending implements CoapHandler {
+        final long key;
+        final Request request;
+        final long intendedNanos;
+        final AtomicBoolean done = new AtomicBoolean();
+
+        Pending(long key, Request request, long intendedNanos) {
+            this.key = key;
+            this.request = request;
+            this.intendedNanos = intendedNanos;
+        }
+
+        @Override
+        public void onLoad(CoapResponse response) {
+            long now = System.nanoTime();
+            if (!finish(this)) {
+                return;
+            }
+            Response advanced = response.advanced();
+            byte[] bytes = advanced.getBytes();
+            stats.get().recordResponse(now - intendedNanos, bytes != null ? bytes.length : advanced.getPayloadSize(),
+                    response.isSuccess());
+        }
+
+        @Override
+        public void onError() {
+            if (finish(this)) {
+                stats.get().recordError();
+            }
+        }
+    }
+
+    public AsyncPublisher(CoapClient client, RequestTemplate template, int maxInFlight, long timeoutMillis) {
+        this(client, template, maxInFlight, timeoutMillis, new AtomicReference<PublishStats>(new PublishStats()));
+    }
+
+    /**
+     * @param stats where the results are recorded, may be shared by many publishers and rotated by
+     *        its owner instead of {@link #rotate()}.
+     */
+    public AsyncPublisher(CoapClient client, RequestTemplate template, int maxInFlight, long timeoutMillis,
+            AtomicReference<PublishStats> stats) {
+        this.client = client;
+        this.stats = stats;
+        this.template = template;
+        this.maxInFlight = Math.max(maxInFlight, 1);
+        this.window = new Semaphore(this.maxInFlight);
+        this.timeoutNanos = timeoutMillis * 1000000L;
+    }
+
+    /**
+     * Sends the payload unless the in-flight window is full. Called from a single thread.
+     * @param intendedNanos when the message should have been sent, on the {@link System#nanoTime()} scale.
+     * @param lateSend true if the caller is behind its schedule for this message.
+     * @return false if the window is full and nothing was sent.
+     */
+    public boolean trySend(byte[] payload, long intendedNanos, boolean lateSend) {
+        if (!window.tryAcquire()) {
+            return false;
+        }
+        send(payload, intendedNanos, lateSend);
+        return true;
+    }
+
+    /**
+     * Waits up to timeoutNanos for a free place in the in-flight window, used to pipeline requests
+     * as fast as the window allows. A successful call must be followed by {@link #sendAcquired}.
+     */
+    public boolean awaitSlot(long timeoutNanos) throws InterruptedException {
+        return window.tryAcquire(Math.max(timeoutNanos, 0), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sends the payload in a place taken by {@link #awaitSlot(long)}, the latency is measured from now.
+     */
+    public void sendAcquired(byte[] payload) {
+        send(payload, System.nanoTime(), false);
+    }
+
+    private void send(byte[] payload, long intendedNanos, boolean lateSend) {
+        long key = ((long) tokenPrefix << 32) | (sequence++ & 0xFFFFFFFFL);
+        Request request = template.newAsyncRequest(payload, toToken(key));
+        Pending entry = new Pending(key, request, intendedNanos);
+        pending.put(key, entry);
+        client.advanced(entry, request);
+        byte[] bytes = request.getBytes();
+        stats.get().recordSent(bytes != null ? bytes.length : request.getPayloadSize(), lateSend, getInFlight());
+    }
+
+    /**
+     * @return true if the request was still outstanding, it is not any more.
+     */
+    private boolean finish(Pending entry) {
+        if (!entry.done.compareAndSet(false, true)) {
+            return false;
+        }
+        pending.remove(entry.key);
+        window.release();
+        return true;
+    }
+
+    /**
+     * Cancels and counts the requests whose timeout has passed.
+     */
+    public void expire(long nowNanos) {
+        Iterator<Pending> it = pending.values().iterator();
+        while (it.hasNext()) {
+            Pending entry = it.next();
+            if (nowNanos - entry.intendedNanos > timeoutNanos && entry.done.compareAndSet(false, true)) {
+                it.remove();
+                window.release();
+                entry.request.cancel();
+                stats.get().recordTimeout();
+            }
+        }
+    }
+
+    public void recordMissed() {
+        stats.get().recordMissed();
+    }
+
+    /**
+     * @return the statistics since the previous call, later results go to a new instance.
+     */
+    public PublishStats rotate() {
+        return stats.getAndSet(new PublishStats());
+    }
+
+    public int getInFlight() {
+        return maxInFlight - window.availablePermits();
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Cancels all outstanding requests without counting them.
+     */
+    public void cancelAll() {
+        for (Pending entry : pending.values()) {
+            if (entry.done.compareAndSet(false, true)) {
+                entry.request.cancel();
+                window.release();
+            }
+        }
+        pending.clear();
+    }
+
+    private static byte[] toToken(long key) {
+        byte[] token = new byte[8];
+        for (int i = 7; i >= 0; i--) {
+            token[i] = (byte) key;
+            key >>>= 8;
+        }
+        return token;
+    }
+}
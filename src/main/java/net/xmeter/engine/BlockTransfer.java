@@ -0,0 +1,236 @@
+package net.xmeter.engine;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.coap.BlockOption;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.elements.exception.ConnectorException;
+
+import net.xmeter.coap.RequestTemplate;
+import net.xmeter.payload.BlockSource;
+import net.xmeter.stats.LatencyHistogram;
+
+/**
+ * Block-wise transfer (RFC 7959) driven block by block, so that the latency of every block can be
+ * measured and the body is never assembled in memory. Every request carries an explicit Block1 or
+ * Block2 option, and the blocks of one transfer share a token.
+ * <p>
+ * The client's endpoint must not run Californium's blockwise layer, which would split, reassemble
+ * or follow up the blocks itself, see {@link net.xmeter.coap.EndpointPool#NON_BLOCKWISE_STACK}.
+ * <p>
+ * A server may ask for smaller blocks by answering with a smaller SZX, the following blocks then
+ * use that size. Not thread safe, one instance per sampler thread.
+ */
+public class BlockTransfer {
+    private final CoapClient client;
+    private final RequestTemplate template;
+    private final int szx;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    private int blocks;
+    private long bytes;
+    private long sentBytes;
+    private long receivedBytes;
+    private long elapsedNanos;
+    private long firstBlockNanos;
+    private int blockSize;
+    private String outcome;
+
+    /**
+     * @param blockSize 16 to 1024, a power of two.
+     */
+    public BlockTransfer(CoapClient client, RequestTemplate template, int blockSize) {
+        this.client = client;
+        this.template = template;
+        this.szx = BlockOption.size2Szx(blockSize);
+    }
+
+    /**
+     * Uploads the source from its first byte with Block1, waiting for 2.31 Continue after every block but the last.
+     * @return true if the server accepted the last block with a success code.
+     */
+    public boolean upload(BlockSource source) throws ConnectorException, IOException {
+        reset();
+        source.rewind();
+        long size = source.size();
+        byte[] token = newToken();
+        int currentSzx = szx;
+        byte[] buffer = new byte[BlockOption.szx2Size(currentSzx)];
+        long offset = 0;
+        long start = System.nanoTime();
+        try {
+            while (true) {
+                int length = BlockOption.szx2Size(currentSzx);
+                int count = source.read(buffer, length);
+                boolean more = offset + count < size;
+                Request request = template.newAsyncRequest(Arrays.copyOf(buffer, count), token);
+                request.getOptions().setBlock1(currentSzx, more, (int) (offset / length));
+                if (offset == 0) {
+                    request.getOptions().setSize1((int) Math.min(size, Integer.MAX_VALUE));
+                }
+                CoapResponse response = exchange(request, start);
+                if (response == null) {
+                    outcome = "No response to block " + (blocks - 1) + ".";
+                    return false;
+                }
+                offset += count;
+                bytes = offset;
+                if (!more) {
+                    outcome = "Response " + response.getCode() + ".";
+                    return response.isSuccess();
+                }
+                if (response.getCode() != CoAP.ResponseCode.CONTINUE) {
+                    outcome = "Response " + response.getCode() + " to block " + (blocks - 1) + ".";
+                    return false;
+                }
+                BlockOption block1 = response.getOptions().getBlock1();
+                if (block1 != null && block1.getSzx() < currentSzx) {
+                    currentSzx = block1.getSzx();
+                }
+            }
+        } finally {
+            elapsedNanos = System.nanoTime() - start;
+            blockSize = BlockOption.szx2Size(currentSzx);
+        }
+    }
+
+    /**
+     * Downloads the resource with Block2, counting the received bytes without keeping them.
+     * @return true if all blocks were received with a success code.
+     */
+    public boolean download() throws ConnectorException, IOException {
+        reset();
+        byte[] token = newToken();
+        int currentSzx = szx;
+        long offset = 0;
+        long start = System.nanoTime();
+        try {
+            while (true) {
+                int length = BlockOption.szx2Size(currentSzx);
+                Request request = template.newAsyncRequest(null, token);
+                request.getOptions().setBlock2(currentSzx, false, (int) (offset / length));
+                CoapResponse response = exchange(request, start);
+                if (response == null) {
+                    outcome = "No response to block " + (blocks - 1) + ".";
+                    return false;
+                }
+                if (!response.isSuccess()) {
+                    outcome = "Response " + response.getCode() + " to block " + (blocks - 1) + ".";
+                    return false;
+                }
+                byte[] payload = response.getPayload();
+                offset += payload != null ? payload.length : 0;
+                bytes = offset;
+                BlockOption block2 = response.getOptions().getBlock2();
+                if (block2 == null || !block2.isM()) {
+                    outcome = "Response " + response.getCode() + ".";
+                    return true;
+                }
+                if (block2.getSzx() < currentSzx) {
+                    currentSzx = block2.getSzx();
+                }
+            }
+        } finally {
+            elapsedNanos = System.nanoTime() - start;
+            blockSize = BlockOption.szx2Size(currentSzx);
+        }
+    }
+
+    private CoapResponse exchange(Request request, long transferStart) throws ConnectorException, IOException {
+        long sent = System.nanoTime();
+        CoapResponse response = client.advanced(request);
+        long now = System.nanoTime();
+        blocks++;
+        byte[] encoded = request.getBytes();
+        sentBytes += encoded != null ? encoded.length : request.getPayloadSize();
+        if (response != null) {
+            latencies.record(now - sent);
+            byte[] received = response.advanced().getBytes();
+            receivedBytes += received != null ? received.length : response.advanced().getPayloadSize();
+            if (firstBlockNanos < 0) {
+                firstBlockNanos = now - transferStart;
+            }
+        }
+        return response;
+    }
+
+    private void reset() {
+        latencies.reset();
+        blocks = 0;
+        bytes = 0;
+        sentBytes = 0;
+        receivedBytes = 0;
+        elapsedNanos = 0;
+        firstBlockNanos = -1;
+        outcome = "";
+    }
+
+    private static byte[] newToken() {
+        byte[] token = new byte[8];
+        ThreadLocalRandom.current().nextBytes(token);
+        return token;
+    }
+
+    /**
+     * @return the round trip time of every answered block of the last transfer.
+     */
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    /**
+     * @return requests sent in the last transfer, including an unanswered last one.
+     */
+    public int getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * @return body bytes transferred in the last transfer.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getSentBytes() {
+        return sentBytes;
+    }
+
+    public long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return time from the start of the last transfer to the answer to its first block, or -1.
+     */
+    public long getFirstBlockNanos() {
+        return firstBlockNanos;
+    }
+
+    /**
+     * @return block size at the end of the last transfer, smaller than configured if the server asked for it.
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @return body bytes per second of the last transfer.
+     */
+    public double getThroughput() {
+        return elapsedNanos > 0 ? bytes * 1000000000.0 / elapsedNanos : 0;
+    }
+
+    public String getOutcome() {
+        return outcome;
+    }
+}
@@ -0,0 +1,86 @@
+package net.xmeter.engine;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.xmeter.Util;
+
+/**
+ * Runs simulated device behaviour, one task per device, either on platform threads or, when the
+ * JVM supports them (Java 21+), on virtual threads. A device blocked on a virtual thread only keeps
+ * its stack frames on the heap, a few kilobytes instead of a full thread stack.
+ * <p>
+ * Virtual threads are cheap to create and must not be pooled, every task gets a new one. Platform
+ * threads come from a cached pool.
+ * <p>
+ * The plugin is compiled for Java 1.7, so virtual threads are created through reflection.
+ * Californium and Leshan callbacks keep running on the shared platform executors of
+ * {@link net.xmeter.coap.EndpointPool}, they must not block.
+ */
+public class DeviceExecutor {
+    private transient static Logger logger = LoggerFactory.getLogger(DeviceExecutor.class.getName());
+
+    public static final String MODE_PLATFORM = "platform";
+    public static final String MODE_VIRTUAL = "virtual";
+
+    private static final ThreadFactory VIRTUAL_FACTORY = createVirtualThreadFactory();
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR = findThreadPerTaskExecutor();
+
+    private DeviceExecutor() {
+    }
+
+    public static boolean isVirtualThreadSupported() {
+        return VIRTUAL_FACTORY != null && NEW_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * @param mode {@link #MODE_VIRTUAL} or {@link #MODE_PLATFORM}, falls back to platform threads if virtual ones are not available.
+     * @return an executor starting a new virtual thread for every task, or a cached pool of platform threads.
+     */
+    public static ExecutorService create(String mode, String namePrefix) {
+        if (MODE_VIRTUAL.equalsIgnoreCase(mode)) {
+            if (isVirtualThreadSupported()) {
+                try {
+                    return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, VIRTUAL_FACTORY);
+                } catch (Exception e) {
+                    logger.warn("Cannot create virtual threads, running devices on platform threads: " + e.getMessage());
+                }
+            } else {
+                logger.warn("Virtual threads need Java 21 or later, running devices on platform threads.");
+            }
+        } else if (!MODE_PLATFORM.equalsIgnoreCase(mode)) {
+            throw new IllegalArgumentException("Unknown device thread mode " + mode + ", use " + MODE_PLATFORM + " or " + MODE_VIRTUAL + ".");
+        }
+        return Executors.newCachedThreadPool(Util.newThreadFactory(namePrefix));
+    }
+
+    /**
+     * @return Thread.ofVirtual().factory(), or null before Java 21.
+     */
+    private static ThreadFactory createVirtualThreadFactory() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Object builder = ofVirtual.invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return Executors.newThreadPerTaskExecutor(ThreadFactory), or null before Java 21.
+     */
+    private static Method findThreadPerTaskExecutor() {
+        try {
+            return Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
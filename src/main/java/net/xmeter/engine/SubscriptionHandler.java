@@ -0,0 +1,70 @@
+package net.xmeter.engine;
+
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.xmeter.SubBean;
+import net.xmeter.SubBeanWindow;
+import net.xmeter.payload.LatencyHeader;
+
+/**
+ * Accounts every notification of an observed topic into the current bean of the subscriber's
+ * window. Runs on Californium threads, one instance per subscriber.
+ */
+public class SubscriptionHandler implements CoapHandler {
+    private transient static Logger logger = LoggerFactory.getLogger(SubscriptionHandler.class.getName());
+
+    private final SubBeanWindow window;
+    private final boolean addTimestamp;
+    private volatile boolean printFlag = false;
+
+    /**
+     * @param addTimestamp read the latency header of every payload.
+     */
+    public SubscriptionHandler(SubBeanWindow window, boolean addTimestamp) {
+        this.window = window;
+        this.addTimestamp = addTimestamp;
+    }
+
+    @Override
+    public void onLoad(CoapResponse response) {
+        try {
+            onPayload(response.getPayload());
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Records one received payload, which may be null.
+     */
+    public void onPayload(byte[] payload) {
+        SubBean bean = window.claim();
+        try {
+            if (payload != null) {
+                if (addTimestamp) {
+                    long elapsedNanos = LatencyHeader.elapsedNanos(payload);
+                    if (elapsedNanos < 0 && !printFlag) {
+                        logger.info("Payload of {} bytes does not include timestamp.", payload.length);
+                        printFlag = true;
+                    } else if (elapsedNanos >= 0) {
+                        bean.getLatencies().record(elapsedNanos);
+                    }
+                }
+                if (bean.getCapture() != null) {
+                    bean.getCapture().add(payload);
+                }
+                bean.addReceivedMessageSize(payload.length);
+            }
+        } finally {
+            window.complete(bean);
+        }
+    }
+
+    @Override
+    public void onError() {
+        logger.warn("The observe request of the subscription failed, e.g. it was rejected or timed out.");
+    }
+}
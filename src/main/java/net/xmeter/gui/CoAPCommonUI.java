@@ -30,22 +30,28 @@ public class CoAPCommonUI  implements ChangeListener, ActionListener, CoAPConsta
     private final JLabeledTextField serverPort = new JLabeledTextField("Port:", 5);
     private final JLabeledTextField endpoint = new JLabeledTextField("endpoint:");
     private final JLabeledTextField lifeTime = new JLabeledTextField("lifeTime:");
-    //private final JLabeledTextField timeout = new JLabeledTextField("Timeout(s):", 5);
+    private final JLabeledTextField timeout = new JLabeledTextField("Timeout(s):", 5);
+    private final JLabeledTextField endpointPoolSize = new JLabeledTextField("Shared endpoints:", 5);
     
     private final JLabeledTextField userNameAuth = new JLabeledTextField("User name:");
     private final JLabeledTextField passwordAuth = new JLabeledTextField("Password:");
+    private final JLabeledTextField fleetFile = new JLabeledTextField("Fleet file:", 25);
+    private final JLabeledTextField fleetOffset = new JLabeledTextField("First device:", 6);
+    private final JLabeledTextField generatorIndex = new JLabeledTextField("Generator:", 3);
+    private final JLabeledTextField generatorCount = new JLabeledTextField("of:", 3);
+    private final JLabeledTextField snapshotFile = new JLabeledTextField("Snapshot file:", 12);
 
     private JLabeledChoice protocols;
 
-    private JCheckBox dualAuth = new JCheckBox("ECC authentication");
+    private JLabeledChoice dtlsMode;
+    private final JLabeledTextField credentialsDir = new JLabeledTextField("Device credentials dir:", 20);
 
-    private final JLabeledTextField certificationFilePath1 = new JLabeledTextField("CA Certification(*.crt):      ", 25);
-    private final JLabeledTextField certificationFilePath2 = new JLabeledTextField("Client Certification(*.crt):  ", 25);
-    private final JLabeledTextField certificationFilePath3 = new JLabeledTextField("Client Key(*.der):              ", 25);
+    private final JLabeledTextField certificationFilePath1 = new JLabeledTextField("CA Certification(*.crt, *.jks, *.p12):", 25);
+    private final JLabeledTextField certificationFilePath2 = new JLabeledTextField("Client Certification(*.crt, *.p12):  ", 25);
+    private final JLabeledTextField certificationFilePath3 = new JLabeledTextField("Client Key(*.der, *.pem):              ", 25);
 
     private final JLabeledTextField tksPassword = new JLabeledTextField("Secret:", 10);
     private final JLabeledTextField cksPassword = new JLabeledTextField("Secret:", 10);
-    private final JLabeledTextField cAPassword = new JLabeledTextField("Secret:", 10);
 
     private JButton browse1;
     private JButton browse2;
@@ -67,12 +73,18 @@ public class CoAPCommonUI  implements ChangeListener, ActionListener, CoAPConsta
         connPanel.add(endpoint);
         connPanel.add(lifeTime);
 
-        //JPanel timeoutPannel = new HorizontalPanel();
-        //timeoutPannel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createEtchedBorder(), "Timeout"));
-        //timeoutPannel.add(timeout);
+        JPanel timeoutPannel = new HorizontalPanel();
+        timeoutPannel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createEtchedBorder(), "Timeout"));
+        timeoutPannel.add(timeout);
+
+        JPanel poolPannel = new HorizontalPanel();
+        poolPannel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createEtchedBorder(), "Sockets"));
+        endpointPoolSize.setToolTipText("Number of UDP endpoints shared by all devices of the test plan, 0 gives every device its own endpoint.");
+        poolPannel.add(endpointPoolSize);
 
         con.add(connPanel);
-        //con.add(timeoutPannel);
+        con.add(timeoutPannel);
+        con.add(poolPannel);
         return con;
     }
     
@@ -90,6 +102,22 @@ public class CoAPCommonUI  implements ChangeListener, ActionListener, CoAPConsta
         optsPanel.add(userNameAuth);
         optsPanel.add(passwordAuth);
         optsPanelCon.add(optsPanel);
+
+        JPanel fleetPanel = new HorizontalPanel();
+        fleetFile.setToolTipText("Optional file with one device per line: endpoint,psk_identity,psk_key_hex,lifetime,binding,path;path. "
+                + "Its endpoint names replace client ID and endpoint.");
+        fleetOffset.setToolTipText("Fleet position of the device of thread 0, thread N of the group simulates device first + N. "
+                + "Give each thread group its own first device, beyond the devices of the others.");
+        generatorIndex.setToolTipText("Index of this JMeter instance from 0, e.g. ${__P(generator,0)}, when several instances share the devices.");
+        generatorCount.setToolTipText("Number of JMeter instances sharing the devices, thread N then simulates device first + N * count + index. 0 for one instance.");
+        snapshotFile.setToolTipText("With several instances, the totals of this one are written here at the end of the test, with the generator index "
+                + "added, e.g. snapshot-2.txt, to be merged with net.xmeter.driver.MergeSnapshots.");
+        fleetPanel.add(fleetFile);
+        fleetPanel.add(fleetOffset);
+        fleetPanel.add(generatorIndex);
+        fleetPanel.add(generatorCount);
+        fleetPanel.add(snapshotFile);
+        optsPanelCon.add(fleetPanel);
         
         return optsPanelCon;
     }
@@ -100,15 +128,20 @@ public class CoAPCommonUI  implements ChangeListener, ActionListener, CoAPConsta
         
         JPanel pPanel = new HorizontalPanel();
 
-        protocols = new JLabeledChoice("Protocols:", new String[] { "UDP + DTLS", "UDP" }, true, false);
+        protocols = new JLabeledChoice("Protocols:", new String[] { PROTOCOL_UDP, PROTOCOL_DTLS }, true, false);
         protocols.addChangeListener(this);
         pPanel.add(protocols, BorderLayout.WEST);
 
-        dualAuth.setSelected(true);
-        dualAuth.setFont(null);
-        dualAuth.setVisible(true);
-        dualAuth.addChangeListener(this);
-        pPanel.add(dualAuth, BorderLayout.CENTER);
+        dtlsMode = new JLabeledChoice("DTLS mode:", new String[] { DTLS_MODE_PSK, DTLS_MODE_RPK, DTLS_MODE_X509 }, false, false);
+        dtlsMode.setToolTipText("PSK uses user name and password as identity and key.");
+        dtlsMode.addChangeListener(this);
+        dtlsMode.setVisible(false);
+        pPanel.add(dtlsMode, BorderLayout.CENTER);
+
+        credentialsDir.setToolTipText("Optional directory with <device>.psk, <device>.p12 or <device>.crt and <device>.key per device, "
+                + "looked up by endpoint or client id without random suffix.");
+        credentialsDir.setVisible(false);
+        pPanel.add(credentialsDir, BorderLayout.EAST);
 
         JPanel panel = new JPanel(new GridBagLayout());
         GridBagConstraints c = new GridBagConstraints();
@@ -118,12 +151,12 @@ public class CoAPCommonUI  implements ChangeListener, ActionListener, CoAPConsta
         c.gridy = 0;
         c.gridwidth = 2;
         panel.add(certificationFilePath1, c);
-        certificationFilePath1.setVisible(true);
+        certificationFilePath1.setVisible(false);
 
         browse1 = new JButton(JMeterUtils.getResString("browse"));
         browse1.setActionCommand(BROWSE1);
         browse1.addActionListener(this);
-        browse1.setVisible(true);
+        browse1.setVisible(false);
         
         c.gridx = 2;
         c.gridy = 0;
@@ -177,11 +210,6 @@ public class CoAPCommonUI  implements ChangeListener, ActionListener, CoAPConsta
         c.gridy = 2;
         c.gridwidth = 1;
         panel.add(browse3, c);
-
-        c.gridx = 3;
-        c.gridy = 2;
-        panel.add(cAPassword, c);
-        cAPassword.setVisible(false);
         
         protocolPanel.add(pPanel);
         protocolPanel.add(panel);
@@ -198,6 +226,9 @@ public class CoAPCommonUI  implements ChangeListener, ActionListener, CoAPConsta
         }else if(BROWSE2.equals(action)) {
             String path = browseAndGetFilePath();
             certificationFilePath2.setText(path);
+        }else if(BROWSE3.equals(action)) {
+            String path = browseAndGetFilePath();
+            certificationFilePath3.setText(path);
         }
     }
     private String browseAndGetFilePath() {
@@ -214,63 +245,47 @@ public class CoAPCommonUI  implements ChangeListener, ActionListener, CoAPConsta
     
     @Override
     public void stateChanged(ChangeEvent e) {
-        if(e.getSource() == dualAuth) {
-            if(dualAuth.isSelected()) {
-                certificationFilePath1.setVisible(true);
-                certificationFilePath2.setVisible(true);
-                certificationFilePath3.setVisible(true);
-                tksPassword.setVisible(false);
-                cksPassword.setVisible(false);
-                cAPassword.setVisible(false);
-                browse1.setVisible(true);
-                browse2.setVisible(true);
-                browse3.setVisible(true);
-            } else {
-                certificationFilePath1.setVisible(false);
-                certificationFilePath2.setVisible(false);
-                certificationFilePath3.setVisible(false);
-                tksPassword.setVisible(false);
-                cksPassword.setVisible(false);
-                cAPassword.setVisible(false);
-                browse1.setVisible(false);
-                browse2.setVisible(false);
-                browse3.setVisible(false);
-            }
-        } else if(e.getSource() == protocols) {
-            if("UDP".equals(protocols.getText())) {
-                dualAuth.setVisible(false);
-                dualAuth.setSelected(false);
-            } else if("UDP + DTLS".equals(protocols.getText())) {
-                dualAuth.setVisible(true);
-                dualAuth.setEnabled(true);
-            }
+        if(e.getSource() == dtlsMode || e.getSource() == protocols) {
+            updateDtlsFields();
         }
     }
+
+    /**
+     * Shows the mode chooser for DTLS, and the key material fields for the certificate based modes.
+     */
+    private void updateDtlsFields() {
+        boolean dtls = PROTOCOL_DTLS.equals(protocols.getText());
+        boolean certificates = dtls && !DTLS_MODE_PSK.equals(dtlsMode.getText());
+        dtlsMode.setVisible(dtls);
+        credentialsDir.setVisible(dtls);
+        certificationFilePath1.setVisible(certificates);
+        certificationFilePath2.setVisible(certificates);
+        certificationFilePath3.setVisible(certificates);
+        tksPassword.setVisible(certificates);
+        cksPassword.setVisible(certificates);
+        browse1.setVisible(certificates);
+        browse2.setVisible(certificates);
+        browse3.setVisible(certificates);
+    }
     
     public void configure(AbstractCoAPSampler sampler) {
         serverAddr.setText(sampler.getServer());
         serverPort.setText(sampler.getPort());
         lifeTime.setText(sampler.getLifeTime());
         endpoint.setText(sampler.getEndpoint());
-        //timeout.setText(sampler.getConnTimeout());
-        
-        if(sampler.getProtocol().trim().indexOf(JMETER_VARIABLE_PREFIX) == -1){
-            if(DEFAULT_PROTOCOL.equals(sampler.getProtocol())) {
-                protocols.setSelectedIndex(0);  
-            } else {
-                protocols.setSelectedIndex(1);
-            }
-        } else {
-            protocols.setText(sampler.getProtocol());
-        }
+        timeout.setText(sampler.getConnTimeout());
+        endpointPoolSize.setText(sampler.getEndpointPoolSize());
         
-        if(sampler.isDualSSLAuth()) {
-            dualAuth.setVisible(true);
-            dualAuth.setSelected(sampler.isDualSSLAuth());  
-        }
+        protocols.setText(sampler.getProtocol());
+        dtlsMode.setText(sampler.getDtlsMode());
+        credentialsDir.setText(sampler.getCredentialsDir());
         
         certificationFilePath1.setText(sampler.getKeyStoreFilePath());
         certificationFilePath2.setText(sampler.getClientCertFilePath());
+        certificationFilePath3.setText(sampler.getClientKeyFilePath());
+        tksPassword.setText(sampler.getKeyStorePassword());
+        cksPassword.setText(sampler.getClientCertPassword());
+        updateDtlsFields();
         clientIdPrefix.setText(sampler.getClienIdPrefix());
         
         if(sampler.isClientIdSuffix()) {
@@ -278,11 +293,13 @@ public class CoAPCommonUI  implements ChangeListener, ActionListener, CoAPConsta
         } else {
             clientIdSuffix.setSelected(false);
         }
-//        cksPassword.setText(sampler.getKeyStorePassword());
-//        cAPassword.setText(sampler.getKeyStorePassword());
-      //  tksPassword.setText(sampler.getClientCertPassword());
         userNameAuth.setText(sampler.getUserNameAuth());
         passwordAuth.setText(sampler.getPasswordAuth());
+        fleetFile.setText(sampler.getFleetFile());
+        fleetOffset.setText(sampler.getFleetOffset());
+        generatorIndex.setText(sampler.getGeneratorIndex());
+        generatorCount.setText(sampler.getGeneratorCount());
+        snapshotFile.setText(sampler.getSnapshotFile());
     }
     
     
@@ -291,18 +308,26 @@ public class CoAPCommonUI  implements ChangeListener, ActionListener, CoAPConsta
         sampler.setPort(serverPort.getText());
         sampler.setEndpoint(endpoint.getText());
         sampler.setLifeTime(lifeTime.getText());
-        //sampler.setConnTimeout(timeout.getText());
+        sampler.setConnTimeout(timeout.getText());
+        sampler.setEndpointPoolSize(endpointPoolSize.getText());
         sampler.setProtocol(protocols.getText());
-        sampler.setDualSSLAuth(dualAuth.isSelected());
+        sampler.setDtlsMode(dtlsMode.getText());
+        sampler.setCredentialsDir(credentialsDir.getText());
+        sampler.setDualSSLAuth(PROTOCOL_DTLS.equals(protocols.getText()) && !DTLS_MODE_PSK.equals(dtlsMode.getText()));
         sampler.setKeyStoreFilePath(certificationFilePath1.getText());
         sampler.setClientCertFilePath(certificationFilePath2.getText());
-//        sampler.setKeyStorePassword(cksPassword.getText());
-//        sampler.setKeyStorePassword(cAPassword.getText());
-       // sampler.setClientCertPassword(tksPassword.getText());
+        sampler.setClientKeyFilePath(certificationFilePath3.getText());
+        sampler.setKeyStorePassword(tksPassword.getText());
+        sampler.setClientCertPassword(cksPassword.getText());
         sampler.setClienIdPrefix(clientIdPrefix.getText());
         sampler.setClientIdSuffix(clientIdSuffix.isSelected());
         sampler.setUserNameAuth(userNameAuth.getText());
         sampler.setPasswordAuth(passwordAuth.getText());
+        sampler.setFleetFile(fleetFile.getText());
+        sampler.setFleetOffset(fleetOffset.getText());
+        sampler.setGeneratorIndex(generatorIndex.getText());
+        sampler.setGeneratorCount(generatorCount.getText());
+        sampler.setSnapshotFile(snapshotFile.getText());
     }
     
     public static int parseInt(String value) {
@@ -315,16 +340,25 @@ public class CoAPCommonUI  implements ChangeListener, ActionListener, CoAPConsta
     public void clearUI() {
         certificationFilePath1.setText("");
         certificationFilePath2.setText("");
-        dualAuth.setSelected(false);
+        certificationFilePath3.setText("");
         clientIdPrefix.setText(DEFAULT_CONN_PREFIX);
-        protocols.setSelectedIndex(0);
+        protocols.setText(DEFAULT_PROTOCOL);
+        dtlsMode.setText(DEFAULT_DTLS_MODE);
+        credentialsDir.setText("");
+        tksPassword.setText("");
         cksPassword.setText("");
-        cAPassword.setText("");
+        updateDtlsFields();
         serverAddr.setText(DEFAULT_SERVER);
         serverPort.setText(DEFAULT_PORT);
-        //timeout.setText(DEFAULT_CONN_TIME_OUT);
+        timeout.setText(DEFAULT_CONN_TIME_OUT);
+        endpointPoolSize.setText(DEFAULT_ENDPOINT_POOL_SIZE);
         userNameAuth.setText(DEFAULT_USERNAME);
         passwordAuth.setText(DEFAULT_PASSWORD);
+        fleetFile.setText(DEFAULT_FLEET_FILE);
+        fleetOffset.setText(DEFAULT_FLEET_OFFSET);
+        generatorIndex.setText(DEFAULT_GENERATOR_INDEX);
+        generatorCount.setText(DEFAULT_GENERATOR_COUNT);
+        snapshotFile.setText(DEFAULT_GENERATOR_SNAPSHOT_FILE);
         clientIdSuffix.setSelected(true);
     }
 
@@ -45,6 +45,23 @@ public class CoAPPubSamplerUI extends AbstractSamplerGui implements CoAPConstant
     private final JSyntaxTextArea sendPayload = JSyntaxTextArea.getInstance(10, 50);
     private final JTextScrollPane payloadPanel = JTextScrollPane.getInstance(sendPayload);
     private JLabeledTextField stringLength = new JLabeledTextField("Length:");
+    private final JPanel corpusPanel = new HorizontalPanel();
+    private final JLabeledTextField corpusFile = new JLabeledTextField("Corpus file:", 25);
+    private JLabeledChoice corpusSelection;
+    private final JLabeledTextField corpusIndex = new JLabeledTextField("Index:", 8);
+
+    private JLabeledChoice lwm2mOperation;
+    private final JLabeledTextField modelDirs = new JLabeledTextField("Custom model dirs:", 25);
+    private final JLabeledTextField publishRate = new JLabeledTextField("Rate (msg/s):", 6);
+    private final JLabeledTextField maxInFlight = new JLabeledTextField("Max in-flight:", 5);
+    private final JLabeledTextField reportInterval = new JLabeledTextField("Report interval (ms):", 6);
+    private JLabeledChoice blockSize;
+    private final JLabeledTextField blockFile = new JLabeledTextField("Upload file:", 25);
+    private final JLabeledTextField blockTotalSize = new JLabeledTextField("Generated size (bytes):", 8);
+    private final JLabeledTextField sensorObjects = new JLabeledTextField("Simulated objects:", 10);
+    private final JLabeledTextField sensorInterval = new JLabeledTextField("Value change interval (ms):", 6);
+    private final JLabeledTextField communicationPeriod = new JLabeledTextField("Update period (ms):", 6);
+    private final JLabeledTextField updateJitter = new JLabeledTextField("Jitter (%):", 3);
 
     public CoAPPubSamplerUI() {
         init();
@@ -62,11 +79,64 @@ public class CoAPPubSamplerUI extends AbstractSamplerGui implements CoAPConstant
         mainPanel.add(commonUI.createConnPanel());
         mainPanel.add(commonUI.createProtocolPanel());
         mainPanel.add(commonUI.createAuthentication());
+        mainPanel.add(createLwM2mOptions());
 
         mainPanel.add(createMessageOptions());
         mainPanel.add(createPayload());
     }
     
+    private JPanel createLwM2mOptions() {
+        JPanel optsPanelCon = new VerticalPanel();
+        optsPanelCon.setBorder(BorderFactory.createTitledBorder(BorderFactory.createEtchedBorder(), "Operation"));
+
+        JPanel optsPanel0 = new HorizontalPanel();
+        lwm2mOperation = new JLabeledChoice("Operation:", new String[] { LWM2M_OPERATION_REGISTER_DEREGISTER,
+                LWM2M_OPERATION_REGISTER, LWM2M_OPERATION_UPDATE, LWM2M_OPERATION_DEREGISTER, OPERATION_PUBLISH,
+                OPERATION_PUBLISH_AT_RATE, OPERATION_PUBLISH_PIPELINED, OPERATION_BLOCK_UPLOAD, OPERATION_BLOCK_DOWNLOAD,
+                OPERATION_KEEP_REGISTERED, OPERATION_NOTIFY }, false, false);
+        lwm2mOperation.setToolTipText("Register, Update and Deregister use a client kept per thread, Publish sends the payload below to the resource path.");
+        optsPanel0.add(lwm2mOperation);
+        modelDirs.setToolTipText("Comma separated directories with additional object model files, the bundled OMA models are always loaded.");
+        optsPanel0.add(modelDirs);
+        optsPanelCon.add(optsPanel0);
+
+        JPanel optsPanel1 = new HorizontalPanel();
+        publishRate.setToolTipText("Publish at constant rate: messages per second of this thread, sent on schedule whatever the response times are.");
+        maxInFlight.setToolTipText("Outstanding requests per thread. Publish pipelined refills the window as responses arrive, "
+                + "Publish at constant rate counts send slots passing while the window is full as missed.");
+        reportInterval.setToolTipText("Publish at constant rate, Publish pipelined, Register and keep updating and Register and notify: "
+                + "length of one sample.");
+        optsPanel1.add(publishRate);
+        optsPanel1.add(maxInFlight);
+        optsPanel1.add(reportInterval);
+        optsPanelCon.add(optsPanel1);
+
+        JPanel optsPanel2 = new HorizontalPanel();
+        blockSize = new JLabeledChoice("Block size:", new String[] { "16", "32", "64", "128", "256", "512", "1024" }, true, false);
+        blockSize.setToolTipText("Block-wise upload and download: bytes per block (SZX), the server may ask for smaller blocks.");
+        blockFile.setToolTipText("Block-wise upload: file streamed block by block, e.g. a firmware image. Empty to upload generated bytes.");
+        blockTotalSize.setToolTipText("Block-wise upload without file: number of random bytes to upload.");
+        optsPanel2.add(blockSize);
+        optsPanel2.add(blockFile);
+        optsPanel2.add(blockTotalSize);
+        optsPanelCon.add(optsPanel2);
+
+        JPanel optsPanel3 = new HorizontalPanel();
+        sensorObjects.setToolTipText("Register and notify: comma separated objects served with changing values, "
+                + "3303 (Temperature) and 7 (Connectivity Statistics).");
+        sensorInterval.setToolTipText("Register and notify: time between two value changes, the server is notified of observed resources.");
+        optsPanel3.add(sensorObjects);
+        optsPanel3.add(sensorInterval);
+        communicationPeriod.setToolTipText("Register and keep updating, Register and notify: time between two registration updates, "
+                + "sent by one scheduler for all devices. 0 leaves the updates to Leshan, shortly before the lifetime expires.");
+        updateJitter.setToolTipText("Each update period is moved randomly by up to this percentage, so updates of the fleet do not line up.");
+        optsPanel3.add(communicationPeriod);
+        optsPanel3.add(updateJitter);
+        optsPanelCon.add(optsPanel3);
+
+        return optsPanelCon;
+    }
+
     public JPanel createMessageOptions() {
         JPanel optsPanelCon = new VerticalPanel();
         optsPanelCon.setBorder(BorderFactory.createTitledBorder(BorderFactory.createEtchedBorder(), "Message options"));
@@ -80,6 +150,7 @@ public class CoAPPubSamplerUI extends AbstractSamplerGui implements CoAPConstant
         
         optsPanel0.add(coapMessageType);
         optsPanel0.add(methodType);
+        messageId.setToolTipText("Message ID of the first request of each thread, empty to let the endpoint assign all.");
         optsPanel0.add(messageId);
         optsPanel0.add(token);
         optsPanelCon.add(optsPanel0);
@@ -96,21 +167,33 @@ public class CoAPPubSamplerUI extends AbstractSamplerGui implements CoAPConstant
         optsPanelCon.setBorder(BorderFactory.createTitledBorder(BorderFactory.createEtchedBorder(), "Payloads"));
         
         JPanel horizon1 = new HorizontalPanel();
-        payloadTypes = new JLabeledChoice("Message type:", new String[] { PAYLOAD_TYPE_STRING, PAYLOAD_TYPE_HEX_STRING, PAYLOAD_TYPE_RANDOM_STR_WITH_FIX_LEN }, false, false);
-//        payloadTypes.addChangeListener(this);
+        payloadTypes = new JLabeledChoice("Message type:", new String[] { PAYLOAD_TYPE_STRING, PAYLOAD_TYPE_HEX_STRING, PAYLOAD_TYPE_RANDOM_STR_WITH_FIX_LEN,
+                PAYLOAD_TYPE_CORPUS }, false, false);
+        payloadTypes.addChangeListener(this);
         payloadTypes.setSelectedIndex(0);
         
         horizon1.add(payloadTypes, BorderLayout.WEST);
         stringLength.setVisible(false);
+        stringLength.setToolTipText("Fixed size (1024), uniform range (64-1024) or size:weight histogram (64:70,512:20,4096:10).");
         horizon1.add(stringLength);
         
+        timestamp.setToolTipText("Prefix the payload with a 24 byte binary header carrying publisher id, sequence number and send time.");
         horizon1.add(timestamp);
         
+        corpusFile.setToolTipText("Records of a 4 byte big-endian length followed by the payload, memory mapped and shared by all threads.");
+        corpusSelection = new JLabeledChoice("Selection:", new String[] { CORPUS_ROUND_ROBIN, CORPUS_RANDOM, CORPUS_BY_INDEX }, false, false);
+        corpusIndex.setToolTipText("Record sent with By index, first record of Round robin, e.g. ${__threadNum} or ${__counter(FALSE,)}.");
+        corpusPanel.add(corpusFile);
+        corpusPanel.add(corpusSelection);
+        corpusPanel.add(corpusIndex);
+        corpusPanel.setVisible(false);
+        
         JPanel horizon2 = new VerticalPanel();
         payloadPanel.setVisible(false);
         horizon2.add(payloadPanel);
         
         optsPanelCon.add(horizon1);
+        optsPanelCon.add(corpusPanel);
         optsPanelCon.add(horizon2);
         return optsPanelCon;
     }
@@ -126,9 +209,15 @@ public class CoAPPubSamplerUI extends AbstractSamplerGui implements CoAPConstant
             int selectedIndex = this.payloadTypes.getSelectedIndex();
             if(selectedIndex == 0 || selectedIndex == 1) {
                 stringLength.setVisible(false);
+                corpusPanel.setVisible(false);
                 payloadPanel.setVisible(true);
             } else if(selectedIndex == 2) {
                 stringLength.setVisible(true);
+                corpusPanel.setVisible(false);
+                payloadPanel.setVisible(false);
+            } else if(selectedIndex == 3) {
+                stringLength.setVisible(false);
+                corpusPanel.setVisible(true);
                 payloadPanel.setVisible(false);
             } else {
                 logger.info("Unknown message type.");
@@ -154,6 +243,18 @@ public class CoAPPubSamplerUI extends AbstractSamplerGui implements CoAPConstant
         CoAPPubSampler sampler = (CoAPPubSampler) element;
         
         commonUI.configure(sampler);
+        this.lwm2mOperation.setText(sampler.getLwM2mOperation());
+        this.modelDirs.setText(sampler.getModelDirs());
+        this.publishRate.setText(sampler.getPublishRate());
+        this.maxInFlight.setText(sampler.getMaxInFlight());
+        this.reportInterval.setText(sampler.getReportInterval());
+        this.blockSize.setText(sampler.getBlockSize());
+        this.blockFile.setText(sampler.getBlockFile());
+        this.blockTotalSize.setText(sampler.getBlockTotalSize());
+        this.sensorObjects.setText(sampler.getSensorObjects());
+        this.sensorInterval.setText(sampler.getSensorInterval());
+        this.communicationPeriod.setText(sampler.getCommunicationPeriod());
+        this.updateJitter.setText(sampler.getUpdateJitter());
         
         this.coapMessageType.setText(sampler.getCoapMessageType());
         this.methodType.setText(sampler.getMethodType());
@@ -164,12 +265,16 @@ public class CoAPPubSamplerUI extends AbstractSamplerGui implements CoAPConstant
         this.timestamp.setSelected(sampler.isAddTimestamp());
         if(PAYLOAD_TYPE_STRING.equalsIgnoreCase(sampler.getPayloadType())) {
             this.payloadTypes.setSelectedIndex(0);
-            this.payloadPanel.setVisible(true);
-//        } else if(PAYLOAD_TYPE_HEX_STRING.equalsIgnoreCase(sampler.getPayloadType())) {
-////            this.payloadTypes.setSelectedIndex(1);
-//        } else if(PAYLOAD_TYPE_RANDOM_STR_WITH_FIX_LEN.equalsIgnoreCase(sampler.getPayloadType())) {
-////            this.payloadTypes.setSelectedIndex(2);
+        } else if(PAYLOAD_TYPE_HEX_STRING.equalsIgnoreCase(sampler.getPayloadType())) {
+            this.payloadTypes.setSelectedIndex(1);
+        } else if(PAYLOAD_TYPE_RANDOM_STR_WITH_FIX_LEN.equalsIgnoreCase(sampler.getPayloadType())) {
+            this.payloadTypes.setSelectedIndex(2);
+        } else if(PAYLOAD_TYPE_CORPUS.equalsIgnoreCase(sampler.getPayloadType())) {
+            this.payloadTypes.setSelectedIndex(3);
         }
+        this.corpusFile.setText(sampler.getCorpusFile());
+        this.corpusSelection.setText(sampler.getCorpusSelection());
+        this.corpusIndex.setText(sampler.getCorpusIndex());
         
         stringLength.setText(String.valueOf(sampler.getPayloadLength()));
         sendPayload.setText(sampler.getPayload());
@@ -184,6 +289,18 @@ public class CoAPPubSamplerUI extends AbstractSamplerGui implements CoAPConstant
     private void setupSamplerProperties(CoAPPubSampler sampler) {
         this.configureTestElement(sampler);
         commonUI.setupSamplerProperties(sampler);
+        sampler.setLwM2mOperation(this.lwm2mOperation.getText());
+        sampler.setModelDirs(this.modelDirs.getText());
+        sampler.setPublishRate(this.publishRate.getText());
+        sampler.setMaxInFlight(this.maxInFlight.getText());
+        sampler.setReportInterval(this.reportInterval.getText());
+        sampler.setBlockSize(this.blockSize.getText());
+        sampler.setBlockFile(this.blockFile.getText());
+        sampler.setBlockTotalSize(this.blockTotalSize.getText());
+        sampler.setSensorObjects(this.sensorObjects.getText());
+        sampler.setSensorInterval(this.sensorInterval.getText());
+        sampler.setCommunicationPeriod(this.communicationPeriod.getText());
+        sampler.setUpdateJitter(this.updateJitter.getText());
         
         sampler.setCoapMessageType(this.coapMessageType.getText());
         sampler.setMethodType(this.methodType.getText());
@@ -194,7 +311,10 @@ public class CoAPPubSamplerUI extends AbstractSamplerGui implements CoAPConstant
         sampler.setAddTimestamp(this.timestamp.isSelected());
         sampler.setPayloadType(this.payloadTypes.getText());
         sampler.setPayloadLength(this.stringLength.getText());
-        sampler.setPayload(this.payloadTypes.getText());
+        sampler.setPayload(this.sendPayload.getText());
+        sampler.setCorpusFile(this.corpusFile.getText());
+        sampler.setCorpusSelection(this.corpusSelection.getText());
+        sampler.setCorpusIndex(this.corpusIndex.getText());
     }
 
     @Override
@@ -202,6 +322,18 @@ public class CoAPPubSamplerUI extends AbstractSamplerGui implements CoAPConstant
         super.clearGui();
         commonUI.clearUI();
         commonUI.clientIdPrefix.setText(DEFAULT_CONN_PREFIX_FOR_PUB);
+        this.lwm2mOperation.setText(DEFAULT_LWM2M_OPERATION);
+        this.modelDirs.setText(DEFAULT_MODEL_DIRS);
+        this.publishRate.setText(DEFAULT_PUBLISH_RATE);
+        this.maxInFlight.setText(DEFAULT_MAX_IN_FLIGHT);
+        this.reportInterval.setText(DEFAULT_REPORT_INTERVAL);
+        this.blockSize.setText(DEFAULT_BLOCK_SIZE);
+        this.blockFile.setText(DEFAULT_BLOCK_FILE);
+        this.blockTotalSize.setText(DEFAULT_BLOCK_TOTAL_SIZE);
+        this.sensorObjects.setText(DEFAULT_SENSOR_OBJECTS);
+        this.sensorInterval.setText(DEFAULT_SENSOR_INTERVAL);
+        this.communicationPeriod.setText(DEFAULT_COMMUNICATION_PERIOD);
+        this.updateJitter.setText(DEFAULT_UPDATE_JITTER);
         
         this.coapMessageType.setText(DEFAULT_COAP_MESSAGE_TYPE);
         this.methodType.setText(DEFAULT_PUB_METHOD_TYPE);
@@ -212,7 +344,10 @@ public class CoAPPubSamplerUI extends AbstractSamplerGui implements CoAPConstant
         this.timestamp.setSelected(false);      
         this.payloadTypes.setSelectedIndex(0);
         this.stringLength.setText(String.valueOf(DEFAULT_PAYLOAD_FIX_LENGTH));
-        this.payloadTypes.setText("");
+        this.sendPayload.setText("");
+        this.corpusFile.setText(DEFAULT_CORPUS_FILE);
+        this.corpusSelection.setText(DEFAULT_CORPUS_SELECTION);
+        this.corpusIndex.setText(DEFAULT_CORPUS_INDEX);
     }
 
 }
@@ -37,7 +37,10 @@ public class CoAPSubSamplerUI extends AbstractSamplerGui implements CoAPConstant
     private JLabeledChoice sampleOnCondition;
     private final JLabeledTextField sampleConditionValue = new JLabeledTextField("");
     
+    private JCheckBox alignToClock = new JCheckBox("Align to wall clock");
     private JCheckBox debugResponse = new JCheckBox("Debug response");
+    private final JLabeledTextField debugCaptureSize = new JLabeledTextField("Keep payloads:");
+    private JLabeledChoice debugCaptureMode;
     private JCheckBox timestamp = new JCheckBox("Pub payload includes timestamp");
     private static final long serialVersionUID = -1715399546099472610L;
 
@@ -75,6 +78,7 @@ public class CoAPSubSamplerUI extends AbstractSamplerGui implements CoAPConstant
         
         optsPanel0.add(coapMessageType);
         optsPanel0.add(methodType);
+        messageId.setToolTipText("Message ID of the first request of each thread, empty to let the endpoint assign all.");
         optsPanel0.add(messageId);
         optsPanel0.add(token);
         optsPanelCon.add(optsPanel0);
@@ -95,13 +99,19 @@ public class CoAPSubSamplerUI extends AbstractSamplerGui implements CoAPConstant
         sampleOnCondition.addChangeListener(this);
         optsPanel1.add(sampleOnCondition);
         optsPanel1.add(sampleConditionValue);
+        optsPanel1.add(alignToClock);
         sampleOnCondition.setToolTipText("When sub sampler should report out.");
         sampleConditionValue.setToolTipText("Please specify an integer value great than 0, other values will be ignored.");
+        alignToClock.setToolTipText("Close time windows at multiples of the window length, so samples of all threads and load generators line up.");
         optsPanelCon.add(optsPanel1);
 
         JPanel optsPanel2 = new HorizontalPanel();
         optsPanel2.add(timestamp);
         optsPanel2.add(debugResponse);
+        debugCaptureMode = new JLabeledChoice("Of each sample keep the:", new String[] {DEBUG_CAPTURE_LAST, DEBUG_CAPTURE_FIRST});
+        optsPanel2.add(debugCaptureSize);
+        optsPanel2.add(debugCaptureMode);
+        debugCaptureSize.setToolTipText("Number of payloads kept per sample when debugging, further payloads are only counted.");
         optsPanelCon.add(optsPanel2);
 
         return optsPanelCon;
@@ -120,6 +130,7 @@ public class CoAPSubSamplerUI extends AbstractSamplerGui implements CoAPConstant
             } else if(SAMPLE_ON_CONDITION_OPTION2.equalsIgnoreCase(sampleOnCondition.getText())) {
                 sampleConditionValue.setText(DEFAULT_SAMPLE_VALUE_COUNT);
             }
+            alignToClock.setEnabled(SAMPLE_ON_CONDITION_OPTION1.equalsIgnoreCase(sampleOnCondition.getText()));
         }
     }
     
@@ -144,7 +155,10 @@ public class CoAPSubSamplerUI extends AbstractSamplerGui implements CoAPConstant
 
         this.timestamp.setSelected(sampler.isAddTimestamp());
         this.debugResponse.setSelected(sampler.isDebugResponse());
+        this.debugCaptureSize.setText(sampler.getDebugCaptureSize());
+        this.debugCaptureMode.setText(sampler.getDebugCaptureMode());
         this.sampleOnCondition.setText(sampler.getSampleCondition());
+        this.alignToClock.setSelected(sampler.isAlignToClock());
 
         if(SAMPLE_ON_CONDITION_OPTION1.equalsIgnoreCase(sampleOnCondition.getText())) {
             this.sampleConditionValue.setText(sampler.getSampleElapsedTime());
@@ -177,6 +191,9 @@ public class CoAPSubSamplerUI extends AbstractSamplerGui implements CoAPConstant
         sampler.setSampleCondition(this.sampleOnCondition.getText());
         sampler.setAddTimestamp(this.timestamp.isSelected());
         sampler.setDebugResponse(this.debugResponse.isSelected());
+        sampler.setDebugCaptureSize(this.debugCaptureSize.getText());
+        sampler.setDebugCaptureMode(this.debugCaptureMode.getText());
+        sampler.setAlignToClock(this.alignToClock.isSelected());
         
         if(SAMPLE_ON_CONDITION_OPTION1.equalsIgnoreCase(sampleOnCondition.getText())) {
             sampler.setSampleElapsedTime(this.sampleConditionValue.getText());
@@ -201,5 +218,8 @@ public class CoAPSubSamplerUI extends AbstractSamplerGui implements CoAPConstant
         this.sampleConditionValue.setText(DEFAULT_SAMPLE_VALUE_ELAPSED_TIME_SEC);
         this.timestamp.setSelected(false);
         this.debugResponse.setSelected(false);
+        this.debugCaptureSize.setText(DEFAULT_DEBUG_CAPTURE_SIZE);
+        this.debugCaptureMode.setText(DEFAULT_DEBUG_CAPTURE_MODE);
+        this.alignToClock.setSelected(false);
     }
 }
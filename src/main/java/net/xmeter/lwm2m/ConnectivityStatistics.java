@@ -0,0 +1,125 @@
+package net.xmeter.lwm2m;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.eclipse.leshan.client.servers.ServerIdentity;
+import org.eclipse.leshan.core.node.LwM2mResource;
+import org.eclipse.leshan.core.response.ExecuteResponse;
+import org.eclipse.leshan.core.response.ReadResponse;
+import org.eclipse.leshan.core.response.WriteResponse;
+
+/**
+ * Connectivity Statistics (7) of a device sending a few small IP messages per tick, the SMS counters
+ * stay at 0. The counters grow while collecting, Start resets them and Stop freezes them.
+ */
+public class ConnectivityStatistics extends SimulatedInstance {
+    public static final int OBJECT_ID = 7;
+
+    static final int SMS_TX_COUNTER = 0;
+    static final int SMS_RX_COUNTER = 1;
+    static final int TX_DATA = 2;
+    static final int RX_DATA = 3;
+    static final int MAX_MESSAGE_SIZE = 4;
+    static final int AVERAGE_MESSAGE_SIZE = 5;
+    static final int START = 6;
+    static final int STOP = 7;
+    static final int COLLECTION_PERIOD = 8;
+
+    private static final int MAX_SIMULATED_MESSAGE = 512;
+
+    private boolean collecting = true;
+    private long smsTx;
+    private long smsRx;
+    private long txBytes;
+    private long rxBytes;
+    private long messages;
+    private long maxMessageSize;
+    private long collectionPeriod;
+
+    @Override
+    public int getObjectId() {
+        return OBJECT_ID;
+    }
+
+    @Override
+    public int tick() {
+        synchronized (this) {
+            if (!collecting) {
+                return 0;
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int count = 1 + random.nextInt(3);
+            for (int i = 0; i < count; i++) {
+                int size = 16 + random.nextInt(MAX_SIMULATED_MESSAGE - 16);
+                if (random.nextBoolean()) {
+                    txBytes += size;
+                } else {
+                    rxBytes += size;
+                }
+                maxMessageSize = Math.max(maxMessageSize, size);
+                messages++;
+            }
+        }
+        fireResourcesChange(TX_DATA, RX_DATA, MAX_MESSAGE_SIZE, AVERAGE_MESSAGE_SIZE);
+        return 4;
+    }
+
+    @Override
+    public synchronized ReadResponse read(ServerIdentity identity, int resourceid) {
+        switch (resourceid) {
+        case SMS_TX_COUNTER:
+            return ReadResponse.success(resourceid, smsTx);
+        case SMS_RX_COUNTER:
+            return ReadResponse.success(resourceid, smsRx);
+        case TX_DATA:
+            return ReadResponse.success(resourceid, txBytes / 1024);
+        case RX_DATA:
+            return ReadResponse.success(resourceid, rxBytes / 1024);
+        case MAX_MESSAGE_SIZE:
+            return ReadResponse.success(resourceid, maxMessageSize);
+        case AVERAGE_MESSAGE_SIZE:
+            return ReadResponse.success(resourceid, messages > 0 ? (txBytes + rxBytes) / messages : 0);
+        case COLLECTION_PERIOD:
+            return ReadResponse.success(resourceid, collectionPeriod);
+        default:
+            return super.read(identity, resourceid);
+        }
+    }
+
+    @Override
+    public WriteResponse write(ServerIdentity identity, int resourceid, LwM2mResource value) {
+        if (resourceid == COLLECTION_PERIOD) {
+            synchronized (this) {
+                collectionPeriod = ((Number) value.getValue()).longValue();
+            }
+            fireResourcesChange(resourceid);
+            return WriteResponse.success();
+        }
+        return super.write(identity, resourceid, value);
+    }
+
+    @Override
+    public ExecuteResponse execute(ServerIdentity identity, int resourceid, String params) {
+        switch (resourceid) {
+        case START:
+            synchronized (this) {
+                smsTx = 0;
+                smsRx = 0;
+                txBytes = 0;
+                rxBytes = 0;
+                messages = 0;
+                maxMessageSize = 0;
+                collecting = true;
+            }
+            fireResourcesChange(SMS_TX_COUNTER, SMS_RX_COUNTER, TX_DATA, RX_DATA, MAX_MESSAGE_SIZE, AVERAGE_MESSAGE_SIZE);
+            return ExecuteResponse.success();
+        case STOP:
+            synchronized (this) {
+                collecting = false;
+            }
+            return ExecuteResponse.success();
+        default:
+            return super.execute(identity, resourceid, params);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package net.xmeter.lwm2m;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.xmeter.Util;
+
+/**
+ * One device of a fleet file, an empty field means the sampler's setting applies.
+ * Line format: endpoint,psk_identity,psk_key_hex,lifetime,binding,resource_path;resource_path...
+ */
+public class DeviceDefinition {
+    private final long index;
+    private final String endpoint;
+    private final String pskIdentity;
+    private final byte[] pskKey;
+    private final long lifetime;
+    private final String binding;
+    private final List<String> resourcePaths;
+
+    private DeviceDefinition(long index, String endpoint, String pskIdentity, byte[] pskKey, long lifetime, String binding,
+            List<String> resourcePaths) {
+        this.index = index;
+        this.endpoint = endpoint;
+        this.pskIdentity = pskIdentity;
+        this.pskKey = pskKey;
+        this.lifetime = lifetime;
+        this.binding = binding;
+        this.resourcePaths = resourcePaths;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the line has no endpoint or a malformed field.
+     */
+    public static DeviceDefinition parse(long index, String line) {
+        String[] fields = line.split(",", -1);
+        String endpoint = field(fields, 0);
+        if (endpoint == null) {
+            throw new IllegalArgumentException("Device " + index + " of the fleet has no endpoint name.");
+        }
+        String key = field(fields, 2);
+        String lifetime = field(fields, 3);
+        List<String> paths = new ArrayList<>();
+        String pathList = field(fields, 5);
+        if (pathList != null) {
+            for (String path : pathList.split(";")) {
+                if (!"".equals(path.trim())) {
+                    paths.add(path.trim());
+                }
+            }
+        }
+        return new DeviceDefinition(index, endpoint, field(fields, 1), key == null ? null : Util.parseHex(key),
+                lifetime == null ? -1 : Long.parseLong(lifetime), field(fields, 4), Collections.unmodifiableList(paths));
+    }
+
+    private static String field(String[] fields, int i) {
+        if (i >= fields.length || "".equals(fields[i].trim())) {
+            return null;
+        }
+        return fields[i].trim();
+    }
+
+    /**
+     * @return position of the device in the fleet, starting at 0.
+     */
+    public long getIndex() {
+        return index;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * @return true if the device has its own PSK identity and key.
+     */
+    public boolean hasPsk() {
+        return pskKey != null;
+    }
+
+    /**
+     * @return the PSK identity, the endpoint name if the line has none.
+     */
+    public String getPskIdentity() {
+        return pskIdentity != null ? pskIdentity : endpoint;
+    }
+
+    public byte[] getPskKey() {
+        return pskKey == null ? null : pskKey.clone();
+    }
+
+    /**
+     * @return lifetime in seconds, or -1 for the sampler's setting.
+     */
+    public long getLifetime() {
+        return lifetime;
+    }
+
+    /**
+     * @return LwM2M binding mode such as U or UQ, or null for the sampler's setting.
+     */
+    public String getBinding() {
+        return binding;
+    }
+
+    public List<String> getResourcePaths() {
+        return resourcePaths;
+    }
+
+    /**
+     * @return the first resource path of the device, or the given default if it has none.
+     */
+    public String getResourcePath(String defaultPath) {
+        return resourcePaths.isEmpty() ? defaultPath : resourcePaths.get(0);
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceDefinition[" + index + ", " + endpoint + "]";
+    }
+}
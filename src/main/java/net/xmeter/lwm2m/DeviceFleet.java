@@ -0,0 +1,194 @@
+package net.xmeter.lwm2m;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A fleet of device definitions in a text file, one device per line (see {@link DeviceDefinition}),
+ * lines starting with # and empty lines are skipped.
+ * <p>
+ * Next to the fleet file an index &lt;fleet&gt;.idx holds the 8 byte start offset of every device line.
+ * It is built by one sequential pass the first time the fleet is opened, and again whenever the fleet
+ * file changes. The index is memory mapped and a device is read with a single positional read, so
+ * looking up device N costs the same for any N and the fleet is never loaded as a whole.
+ */
+public class DeviceFleet {
+    private transient static Logger logger = LoggerFactory.getLogger(DeviceFleet.class.getName());
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long MAGIC = 0x584d464c45455431L; // "XMFLEET1"
+    private static final int HEADER_SIZE = 24;
+    private static final int MAX_LINE = 64 * 1024;
+    private static final int LINE_GUESS = 256;
+
+    private static final Map<String, DeviceFleet> fleets = new HashMap<>();
+
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer index;
+    private final long fileSize;
+    private final int size;
+
+    private DeviceFleet(File file) throws IOException {
+        this.file = file;
+        File indexFile = new File(file.getPath() + ".idx");
+        if (!isIndexCurrent(file, indexFile)) {
+            buildIndex(file, indexFile);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r")) {
+            long indexSize = raf.length();
+            if (indexSize - HEADER_SIZE > Integer.MAX_VALUE) {
+                throw new IOException("Fleet index too large: " + indexFile.getPath());
+            }
+            index = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, indexSize);
+        }
+        size = (index.capacity() - HEADER_SIZE) / 8;
+        channel = new RandomAccessFile(file, "r").getChannel();
+        fileSize = channel.size();
+    }
+
+    /**
+     * @return the fleet of the file, indexed on first use.
+     */
+    public static synchronized DeviceFleet forFile(File file) throws IOException {
+        String key = file.getCanonicalPath();
+        DeviceFleet fleet = fleets.get(key);
+        if (fleet == null) {
+            long start = System.nanoTime();
+            fleet = new DeviceFleet(file);
+            fleets.put(key, fleet);
+            logger.info("Opened fleet {} of {} devices in {} ms.", key, fleet.size, (System.nanoTime() - start) / 1000000);
+        }
+        return fleet;
+    }
+
+    /**
+     * @return the number of devices.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param device position of the device, starting at 0.
+     */
+    public DeviceDefinition get(long device) throws IOException {
+        if (device < 0 || device >= size) {
+            throw new IndexOutOfBoundsException("Device " + device + " is not in fleet " + file.getPath() + " of " + size + " devices.");
+        }
+        long position = HEADER_SIZE + device * 8;
+        if (position + 8 > index.capacity()) {
+            throw new IndexOutOfBoundsException("Device " + device + " is beyond the index of fleet " + file.getPath() + ".");
+        }
+        long offset = index.getLong((int) position);
+        if (offset < 0 || offset >= fileSize) {
+            throw new IOException("The index of fleet " + file.getPath() + " points beyond the file, delete the .idx file.");
+        }
+        long available = Math.min(MAX_LINE, fileSize - offset);
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(LINE_GUESS, available));
+        int end;
+        while (true) {
+            int read = buffer.hasRemaining() ? channel.read(buffer, offset + buffer.position()) : 0;
+            end = indexOf(buffer, (byte) '\n');
+            if (end >= 0 || read < 0 || buffer.position() == available) {
+                break;
+            }
+            if (!buffer.hasRemaining()) {
+                // longer than guessed, e.g. many resource paths
+                ByteBuffer larger = ByteBuffer.allocate((int) Math.min(buffer.capacity() * 4L, available));
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+        }
+        if (end < 0) {
+            end = buffer.position();
+        }
+        if (end > 0 && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+        return DeviceDefinition.parse(device, new String(buffer.array(), 0, end, UTF_8));
+    }
+
+    private static int indexOf(ByteBuffer buffer, byte value) {
+        byte[] array = buffer.array();
+        for (int i = 0; i < buffer.position(); i++) {
+            if (array[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isIndexCurrent(File file, File indexFile) throws IOException {
+        if (!indexFile.isFile() || indexFile.length() < HEADER_SIZE) {
+            return false;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r")) {
+            return raf.readLong() == MAGIC && raf.readLong() == file.length() && raf.readLong() == file.lastModified();
+        }
+    }
+
+    /**
+     * Writes the index to a temporary file and moves it in place, so concurrent load generators
+     * sharing the fleet never read a half written index.
+     */
+    private static void buildIndex(File file, File indexFile) throws IOException {
+        long start = System.nanoTime();
+        File temp = File.createTempFile(indexFile.getName(), ".tmp", indexFile.getAbsoluteFile().getParentFile());
+        long count = 0;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16))) {
+            out.writeLong(MAGIC);
+            out.writeLong(file.length());
+            out.writeLong(file.lastModified());
+            long position = 0;
+            long lineStart = 0;
+            boolean blank = true;
+            boolean comment = false;
+            int b;
+            while ((b = in.read()) >= 0) {
+                if (b == '\n') {
+                    if (!blank && !comment) {
+                        out.writeLong(lineStart);
+                        count++;
+                    }
+                    lineStart = position + 1;
+                    blank = true;
+                    comment = false;
+                } else if (blank && b != ' ' && b != '\t' && b != '\r') {
+                    blank = false;
+                    comment = b == '#';
+                }
+                position++;
+            }
+            if (!blank && !comment) {
+                out.writeLong(lineStart);
+                count++;
+            }
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("Indexed {} devices of fleet {} in {} ms.", count, file.getPath(), (System.nanoTime() - start) / 1000000);
+    }
+}
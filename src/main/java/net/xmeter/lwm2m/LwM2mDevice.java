@@ -0,0 +1,516 @@
+package net.xmeter.lwm2m;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.californium.core.network.Endpoint;
+import org.eclipse.leshan.client.californium.LeshanClient;
+import org.eclipse.leshan.client.californium.LeshanClientBuilder;
+import org.eclipse.leshan.client.engine.DefaultRegistrationEngineFactory;
+import org.eclipse.leshan.client.object.Device;
+import org.eclipse.leshan.client.object.Security;
+import org.eclipse.leshan.client.object.Server;
+import org.eclipse.leshan.client.observer.LwM2mClientObserverAdapter;
+import org.eclipse.leshan.client.resource.ObjectsInitializer;
+import org.eclipse.leshan.client.servers.ServerIdentity;
+import org.eclipse.leshan.core.LwM2mId;
+import org.eclipse.leshan.core.ResponseCode;
+import org.eclipse.leshan.core.model.LwM2mModel;
+import org.eclipse.leshan.core.request.BindingMode;
+import org.eclipse.leshan.core.request.DeregisterRequest;
+import org.eclipse.leshan.core.request.RegisterRequest;
+import org.eclipse.leshan.core.request.UpdateRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.xmeter.Util;
+import net.xmeter.coap.DtlsCredentials;
+import net.xmeter.coap.DtlsSessionCache;
+import net.xmeter.coap.EndpointPool;
+import net.xmeter.coap.HandshakeStats;
+import net.xmeter.coap.TimedDtlsConnector;
+import net.xmeter.stats.UpdateStats;
+
+/**
+ * A long-lived simulated LwM2M device.
+ * The underlying Leshan client is built once and registration, update and deregistration
+ * can then be triggered individually. Each operation completes as soon as the client observer
+ * reports success, failure or timeout, waiting never exceeds the given timeout.
+ * <p>
+ * With a {@link RegistrationScheduler} the client runs on the shared executor and, once started
+ * with {@link #startScheduledUpdates(long, double)}, updates its registration every communication
+ * period without a thread of its own.
+ */
+public class LwM2mDevice {
+    private transient static Logger logger = LoggerFactory.getLogger(LwM2mDevice.class.getName());
+
+    private static final int SHORT_SERVER_ID = 12345;
+
+    private final String endpoint;
+    private final LeshanClient client;
+    private final SensorSimulation sensors;
+    private final RegistrationScheduler scheduler;
+    /** Where the client processes its messages, owned by the device if it is not shared. */
+    private final ScheduledExecutorService executor;
+    private final boolean ownExecutor;
+    private final AtomicReference<UpdateStats> updateStats;
+    /** 0 with no scheduled update in flight, -1 once triggered, then the time Leshan sent it. */
+    private final AtomicLong scheduledUpdateSentAt = new AtomicLong();
+    private volatile long scheduledUpdateTriggeredAt;
+    private volatile ScheduledUpdate scheduledUpdate;
+
+    private volatile PendingOperation pending;
+    private volatile PendingOperation lastOperation;
+    private boolean started = false;
+    private volatile boolean registered = false;
+
+    public LwM2mDevice(String endpoint, String serverUri, long lifetime, LwM2mModel model) {
+        this(endpoint, serverUri, lifetime, model, null);
+    }
+
+    /**
+     * @param pool if not null the client runs on the executors of the pool instead of its own threads.
+     */
+    public LwM2mDevice(String endpoint, String serverUri, long lifetime, LwM2mModel model, EndpointPool pool) {
+        this(endpoint, serverUri, lifetime, model, pool, null, null, null);
+    }
+
+    /**
+     * @param credentials DTLS credentials for a coaps:// server, null for no security.
+     * @param handshakeStats where the DTLS handshakes of this device are recorded, may be null.
+     * @param sessions DTLS sessions of the device, kept by the caller to resume them on the next
+     *        client of the device, may be null.
+     */
+    public LwM2mDevice(String endpoint, String serverUri, long lifetime, LwM2mModel model, EndpointPool pool,
+            DtlsCredentials credentials, HandshakeStats handshakeStats, DtlsSessionCache sessions) {
+        this(endpoint, serverUri, lifetime, BindingMode.U, model, pool, credentials, handshakeStats, sessions);
+    }
+
+    /**
+     * @param binding binding mode announced in the registration, e.g. UQ for a queue mode device.
+     */
+    public LwM2mDevice(String endpoint, String serverUri, long lifetime, BindingMode binding, LwM2mModel model, EndpointPool pool,
+            DtlsCredentials credentials, HandshakeStats handshakeStats, DtlsSessionCache sessions) {
+        this(endpoint, serverUri, lifetime, binding, model, pool, credentials, handshakeStats, sessions, null);
+    }
+
+    /**
+     * @param sensors simulated objects served in addition to Security, Server and Device, whose
+     *        notifications are counted, may be null.
+     */
+    public LwM2mDevice(String endpoint, String serverUri, long lifetime, BindingMode binding, LwM2mModel model, EndpointPool pool,
+            DtlsCredentials credentials, HandshakeStats handshakeStats, DtlsSessionCache sessions, SensorSimulation sensors) {
+        this(endpoint, serverUri, lifetime, binding, model, pool, credentials, handshakeStats, sessions, sensors, null);
+    }
+
+    /**
+     * @param scheduler if not null the registration engine runs on its executor (unless a pool is given)
+     *        and the updates are left to {@link #startScheduledUpdates(long, double)}.
+     */
+    public LwM2mDevice(String endpoint, String serverUri, long lifetime, BindingMode binding, LwM2mModel model, EndpointPool pool,
+            DtlsCredentials credentials, HandshakeStats handshakeStats, DtlsSessionCache sessions, SensorSimulation sensors,
+            RegistrationScheduler scheduler) {
+        this(endpoint, serverUri, lifetime, binding, model, pool, credentials, handshakeStats, sessions, sensors, scheduler, null);
+    }
+
+    /**
+     * @param sharedUpdateStats where the scheduled updates are recorded, shared e.g. by the devices of a
+     *        group and rotated by its owner, null for statistics of this device only.
+     */
+    public LwM2mDevice(String endpoint, String serverUri, long lifetime, BindingMode binding, LwM2mModel model, EndpointPool pool,
+            DtlsCredentials credentials, HandshakeStats handshakeStats, DtlsSessionCache sessions, SensorSimulation sensors,
+            RegistrationScheduler scheduler, AtomicReference<UpdateStats> sharedUpdateStats) {
+        this.endpoint = endpoint;
+        this.sensors = sensors;
+        this.scheduler = scheduler;
+        this.updateStats = sharedUpdateStats != null ? sharedUpdateStats : new AtomicReference<>(new UpdateStats());
+
+        ObjectsInitializer initializer = new ObjectsInitializer(model);
+        initializer.setInstancesForObject(LwM2mId.SECURITY, credentials == null ? Security.noSec(serverUri, SHORT_SERVER_ID)
+                : credentials.toSecurity(serverUri, SHORT_SERVER_ID));
+        initializer.setInstancesForObject(LwM2mId.SERVER, new Server(SHORT_SERVER_ID, lifetime, binding, false));
+        initializer.setInstancesForObject(LwM2mId.DEVICE, new Device("Eclipse Leshan", "model12345", "12345", binding.name()));
+        if (sensors != null) {
+            sensors.addTo(initializer);
+        }
+
+        LeshanClientBuilder builder = new LeshanClientBuilder(endpoint);
+        builder.setObjects(initializer.createAll());
+        if (pool != null) {
+            // The server addresses a device by its source address, so every client keeps its socket.
+            builder.setCoapConfig(pool.getNetworkConfig());
+            executor = pool.getExecutor();
+            ownExecutor = false;
+        } else if (scheduler != null) {
+            builder.setCoapConfig(EndpointPool.createNetworkConfig());
+            executor = scheduler.getExecutor();
+            ownExecutor = false;
+        } else if (sensors != null) {
+            // The value changes run on the client's executor, so the device needs a handle on it.
+            executor = Executors.newSingleThreadScheduledExecutor(Util.newThreadFactory("lwm2m-" + endpoint));
+            ownExecutor = true;
+        } else {
+            executor = null;
+            ownExecutor = false;
+        }
+        if (executor != null) {
+            builder.setSharedExecutor(executor);
+        }
+        DefaultRegistrationEngineFactory engineFactory = new DefaultRegistrationEngineFactory();
+        // Without a communication period Leshan only updates shortly before the lifetime expires,
+        // scheduled updates come first and push that deadline out.
+        engineFactory.setCommunicationPeriod(null);
+        engineFactory.setReconnectOnUpdate(false);
+        engineFactory.setResumeOnConnect(true);
+        builder.setRegistrationEngineFactory(engineFactory);
+        if (credentials != null) {
+            builder.setEndpointFactory(new TimedDtlsConnector.EndpointFactory(handshakeStats != null ? handshakeStats : new HandshakeStats(),
+                    sessions != null ? sessions : new DtlsSessionCache()));
+        }
+        client = builder.build();
+        if (sensors != null) {
+            for (Endpoint coapEndpoint : client.getCoapServer().getEndpoints()) {
+                coapEndpoint.addInterceptor(sensors.newInterceptor());
+            }
+        }
+        client.addObserver(new LwM2mClientObserverAdapter() {
+            @Override
+            public void onRegistrationStarted(ServerIdentity server, RegisterRequest request) {
+                requestSent();
+            }
+
+            @Override
+            public void onRegistrationSuccess(ServerIdentity server, RegisterRequest request, String registrationID) {
+                registered = true;
+                scheduledUpdateSentAt.set(0);
+                complete(true, "Registered with id " + registrationID + ".");
+            }
+
+            @Override
+            public void onRegistrationFailure(ServerIdentity server, RegisterRequest request, ResponseCode responseCode, String errorMessage, Exception cause) {
+                scheduledUpdateSentAt.set(0);
+                complete(false, "Registration failed: " + responseCode + " " + errorMessage);
+            }
+
+            @Override
+            public void onRegistrationTimeout(ServerIdentity server, RegisterRequest request) {
+                scheduledUpdateSentAt.set(0);
+                complete(false, "Registration request timed out.");
+            }
+
+            @Override
+            public void onUpdateStarted(ServerIdentity server, UpdateRequest request) {
+                scheduledUpdateSentAt.compareAndSet(-1, System.nanoTime());
+                requestSent();
+            }
+
+            @Override
+            public void onUpdateSuccess(ServerIdentity server, UpdateRequest request) {
+                long sentAt = scheduledUpdateSentAt.getAndSet(0);
+                if (sentAt > 0) {
+                    updateStats.get().recordSuccess(System.nanoTime() - sentAt);
+                }
+                complete(true, "Registration updated.");
+            }
+
+            @Override
+            public void onUpdateFailure(ServerIdentity server, UpdateRequest request, ResponseCode responseCode, String errorMessage, Exception cause) {
+                scheduledUpdateFailed();
+                complete(false, "Update failed: " + responseCode + " " + errorMessage);
+            }
+
+            @Override
+            public void onUpdateTimeout(ServerIdentity server, UpdateRequest request) {
+                scheduledUpdateFailed();
+                complete(false, "Update request timed out.");
+            }
+
+            @Override
+            public void onDeregistrationStarted(ServerIdentity server, DeregisterRequest request) {
+                scheduledUpdateSentAt.set(0);
+                requestSent();
+            }
+
+            @Override
+            public void onDeregistrationSuccess(ServerIdentity server, DeregisterRequest request) {
+                registered = false;
+                scheduledUpdateSentAt.set(0);
+                complete(true, "Deregistered.");
+            }
+
+            @Override
+            public void onDeregistrationFailure(ServerIdentity server, DeregisterRequest request, ResponseCode responseCode, String errorMessage, Exception cause) {
+                registered = false;
+                scheduledUpdateSentAt.set(0);
+                complete(false, "Deregistration failed: " + responseCode + " " + errorMessage);
+            }
+
+            @Override
+            public void onDeregistrationTimeout(ServerIdentity server, DeregisterRequest request) {
+                registered = false;
+                scheduledUpdateSentAt.set(0);
+                complete(false, "Deregistration request timed out.");
+            }
+        });
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * @return the simulated objects of the device, or null.
+     */
+    public SensorSimulation getSensors() {
+        return sensors;
+    }
+
+    /**
+     * Starts changing the values of the simulated objects every periodMillis, on the executor of the
+     * client. The {@link net.xmeter.SharedScheduler} must be acquired.
+     */
+    public void startSensors(long periodMillis) {
+        if (sensors != null) {
+            sensors.start(periodMillis, executor);
+        }
+    }
+
+    public boolean isRegistered() {
+        return registered;
+    }
+
+    /**
+     * @return the message describing the outcome of the last operation.
+     */
+    public String getOutcomeMessage() {
+        PendingOperation op = lastOperation;
+        return op == null ? "" : op.message;
+    }
+
+    /**
+     * @return time between the request leaving the client and the server answering it, or -1 if unknown.
+     */
+    public long getRoundTripMillis() {
+        PendingOperation op = lastOperation;
+        return op == null ? -1 : op.roundTripMillis();
+    }
+
+    public boolean register(long timeoutMillis) throws InterruptedException {
+        PendingOperation op = begin("Registration");
+        if (registered) {
+            return op.fail("Device " + endpoint + " is already registered.");
+        }
+        client.start();
+        started = true;
+        return op.await(timeoutMillis);
+    }
+
+    public boolean update(long timeoutMillis) throws InterruptedException {
+        PendingOperation op = begin("Update");
+        if (!registered) {
+            return op.fail("Device " + endpoint + " is not registered.");
+        }
+        client.triggerRegistrationUpdate();
+        return op.await(timeoutMillis);
+    }
+
+    public boolean deregister(long timeoutMillis) throws InterruptedException {
+        stopScheduledUpdates();
+        PendingOperation op = begin("Deregistration");
+        if (!registered) {
+            return op.fail("Device " + endpoint + " is not registered.");
+        }
+        client.stop(true);
+        return op.await(timeoutMillis);
+    }
+
+    public void destroy() {
+        stopScheduledUpdates();
+        if (sensors != null) {
+            sensors.stop();
+        }
+        if (started) {
+            client.destroy(registered);
+            started = false;
+            registered = false;
+        }
+        if (ownExecutor) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Updates the registration every period, moved by up to jitter (a fraction of the period) each
+     * time. The first update falls at a random point of the first period, so a fleet started at
+     * once spreads its updates.
+     * @throws IllegalStateException if the device has no registration scheduler.
+     */
+    public synchronized void startScheduledUpdates(long periodMillis, double jitter) {
+        if (scheduler == null) {
+            throw new IllegalStateException("Device " + endpoint + " has no registration scheduler.");
+        }
+        if (scheduledUpdate == null) {
+            scheduledUpdate = new ScheduledUpdate(periodMillis, jitter);
+            scheduledUpdate.schedule(ThreadLocalRandom.current().nextLong(periodMillis));
+        }
+    }
+
+    public synchronized void stopScheduledUpdates() {
+        if (scheduledUpdate != null) {
+            scheduledUpdate.cancel();
+            scheduledUpdate = null;
+        }
+        scheduledUpdateSentAt.set(0);
+    }
+
+    /**
+     * @return the statistics of the scheduled updates since the last call, counting starts over, of
+     *         all devices sharing them.
+     */
+    public UpdateStats rotateUpdateStats() {
+        return updateStats.getAndSet(new UpdateStats());
+    }
+
+    private void scheduledUpdateFailed() {
+        if (scheduledUpdateSentAt.getAndSet(0) != 0) {
+            updateStats.get().recordFailure();
+        }
+    }
+
+    private PendingOperation begin(String name) {
+        PendingOperation op = new PendingOperation(name);
+        pending = op;
+        lastOperation = op;
+        return op;
+    }
+
+    private void requestSent() {
+        PendingOperation op = pending;
+        if (op != null) {
+            op.sentAt = System.nanoTime();
+        }
+    }
+
+    private void complete(boolean success, String message) {
+        PendingOperation op = pending;
+        if (op != null) {
+            op.complete(success, message);
+        } else {
+            logger.debug("{}: {}", endpoint, message);
+        }
+    }
+
+    /**
+     * The next scheduled update of this device, rescheduled with a new jitter after every run.
+     * An update is only triggered when the previous one was answered, Leshan sends it from its engine.
+     * One that got no answer within a period, e.g. because the engine never sent it, counts as
+     * failed so that the next one can go.
+     */
+    private class ScheduledUpdate implements Runnable {
+        private final long periodMillis;
+        private final double jitter;
+        private volatile long dueNanos;
+        private volatile boolean cancelled = false;
+        private ScheduledFuture<?> future;
+
+        ScheduledUpdate(long periodMillis, double jitter) {
+            this.periodMillis = periodMillis;
+            this.jitter = jitter;
+        }
+
+        synchronized void schedule(long delayMillis) {
+            if (!cancelled) {
+                dueNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+                future = scheduler.schedule(this, delayMillis);
+            }
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            UpdateStats stats = updateStats.get();
+            long now = System.nanoTime();
+            long sentAt = scheduledUpdateSentAt.get();
+            if (sentAt != 0 && now - scheduledUpdateTriggeredAt > TimeUnit.MILLISECONDS.toNanos(periodMillis)
+                    && scheduledUpdateSentAt.compareAndSet(sentAt, 0)) {
+                stats.recordFailure();
+            }
+            boolean late = now - dueNanos > TimeUnit.MILLISECONDS.toNanos(periodMillis);
+            if (!registered || late || !scheduledUpdateSentAt.compareAndSet(0, -1)) {
+                stats.recordMissed();
+            } else {
+                scheduledUpdateTriggeredAt = now;
+                stats.recordTriggered();
+                client.triggerRegistrationUpdate();
+            }
+            schedule(RegistrationScheduler.jitteredDelay(periodMillis, jitter));
+        }
+    }
+
+    /**
+     * One registration, update or deregistration in flight, completed by the client observer callbacks.
+     */
+    private class PendingOperation {
+        private final String name;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final AtomicBoolean completed = new AtomicBoolean(false);
+        private final long startedAt = System.nanoTime();
+        private volatile long sentAt = -1;
+        private volatile long completedAt = -1;
+        private volatile boolean success = false;
+        private volatile String message = "";
+
+        PendingOperation(String name) {
+            this.name = name;
+        }
+
+        void complete(boolean success, String message) {
+            if (completed.compareAndSet(false, true)) {
+                this.completedAt = System.nanoTime();
+                this.success = success;
+                this.message = message;
+                done.countDown();
+            }
+        }
+
+        boolean fail(String message) {
+            complete(false, message);
+            return false;
+        }
+
+        boolean await(long timeoutMillis) throws InterruptedException {
+            try {
+                if (!done.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                    complete(false, name + " of " + endpoint + " got no answer within " + timeoutMillis + " ms.");
+                    logger.info(message);
+                }
+                return success;
+            } finally {
+                if (pending == this) {
+                    pending = null;
+                }
+            }
+        }
+
+        long roundTripMillis() {
+            if (completedAt < 0 || !success) {
+                return -1;
+            }
+            long from = sentAt > 0 ? sentAt : startedAt;
+            return TimeUnit.NANOSECONDS.toMillis(completedAt - from);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package net.xmeter.lwm2m;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.leshan.core.model.LwM2mModel;
+import org.eclipse.leshan.core.model.ObjectLoader;
+import org.eclipse.leshan.core.model.ObjectModel;
+import org.eclipse.leshan.core.model.ResourceModel;
+import org.eclipse.leshan.core.model.ResourceModel.Operations;
+import org.eclipse.leshan.core.model.ResourceModel.Type;
+import org.eclipse.leshan.core.model.StaticModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.xmeter.Util;
+
+/**
+ * Process-wide cache of LwM2M object models.
+ * The bundled OMA models (plus any custom model directories) are parsed once and the
+ * resulting immutable {@link LwM2mModel} is shared by every sampler thread.
+ * The IPSO Temperature object simulated by {@link TemperatureSensor} is always part of the model.
+ */
+public class ObjectModelRegistry {
+    private transient static Logger logger = LoggerFactory.getLogger(ObjectModelRegistry.class.getName());
+
+    private static final ConcurrentMap<String, ModelHolder> holders = new ConcurrentHashMap<>();
+
+    private ObjectModelRegistry() {
+    }
+
+    public static LwM2mModel getModel() {
+        return getModel("");
+    }
+
+    /**
+     * @param modelDirs comma separated list of directories with custom object models, may be empty.
+     */
+    public static LwM2mModel getModel(String modelDirs) {
+        return holder(modelDirs).get();
+    }
+
+    /**
+     * @return how long the one-time load of the given model set took, or -1 if it was not loaded yet.
+     */
+    public static long getLoadTimeMillis(String modelDirs) {
+        return holder(modelDirs).loadTimeMillis;
+    }
+
+    private static ModelHolder holder(String modelDirs) {
+        String key = normalize(modelDirs);
+        ModelHolder holder = holders.get(key);
+        if (holder == null) {
+            ModelHolder created = new ModelHolder(key);
+            holder = holders.putIfAbsent(key, created);
+            if (holder == null) {
+                holder = created;
+            }
+        }
+        return holder;
+    }
+
+    private static String normalize(String modelDirs) {
+        if (modelDirs == null) {
+            return "";
+        }
+        StringBuilder key = new StringBuilder();
+        for (String dir : modelDirs.split(",")) {
+            if (!"".equals(dir.trim())) {
+                if (key.length() > 0) {
+                    key.append(',');
+                }
+                key.append(dir.trim());
+            }
+        }
+        return key.toString();
+    }
+
+    private static class ModelHolder {
+        private final String modelDirs;
+        private volatile LwM2mModel model;
+        private volatile long loadTimeMillis = -1;
+
+        ModelHolder(String modelDirs) {
+            this.modelDirs = modelDirs;
+        }
+
+        LwM2mModel get() {
+            LwM2mModel result = model;
+            if (result == null) {
+                synchronized (this) {
+                    result = model;
+                    if (result == null) {
+                        long start = System.nanoTime();
+                        result = load();
+                        loadTimeMillis = (System.nanoTime() - start) / 1000000;
+                        model = result;
+                        logger.info("Loaded LwM2M object models [{}] in {} ms.", "".equals(modelDirs) ? "default" : modelDirs, loadTimeMillis);
+                    }
+                }
+            }
+            return result;
+        }
+
+        private LwM2mModel load() {
+            // Custom models override bundled ones with the same object id.
+            Map<Integer, ObjectModel> byId = new LinkedHashMap<>();
+            for (ObjectModel objectModel : ObjectLoader.loadDefault()) {
+                byId.put(objectModel.id, objectModel);
+            }
+            if (!byId.containsKey(TemperatureSensor.OBJECT_ID)) {
+                byId.put(TemperatureSensor.OBJECT_ID, temperatureModel());
+            }
+            if (!"".equals(modelDirs)) {
+                for (String dir : modelDirs.split(",")) {
+                    File file = Util.resolveFile(dir);
+                    if (file == null || !file.isDirectory()) {
+                        throw new RuntimeException("Cannot find model directory : " + dir);
+                    }
+                    for (ObjectModel objectModel : ObjectLoader.loadObjectsFromDir(file)) {
+                        byId.put(objectModel.id, objectModel);
+                    }
+                }
+            }
+            List<ObjectModel> models = new ArrayList<>(byId.values());
+            return new StaticModel(Collections.unmodifiableList(models));
+        }
+    }
+
+    private static ObjectModel temperatureModel() {
+        return new ObjectModel(TemperatureSensor.OBJECT_ID, "Temperature", "Temperature sensor, example units = Cel.", "1.0", true, false,
+                new ResourceModel(TemperatureSensor.SENSOR_VALUE, "Sensor Value", Operations.R, false, true, Type.FLOAT, "", "",
+                        "Last or Current Measured Value from the Sensor"),
+                new ResourceModel(TemperatureSensor.SENSOR_UNITS, "Sensor Units", Operations.R, false, false, Type.STRING, "", "",
+                        "Measurement Units Definition e.g. \"Cel\" for Temperature in Celsius."),
+                new ResourceModel(TemperatureSensor.MIN_MEASURED_VALUE, "Min Measured Value", Operations.R, false, false, Type.FLOAT, "", "",
+                        "The minimum value measured by the sensor since power ON or reset"),
+                new ResourceModel(TemperatureSensor.MAX_MEASURED_VALUE, "Max Measured Value", Operations.R, false, false, Type.FLOAT, "", "",
+                        "The maximum value measured by the sensor since power ON or reset"),
+                new ResourceModel(TemperatureSensor.MIN_RANGE_VALUE, "Min Range Value", Operations.R, false, false, Type.FLOAT, "", "",
+                        "The minimum value that can be measured by the sensor"),
+                new ResourceModel(TemperatureSensor.MAX_RANGE_VALUE, "Max Range Value", Operations.R, false, false, Type.FLOAT, "", "",
+                        "The maximum value that can be measured by the sensor"),
+                new ResourceModel(TemperatureSensor.RESET_MIN_MAX, "Reset Min and Max Measured Values", Operations.E, false, false, Type.STRING,
+                        "", "", "Reset the Min and Max Measured Values to Current Value"));
+    }
+}
@@ -0,0 +1,87 @@
+package net.xmeter.lwm2m;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.xmeter.Util;
+
+/**
+ * One executor shared by the registration engines of all simulated LwM2M devices of the JVM, and
+ * a timer triggering their periodic registration updates. Without it every Leshan client starts
+ * its own scheduler thread, so the thread count grows with the fleet.
+ * <p>
+ * Leshan sends registration requests synchronously from its engine tasks, so an executor thread
+ * is busy for one round trip per update. The executor is sized for that, a backlog shows up as
+ * missed updates. The timer is a pool of its own, so a busy executor never delays the triggers.
+ * Reference counted, the last {@link #release(RegistrationScheduler)} stops both.
+ */
+public class RegistrationScheduler {
+    private transient static Logger logger = LoggerFactory.getLogger(RegistrationScheduler.class.getName());
+
+    private static RegistrationScheduler instance;
+    private static int references = 0;
+
+    private final ScheduledThreadPoolExecutor executor;
+    private final ScheduledThreadPoolExecutor timer;
+
+    private RegistrationScheduler() {
+        int threads = Runtime.getRuntime().availableProcessors() * 4;
+        executor = new ScheduledThreadPoolExecutor(threads, Util.newThreadFactory("lwm2m-registration"));
+        executor.setRemoveOnCancelPolicy(true);
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        timer = new ScheduledThreadPoolExecutor(1, Util.newThreadFactory("lwm2m-update-timer"));
+        timer.setRemoveOnCancelPolicy(true);
+        timer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        logger.info("Started the registration scheduler with {} threads.", threads);
+    }
+
+    public static synchronized RegistrationScheduler acquire() {
+        if (instance == null) {
+            instance = new RegistrationScheduler();
+        }
+        references++;
+        return instance;
+    }
+
+    public static synchronized void release(RegistrationScheduler scheduler) {
+        if (scheduler == null || scheduler != instance) {
+            return;
+        }
+        references--;
+        if (references <= 0) {
+            instance.timer.shutdownNow();
+            instance.executor.shutdownNow();
+            instance = null;
+            references = 0;
+            logger.info("Stopped the registration scheduler.");
+        }
+    }
+
+    /**
+     * @return the executor to pass to the Leshan client builder.
+     */
+    public ScheduledThreadPoolExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Runs the task on the timer, it must only trigger work, e.g. a registration update, not do it.
+     */
+    public ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+        return timer.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param jitter fraction of the period by which an interval may be shorter or longer, 0 to 1.
+     * @return the period moved by a uniformly distributed jitter.
+     */
+    public static long jitteredDelay(long periodMillis, double jitter) {
+        double offset = (ThreadLocalRandom.current().nextDouble() * 2 - 1) * jitter;
+        return Math.max(1, Math.round(periodMillis * (1 + offset)));
+    }
+}
@@ -0,0 +1,189 @@
+package net.xmeter.lwm2m;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.californium.core.coap.MessageObserverAdapter;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.coap.Token;
+import org.eclipse.californium.core.network.interceptors.MessageInterceptorAdapter;
+import org.eclipse.leshan.client.resource.LwM2mInstanceEnabler;
+import org.eclipse.leshan.client.resource.ObjectsInitializer;
+
+import net.xmeter.SharedScheduler;
+import net.xmeter.stats.NotificationStats;
+
+/**
+ * The simulated objects of one device and the timer task changing their values.
+ * All devices tick on the {@link SharedScheduler}, each with a random phase within the period
+ * so that a fleet started at once does not change (and notify) in bursts. The timer only hands the
+ * tick to the executor of the device's client, where the values change and Leshan encodes and sends
+ * the notifications, so the single timer thread never waits for a device.
+ * <p>
+ * Notifications are counted on the way out of the device's endpoints, so only values the server
+ * actually observes are counted, with the size of the encoded message.
+ */
+public class SensorSimulation {
+    private final List<SimulatedInstance> instances;
+    private final AtomicReference<NotificationStats> stats = new AtomicReference<>(new NotificationStats());
+    private final AtomicBoolean tickPending = new AtomicBoolean(false);
+    /** Tokens of the Observe requests not answered yet, their response is no notification. */
+    private final Set<Token> registrations = Collections.newSetFromMap(new ConcurrentHashMap<Token, Boolean>());
+    private ScheduledFuture<?> ticker;
+
+    private SensorSimulation(List<SimulatedInstance> instances) {
+        this.instances = instances;
+    }
+
+    /**
+     * @param objectIds comma separated object ids, 3303 (Temperature) and 7 (Connectivity Statistics) are simulated.
+     * @throws IllegalArgumentException for an object id that cannot be simulated.
+     */
+    public static SensorSimulation forObjects(String objectIds) {
+        List<SimulatedInstance> instances = new ArrayList<>();
+        for (String id : objectIds.split(",")) {
+            if ("".equals(id.trim())) {
+                continue;
+            }
+            int objectId = Integer.parseInt(id.trim());
+            if (objectId == TemperatureSensor.OBJECT_ID) {
+                instances.add(new TemperatureSensor());
+            } else if (objectId == ConnectivityStatistics.OBJECT_ID) {
+                instances.add(new ConnectivityStatistics());
+            } else {
+                throw new IllegalArgumentException("Object " + objectId + " cannot be simulated, use " + TemperatureSensor.OBJECT_ID
+                        + " or " + ConnectivityStatistics.OBJECT_ID + ".");
+            }
+        }
+        return new SensorSimulation(Collections.unmodifiableList(instances));
+    }
+
+    public List<SimulatedInstance> getInstances() {
+        return instances;
+    }
+
+    /**
+     * Adds the instances to the objects of a client, several instances of one object become instances 0, 1, ...
+     */
+    void addTo(ObjectsInitializer initializer) {
+        Map<Integer, List<LwM2mInstanceEnabler>> byObject = new LinkedHashMap<>();
+        for (SimulatedInstance instance : instances) {
+            List<LwM2mInstanceEnabler> list = byObject.get(instance.getObjectId());
+            if (list == null) {
+                list = new ArrayList<>();
+                byObject.put(instance.getObjectId(), list);
+            }
+            list.add(instance);
+        }
+        for (Map.Entry<Integer, List<LwM2mInstanceEnabler>> entry : byObject.entrySet()) {
+            initializer.setInstancesForObject(entry.getKey(), entry.getValue().toArray(new LwM2mInstanceEnabler[entry.getValue().size()]));
+        }
+    }
+
+    /**
+     * Starts changing the values every periodMillis on the executor, the shared timer must be
+     * acquired. A tick still waiting for the executor is not queued again, the values then change
+     * once for both periods.
+     */
+    synchronized void start(long periodMillis, final Executor executor) {
+        if (ticker != null || instances.isEmpty()) {
+            return;
+        }
+        final Runnable tick = new Runnable() {
+            @Override
+            public void run() {
+                tickPending.set(false);
+                tick();
+            }
+        };
+        ticker = SharedScheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                if (tickPending.compareAndSet(false, true)) {
+                    try {
+                        executor.execute(tick);
+                    } catch (RejectedExecutionException e) {
+                        // the client is shutting down
+                        tickPending.set(false);
+                    }
+                }
+            }
+        }, ThreadLocalRandom.current().nextLong(periodMillis), periodMillis);
+    }
+
+    public synchronized void stop() {
+        if (ticker != null) {
+            ticker.cancel(false);
+            ticker = null;
+        }
+    }
+
+    void tick() {
+        int changed = 0;
+        for (SimulatedInstance instance : instances) {
+            changed += instance.tick();
+        }
+        stats.get().recordChanges(changed);
+    }
+
+    /**
+     * @return the statistics since the last call, counting starts over.
+     */
+    public NotificationStats rotate() {
+        return stats.getAndSet(new NotificationStats());
+    }
+
+    /**
+     * @return an interceptor for the endpoints of the device counting Observe requests and notifications,
+     *         the response to an Observe request is counted as the observation only.
+     */
+    MessageInterceptorAdapter newInterceptor() {
+        return new MessageInterceptorAdapter() {
+            @Override
+            public void receiveRequest(Request request) {
+                Integer observe = request.getOptions().getObserve();
+                if (observe != null && observe == 0) {
+                    registrations.add(request.getToken());
+                    stats.get().recordObservation();
+                }
+            }
+
+            @Override
+            public void sendResponse(Response response) {
+                if (registrations.remove(response.getToken()) || !response.getOptions().hasObserve()) {
+                    return;
+                }
+                byte[] encoded = response.getBytes();
+                stats.get().recordNotification(encoded != null ? encoded.length : response.getPayloadSize());
+                response.addMessageObserver(new MessageObserverAdapter() {
+                    @Override
+                    public void onTimeout() {
+                        stats.get().recordFailure();
+                    }
+
+                    @Override
+                    public void onReject() {
+                        stats.get().recordFailure();
+                    }
+
+                    @Override
+                    public void onSendError(Throwable error) {
+                        stats.get().recordFailure();
+                    }
+                });
+            }
+        };
+    }
+}
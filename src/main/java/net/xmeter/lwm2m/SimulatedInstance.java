@@ -0,0 +1,21 @@
+package net.xmeter.lwm2m;
+
+import org.eclipse.leshan.client.resource.BaseInstanceEnabler;
+
+/**
+ * An object instance whose resource values change on every tick of a {@link SensorSimulation}.
+ * Changed resources are fired to Leshan, which notifies the server if it observes them.
+ */
+public abstract class SimulatedInstance extends BaseInstanceEnabler {
+
+    /**
+     * @return the LwM2M object id, e.g. 3303.
+     */
+    public abstract int getObjectId();
+
+    /**
+     * Moves the values one step on, called on the executor of the device's client.
+     * @return the number of resources that changed.
+     */
+    public abstract int tick();
+}
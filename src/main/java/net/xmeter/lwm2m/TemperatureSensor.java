@@ -0,0 +1,101 @@
+package net.xmeter.lwm2m;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.eclipse.leshan.client.servers.ServerIdentity;
+import org.eclipse.leshan.core.response.ExecuteResponse;
+import org.eclipse.leshan.core.response.ReadResponse;
+
+/**
+ * IPSO Temperature (3303) whose value takes a random walk of up to half a degree per tick
+ * within the sensor range, tracking the measured minimum and maximum.
+ */
+public class TemperatureSensor extends SimulatedInstance {
+    public static final int OBJECT_ID = 3303;
+
+    static final int SENSOR_VALUE = 5700;
+    static final int SENSOR_UNITS = 5701;
+    static final int MIN_MEASURED_VALUE = 5601;
+    static final int MAX_MEASURED_VALUE = 5602;
+    static final int MIN_RANGE_VALUE = 5603;
+    static final int MAX_RANGE_VALUE = 5604;
+    static final int RESET_MIN_MAX = 5605;
+
+    private static final double MIN_RANGE = -40.0;
+    private static final double MAX_RANGE = 85.0;
+    private static final double MAX_STEP = 0.5;
+
+    private double value;
+    private double minMeasured;
+    private double maxMeasured;
+
+    public TemperatureSensor() {
+        value = round(15 + ThreadLocalRandom.current().nextDouble() * 10);
+        minMeasured = value;
+        maxMeasured = value;
+    }
+
+    @Override
+    public int getObjectId() {
+        return OBJECT_ID;
+    }
+
+    @Override
+    public int tick() {
+        int extremum = 0;
+        synchronized (this) {
+            double next = value + (ThreadLocalRandom.current().nextDouble() * 2 - 1) * MAX_STEP;
+            value = round(Math.max(MIN_RANGE, Math.min(MAX_RANGE, next)));
+            if (value < minMeasured) {
+                minMeasured = value;
+                extremum = MIN_MEASURED_VALUE;
+            } else if (value > maxMeasured) {
+                maxMeasured = value;
+                extremum = MAX_MEASURED_VALUE;
+            }
+        }
+        if (extremum != 0) {
+            fireResourcesChange(SENSOR_VALUE, extremum);
+            return 2;
+        }
+        fireResourcesChange(SENSOR_VALUE);
+        return 1;
+    }
+
+    @Override
+    public synchronized ReadResponse read(ServerIdentity identity, int resourceid) {
+        switch (resourceid) {
+        case SENSOR_VALUE:
+            return ReadResponse.success(resourceid, value);
+        case SENSOR_UNITS:
+            return ReadResponse.success(resourceid, "Cel");
+        case MIN_MEASURED_VALUE:
+            return ReadResponse.success(resourceid, minMeasured);
+        case MAX_MEASURED_VALUE:
+            return ReadResponse.success(resourceid, maxMeasured);
+        case MIN_RANGE_VALUE:
+            return ReadResponse.success(resourceid, MIN_RANGE);
+        case MAX_RANGE_VALUE:
+            return ReadResponse.success(resourceid, MAX_RANGE);
+        default:
+            return super.read(identity, resourceid);
+        }
+    }
+
+    @Override
+    public ExecuteResponse execute(ServerIdentity identity, int resourceid, String params) {
+        if (resourceid == RESET_MIN_MAX) {
+            synchronized (this) {
+                minMeasured = value;
+                maxMeasured = value;
+            }
+            fireResourcesChange(MIN_MEASURED_VALUE, MAX_MEASURED_VALUE);
+            return ExecuteResponse.success();
+        }
+        return super.execute(identity, resourceid, params);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+}
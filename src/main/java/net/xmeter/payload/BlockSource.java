@@ -0,0 +1,124 @@
+package net.xmeter.payload;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Content of a block-wise upload, read block by block so that a large body (e.g. a firmware image)
+ * is never held in memory as a whole. Not thread safe, every sampler thread opens its own source.
+ */
+public abstract class BlockSource implements Closeable {
+    private static final int PATTERN_SIZE = 4096;
+
+    /**
+     * @return the total number of bytes of the content.
+     */
+    public abstract long size();
+
+    /**
+     * Reads the next bytes of the content.
+     * @return the number of bytes read, less than length only at the end of the content.
+     */
+    public abstract int read(byte[] buffer, int length) throws IOException;
+
+    /**
+     * Starts over at the first byte, for the next transfer.
+     */
+    public abstract void rewind() throws IOException;
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    public static BlockSource open(File file) throws IOException {
+        return new FileSource(file);
+    }
+
+    /**
+     * @return a source of random bytes of the given size, produced while reading.
+     */
+    public static BlockSource generated(long size) {
+        return new GeneratedSource(size);
+    }
+
+    private static class FileSource extends BlockSource {
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        private final long size;
+
+        FileSource(File file) throws IOException {
+            this.file = new RandomAccessFile(file, "r");
+            this.channel = this.file.getChannel();
+            this.size = channel.size();
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public int read(byte[] buffer, int length) throws IOException {
+            ByteBuffer target = ByteBuffer.wrap(buffer, 0, length);
+            while (target.hasRemaining()) {
+                if (channel.read(target) < 0) {
+                    break;
+                }
+            }
+            return target.position();
+        }
+
+        @Override
+        public void rewind() throws IOException {
+            channel.position(0);
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+
+    /**
+     * Cycles through a random pattern, so producing a block costs one array copy.
+     */
+    private static class GeneratedSource extends BlockSource {
+        private final byte[] pattern = new byte[PATTERN_SIZE];
+        private final long size;
+        private long position;
+
+        GeneratedSource(long size) {
+            this.size = size;
+            ThreadLocalRandom.current().nextBytes(pattern);
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public int read(byte[] buffer, int length) {
+            int count = (int) Math.min(length, size - position);
+            int offset = 0;
+            while (offset < count) {
+                int start = (int) ((position + offset) % PATTERN_SIZE);
+                int chunk = Math.min(count - offset, PATTERN_SIZE - start);
+                System.arraycopy(pattern, start, buffer, offset, chunk);
+                offset += chunk;
+            }
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void rewind() {
+            position = 0;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package net.xmeter.payload;
+
+import java.nio.charset.Charset;
+
+import net.xmeter.CoAPConstants;
+
+/**
+ * Fixed size binary header written in front of published payloads for end-to-end latency.
+ * <pre>
+ * offset  size  field
+ *      0     2  magic 'X' 'M'
+ *      2     1  version
+ *      3     1  flags (reserved)
+ *      4     4  publisher id
+ *      8     8  sequence number
+ *     16     8  send time, nanoseconds since the epoch
+ * </pre>
+ * All numbers are big-endian and decoded straight from the payload bytes.
+ */
+public class LatencyHeader implements CoAPConstants {
+    public static final int SIZE = 24;
+
+    private static final byte MAGIC_0 = 'X';
+    private static final byte MAGIC_1 = 'M';
+    private static final byte VERSION = 1;
+
+    private static final byte[] LEGACY_SEPARATOR = TIME_STAMP_SEP_FLAG.getBytes(Charset.forName("US-ASCII"));
+
+    private static final long BASE_EPOCH_NANOS;
+    private static final long BASE_NANO_TIME;
+
+    static {
+        // Align with the moment the wall clock ticks, so the nanosecond clock starts within
+        // microseconds of it instead of anywhere inside the current millisecond.
+        long millis = System.currentTimeMillis();
+        long next;
+        long nano;
+        do {
+            nano = System.nanoTime();
+            next = System.currentTimeMillis();
+        } while (next == millis);
+        BASE_EPOCH_NANOS = next * 1000000L;
+        BASE_NANO_TIME = nano;
+    }
+
+    private LatencyHeader() {
+    }
+
+    /**
+     * @return the current time in nanoseconds since the epoch, as precise as {@link System#nanoTime()}
+     * and as accurate as the wall clock at class load.
+     */
+    public static long currentTimeNanos() {
+        return BASE_EPOCH_NANOS + (System.nanoTime() - BASE_NANO_TIME);
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} value as nanoseconds since the epoch, on the same scale as {@link #currentTimeNanos()}.
+     */
+    public static long toEpochNanos(long nanoTime) {
+        return BASE_EPOCH_NANOS + (nanoTime - BASE_NANO_TIME);
+    }
+
+    /**
+     * @return a new array holding the header followed by the content.
+     */
+    public static byte[] prepend(byte[] content, int publisherId, long sequence) {
+        return prepend(content, publisherId, sequence, currentTimeNanos());
+    }
+
+    /**
+     * @param sendTimeNanos send time in nanoseconds since the epoch, e.g. the intended send time of an open-loop publisher.
+     * @return a new array holding the header followed by the content.
+     */
+    public static byte[] prepend(byte[] content, int publisherId, long sequence, long sendTimeNanos) {
+        byte[] payload = new byte[SIZE + content.length];
+        write(payload, 0, publisherId, sequence, sendTimeNanos);
+        System.arraycopy(content, 0, payload, SIZE, content.length);
+        return payload;
+    }
+
+    public static void write(byte[] buffer, int offset, int publisherId, long sequence, long sendTimeNanos) {
+        buffer[offset] = MAGIC_0;
+        buffer[offset + 1] = MAGIC_1;
+        buffer[offset + 2] = VERSION;
+        buffer[offset + 3] = 0;
+        putInt(buffer, offset + 4, publisherId);
+        putLong(buffer, offset + 8, sequence);
+        putLong(buffer, offset + 16, sendTimeNanos);
+    }
+
+    public static boolean isPresent(byte[] payload) {
+        return payload != null && payload.length >= SIZE && payload[0] == MAGIC_0 && payload[1] == MAGIC_1
+                && payload[2] == VERSION;
+    }
+
+    public static int readPublisherId(byte[] payload) {
+        return getInt(payload, 4);
+    }
+
+    public static long readSequence(byte[] payload) {
+        return getLong(payload, 8);
+    }
+
+    public static long readSendTimeNanos(byte[] payload) {
+        return getLong(payload, 16);
+    }
+
+    /**
+     * Reads the send time of the older text format ("&lt;millis&gt;ts_sep_flag&lt;content&gt;").
+     * @return the send time in milliseconds since the epoch, or -1 if the payload does not start with one.
+     */
+    public static long readLegacyTimestampMillis(byte[] payload) {
+        if (payload == null) {
+            return -1;
+        }
+        long millis = 0;
+        int i = 0;
+        while (i < payload.length && i < 19 && payload[i] >= '0' && payload[i] <= '9') {
+            millis = millis * 10 + (payload[i] - '0');
+            i++;
+        }
+        if (i == 0 || payload.length - i < LEGACY_SEPARATOR.length) {
+            return -1;
+        }
+        for (int j = 0; j < LEGACY_SEPARATOR.length; j++) {
+            if (payload[i + j] != LEGACY_SEPARATOR[j]) {
+                return -1;
+            }
+        }
+        return millis;
+    }
+
+    /**
+     * @return nanoseconds between sending and now, or -1 if the payload carries no timestamp.
+     */
+    public static long elapsedNanos(byte[] payload) {
+        if (isPresent(payload)) {
+            return currentTimeNanos() - readSendTimeNanos(payload);
+        }
+        long millis = readLegacyTimestampMillis(payload);
+        if (millis < 0) {
+            return -1;
+        }
+        return (System.currentTimeMillis() - millis) * 1000000L;
+    }
+
+    private static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    private static void putLong(byte[] buffer, int offset, long value) {
+        putInt(buffer, offset, (int) (value >>> 32));
+        putInt(buffer, offset + 4, (int) value);
+    }
+
+    private static int getInt(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xff) << 24) | ((buffer[offset + 1] & 0xff) << 16)
+                | ((buffer[offset + 2] & 0xff) << 8) | (buffer[offset + 3] & 0xff);
+    }
+
+    private static long getLong(byte[] buffer, int offset) {
+        return ((long) getInt(buffer, offset) << 32) | (getInt(buffer, offset + 4) & 0xffffffffL);
+    }
+}
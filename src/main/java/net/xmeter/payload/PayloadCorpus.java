@@ -0,0 +1,212 @@
+package net.xmeter.payload;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Recorded payloads replayed from a corpus file that is memory mapped read-only and shared by all threads.
+ * The file is a plain sequence of records, each a 4 byte big-endian length followed by that many bytes.
+ * <p>
+ * The file is mapped in windows of up to 1 GB, so corpora larger than one mapping are fine, a record
+ * never spans two windows. The record offsets are written to a temporary index file that is mapped
+ * the same way, so neither the payload bytes nor the index live on the heap, they stay in the page
+ * cache until {@link #get(long)} copies one record for sending.
+ * <p>
+ * Corpora are reference counted by file, the last {@link #release(PayloadCorpus)} unmaps it.
+ */
+public class PayloadCorpus {
+    private transient static Logger logger = LoggerFactory.getLogger(PayloadCorpus.class.getName());
+
+    private static final long MAX_WINDOW = 1L << 30;
+    private static final int LENGTH_SIZE = 4;
+    private static final int OFFSET_SIZE = 8;
+    private static final int INDEX_BUFFER_SIZE = 64 * 1024;
+
+    private static final Map<String, PayloadCorpus> corpora = new HashMap<>();
+
+    private final String key;
+    private final MappedByteBuffer[] windows;
+    private final long[] windowStarts;
+    private final long[] windowFirstRecords;
+    private final MappedByteBuffer[] indexWindows;
+    private final long recordsPerIndexWindow;
+    private final long count;
+    private final long totalBytes;
+    private int references = 0;
+
+    PayloadCorpus(File file, long maxWindow) throws IOException {
+        key = file.getCanonicalPath();
+        List<MappedByteBuffer> mapped = new ArrayList<>();
+        List<Long> starts = new ArrayList<>();
+        List<Long> firstRecords = new ArrayList<>();
+        long records = 0;
+        File indexFile = File.createTempFile("corpus", ".idx");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel();
+                RandomAccessFile indexRaf = new RandomAccessFile(indexFile, "rw"); FileChannel index = indexRaf.getChannel()) {
+            ByteBuffer pending = ByteBuffer.allocateDirect(INDEX_BUFFER_SIZE);
+            long size = channel.size();
+            long windowStart = 0;
+            while (windowStart < size) {
+                long windowSize = Math.min(maxWindow, size - windowStart);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+                mapped.add(window);
+                starts.add(windowStart);
+                firstRecords.add(records);
+                long position = 0;
+                while (position + LENGTH_SIZE <= windowSize) {
+                    int length = window.getInt((int) position);
+                    if (length < 0 || length > maxWindow - LENGTH_SIZE || windowStart + position + LENGTH_SIZE + length > size) {
+                        throw new IOException("Corrupt corpus record at offset " + (windowStart + position) + " of " + file.getPath());
+                    }
+                    if (position + LENGTH_SIZE + length > windowSize) {
+                        break;
+                    }
+                    if (!pending.hasRemaining()) {
+                        writeFully(index, pending);
+                    }
+                    pending.putLong(windowStart + position);
+                    records++;
+                    position += LENGTH_SIZE + length;
+                }
+                if (windowStart + position == size) {
+                    break;
+                }
+                if (position == 0 || windowStart + position + LENGTH_SIZE > size) {
+                    throw new IOException("Corrupt corpus record at offset " + (windowStart + position) + " of " + file.getPath());
+                }
+                windowStart += position;
+            }
+            totalBytes = size;
+            if (records == 0) {
+                throw new IOException("No records in corpus " + file.getPath());
+            }
+            writeFully(index, pending);
+
+            recordsPerIndexWindow = maxWindow / OFFSET_SIZE;
+            indexWindows = new MappedByteBuffer[(int) ((records + recordsPerIndexWindow - 1) / recordsPerIndexWindow)];
+            for (int i = 0; i < indexWindows.length; i++) {
+                long first = i * recordsPerIndexWindow;
+                indexWindows[i] = index.map(FileChannel.MapMode.READ_ONLY, first * OFFSET_SIZE,
+                        Math.min(recordsPerIndexWindow, records - first) * OFFSET_SIZE);
+            }
+        } finally {
+            // The mappings stay valid without the file, where the platform cannot delete it yet it goes at exit.
+            if (!indexFile.delete()) {
+                indexFile.deleteOnExit();
+            }
+        }
+        count = records;
+        windows = mapped.toArray(new MappedByteBuffer[mapped.size()]);
+        windowStarts = new long[starts.size()];
+        windowFirstRecords = new long[firstRecords.size()];
+        for (int i = 0; i < windowStarts.length; i++) {
+            windowStarts[i] = starts.get(i);
+            windowFirstRecords[i] = firstRecords.get(i);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * @return the corpus of the file, mapped and indexed on first use.
+     */
+    public static synchronized PayloadCorpus acquire(File file) throws IOException {
+        String key = file.getCanonicalPath();
+        PayloadCorpus corpus = corpora.get(key);
+        if (corpus == null) {
+            long start = System.nanoTime();
+            corpus = new PayloadCorpus(file, MAX_WINDOW);
+            corpora.put(key, corpus);
+            logger.info("Indexed {} payloads ({} bytes) of corpus {} in {} ms.", corpus.count, corpus.totalBytes, key,
+                    (System.nanoTime() - start) / 1000000);
+        }
+        corpus.references++;
+        return corpus;
+    }
+
+    /**
+     * Drops the corpus from the shared ones after its last user, the mappings go with the last
+     * reference to it, e.g. a cursor still in use.
+     */
+    public static synchronized void release(PayloadCorpus corpus) {
+        if (corpus == null) {
+            return;
+        }
+        corpus.references--;
+        if (corpus.references <= 0) {
+            corpora.remove(corpus.key);
+        }
+    }
+
+    /**
+     * @param index record number, taken modulo the number of records.
+     * @return a new array holding the record.
+     */
+    public byte[] get(long index) {
+        long record = ((index % count) + count) % count;
+        long offset = indexWindows[(int) (record / recordsPerIndexWindow)]
+                .getLong((int) (record % recordsPerIndexWindow) * OFFSET_SIZE);
+        int window = Arrays.binarySearch(windowFirstRecords, record);
+        if (window < 0) {
+            window = -window - 2;
+        }
+        int position = (int) (offset - windowStarts[window]);
+        ByteBuffer buffer = windows[window].duplicate();
+        byte[] payload = new byte[buffer.getInt(position)];
+        buffer.position(position + LENGTH_SIZE);
+        buffer.get(payload);
+        return payload;
+    }
+
+    public long size() {
+        return count;
+    }
+
+    /**
+     * @return a per-thread reader of the records, in order from the start index or at random.
+     */
+    public Cursor newCursor(boolean random, long startIndex) {
+        return new Cursor(this, random, startIndex);
+    }
+
+    /**
+     * Selection state of one thread, not thread safe.
+     */
+    public static class Cursor {
+        private final PayloadCorpus corpus;
+        private final boolean random;
+        private long next;
+
+        Cursor(PayloadCorpus corpus, boolean random, long startIndex) {
+            this.corpus = corpus;
+            this.random = random;
+            this.next = startIndex;
+        }
+
+        public byte[] next() {
+            if (random) {
+                return corpus.get(ThreadLocalRandom.current().nextLong(corpus.size()));
+            }
+            return corpus.get(next++);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package net.xmeter.payload;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Random alphanumeric payloads generated once and shared by all threads.
+ * {@link #next()} only picks an entry, the returned arrays are shared and must not be modified.
+ */
+public class PayloadPool {
+    private transient static Logger logger = LoggerFactory.getLogger(PayloadPool.class.getName());
+
+    private static final char[] seeds = "abcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+    private static final int MAX_PAYLOADS = 1024;
+    /** Upper bound of the memory of one pool, and so of the largest payload. */
+    public static final long MAX_POOL_BYTES = 64L * 1024 * 1024;
+
+    private static final Map<String, PayloadPool> pools = new HashMap<>();
+
+    private final byte[][] payloads;
+    private final long totalBytes;
+
+    private PayloadPool(PayloadSizeDistribution distribution) {
+        if (distribution.getMax() > MAX_POOL_BYTES) {
+            throw new IllegalArgumentException("Payloads of up to " + distribution.getMax() + " bytes exceed the "
+                    + MAX_POOL_BYTES + " bytes of a payload pool, use a corpus file for them.");
+        }
+        // As many payloads as fit in MAX_POOL_BYTES, a single one for the largest sizes.
+        int count = (int) Math.min(MAX_PAYLOADS, MAX_POOL_BYTES / Math.max(1, distribution.getMax()));
+        if (distribution.isFixed() && distribution.getMax() == 0) {
+            count = 1;
+        }
+        Random random = new Random();
+        payloads = new byte[count][];
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            byte[] payload = new byte[distribution.next(random)];
+            for (int j = 0; j < payload.length; j++) {
+                payload[j] = (byte) seeds[random.nextInt(seeds.length)];
+            }
+            payloads[i] = payload;
+            total += payload.length;
+        }
+        totalBytes = total;
+    }
+
+    /**
+     * @param spec a size distribution as accepted by {@link PayloadSizeDistribution#parse(String)}.
+     * @return the pool for the distribution, generated on first use.
+     * @throws IllegalArgumentException if the spec is invalid or its payloads exceed {@link #MAX_POOL_BYTES}.
+     */
+    public static synchronized PayloadPool forSpec(String spec) {
+        String key = spec == null ? "" : spec.replace(" ", "");
+        PayloadPool pool = pools.get(key);
+        if (pool == null) {
+            long start = System.nanoTime();
+            pool = new PayloadPool(PayloadSizeDistribution.parse(key));
+            pools.put(key, pool);
+            logger.info("Generated {} payloads ({} bytes) for size distribution {} in {} ms.", pool.payloads.length,
+                    pool.totalBytes, key, (System.nanoTime() - start) / 1000000);
+        }
+        return pool;
+    }
+
+    /**
+     * Drops all pools, e.g. at the end of a test. Threads still holding a pool keep using it.
+     */
+    public static synchronized void clear() {
+        pools.clear();
+    }
+
+    public byte[] next() {
+        if (payloads.length == 1) {
+            return payloads[0];
+        }
+        return payloads[ThreadLocalRandom.current().nextInt(payloads.length)];
+    }
+
+    public int size() {
+        return payloads.length;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+}
@@ -0,0 +1,105 @@
+package net.xmeter.payload;
+
+import java.util.Random;
+
+/**
+ * Payload sizes, parsed from one of the following forms:
+ * <ul>
+ * <li>{@code 1024} - every payload has the same size</li>
+ * <li>{@code 64-1024} - sizes uniformly distributed between both bounds (inclusive)</li>
+ * <li>{@code 64:70,512:20,4096:10} - histogram of size:weight pairs</li>
+ * </ul>
+ */
+public class PayloadSizeDistribution {
+    private final int[] sizes;
+    private final long[] cumulativeWeights;
+    private final int min;
+    private final int max;
+    private final boolean uniform;
+
+    private PayloadSizeDistribution(int[] sizes, long[] cumulativeWeights, int min, int max, boolean uniform) {
+        this.sizes = sizes;
+        this.cumulativeWeights = cumulativeWeights;
+        this.min = min;
+        this.max = max;
+        this.uniform = uniform;
+    }
+
+    public static PayloadSizeDistribution parse(String spec) {
+        String value = spec == null ? "" : spec.replace(" ", "");
+        try {
+            if (value.indexOf(':') != -1) {
+                String[] entries = value.split(",");
+                int[] sizes = new int[entries.length];
+                long[] cumulative = new long[entries.length];
+                long total = 0;
+                int min = Integer.MAX_VALUE;
+                int max = 0;
+                for (int i = 0; i < entries.length; i++) {
+                    String[] pair = entries[i].split(":");
+                    if (pair.length != 2) {
+                        throw new IllegalArgumentException("Expected size:weight but got " + entries[i]);
+                    }
+                    sizes[i] = checkSize(Integer.parseInt(pair[0]));
+                    long weight = Long.parseLong(pair[1]);
+                    if (weight < 0) {
+                        throw new IllegalArgumentException("Negative weight " + weight);
+                    }
+                    total += weight;
+                    cumulative[i] = total;
+                    min = Math.min(min, sizes[i]);
+                    max = Math.max(max, sizes[i]);
+                }
+                if (total <= 0) {
+                    throw new IllegalArgumentException("The weights must not all be 0");
+                }
+                return new PayloadSizeDistribution(sizes, cumulative, min, max, false);
+            }
+            int dash = value.indexOf('-', 1);
+            if (dash != -1) {
+                int min = checkSize(Integer.parseInt(value.substring(0, dash)));
+                int max = checkSize(Integer.parseInt(value.substring(dash + 1)));
+                if (max < min) {
+                    throw new IllegalArgumentException("Upper bound " + max + " is below lower bound " + min);
+                }
+                return new PayloadSizeDistribution(null, null, min, max, true);
+            }
+            int size = checkSize(Integer.parseInt(value));
+            return new PayloadSizeDistribution(null, null, size, size, true);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid payload size distribution: " + spec, e);
+        }
+    }
+
+    private static int checkSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Negative payload size " + size);
+        }
+        return size;
+    }
+
+    public int next(Random random) {
+        if (uniform) {
+            return min == max ? min : min + random.nextInt(max - min + 1);
+        }
+        long point = (long) (random.nextDouble() * cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (point < cumulativeWeights[i]) {
+                return sizes[i];
+            }
+        }
+        return sizes[sizes.length - 1];
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    public boolean isFixed() {
+        return min == max;
+    }
+}
@@ -1,12 +1,52 @@
 package net.xmeter.samplers;
 
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.text.MessageFormat;
+import java.util.Locale;
+
 import org.apache.jmeter.samplers.AbstractSampler;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.threads.AbstractThreadGroup;
+import org.apache.jmeter.threads.JMeterContext;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.JMeterVariables;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.leshan.core.request.BindingMode;
 
 import net.xmeter.CoAPConstants;
+import net.xmeter.DevicePartition;
+import net.xmeter.GroupDeviceRanges;
+import net.xmeter.Util;
+import net.xmeter.coap.CredentialRegistry;
+import net.xmeter.coap.DtlsCredentials;
+import net.xmeter.coap.DtlsSessionCache;
+import net.xmeter.coap.EndpointPool;
+import net.xmeter.coap.HandshakeStats;
+import net.xmeter.coap.RequestTemplate;
+import net.xmeter.coap.TimedDtlsConnector;
+import net.xmeter.lwm2m.DeviceDefinition;
+import net.xmeter.lwm2m.DeviceFleet;
+import net.xmeter.stats.LatencyHistogram;
 
 public abstract class AbstractCoAPSampler extends AbstractSampler implements CoAPConstants {
     private static final long serialVersionUID = 7163793218595455807L;
 
+    /** Device ranges of the thread groups of the running test. */
+    private static final GroupDeviceRanges groupDevices = new GroupDeviceRanges();
+
+    protected transient EndpointPool endpointPool;
+    protected transient HandshakeStats handshakeStats;
+    protected transient CoapEndpoint dtlsEndpoint;
+    protected transient DtlsSessionCache dtlsSessions;
+    /** Why this thread could not be set up, null if it was. */
+    protected transient String setupFailure;
+    protected transient DeviceDefinition fleetDevice;
+    protected transient long partitionDevice = -1;
+    /** Client id or endpoint name of the device of this thread, worked out once when the thread starts. */
+    protected transient String deviceName;
+
     public String getServer() {
         return getPropertyAsString(SERVER, DEFAULT_SERVER);
     }
@@ -38,7 +78,7 @@ public abstract class AbstractCoAPSampler extends AbstractSampler implements CoA
     public void setPort(String port) {
         setProperty(PORT, port);
     }
-/*
+
     public String getConnTimeout() {
         return getPropertyAsString(CONN_TIMEOUT, DEFAULT_CONN_TIME_OUT);
     }
@@ -46,7 +86,85 @@ public abstract class AbstractCoAPSampler extends AbstractSampler implements CoA
     public void setConnTimeout(String connTimeout) {
         setProperty(CONN_TIMEOUT, connTimeout);
     }
-*/
+
+    /**
+     * @return the configured timeout (seconds) in milliseconds, falls back to the default for invalid values.
+     */
+    public long getConnTimeoutMillis() {
+        try {
+            long timeout = Long.parseLong(getConnTimeout().trim());
+            if(timeout > 0) {
+                return timeout * 1000;
+            }
+        } catch(NumberFormatException ex) {
+            // use the default value below
+        }
+        return Long.parseLong(DEFAULT_CONN_TIME_OUT) * 1000;
+    }
+
+    public String getEndpointPoolSize() {
+        return getPropertyAsString(ENDPOINT_POOL_SIZE, DEFAULT_ENDPOINT_POOL_SIZE);
+    }
+
+    public void setEndpointPoolSize(String poolSize) {
+        setProperty(ENDPOINT_POOL_SIZE, poolSize);
+    }
+
+    /**
+     * Joins the shared endpoint pool if one is configured, devices keep their own endpoint otherwise.
+     */
+    protected void acquireEndpointPool() throws IOException {
+        int size = 0;
+        try {
+            size = Integer.parseInt(getEndpointPoolSize().trim());
+        } catch(NumberFormatException ex) {
+            // no shared endpoints
+        }
+        if(size > 0) {
+            endpointPool = EndpointPool.acquire(size);
+        }
+    }
+
+    protected void releaseEndpointPool() {
+        EndpointPool.release(endpointPool);
+        endpointPool = null;
+    }
+
+    /**
+     * Exposes the latency percentiles of a sample as thread variables (in ms), so that they can be
+     * picked up by listeners or assertions, and returns them as a summary line for the response message.
+     */
+    protected String publishLatencies(LatencyHistogram latencies) {
+        JMeterVariables vars = JMeterContextService.getContext().getVariables();
+        if (latencies.getCount() == 0) {
+            vars.remove(LATENCY_MIN);
+            vars.remove(LATENCY_MAX);
+            vars.remove(LATENCY_P50);
+            vars.remove(LATENCY_P90);
+            vars.remove(LATENCY_P99);
+            vars.remove(LATENCY_P999);
+            return "";
+        }
+        String min = toMillis(latencies.getMin());
+        String max = toMillis(latencies.getMax());
+        String p50 = toMillis(latencies.getValueAtPercentile(50));
+        String p90 = toMillis(latencies.getValueAtPercentile(90));
+        String p99 = toMillis(latencies.getValueAtPercentile(99));
+        String p999 = toMillis(latencies.getValueAtPercentile(99.9));
+        vars.put(LATENCY_MIN, min);
+        vars.put(LATENCY_MAX, max);
+        vars.put(LATENCY_P50, p50);
+        vars.put(LATENCY_P90, p90);
+        vars.put(LATENCY_P99, p99);
+        vars.put(LATENCY_P999, p999);
+        return MessageFormat.format("Latency(ms) of {0} messages: min={1}, p50={2}, p90={3}, p99={4}, p99.9={5}, max={6}\n",
+                latencies.getCount(), min, p50, p90, p99, p999, max);
+    }
+
+    protected static String toMillis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1000000.0);
+    }
+
     public String getProtocol() {
         return getPropertyAsString(PROTOCOL, DEFAULT_PROTOCOL);
     }
@@ -95,6 +213,296 @@ public abstract class AbstractCoAPSampler extends AbstractSampler implements CoA
         this.setProperty(KEY_FILE_PWD2, clientCertPassword);
     }
     
+    public String getClientKeyFilePath() {
+        return getPropertyAsString(CERT_FILE_PATH3, "");
+    }
+
+    public void setClientKeyFilePath(String keyFile) {
+        setProperty(CERT_FILE_PATH3, keyFile);
+    }
+
+    public String getDtlsMode() {
+        return getPropertyAsString(DTLS_MODE, DEFAULT_DTLS_MODE);
+    }
+
+    public void setDtlsMode(String dtlsMode) {
+        setProperty(DTLS_MODE, dtlsMode);
+    }
+
+    public String getCredentialsDir() {
+        return getPropertyAsString(CREDENTIALS_DIR, "");
+    }
+
+    public void setCredentialsDir(String credentialsDir) {
+        setProperty(CREDENTIALS_DIR, credentialsDir);
+    }
+
+    public boolean isDtls() {
+        return PROTOCOL_DTLS.equals(getProtocol());
+    }
+
+    /**
+     * @return coap:// or coaps:// URI of the configured server.
+     */
+    public String getServerUri() {
+        return (isDtls() ? "coaps://" : "coap://") + getServer() + ":" + getPort();
+    }
+
+    public String getFleetFile() {
+        return getPropertyAsString(FLEET_FILE, DEFAULT_FLEET_FILE);
+    }
+
+    public void setFleetFile(String fleetFile) {
+        setProperty(FLEET_FILE, fleetFile);
+    }
+
+    /**
+     * @return fleet position of the device of the first thread, thread N of the group simulates device
+     *         offset + N, or offset + N * generators + generator index with several generators. With
+     *         several thread groups each needs its own first device, beyond the devices of the others.
+     */
+    public String getFleetOffset() {
+        return getPropertyAsString(FLEET_OFFSET, DEFAULT_FLEET_OFFSET);
+    }
+
+    public void setFleetOffset(String offset) {
+        setProperty(FLEET_OFFSET, offset);
+    }
+
+    /**
+     * @return index of this load generator process among {@link #getGeneratorCount()}, from 0.
+     */
+    public String getGeneratorIndex() {
+        return getPropertyAsString(GENERATOR_INDEX, DEFAULT_GENERATOR_INDEX);
+    }
+
+    public void setGeneratorIndex(String index) {
+        setProperty(GENERATOR_INDEX, index);
+    }
+
+    /**
+     * @return number of load generator processes sharing the devices, 0 if this is the only one.
+     */
+    public String getGeneratorCount() {
+        return getPropertyAsString(GENERATOR_COUNT, DEFAULT_GENERATOR_COUNT);
+    }
+
+    public void setGeneratorCount(String count) {
+        setProperty(GENERATOR_COUNT, count);
+    }
+
+    /**
+     * @return file the totals of this instance are written to when the devices are partitioned, see {@link GeneratorSnapshot}.
+     */
+    public String getSnapshotFile() {
+        return getPropertyAsString(GENERATOR_SNAPSHOT_FILE, DEFAULT_GENERATOR_SNAPSHOT_FILE);
+    }
+
+    public void setSnapshotFile(String snapshotFile) {
+        setProperty(GENERATOR_SNAPSHOT_FILE, snapshotFile);
+    }
+
+    protected DevicePartition getDevicePartition() {
+        return new DevicePartition(Long.parseLong(getFleetOffset().trim()), Integer.parseInt(getGeneratorIndex().trim()),
+                Integer.parseInt(getGeneratorCount().trim()));
+    }
+
+    /**
+     * Works out the device of this thread from its number within its thread group, the first device
+     * configured for the group and the generators, see {@link DevicePartition}, and looks it up in
+     * the fleet file if one is configured. The ranges of the thread groups must not overlap, see
+     * {@link GroupDeviceRanges}. The device number and the fleet endpoint name are exposed in the
+     * coap.device_index and coap.device_endpoint variables.
+     */
+    protected void loadFleetDevice() throws IOException {
+        fleetDevice = null;
+        partitionDevice = -1;
+        DevicePartition partition = getDevicePartition();
+        boolean fleet = !"".equals(getFleetFile().trim());
+        if (!fleet && !partition.isPartitioned()) {
+            return;
+        }
+        JMeterContext context = JMeterContextService.getContext();
+        AbstractThreadGroup group = context.getThreadGroup();
+        if (group != null) {
+            groupDevices.register(group, group.getName(), partition, group.getNumThreads());
+        }
+        long device = partition.getDevice(context.getThreadNum());
+        JMeterVariables vars = context.getVariables();
+        vars.put(DEVICE_INDEX, String.valueOf(device));
+        if (partition.isPartitioned()) {
+            partitionDevice = device;
+        }
+        if (!fleet) {
+            return;
+        }
+        File file = Util.resolveFile(getFleetFile().trim());
+        if (file == null) {
+            throw new IOException("Cannot find file : " + getFleetFile());
+        }
+        fleetDevice = DeviceFleet.forFile(file).get(device);
+        vars.put(DEVICE_ENDPOINT, fleetDevice.getEndpoint());
+    }
+
+    /**
+     * Starts the snapshot of this instance when the devices are partitioned among generators, the
+     * first CoAP sampler of the test does.
+     */
+    protected void startSnapshot() {
+        DevicePartition partition;
+        try {
+            partition = getDevicePartition();
+        } catch (IllegalArgumentException e) {
+            // reported by the samples of the threads, see loadFleetDevice()
+            return;
+        }
+        if (partition.isPartitioned()) {
+            GeneratorSnapshot.start(partition, partition.getGeneratorFile(getSnapshotFile().trim()));
+        }
+    }
+
+    /**
+     * Forgets the device ranges of the thread groups, so that the next test may lay them out anew.
+     */
+    protected static void clearThreadGroups() {
+        groupDevices.clear();
+    }
+
+    /**
+     * @return the endpoint name of the fleet device, or else the prefix with the client id suffix:
+     *         the device number when generators are configured, a random one otherwise.
+     */
+    protected String generateDeviceName(String prefix) {
+        if (fleetDevice != null) {
+            return fleetDevice.getEndpoint();
+        }
+        if (!isClientIdSuffix()) {
+            return prefix;
+        }
+        return partitionDevice >= 0 ? prefix + partitionDevice : Util.generateClientId(prefix);
+    }
+
+    /**
+     * @return the endpoint name of the fleet device of this thread, or the configured name without fleet.
+     */
+    protected String getDeviceName(String configuredName) {
+        return fleetDevice != null ? fleetDevice.getEndpoint() : configuredName;
+    }
+
+    protected String getDeviceResourcePath() {
+        return fleetDevice != null ? fleetDevice.getResourcePath(getResourcePath()) : getResourcePath();
+    }
+
+    protected long getDeviceLifetime() {
+        if (fleetDevice != null && fleetDevice.getLifetime() > 0) {
+            return fleetDevice.getLifetime();
+        }
+        return Long.parseLong(getLifeTime());
+    }
+
+    protected BindingMode getDeviceBinding() {
+        if (fleetDevice != null && fleetDevice.getBinding() != null) {
+            return BindingMode.valueOf(fleetDevice.getBinding());
+        }
+        return BindingMode.U;
+    }
+
+    /**
+     * PSK uses the user name and password as identity and key, RPK and X.509 the configured key files.
+     * A fleet device with its own PSK uses that instead.
+     * With a credentials directory, the device's own files are used instead, the client certificate
+     * password opens its .p12 store.
+     * @param deviceName client id or endpoint name of the device of this thread, the name its files carry.
+     */
+    protected DtlsCredentials loadDtlsCredentials(String deviceName) throws IOException, GeneralSecurityException {
+        if (fleetDevice != null && fleetDevice.hasPsk() && DTLS_MODE_PSK.equals(getDtlsMode())) {
+            return DtlsCredentials.psk(fleetDevice.getPskIdentity(), fleetDevice.getPskKey());
+        }
+        if ("".equals(getCredentialsDir().trim())) {
+            return DtlsCredentials.load(getDtlsMode(), getUserNameAuth(), getPasswordAuth(), getKeyStoreFilePath(),
+                    getKeyStorePassword(), getClientCertFilePath(), getClientCertPassword(), getClientKeyFilePath());
+        }
+        return CredentialRegistry.getDeviceCredentials(getCredentialsDir().trim(), getClientCertPassword(), getDtlsMode(),
+                DtlsCredentials.loadTrusted(getDtlsMode(), getKeyStoreFilePath(), getKeyStorePassword()), deviceName);
+    }
+
+    /**
+     * Creates the DTLS endpoint of this thread. DTLS sessions belong to one client, so secured
+     * devices never use the shared endpoint pool.
+     */
+    protected CoapEndpoint acquireDtlsEndpoint(String deviceName) throws IOException, GeneralSecurityException {
+        return acquireDtlsEndpoint(deviceName, true);
+    }
+
+    /**
+     * @param blockwise false for a thread that sets the block options itself, see {@link EndpointPool#NON_BLOCKWISE_STACK}.
+     */
+    protected CoapEndpoint acquireDtlsEndpoint(String deviceName, boolean blockwise) throws IOException, GeneralSecurityException {
+        handshakeStats = new HandshakeStats();
+        if (dtlsSessions == null) {
+            dtlsSessions = new DtlsSessionCache();
+        }
+        dtlsEndpoint = TimedDtlsConnector.newEndpoint(loadDtlsCredentials(deviceName), EndpointPool.createNetworkConfig(), handshakeStats,
+                dtlsSessions, blockwise);
+        return dtlsEndpoint;
+    }
+
+    protected void releaseDtlsEndpoint() {
+        if (dtlsEndpoint != null) {
+            dtlsEndpoint.destroy();
+            dtlsEndpoint = null;
+        }
+        dtlsSessions = null;
+    }
+
+    /**
+     * Marks this thread as not set up, its samples then fail with the message instead of running
+     * without what is missing, e.g. plain UDP in place of DTLS. The first failure is kept.
+     */
+    protected void failSetup(String message) {
+        if (setupFailure == null) {
+            setupFailure = message;
+        }
+    }
+
+    /**
+     * @return a failed result with the reason this thread could not be set up, null if it was set up.
+     */
+    protected SampleResult newSetupFailedResult() {
+        if (setupFailure == null) {
+            return null;
+        }
+        SampleResult result = new SampleResult();
+        result.setSampleLabel(getName());
+        result.sampleStart();
+        result.sampleEnd();
+        result.setSuccessful(false);
+        result.setResponseCode("500");
+        result.setResponseMessage(setupFailure);
+        result.setResponseData(setupFailure, "UTF-8");
+        return result;
+    }
+
+    /**
+     * Reports a DTLS handshake done during the sample as connect time of the result, and in the
+     * coap.dtls_handshake_time variable (ms).
+     * @return a summary line for the response message, empty if there was no handshake.
+     */
+    protected String reportHandshake(SampleResult result) {
+        if (handshakeStats == null) {
+            return "";
+        }
+        long nanos = handshakeStats.takeLastNanos();
+        if (nanos < 0) {
+            return "";
+        }
+        long millis = nanos / 1000000L;
+        result.setConnectTime(millis);
+        JMeterContextService.getContext().getVariables().put(DTLS_HANDSHAKE_TIME, toMillis(nanos));
+        return MessageFormat.format("DTLS {0} handshake in {1} ms.\n", handshakeStats.isLastResumed() ? "abbreviated" : "full",
+                toMillis(nanos));
+    }
+
     public String getClienIdPrefix() {
         return getPropertyAsString(CONN_CLIENT_ID_PREFIX, DEFAULT_CONN_PREFIX);
     }
@@ -130,8 +538,16 @@ public abstract class AbstractCoAPSampler extends AbstractSampler implements CoA
         return false;
     }
     
+    /**
+     * @return CON or NON. Test plans saved before the method got its own key may hold the method
+     *         under coap.message_type, the default type is used then.
+     */
     public String getCoapMessageType() {
-        return getPropertyAsString(COAP_MESSAGE_TYPE, DEFAULT_COAP_MESSAGE_TYPE);
+        String messageType = getPropertyAsString(COAP_MESSAGE_TYPE, DEFAULT_COAP_MESSAGE_TYPE);
+        if (!"CON".equalsIgnoreCase(messageType.trim()) && !"NON".equalsIgnoreCase(messageType.trim())) {
+            return DEFAULT_COAP_MESSAGE_TYPE;
+        }
+        return messageType;
     }
 
     public void setCoapMessageType(String coapMessageType) {
@@ -139,7 +555,20 @@ public abstract class AbstractCoAPSampler extends AbstractSampler implements CoA
     }
     
     public String getMethodType() {
-        return getPropertyAsString(METHOD_TYPE, DEFAULT_PUB_METHOD_TYPE);
+        return getMethodType(DEFAULT_PUB_METHOD_TYPE);
+    }
+
+    /**
+     * @return the method, read from coap.message_type for test plans saved before the method got
+     *         its own key, where both shared that key.
+     */
+    protected String getMethodType(String defaultMethod) {
+        String method = getPropertyAsString(METHOD_TYPE, "");
+        if (!"".equals(method.trim())) {
+            return method;
+        }
+        String legacy = getPropertyAsString(COAP_MESSAGE_TYPE, "");
+        return RequestTemplate.isMethod(legacy) ? legacy.trim() : defaultMethod;
     }
 
     public void setMethodType(String methodType) {
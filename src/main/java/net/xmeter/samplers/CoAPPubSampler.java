@@ -1,59 +1,72 @@
 package net.xmeter.samplers;
 
+import net.xmeter.SharedScheduler;
 import net.xmeter.Util;
+import net.xmeter.coap.CredentialRegistry;
+import net.xmeter.coap.DtlsCredentials;
+import net.xmeter.coap.DtlsSessionCache;
+import net.xmeter.coap.EndpointPool;
+import net.xmeter.coap.HandshakeStats;
+import net.xmeter.coap.RequestTemplate;
+import net.xmeter.engine.AsyncPublisher;
+import net.xmeter.engine.BlockTransfer;
+import net.xmeter.lwm2m.LwM2mDevice;
+import net.xmeter.lwm2m.ObjectModelRegistry;
+import net.xmeter.lwm2m.RegistrationScheduler;
+import net.xmeter.lwm2m.SensorSimulation;
+import net.xmeter.payload.BlockSource;
+import net.xmeter.payload.LatencyHeader;
+import net.xmeter.payload.PayloadCorpus;
+import net.xmeter.payload.PayloadPool;
+import net.xmeter.stats.LatencyHistogram;
+import net.xmeter.stats.NotificationStats;
+import net.xmeter.stats.PublishStats;
+import net.xmeter.stats.UpdateStats;
 import org.apache.jmeter.samplers.Entry;
 import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.testelement.TestStateListener;
 import org.apache.jmeter.testelement.ThreadListener;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.JMeterVariables;
 import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapResponse;
 import org.eclipse.californium.core.coap.MediaTypeRegistry;
 import org.eclipse.californium.core.coap.Request;
-import org.eclipse.leshan.client.californium.LeshanClient;
-import org.eclipse.leshan.client.californium.LeshanClientBuilder;
-import org.eclipse.leshan.client.engine.DefaultRegistrationEngineFactory;
-import org.eclipse.leshan.client.object.Device;
-import org.eclipse.leshan.client.object.Security;
-import org.eclipse.leshan.client.object.Server;
-import org.eclipse.leshan.client.observer.LwM2mClientObserverAdapter;
-import org.eclipse.leshan.client.resource.BaseInstanceEnabler;
-import org.eclipse.leshan.client.resource.ObjectsInitializer;
-import org.eclipse.leshan.client.servers.ServerIdentity;
-import org.eclipse.leshan.core.LwM2mId;
-import org.eclipse.leshan.core.model.LwM2mModel;
-import org.eclipse.leshan.core.model.ObjectLoader;
-import org.eclipse.leshan.core.model.ObjectModel;
-import org.eclipse.leshan.core.model.StaticModel;
-import org.eclipse.leshan.core.node.LwM2mResource;
-import org.eclipse.leshan.core.request.BindingMode;
-import org.eclipse.leshan.core.request.RegisterRequest;
-import org.eclipse.leshan.core.request.UpdateRequest;
-import org.eclipse.leshan.core.response.ExecuteResponse;
-import org.eclipse.leshan.core.response.ReadResponse;
-import org.eclipse.leshan.core.response.WriteResponse;
+import org.eclipse.californium.core.network.CoapEndpoint;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.xml.bind.DatatypeConverter;
+import java.io.File;
+import java.io.IOException;
 import java.text.MessageFormat;
-import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
 
-public class CoAPPubSampler extends AbstractCoAPSampler implements ThreadListener {
+public class CoAPPubSampler extends AbstractCoAPSampler implements ThreadListener, TestStateListener {
     private static final long serialVersionUID = -4312341622759500786L;
     private transient static Logger logger = LoggerFactory.getLogger(CoAPPubSampler.class.getName());
-    private String payload = null;
     private String clientId = "";
     private String uri;
-    private String resourcePath;
-    private String encodedResPath;
-    private Request request;
     private String query;
-    private LeshanClientBuilder builder;
     private SampleResult result;
-
-    private final Object LOCK = new Object();
-
-    public String getMethodType() {
-        return getPropertyAsString(METHOD_TYPE, DEFAULT_PUB_METHOD_TYPE);
-    }
+    private transient LwM2mDevice device;
+    private transient CoapClient coapClient;
+    private transient RequestTemplate template;
+    private transient byte[] fixedPayload;
+    private transient PayloadPool payloadPool;
+    private transient PayloadCorpus corpus;
+    private transient PayloadCorpus.Cursor corpusCursor;
+    private transient long corpusIndex;
+    private transient long sequence = 0;
+    private transient AsyncPublisher publisher;
+    private transient DtlsCredentials dtlsCredentials;
+    private transient BlockTransfer blockTransfer;
+    private transient BlockSource blockSource;
+    private transient CoapEndpoint blockEndpoint;
+    private transient boolean sensorsStarted = false;
+    private transient RegistrationScheduler registrationScheduler;
+
+    private static final long EXPIRE_INTERVAL_NANOS = 100000000L;
 
     public String getPayloadType() {
         return getPropertyAsString(PAYLOAD_TYPE, PAYLOAD_TYPE_RANDOM_STR_WITH_FIX_LEN);
@@ -79,6 +92,33 @@ public class CoAPPubSampler extends AbstractCoAPSampler implements ThreadListene
         setProperty(PAYLOAD_TO_BE_SENT, message);
     }
 
+    public String getCorpusFile() {
+        return getPropertyAsString(CORPUS_FILE, DEFAULT_CORPUS_FILE);
+    }
+
+    public void setCorpusFile(String corpusFile) {
+        setProperty(CORPUS_FILE, corpusFile);
+    }
+
+    public String getCorpusSelection() {
+        return getPropertyAsString(CORPUS_SELECTION, DEFAULT_CORPUS_SELECTION);
+    }
+
+    public void setCorpusSelection(String selection) {
+        setProperty(CORPUS_SELECTION, selection);
+    }
+
+    /**
+     * @return record of the corpus sent with "By index", or the first record of "Round robin", e.g. ${__threadNum}.
+     */
+    public String getCorpusIndex() {
+        return getPropertyAsString(CORPUS_INDEX, DEFAULT_CORPUS_INDEX);
+    }
+
+    public void setCorpusIndex(String index) {
+        setProperty(CORPUS_INDEX, index);
+    }
+
     public boolean isAddTimestamp() {
         return getPropertyAsBoolean(ADD_TIMESTAMP);
     }
@@ -91,151 +131,840 @@ public class CoAPPubSampler extends AbstractCoAPSampler implements ThreadListene
         return getPropertyAsString(CONN_CLIENT_ID_PREFIX, DEFAULT_CONN_PREFIX_FOR_PUB);
     }
 
+    public String getLwM2mOperation() {
+        return getPropertyAsString(LWM2M_OPERATION, DEFAULT_LWM2M_OPERATION);
+    }
+
+    public void setLwM2mOperation(String operation) {
+        setProperty(LWM2M_OPERATION, operation);
+    }
+
+    private boolean isLifecycleOperation() {
+        String operation = getLwM2mOperation();
+        return LWM2M_OPERATION_REGISTER.equals(operation) || LWM2M_OPERATION_UPDATE.equals(operation)
+                || LWM2M_OPERATION_DEREGISTER.equals(operation);
+    }
+
+    private boolean isNotifyOperation() {
+        return OPERATION_NOTIFY.equals(getLwM2mOperation());
+    }
+
+    private boolean isKeepRegisteredOperation() {
+        return OPERATION_KEEP_REGISTERED.equals(getLwM2mOperation()) || isNotifyOperation();
+    }
+
+    private boolean isPublishOperation() {
+        return OPERATION_PUBLISH.equals(getLwM2mOperation()) || isAsyncPublishOperation() || isBlockOperation();
+    }
+
+    private boolean isBlockOperation() {
+        return OPERATION_BLOCK_UPLOAD.equals(getLwM2mOperation()) || isBlockDownloadOperation();
+    }
+
+    private boolean isBlockDownloadOperation() {
+        return OPERATION_BLOCK_DOWNLOAD.equals(getLwM2mOperation());
+    }
+
+    private boolean isAsyncPublishOperation() {
+        return isPublishAtRateOperation() || isPublishPipelinedOperation();
+    }
+
+    private boolean isPublishPipelinedOperation() {
+        return OPERATION_PUBLISH_PIPELINED.equals(getLwM2mOperation());
+    }
+
+    private boolean isPublishAtRateOperation() {
+        return OPERATION_PUBLISH_AT_RATE.equals(getLwM2mOperation());
+    }
+
+    public String getPublishRate() {
+        return getPropertyAsString(PUBLISH_RATE, DEFAULT_PUBLISH_RATE);
+    }
+
+    public void setPublishRate(String rate) {
+        setProperty(PUBLISH_RATE, rate);
+    }
+
+    public String getMaxInFlight() {
+        return getPropertyAsString(MAX_IN_FLIGHT, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public void setMaxInFlight(String maxInFlight) {
+        setProperty(MAX_IN_FLIGHT, maxInFlight);
+    }
+
+    public String getReportInterval() {
+        return getPropertyAsString(REPORT_INTERVAL, DEFAULT_REPORT_INTERVAL);
+    }
+
+    public void setReportInterval(String interval) {
+        setProperty(REPORT_INTERVAL, interval);
+    }
+
+    public String getBlockSize() {
+        return getPropertyAsString(BLOCK_SIZE, DEFAULT_BLOCK_SIZE);
+    }
+
+    public void setBlockSize(String blockSize) {
+        setProperty(BLOCK_SIZE, blockSize);
+    }
+
+    public String getBlockFile() {
+        return getPropertyAsString(BLOCK_FILE, DEFAULT_BLOCK_FILE);
+    }
+
+    public void setBlockFile(String blockFile) {
+        setProperty(BLOCK_FILE, blockFile);
+    }
+
+    public String getBlockTotalSize() {
+        return getPropertyAsString(BLOCK_TOTAL_SIZE, DEFAULT_BLOCK_TOTAL_SIZE);
+    }
+
+    public void setBlockTotalSize(String totalSize) {
+        setProperty(BLOCK_TOTAL_SIZE, totalSize);
+    }
+
+    /**
+     * @return comma separated ids of the objects simulated by Register and notify.
+     */
+    public String getSensorObjects() {
+        return getPropertyAsString(SENSOR_OBJECTS, DEFAULT_SENSOR_OBJECTS);
+    }
+
+    public void setSensorObjects(String objects) {
+        setProperty(SENSOR_OBJECTS, objects);
+    }
+
+    /**
+     * @return milliseconds between two value changes of the simulated objects.
+     */
+    public String getSensorInterval() {
+        return getPropertyAsString(SENSOR_INTERVAL, DEFAULT_SENSOR_INTERVAL);
+    }
+
+    public void setSensorInterval(String interval) {
+        setProperty(SENSOR_INTERVAL, interval);
+    }
+
+    /**
+     * @return milliseconds between two scheduled registration updates, 0 to leave updates to Leshan.
+     */
+    public String getCommunicationPeriod() {
+        return getPropertyAsString(COMMUNICATION_PERIOD, DEFAULT_COMMUNICATION_PERIOD);
+    }
+
+    public void setCommunicationPeriod(String period) {
+        setProperty(COMMUNICATION_PERIOD, period);
+    }
+
+    private long getCommunicationPeriodAsLong() {
+        try {
+            return Long.parseLong(getCommunicationPeriod().trim());
+        } catch (NumberFormatException e) {
+            logger.info("Invalid communication period {}, use default value.", getCommunicationPeriod());
+            return Long.parseLong(DEFAULT_COMMUNICATION_PERIOD);
+        }
+    }
+
+    /**
+     * @return percentage of the communication period by which each update may come earlier or later.
+     */
+    public String getUpdateJitter() {
+        return getPropertyAsString(UPDATE_JITTER, DEFAULT_UPDATE_JITTER);
+    }
+
+    public void setUpdateJitter(String jitter) {
+        setProperty(UPDATE_JITTER, jitter);
+    }
+
+    private double getUpdateJitterAsFraction() {
+        try {
+            return Math.max(0, Math.min(100, Double.parseDouble(getUpdateJitter().trim()))) / 100;
+        } catch (NumberFormatException e) {
+            logger.info("Invalid update jitter {}, use default value.", getUpdateJitter());
+            return Double.parseDouble(DEFAULT_UPDATE_JITTER) / 100;
+        }
+    }
+
+    public String getModelDirs() {
+        return getPropertyAsString(MODEL_DIRS, DEFAULT_MODEL_DIRS);
+    }
+
+    public void setModelDirs(String modelDirs) {
+        setProperty(MODEL_DIRS, modelDirs);
+    }
+
     @Override
     public SampleResult sample(Entry arg0) {
+        SampleResult sampled = sampleOperation();
+        GeneratorSnapshot.record(sampled, null);
+        return sampled;
+    }
+
+    private SampleResult sampleOperation() {
+        SampleResult failed = newSetupFailedResult();
+        if (failed != null) {
+            return failed;
+        }
+        if (isPublishAtRateOperation()) {
+            return samplePublishAtRate();
+        }
+        if (isPublishPipelinedOperation()) {
+            return samplePublishPipelined();
+        }
+        if (isBlockOperation()) {
+            return sampleBlockTransfer();
+        }
+        if (isPublishOperation()) {
+            return samplePublish();
+        }
+        if (isLifecycleOperation()) {
+            return sampleLifecycle();
+        }
+        if (isKeepRegisteredOperation()) {
+            return sampleKeepRegistered();
+        }
         result = new SampleResult();
 
         try {
-            uri = "coap://" + getServer() + ":" + getPort();
-            logger.info(uri);
-            if (DEFAULT_PUB_METHOD_TYPE.equals(getMethodType())) {
-                request = Request.newPut();
-            } else {
-                request = Request.newPost();
-            }
-            request.getOptions().setContentFormat(MediaTypeRegistry.APPLICATION_OCTET_STREAM);
-            request.setURI(uri);
-
+            uri = getServerUri();
             result.setSampleLabel(getName());
 
-            result.sampleStart();
-
             result.setResponseData(uri, "UTF-8");
 
-            String endpoint = getEndpoint();
-            synchronized (LOCK) {
-                builder = new LeshanClientBuilder(endpoint);
-                List<ObjectModel> models = ObjectLoader.loadDefault();
-
-                final LwM2mModel model = new StaticModel(models);
-                final ObjectsInitializer initializer = new ObjectsInitializer(model);
-                initializer.setInstancesForObject(LwM2mId.SECURITY, Security.noSec(uri, 12345));
-                initializer.setInstancesForObject(LwM2mId.SERVER, new Server(12345, Long.parseLong(getLifeTime()), BindingMode.U, false));
-                initializer.setInstancesForObject(LwM2mId.DEVICE, new Device("Eclipse Leshan", "model12345", "12345", "U"));
-//            initializer.setInstancesForObject(LwM2mId.CONNECTIVITY_STATISTICS, new ConnectivityStatistics());
-                builder.setObjects(initializer.createAll());
-
-                DefaultRegistrationEngineFactory engineFactory = new DefaultRegistrationEngineFactory();
-                engineFactory.setCommunicationPeriod(30000);
-                engineFactory.setReconnectOnUpdate(true);
-                engineFactory.setResumeOnConnect(false);
-
-                final LeshanClient client = builder.build();
-                client.addObserver(new LwM2mClientObserverAdapter() {
-                    @Override
-                    public void onRegistrationStarted(ServerIdentity server, RegisterRequest request) {
-                        super.onRegistrationStarted(server, request);
-//                    result.setResponseMessage(MessageFormat.format("Publish failed to topic {0}.", getResourcePath()));
-                    }
-
-                    @Override
-                    public void onRegistrationSuccess(ServerIdentity server, RegisterRequest request, String registrationID) {
-                        super.onRegistrationSuccess(server, request, registrationID);
-                        logger.info("onRegistrationSuccess");
-//                    result.setResponseMessage("register success.");
-//                    client.stop(true);
-//                    result.setSuccessful(true);
-//                    result.setResponseMessage("onRegistrationSuccess");
-//                    result.setResponseCodeOK();
-//                    result.sampleEnd();
-                        try {
-                            Thread.sleep(5000);
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                        synchronized (LOCK) {
-                            logger.info("onRegistrationSuccess sleep " + Thread.currentThread().getName());
-                            LOCK.notifyAll();
-                        }
-                    }
-
-                    @Override
-                    public void onUpdateSuccess(ServerIdentity server, UpdateRequest request) {
-                        super.onUpdateSuccess(server, request);
-                    }
-                });
-                client.start();
-
-                logger.info("start end " + Thread.currentThread().getName());
-                synchronized (LOCK) {
-                    logger.info("end " + Thread.currentThread().getName());
-                    try {
-                        LOCK.wait();
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }
-
-                synchronized (LOCK) {
-                    logger.info("stop " + Thread.currentThread().getName());
-                    client.stop(true);
+            LwM2mDevice device = new LwM2mDevice(deviceName, uri, getDeviceLifetime(), getDeviceBinding(),
+                    ObjectModelRegistry.getModel(getModelDirs()), endpointPool, dtlsCredentials, handshakeStats, dtlsSessions);
+            try {
+                result.sampleStart();
+                boolean success = device.register(getConnTimeoutMillis());
+                result.sampleEnd();
+                fillResult(result, success, reportHandshake(result) + device.getOutcomeMessage());
+                if (device.getRoundTripMillis() >= 0) {
+                    result.setLatency(device.getRoundTripMillis());
                 }
+            } finally {
+                device.destroy();
             }
         } catch (Exception e) {
             //logger.log(Priority.ERROR, e.getMessage(), e);
             logger.error(e.getMessage(), e);
-            result.sampleEnd();
             result.setSuccessful(false);
             result.setResponseMessage(MessageFormat.format("Publish failed to topic {0}.", getResourcePath()));
             result.setResponseData("Failed.".getBytes());
             result.setResponseCode("500");
         } finally {
+            if (result.getStartTime() == 0) {
+                result.sampleStart();
+            }
+            if (result.getEndTime() == 0) {
+                result.sampleEnd();
+            }
+        }
+        return result;
+    }
+
+    private SampleResult samplePublish() {
+        SampleResult result = new SampleResult();
+        result.setSampleLabel(getName());
+        if (template == null) {
+            result.sampleStart();
             result.sampleEnd();
+            return fillResult(result, false, "The publish request could not be prepared for this thread.");
+        }
+
+        try {
+            Request request = template.newRequest(nextPayload());
+            result.sampleStart();
+            CoapResponse response = coapClient.advanced(request);
+            result.sampleEnd();
+            fillPublishResult(result, request, response);
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            if (result.getStartTime() == 0) {
+                result.sampleStart();
+            }
+            if (result.getEndTime() == 0) {
+                result.sampleEnd();
+            }
+            fillResult(result, false, MessageFormat.format("Publish failed to topic {0}: {1}", getResourcePath(), e.getMessage()));
         }
         return result;
     }
 
-    @Override
-    public void threadStarted() {
-        System.out.println("thread Started!!!");
+    /**
+     * Fills the result of one publish from its request and response, null when it timed out.
+     */
+    SampleResult fillPublishResult(SampleResult result, Request request, CoapResponse response) {
+        byte[] sent = request.getBytes();
+        result.setSentBytes(sent != null ? sent.length : request.getPayloadSize());
+        if (response == null) {
+            fillResult(result, false, MessageFormat.format("No response from topic {0} within {1} ms.",
+                    getResourcePath(), getConnTimeoutMillis()));
+            result.setResponseCode("504");
+            return result;
+        }
+        byte[] received = response.advanced().getBytes();
+        int receivedSize = received != null ? received.length : response.advanced().getPayloadSize();
+        result.setSuccessful(response.isSuccess());
+        result.setResponseCode(response.getCode().toString());
+        result.setResponseMessage(reportHandshake(result) + MessageFormat.format("Published {0} bytes to topic {1}, response {2}.",
+                request.getPayloadSize(), getResourcePath(), response.getCode()));
+        result.setResponseData(response.getPayload() != null ? response.getPayload() : new byte[0]);
+        result.setBytes(receivedSize);
+        result.setBodySize(response.advanced().getPayloadSize());
+        return result;
+    }
+
+    /**
+     * Open loop: sends on a fixed schedule of the configured rate for one report interval, whatever
+     * the response times are. Latency is measured from the scheduled send time of each message, so
+     * a stalled sender or a full in-flight window shows up as latency and missed slots instead of
+     * silently lowering the rate. The schedule starts anew with every sample, so that the time
+     * spent between samples is not made up for with a burst.
+     */
+    private SampleResult samplePublishAtRate() {
+        SampleResult result = new SampleResult();
+        result.setSampleLabel(getName());
+        if (publisher == null) {
+            result.sampleStart();
+            result.sampleEnd();
+            return fillResult(result, false, "The publish request could not be prepared for this thread.");
+        }
 
+        long periodNanos = Math.max(1, (long) (1000000000.0 / parsePositive(getPublishRate(), DEFAULT_PUBLISH_RATE)));
+        long intervalNanos = (long) parsePositive(getReportInterval(), DEFAULT_REPORT_INTERVAL) * 1000000L;
+        result.sampleStart();
+        long start = System.nanoTime();
+        long end = start + intervalNanos;
+        long nextSendNanos = start;
+        long nextExpire = start + EXPIRE_INTERVAL_NANOS;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                long now = System.nanoTime();
+                if (now - nextExpire >= 0) {
+                    publisher.expire(now);
+                    nextExpire = now + EXPIRE_INTERVAL_NANOS;
+                }
+                if (now - end >= 0) {
+                    break;
+                }
+                if (nextSendNanos - now > 0) {
+                    long wakeUp = Math.min(nextSendNanos, Math.min(end, nextExpire));
+                    LockSupport.parkNanos(wakeUp - now);
+                    continue;
+                }
+                boolean late = now - nextSendNanos > periodNanos;
+                if (!publisher.trySend(nextPayload(LatencyHeader.toEpochNanos(nextSendNanos)), nextSendNanos, late)) {
+                    publisher.recordMissed();
+                }
+                nextSendNanos += periodNanos;
+            }
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+        }
+        PublishStats stats = publisher.rotate();
+        result.sampleEnd();
+        return fillAsyncResult(result, stats, reportHandshake(result));
     }
 
-    @Override
-    public void threadFinished() {
-        System.out.println("Pub thread Finished!!!");
+    /**
+     * Closed loop with a window: keeps up to max in-flight requests outstanding for one report
+     * interval and sends the next message as soon as a response frees a place.
+     */
+    private SampleResult samplePublishPipelined() {
+        SampleResult result = new SampleResult();
+        result.setSampleLabel(getName());
+        if (publisher == null) {
+            result.sampleStart();
+            result.sampleEnd();
+            return fillResult(result, false, "The publish request could not be prepared for this thread.");
+        }
+
+        long intervalNanos = (long) parsePositive(getReportInterval(), DEFAULT_REPORT_INTERVAL) * 1000000L;
+        result.sampleStart();
+        long start = System.nanoTime();
+        long end = start + intervalNanos;
+        long nextExpire = start + EXPIRE_INTERVAL_NANOS;
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                if (now - nextExpire >= 0) {
+                    publisher.expire(now);
+                    nextExpire = now + EXPIRE_INTERVAL_NANOS;
+                }
+                if (now - end >= 0) {
+                    break;
+                }
+                if (publisher.awaitSlot(Math.min(end, nextExpire) - now)) {
+                    publisher.sendAcquired(nextPayload());
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.info("Interrupted while waiting for a free in-flight place: {}", e.getMessage());
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+        }
+        PublishStats stats = publisher.rotate();
+        result.sampleEnd();
+        return fillAsyncResult(result, stats, reportHandshake(result));
+    }
+
+    /**
+     * One whole block-wise transfer per sample: the upload of the file (or generated content), or the
+     * download of the resource. Latency is the time to the answer of the first block.
+     */
+    private SampleResult sampleBlockTransfer() {
+        SampleResult result = new SampleResult();
+        result.setSampleLabel(getName());
+        if (blockTransfer == null) {
+            result.sampleStart();
+            result.sampleEnd();
+            return fillResult(result, false, "The block-wise transfer could not be prepared for this thread.");
+        }
+
+        boolean download = isBlockDownloadOperation();
+        boolean success;
+        result.sampleStart();
+        try {
+            success = download ? blockTransfer.download() : blockTransfer.upload(blockSource);
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            success = false;
+        }
+        result.sampleEnd();
+
+        String throughput = String.format(Locale.ROOT, "%.1f", blockTransfer.getThroughput() / 1024);
+        JMeterContextService.getContext().getVariables().put(BLOCK_THROUGHPUT, throughput);
+        String message = reportHandshake(result) + MessageFormat.format("{0} {1} bytes in {2} blocks of {3} bytes {4} topic {5} at {6} kB/s. {7}\n",
+                download ? "Downloaded" : "Uploaded", blockTransfer.getBytes(), blockTransfer.getBlocks(), blockTransfer.getBlockSize(),
+                download ? "from" : "to", getResourcePath(), throughput, blockTransfer.getOutcome()) + publishLatencies(blockTransfer.getLatencies());
+        fillResult(result, success, message);
+        result.setSentBytes(blockTransfer.getSentBytes());
+        result.setBytes(blockTransfer.getReceivedBytes());
+        if (blockTransfer.getFirstBlockNanos() >= 0) {
+            result.setLatency(blockTransfer.getFirstBlockNanos() / 1000000L);
+        }
+        return result;
+    }
+
+    private SampleResult fillAsyncResult(SampleResult result, PublishStats stats, String extra) {
+        long completed = stats.getSucceeded() + stats.getFailed();
+        String message = MessageFormat.format("Sent {0}, succeeded {1}, failed {2}, timed out {3}, missed slots {4}, late sends {5} to topic {6}.\n",
+                stats.getSent(), stats.getSucceeded(), stats.getFailed(), stats.getTimedOut(), stats.getMissed(), stats.getLate(),
+                getResourcePath()) + extra + publishInFlightDepth(stats.getInFlightDepth()) + publishLatencies(stats.getLatencies());
+        fillResult(result, completed > 0 && stats.getFailed() == 0 && stats.getTimedOut() == 0, message);
+        result.setSampleCount((int) Math.max(completed, 1));
+        result.setErrorCount((int) (stats.getFailed() + stats.getTimedOut()));
+        result.setSentBytes(stats.getSentBytes());
+        result.setBytes(stats.getReceivedBytes());
+        return result;
+    }
+
+    private String publishInFlightDepth(LatencyHistogram depth) {
+        String mean = String.format(Locale.ROOT, "%.1f", depth.getMean());
+        String max = String.valueOf(depth.getMax());
+        JMeterVariables vars = JMeterContextService.getContext().getVariables();
+        vars.put(IN_FLIGHT_MEAN, mean);
+        vars.put(IN_FLIGHT_MAX, max);
+        return MessageFormat.format("In-flight requests per send: mean={0}, p99={1}, max={2} of {3}.\n",
+                mean, depth.getValueAtPercentile(99), max, publisher.getMaxInFlight());
+    }
+
+    private static double parsePositive(String value, String defaultValue) {
+        try {
+            double parsed = Double.parseDouble(value.trim());
+            if (parsed > 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // use the default value below
+        }
+        return Double.parseDouble(defaultValue);
+    }
+
+    private byte[] nextPayload() {
+        return nextPayload(-1);
+    }
+
+    /**
+     * @param sendTimeNanos time for the latency header in nanoseconds since the epoch, or -1 for now.
+     */
+    private byte[] nextPayload(long sendTimeNanos) {
+        byte[] content = fixedPayload;
+        if (content == null) {
+            if (corpusCursor != null) {
+                content = corpusCursor.next();
+            } else if (corpus != null) {
+                content = corpus.get(corpusIndex);
+            } else {
+                content = payloadPool.next();
+            }
+        }
+        if (!isAddTimestamp()) {
+            return content;
+        }
+        if (sendTimeNanos < 0) {
+            return LatencyHeader.prepend(content, clientId.hashCode(), sequence++);
+        }
+        return LatencyHeader.prepend(content, clientId.hashCode(), sequence++, sendTimeNanos);
+    }
+
+    private void preparePublish() throws IOException {
+        clientId = deviceName;
+        query = "c=" + clientId + "&u=" + getUserNameAuth() + "&p=" + getPasswordAuth();
+
+        String payloadType = getPayloadType();
+        if (PAYLOAD_TYPE_STRING.equals(payloadType)) {
+            fixedPayload = getPayload().getBytes("UTF-8");
+        } else if (PAYLOAD_TYPE_HEX_STRING.equals(payloadType)) {
+            fixedPayload = Util.parseHex(getPayload().trim());
+        } else if (PAYLOAD_TYPE_CORPUS.equals(payloadType)) {
+            fixedPayload = null;
+            File file = Util.resolveFile(getCorpusFile().trim());
+            if (file == null) {
+                throw new IOException("Cannot find file : " + getCorpusFile());
+            }
+            try {
+                corpusIndex = Long.parseLong(getCorpusIndex().trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid corpus index: " + getCorpusIndex());
+            }
+            corpus = PayloadCorpus.acquire(file);
+            if (!CORPUS_BY_INDEX.equals(getCorpusSelection())) {
+                corpusCursor = corpus.newCursor(CORPUS_RANDOM.equals(getCorpusSelection()), corpusIndex);
+            }
+        } else {
+            fixedPayload = null;
+            payloadPool = PayloadPool.forSpec(getPayloadLength());
+        }
+
+        template = new RequestTemplate.Builder()
+                .setMethod(isBlockDownloadOperation() ? "GET" : getMethodType())
+                .setMessageType(getCoapMessageType())
+                .setDestination(getServer(), Integer.parseInt(getPort().trim()))
+                .setResourcePath(getDeviceResourcePath())
+                .setQuery(query)
+                .setContentFormat(MediaTypeRegistry.APPLICATION_OCTET_STREAM)
+                .setMessageId(getMessageId())
+                .setToken(getToken())
+                .setSecure(isDtls())
+                .build();
+
+        coapClient = new CoapClient();
+        coapClient.setTimeout(getConnTimeoutMillis());
+        if (dtlsEndpoint != null) {
+            coapClient.setEndpoint(dtlsEndpoint);
+        } else if (isBlockOperation()) {
+            // The blocks are sent one by one, Californium must not split or follow them up itself.
+            blockEndpoint = EndpointPool.newNonBlockwiseEndpoint();
+            coapClient.setEndpoint(blockEndpoint);
+        } else if (endpointPool != null) {
+            coapClient.setEndpoint(endpointPool.next());
+        }
+        if (isAsyncPublishOperation()) {
+            publisher = new AsyncPublisher(coapClient, template, (int) parsePositive(getMaxInFlight(), DEFAULT_MAX_IN_FLIGHT),
+                    getConnTimeoutMillis());
+        }
+        if (isBlockOperation()) {
+            prepareBlockTransfer();
+        }
+    }
+
+    /**
+     * Opens the upload content of this thread, the configured file or generated bytes of the total size.
+     */
+    private void prepareBlockTransfer() throws IOException {
+        int blockSize = Integer.parseInt(getBlockSize().trim());
+        if (blockSize < 16 || blockSize > 1024 || Integer.bitCount(blockSize) != 1) {
+            throw new IllegalArgumentException("Block size must be 16, 32, 64, 128, 256, 512 or 1024: " + blockSize);
+        }
+        if (!isBlockDownloadOperation()) {
+            if ("".equals(getBlockFile().trim())) {
+                blockSource = BlockSource.generated(Long.parseLong(getBlockTotalSize().trim()));
+            } else {
+                File file = Util.resolveFile(getBlockFile().trim());
+                if (file == null) {
+                    throw new IOException("Cannot find file : " + getBlockFile());
+                }
+                blockSource = BlockSource.open(file);
+            }
+        }
+        blockTransfer = new BlockTransfer(coapClient, template, blockSize);
+    }
+
+    private SampleResult sampleLifecycle() {
+        SampleResult result = new SampleResult();
+        result.setSampleLabel(getName());
+        String operation = getLwM2mOperation();
+        if (device == null) {
+            result.sampleStart();
+            result.sampleEnd();
+            return fillResult(result, false, "No LwM2M client was created for this thread.");
+        }
+
+        long timeout = getConnTimeoutMillis();
+        boolean success;
+        result.sampleStart();
+        try {
+            if (LWM2M_OPERATION_REGISTER.equals(operation)) {
+                success = device.register(timeout);
+            } else if (LWM2M_OPERATION_UPDATE.equals(operation)) {
+                success = device.update(timeout);
+            } else if (LWM2M_OPERATION_DEREGISTER.equals(operation)) {
+                success = device.deregister(timeout);
+            } else {
+                result.sampleEnd();
+                return fillResult(result, false, MessageFormat.format("Unknown LwM2M operation {0}.", operation));
+            }
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            result.sampleEnd();
+            return fillResult(result, false, MessageFormat.format("{0} failed: {1}", operation, e.getMessage()));
+        }
+        result.sampleEnd();
+        if (device.getRoundTripMillis() >= 0) {
+            result.setLatency(device.getRoundTripMillis());
+        }
+        return fillResult(result, success, reportHandshake(result) + device.getOutcomeMessage());
+    }
+
+    /**
+     * Keeps the device registered and reports what happened during one report interval: the
+     * registration updates sent by the registration scheduler and, for Register and notify, the
+     * notifications of the simulated objects. The values change on the shared timer whether the
+     * device is registered or not, the server only gets notifications for the resources it observes.
+     */
+    private SampleResult sampleKeepRegistered() {
+        SampleResult result = new SampleResult();
+        result.setSampleLabel(getName());
+        if (device == null) {
+            result.sampleStart();
+            result.sampleEnd();
+            return fillResult(result, false, "No LwM2M client was created for this thread.");
+        }
+
+        long intervalMillis = (long) parsePositive(getReportInterval(), DEFAULT_REPORT_INTERVAL);
+        SensorSimulation sensors = device.getSensors();
+        String registration = "";
+        result.sampleStart();
+        try {
+            if (!device.isRegistered()) {
+                boolean registered = device.register(getConnTimeoutMillis());
+                registration = reportHandshake(result) + device.getOutcomeMessage() + "\n";
+                if (!registered) {
+                    result.sampleEnd();
+                    return fillResult(result, false, registration);
+                }
+                if (device.getRoundTripMillis() >= 0) {
+                    result.setLatency(device.getRoundTripMillis());
+                }
+                if (registrationScheduler != null) {
+                    device.startScheduledUpdates(getCommunicationPeriodAsLong(), getUpdateJitterAsFraction());
+                }
+                // the interval starts once the server can observe
+                device.rotateUpdateStats();
+                if (sensors != null) {
+                    sensors.rotate();
+                }
+            }
+            Thread.sleep(intervalMillis);
+        } catch (InterruptedException e) {
+            logger.info("Interrupted while keeping the registration: {}", e.getMessage());
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            result.sampleEnd();
+            return fillResult(result, false, MessageFormat.format("{0} failed: {1}", getLwM2mOperation(), e.getMessage()));
+        }
+        UpdateStats updates = device.rotateUpdateStats();
+        NotificationStats notifications = sensors != null ? sensors.rotate() : null;
+        result.sampleEnd();
+
+        JMeterContextService.getContext().getVariables().put(MISSED_UPDATES, String.valueOf(updates.getMissed()));
+        StringBuilder message = new StringBuilder(registration);
+        long samples = updates.getSucceeded() + updates.getFailed();
+        long errors = updates.getFailed();
+        if (notifications != null) {
+            String rate = String.format(Locale.ROOT, "%.2f", notifications.getRate());
+            JMeterContextService.getContext().getVariables().put(NOTIFICATION_RATE, rate);
+            message.append(MessageFormat.format("Sent {0} notifications ({1}/s, mean {2} bytes, max {3} bytes), {4} failed, "
+                    + "for {5} value changes and {6} new observations.\n", notifications.getNotifications(), rate,
+                    String.format(Locale.ROOT, "%.1f", notifications.getMeanSize()), notifications.getMaxSize(), notifications.getFailed(),
+                    notifications.getChanges(), notifications.getObservations()));
+            samples += notifications.getNotifications();
+            errors += notifications.getFailed();
+            result.setSentBytes(notifications.getBytes());
+        }
+        message.append(MessageFormat.format("Scheduled updates: triggered {0}, succeeded {1}, failed {2}, missed {3}.\n",
+                updates.getTriggered(), updates.getSucceeded(), updates.getFailed(), updates.getMissed()));
+        message.append(publishLatencies(updates.getLatencies()));
+        fillResult(result, device.isRegistered() && errors == 0, message.toString());
+        result.setSampleCount((int) Math.max(samples, 1));
+        result.setErrorCount((int) errors);
+        return result;
+    }
+
+    private SampleResult fillResult(SampleResult result, boolean success, String message) {
+        result.setSuccessful(success);
+        result.setResponseCode(success ? "200" : "500");
+        result.setResponseMessage(message);
+        result.setResponseData(message, "UTF-8");
+        return result;
     }
 
-    public class ConnectivityStatistics extends BaseInstanceEnabler {
+    @Override
+    public void threadStarted() {
+        logger.debug("Pub thread started.");
+        setupFailure = null;
+        // Load the shared object model up front so the parsing cost never shows up in a sample.
+        try {
+            ObjectModelRegistry.getModel(getModelDirs());
+            JMeterContextService.getContext().getVariables().put(MODEL_LOAD_TIME,
+                    String.valueOf(ObjectModelRegistry.getLoadTimeMillis(getModelDirs())));
+        } catch (Exception e) {
+            // reported by the setup of the LwM2M client below, publishing does not use the model
+            logger.error("Failed to load the object model: " + e.getMessage(), e);
+        }
+
+        try {
+            acquireEndpointPool();
+        } catch (IOException e) {
+            logger.error("Failed to start the shared endpoints: " + e.getMessage(), e);
+        }
+        try {
+            loadFleetDevice();
+        } catch (Exception e) {
+            logger.error("Failed to work out the device of this thread: " + e.getMessage(), e);
+            failSetup("The device of this thread is not available: " + e.getMessage());
+        }
+
+        if (isPublishOperation()) {
+            deviceName = generateDeviceName(getClienIdPrefix());
+        } else if (isLifecycleOperation() || isKeepRegisteredOperation()) {
+            deviceName = generateDeviceName(getEndpoint());
+        } else {
+            // Register and deregister registers the configured endpoint name in every sample.
+            deviceName = getDeviceName(getEndpoint());
+        }
 
-        @Override
-        public ReadResponse read(ServerIdentity identity, int resourceid) {
-            switch (resourceid) {
-                case 0:
-                    result.setSuccessful(true);
-                    result.setResponseCode("200");
-                    return ReadResponse.success(resourceid, "OK");
+        if (isDtls()) {
+            try {
+                if (isPublishOperation()) {
+                    acquireDtlsEndpoint(deviceName, !isBlockOperation());
+                } else {
+                    dtlsCredentials = loadDtlsCredentials(deviceName);
+                    handshakeStats = new HandshakeStats();
+                    dtlsSessions = new DtlsSessionCache();
+                }
+            } catch (Exception e) {
+                logger.error("Failed to load the DTLS credentials: " + e.getMessage(), e);
+                failSetup("DTLS is not available for this thread: " + e.getMessage());
             }
-            return ReadResponse.notFound();
         }
 
-        @Override
-        public WriteResponse write(ServerIdentity identity, int resourceid, LwM2mResource value) {
-            switch (resourceid) {
-                case 15:
-                    // setCollectionPeriod((Long) value.getValue());
-                    return WriteResponse.success();
+        if (isPublishOperation()) {
+            try {
+                preparePublish();
+            } catch (Exception e) {
+                logger.error("Failed to prepare the publish request: " + e.getMessage(), e);
+                failSetup("The publish request could not be prepared for this thread: " + e.getMessage());
+                template = null;
+            }
+        } else if (isLifecycleOperation()) {
+            try {
+                device = new LwM2mDevice(deviceName, getServerUri(), getDeviceLifetime(), getDeviceBinding(),
+                        ObjectModelRegistry.getModel(getModelDirs()), endpointPool, dtlsCredentials, handshakeStats, dtlsSessions);
+            } catch (Exception e) {
+                logger.error("Failed to create the LwM2M client: " + e.getMessage(), e);
+                failSetup("The LwM2M client could not be created for this thread: " + e.getMessage());
+            }
+        } else if (isKeepRegisteredOperation()) {
+            try {
+                SensorSimulation sensors = isNotifyOperation() ? SensorSimulation.forObjects(getSensorObjects()) : null;
+                if (getCommunicationPeriodAsLong() > 0) {
+                    registrationScheduler = RegistrationScheduler.acquire();
+                }
+                device = new LwM2mDevice(deviceName, getServerUri(), getDeviceLifetime(), getDeviceBinding(),
+                        ObjectModelRegistry.getModel(getModelDirs()), endpointPool, dtlsCredentials, handshakeStats, dtlsSessions, sensors,
+                        registrationScheduler);
+                if (sensors != null) {
+                    SharedScheduler.acquire();
+                    sensorsStarted = true;
+                    device.startSensors((long) parsePositive(getSensorInterval(), DEFAULT_SENSOR_INTERVAL));
+                }
+            } catch (Exception e) {
+                logger.error("Failed to create the LwM2M client: " + e.getMessage(), e);
+                failSetup("The LwM2M client could not be created for this thread: " + e.getMessage());
             }
-            return WriteResponse.notFound();
         }
+    }
 
-        @Override
-        public ExecuteResponse execute(ServerIdentity identity, int resourceid, String params) {
-            switch (resourceid) {
-                case 12:
-                    return ExecuteResponse.success();
+    @Override
+    public void threadFinished() {
+        logger.debug("Pub thread finished.");
+        if (device != null) {
+            device.destroy();
+            device = null;
+        }
+        if (sensorsStarted) {
+            SharedScheduler.release();
+            sensorsStarted = false;
+        }
+        RegistrationScheduler.release(registrationScheduler);
+        registrationScheduler = null;
+        if (publisher != null) {
+            publisher.cancelAll();
+            publisher = null;
+        }
+        corpusCursor = null;
+        PayloadCorpus.release(corpus);
+        corpus = null;
+        blockTransfer = null;
+        if (blockSource != null) {
+            try {
+                blockSource.close();
+            } catch (IOException e) {
+                logger.info("Failed to close the block source: {}", e.getMessage());
             }
-            return ExecuteResponse.notFound();
+            blockSource = null;
+        }
+        if (coapClient != null) {
+            coapClient.shutdown();
+            coapClient = null;
+        }
+        if (blockEndpoint != null) {
+            blockEndpoint.destroy();
+            blockEndpoint = null;
         }
+        releaseDtlsEndpoint();
+        releaseEndpointPool();
+    }
+
+    @Override
+    public void testStarted() {
+        startSnapshot();
+    }
+
+    @Override
+    public void testStarted(String host) {
+        testStarted();
+    }
+
+    /**
+     * Writes the snapshot of the test, if any, and drops the payloads, key material and device ranges
+     * shared by the threads, so that they do not stay in memory between tests, replaced key files are
+     * read again and devices are numbered from 0.
+     */
+    @Override
+    public void testEnded() {
+        GeneratorSnapshot.finish();
+        PayloadPool.clear();
+        CredentialRegistry.clear();
+        clearThreadGroups();
+    }
+
+    @Override
+    public void testEnded(String host) {
+        testEnded();
     }
 }
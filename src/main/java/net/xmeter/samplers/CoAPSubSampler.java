@@ -2,19 +2,16 @@ package net.xmeter.samplers;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.URLEncoder;
 import java.text.MessageFormat;
-import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ScheduledFuture;
 import java.util.logging.Level;
 
 import org.apache.jmeter.samplers.Entry;
 import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.testelement.TestStateListener;
 import org.apache.jmeter.testelement.ThreadListener;
 //import org.apache.jorphan.logging.LoggingManager;
 //import org.apache.log.Logger;
@@ -24,22 +21,23 @@ import org.slf4j.LoggerFactory;
 //import org.eclipse.californium.core.CaliforniumLogger;
 import org.eclipse.californium.core.CoapClient;
 import org.eclipse.californium.core.CoapHandler;
-import org.eclipse.californium.core.CoapResponse;
 import org.eclipse.californium.core.coap.MediaTypeRegistry;
 import org.eclipse.californium.core.coap.Request;
 
+import net.xmeter.SharedScheduler;
 import net.xmeter.SubBean;
-import net.xmeter.Util;
+import net.xmeter.SubBeanWindow;
+import net.xmeter.coap.RequestTemplate;
+import net.xmeter.engine.SubscriptionHandler;
+import net.xmeter.stats.PayloadCapture;
 
-public class CoAPSubSampler extends AbstractCoAPSampler implements ThreadListener {
+public class CoAPSubSampler extends AbstractCoAPSampler implements ThreadListener, TestStateListener {
     //private transient static Logger logger = LoggingManager.getLoggerForClass();
     private transient static Logger logger = LoggerFactory.getLogger(CoAPSubSampler.class.getName());
 
-    private transient ConcurrentLinkedQueue<SubBean> batches = new ConcurrentLinkedQueue<>();
-    private boolean printFlag = false;
+    private transient SubBeanWindow window;
 
-    private transient Object lock = new Object();
-    private transient AtomicBoolean threadFinished = new AtomicBoolean(false);
+    private transient ScheduledFuture<?> windowTimer;
     private String clientId = "";
     private CoapClient coapClient;
     private boolean isFirstLoop = true;
@@ -55,7 +53,7 @@ public class CoAPSubSampler extends AbstractCoAPSampler implements ThreadListene
     private static final long serialVersionUID = 2979978053740194951L;
     
     public String getMethodType() {
-        return getPropertyAsString(METHOD_TYPE, DEFAULT_SUB_METHOD_TYPE);
+        return getMethodType(DEFAULT_SUB_METHOD_TYPE);
     }
     
     public String getSampleCondition() {
@@ -101,6 +99,14 @@ public class CoAPSubSampler extends AbstractCoAPSampler implements ThreadListene
         }
     }
 
+    public boolean isAlignToClock() {
+        return getPropertyAsBoolean(SAMPLE_ALIGN_TO_CLOCK, false);
+    }
+
+    public void setAlignToClock(boolean alignToClock) {
+        setProperty(SAMPLE_ALIGN_TO_CLOCK, alignToClock);
+    }
+
     public boolean isAddTimestamp() {
         return getPropertyAsBoolean(ADD_TIMESTAMP);
     }
@@ -117,12 +123,45 @@ public class CoAPSubSampler extends AbstractCoAPSampler implements ThreadListene
         setProperty(DEBUG_RESPONSE, debugResponse);
     }
 
+    public String getDebugCaptureSize() {
+        return getPropertyAsString(DEBUG_CAPTURE_SIZE, DEFAULT_DEBUG_CAPTURE_SIZE);
+    }
+
+    public void setDebugCaptureSize(String captureSize) {
+        setProperty(DEBUG_CAPTURE_SIZE, captureSize);
+    }
+
+    public String getDebugCaptureMode() {
+        return getPropertyAsString(DEBUG_CAPTURE_MODE, DEFAULT_DEBUG_CAPTURE_MODE);
+    }
+
+    public void setDebugCaptureMode(String captureMode) {
+        setProperty(DEBUG_CAPTURE_MODE, captureMode);
+    }
+
+    private int getDebugCaptureSizeAsInt() {
+        if (!isDebugResponse()) {
+            return 0;
+        }
+        try {
+            return Math.max(Integer.parseInt(getDebugCaptureSize()), 0);
+        } catch (NumberFormatException e) {
+            logger.info("Invalid debug capture size {}, use default value.", getDebugCaptureSize());
+            return Integer.parseInt(DEFAULT_DEBUG_CAPTURE_SIZE);
+        }
+    }
+
     public String getClienIdPrefix() {
         return getPropertyAsString(CONN_CLIENT_ID_PREFIX, DEFAULT_CONN_PREFIX_FOR_SUB);
     }
 
     @Override
     public SampleResult sample(Entry arg0) {
+        SampleResult failed = newSetupFailedResult();
+        if (failed != null) {
+            GeneratorSnapshot.record(failed, null);
+            return failed;
+        }
         final boolean sampleByTime = SAMPLE_ON_CONDITION_OPTION1.equals(getSampleCondition());
         final int sampleCount = Integer.parseInt(getSampleCount());
         SampleResult result = new SampleResult();
@@ -130,31 +169,28 @@ public class CoAPSubSampler extends AbstractCoAPSampler implements ThreadListene
         try {
             
             if(isFirstLoop == true) {
-                if(isClientIdSuffix()) {
-                    clientId = Util.generateClientId(getClienIdPrefix());
-                } else {
-                    clientId = getClienIdPrefix();
-                }
-                uri = "coap://" + getServer() + ":" + getPort();
+                clientId = deviceName;
+                uri = getServerUri();
                 query = "?c=" + clientId + "&u=" + getUserNameAuth() + "&p=" + getPasswordAuth();
 
-                resourcePath = getResourcePath();
+                resourcePath = getDeviceResourcePath();
 
                 coapClient = new CoapClient();
+                if(dtlsEndpoint != null) {
+                    coapClient.setEndpoint(dtlsEndpoint);
+                } else if(endpointPool != null) {
+                    coapClient.setEndpoint(endpointPool.next());
+                }
                 
                 request = Request.newGet();
                 
-                if(DEFAULT_COAP_MESSAGE_TYPE.equals(getMethodType())) {
-                    request.setConfirmable(false);
-                } else {
-                    request.setConfirmable(true);
-                }
+                request.setConfirmable(DEFAULT_COAP_MESSAGE_TYPE.equals(getCoapMessageType()));
                 
                 if(!getMessageId().equals("")) {
                     try {
                         request.setMID(Integer.parseInt(getMessageId()));
                     } catch (NumberFormatException e) {
-                        e.printStackTrace();
+                        logger.warn("Invalid message id {}, let the endpoint assign one.", getMessageId());
                     }
                 }
                 
@@ -167,88 +203,12 @@ public class CoAPSubSampler extends AbstractCoAPSampler implements ThreadListene
                 if(resourcePath.startsWith("/")) {
                     resourcePath = resourcePath.substring("/".length());
                 }
-                
-                if(resourcePath.startsWith("mqtt/")) {
-                    request.getOptions().addUriPath("mqtt").addUriPath(resourcePath.substring("mqtt/".length()));
-                } else if(resourcePath.startsWith("ps/")) {
-                    request.getOptions().addUriPath("ps").addUriPath(resourcePath.substring("ps/".length()));
-                } else {
-                    request.getOptions().addUriPath(resourcePath);
-                }
+                RequestTemplate.applyResourcePath(request.getOptions(), resourcePath);
 
                 request.getOptions().setUriQuery(query);
                 request.setObserve();
 
-                //CoapHandler
-                handler = new CoapHandler() {
-                    public void onLoad(CoapResponse response) {
-                        byte[] payloadBytes = response.getPayload();
-                        String payload = null;
-                        if(payloadBytes != null) {
-                            payload = new String(payloadBytes);
-                        }
-                        //System.out.println("onLoad "+resourcePath+" "+System.currentTimeMillis()+" Received resonse:the Code is " + response.getCode() + ", the Payload is " + payload);
-                        try {
-                            synchronized (lock) {
-                                SubBean bean = null;
-                                if(batches.isEmpty()) {
-                                    //System.out.println("onLoad "+resourcePath+" batches are empty, will add new bean!");
-                                    bean = new SubBean();
-                                    batches.add(bean);
-                                } else {
-                                    //System.out.println("onLoad "+resourcePath+" get the last bean in batches!");
-                                    SubBean[] beans = new SubBean[batches.size()];
-                                    batches.toArray(beans);
-                                    bean = beans[beans.length - 1];
-                                }
-        
-                                if((!sampleByTime) && (bean.getReceivedCount() == sampleCount)) { //Create a new batch when latest bean is full.
-                                    logger.info("The tail bean is full, will create a new bean for it.");
-                                    bean = new SubBean();
-                                    batches.add(bean);
-                                }
-                                if(payload != null) {
-                                    if (isAddTimestamp()) {
-                                        long now = System.currentTimeMillis();
-                                        int index = payload.indexOf(TIME_STAMP_SEP_FLAG);
-                                        if (index == -1 && (!printFlag)) {
-                                            logger.info("Payload does not include timestamp: {}" ,payload);
-                                            printFlag = true;
-                                        } else if (index != -1) {
-                                            long start = Long.parseLong(payload.substring(0, index));
-                                            long elapsed = now - start;
-            
-                                            double avgElapsedTime = bean.getAvgElapsedTime();
-                                            int receivedCount = bean.getReceivedCount();
-                                            avgElapsedTime = (avgElapsedTime * receivedCount + elapsed) / (receivedCount + 1);
-                                            bean.setAvgElapsedTime(avgElapsedTime);
-                                        }
-                                    }
-                                    if (isDebugResponse()) {
-                                        bean.getContents().add(payload);
-                                    }
-
-                                    bean.getContents().add(resourcePath);
-                                    bean.setReceivedMessageSize(bean.getReceivedMessageSize() + payload.length());
-                                }
-                                bean.setReceivedCount(bean.getReceivedCount() + 1);
-                                if(!sampleByTime) {
-                                    //logger.info(System.currentTimeMillis() + ": need notify? receivedCount=" + bean.getReceivedCount() + ", sampleCount=" + sampleCount);
-                                    if(bean.getReceivedCount() == sampleCount) {
-                                        lock.notify();
-                                    }
-                                }
-                            }
-                            //isPubReceived = true;
-                        } catch (Exception e) {
-                            //logger.log(Priority.ERROR, e.getMessage(), e);
-                            logger.error(e.getMessage(), e);
-                        }
-                    }
-                    public void onError() { 
-                        System.out.println("Error happened in coaphandler");
-                    }
-                };
+                handler = new SubscriptionHandler(window, isAddTimestamp());
                 
                 //CoapObserveRelation relation = coapClient.observeAndWait(handler);
                 //coapClient.observeAndWait(handler);
@@ -268,69 +228,56 @@ public class CoAPSubSampler extends AbstractCoAPSampler implements ThreadListene
             
             result.sampleStart();
     
-            synchronized (lock) {
-                
+            SubBean bean = null;
+            try {
                 if(sampleByTime) {
-                    try {
-                        //System.out.println(System.currentTimeMillis()+" "+ resourcePath+ " Will Wait");
-                        lock.wait();
-                        //System.out.println(System.currentTimeMillis()+" "+ resourcePath+" Finish Wait");
-                    } catch (InterruptedException e) {
-                        //logger.info("Received exception when waiting for notification signal: " + e.getMessage());
-                        logger.info("Received exception when waiting for notification signal: {}" ,e.getMessage());
-                    }
+                    bean = window.awaitWindow();
                 } else {
-                    int receivedCount = (batches.isEmpty() ? 0 : batches.element().getReceivedCount());;
-                    boolean needWait = false;
-                    if(receivedCount < sampleCount) {
-                        needWait = true;
-                    }
-                    
-                    //logger.info(System.currentTimeMillis() + ": need wait? receivedCount=" + receivedCount + ", sampleCount=" + sampleCount);
-                    if(needWait) {
-                        try {
-                            lock.wait();
-                        } catch (InterruptedException e) {
-                            //logger.info("Received exception when waiting for notification signal: " + e.getMessage());
-                            logger.info("Received exception when waiting for notification signal: {}" ,e.getMessage());
-                        }
-                    }
+                    bean = window.awaitBatch();
                 }
-                
-                SubBean bean = batches.poll();
-                if(bean == null) { //In case selected with time interval
-                    //System.out.println("sampler "+ resourcePath+" batches.poll returns null!"); //me
-                    bean = new SubBean();
-                }//else { //me
-                    //System.out.println("sampler "+ resourcePath+" batches.poll returns bean.getcontents is "+bean.getContents()); //me
-                //} //me
-                int receivedCount = bean.getReceivedCount();
-                List<String> contents = bean.getContents();
-                String message = MessageFormat.format("Received {0} of message\n.", receivedCount);
-                StringBuffer content = new StringBuffer("");
-                if (isDebugResponse()) {
-                    for (int i = 0; i < contents.size(); i++) {
-                        content.append(contents.get(i) + " \n");
-                    }
-                }
-
-                if(receivedCount == 0) {
-                    //System.out.println(resourcePath + " receives NO response");
-                    result = fillFailedResult(result, "No CoAP Publish message received!");
-                    result.setEndTime(result.getStartTime());
-                } else {
-                    result = fillOKResult(result, bean.getReceivedMessageSize(), message, content.toString());
-                    if (isAddTimestamp()) {
-                        result.setEndTime(result.getStartTime() + (long) bean.getAvgElapsedTime());
-                    } else {
-                        result.setEndTime(result.getStartTime());   
-                    }
-                }
-                result.setSampleCount(receivedCount);
+            } catch (InterruptedException e) {
+                logger.info("Received exception when waiting for notification signal: {}" ,e.getMessage());
+            }
+            if(bean == null) {
+                bean = new SubBean();
             }
+            result = fillWindowResult(result, bean);
+            GeneratorSnapshot.record(result, isAddTimestamp() ? bean.getLatencies() : null);
+            window.recycle(bean);
         } catch(Exception e) {
-            e.printStackTrace();
+            logger.error("Failed to sample the subscription: " + e.getMessage(), e);
+        }
+        return result;
+    }
+
+    /**
+     * Fills the result of one window or batch of notifications, the result must be started.
+     */
+    SampleResult fillWindowResult(SampleResult result, SubBean bean) {
+        int receivedCount = bean.getReceivedCount();
+        String message = reportHandshake(result) + MessageFormat.format("Received {0} of message\n.", receivedCount);
+        if (isAddTimestamp()) {
+            message += publishLatencies(bean.getLatencies());
+        }
+        StringBuffer content = new StringBuffer("");
+        PayloadCapture capture = bean.getCapture();
+        if (capture != null) {
+            for (byte[] payload : capture.getPayloads()) {
+                content.append(new String(payload) + " \n");
+            }
+            message += MessageFormat.format("Captured {0} payloads of {1}, dropped {2}.\n",
+                    capture.getOfferedCount() - capture.getDroppedCount(), capture.getOfferedCount(), capture.getDroppedCount());
+        }
+
+        if(receivedCount == 0) {
+            //System.out.println(resourcePath + " receives NO response");
+            result = fillFailedResult(result, "No CoAP Publish message received!");
+            result.setEndTime(result.getStartTime());
+        } else {
+            // the sample time is the window as measured, latencies are in the percentiles and variables
+            result = fillOKResult(result, bean.getReceivedMessageSize(), message, content.toString());
         }
+        result.setSampleCount(receivedCount);
         return result;
     }
 
@@ -357,46 +304,83 @@ public class CoAPSubSampler extends AbstractCoAPSampler implements ThreadListene
     @Override
     public void threadStarted() {
         //logger.info("*** in threadStarted");
+        setupFailure = null;
+        try {
+            acquireEndpointPool();
+        } catch (IOException e) {
+            logger.error("Failed to start the shared endpoints: " + e.getMessage(), e);
+        }
+        try {
+            loadFleetDevice();
+        } catch (Exception e) {
+            logger.error("Failed to work out the device of this thread: " + e.getMessage(), e);
+            failSetup("The device of this thread is not available: " + e.getMessage());
+        }
+        deviceName = generateDeviceName(getClienIdPrefix());
+        if(isDtls()) {
+            try {
+                acquireDtlsEndpoint(deviceName);
+            } catch (Exception e) {
+                logger.error("Failed to start the DTLS endpoint: " + e.getMessage(), e);
+                failSetup("DTLS is not available for this thread: " + e.getMessage());
+            }
+        }
+
+        int captureSize = getDebugCaptureSizeAsInt();
+        boolean captureLast = DEBUG_CAPTURE_LAST.equals(getDebugCaptureMode());
         boolean sampleByTime = SAMPLE_ON_CONDITION_OPTION1.equals(getSampleCondition());
         if(!sampleByTime) {
             logger.info("Configured with sampled on message count, will not check message sent time.");
+            window = new SubBeanWindow(Integer.parseInt(getSampleCount()), captureSize, captureLast);
             return;
         }
-        
-        final long sampleElapsedTime = Long.parseLong(getSampleElapsedTime());
-        
-        ExecutorService executor = Executors.newSingleThreadExecutor();
-        executor.submit(new Runnable() {
+        window = new SubBeanWindow(0, captureSize, captureLast);
+
+        final SubBeanWindow timedWindow = window;
+        SharedScheduler.acquire();
+        windowTimer = SharedScheduler.scheduleAtFixedRate(new Runnable() {
             @Override
             public void run() {
-                while(true) {
-                    try {
-                        //logger.info(System.currentTimeMillis() + ", sampleElapsedTime = " + sampleElapsedTime);
-                        if(threadFinished.get()) {
-                            synchronized (lock) {
-                                lock.notify();
-                            }
-                            break;
-                        }
-                        TimeUnit.MILLISECONDS.sleep(sampleElapsedTime);
-                        synchronized (lock) {
-                            lock.notify();
-                        }
-                    } catch (Exception e) {
-                        //logger.log(Priority.ERROR, e.getMessage());
-                        logger.error(e.getMessage(), e);
-                    } 
-                }
+                timedWindow.wakeUp();
             }
-        });
-        executor.shutdown();
+        }, Long.parseLong(getSampleElapsedTime()), isAlignToClock());
     }
     
     @Override
     public void threadFinished() {
         //logger.info(System.currentTimeMillis() + ", threadFinished");
         //System.out.println("Sub thread Finished!!!");
-        threadFinished.set(true);
+        if(windowTimer != null) {
+            windowTimer.cancel(false);
+            windowTimer = null;
+            SharedScheduler.release();
+        }
+        if(coapClient != null) {
+            coapClient.shutdown();
+        }
+        releaseDtlsEndpoint();
+        releaseEndpointPool();
         //logger.info("*** in threadFinished");
     }
+
+    @Override
+    public void testStarted() {
+        startSnapshot();
+    }
+
+    @Override
+    public void testStarted(String host) {
+        testStarted();
+    }
+
+    @Override
+    public void testEnded() {
+        GeneratorSnapshot.finish();
+        clearThreadGroups();
+    }
+
+    @Override
+    public void testEnded(String host) {
+        testEnded();
+    }
 }
@@ -0,0 +1,113 @@
+package net.xmeter.samplers;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jmeter.samplers.SampleResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.xmeter.DevicePartition;
+import net.xmeter.driver.LoadReport;
+import net.xmeter.driver.LoadSnapshot;
+import net.xmeter.driver.MergeSnapshots;
+import net.xmeter.stats.LatencyHistogram;
+
+/**
+ * Totals of the CoAP samplers of one JMeter instance whose devices are partitioned among several
+ * instances, written as a {@link LoadSnapshot} at the end of the test so that {@link MergeSnapshots}
+ * combines the instances as it does load drivers. One snapshot per test, started by the first
+ * sampler and written by the first one to end, samples are recorded by the sampler threads
+ * without locking.
+ */
+public class GeneratorSnapshot {
+    private transient static Logger logger = LoggerFactory.getLogger(GeneratorSnapshot.class.getName());
+
+    static final String SAMPLES = "samples";
+    static final String ERRORS = "errors";
+    static final String SENT_BYTES = "sent_bytes";
+    static final String RECEIVED_BYTES = "received_bytes";
+    static final String ELAPSED = "elapsed";
+    static final String LATENCY = "latency";
+
+    private static volatile GeneratorSnapshot current;
+
+    private final DevicePartition partition;
+    private final File file;
+    private final long startMillis = System.currentTimeMillis();
+    private final AtomicLong samples = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong sentBytes = new AtomicLong();
+    private final AtomicLong receivedBytes = new AtomicLong();
+    private final LatencyHistogram elapsed = new LatencyHistogram();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    GeneratorSnapshot(DevicePartition partition, File file) {
+        this.partition = partition;
+        this.file = file;
+    }
+
+    /**
+     * Starts recording for this test unless another sampler already did.
+     */
+    public static synchronized void start(DevicePartition partition, File file) {
+        if (current == null) {
+            current = new GeneratorSnapshot(partition, file);
+        }
+    }
+
+    /**
+     * Adds a sample to the snapshot of the test, if one was started.
+     * @param messageLatencies latencies of the messages the sample stands for, e.g. those received
+     *        by a subscriber, may be null.
+     */
+    public static void record(SampleResult result, LatencyHistogram messageLatencies) {
+        GeneratorSnapshot snapshot = current;
+        if (snapshot != null) {
+            snapshot.add(result, messageLatencies);
+        }
+    }
+
+    /**
+     * Writes the snapshot of the test and drops it, later calls of the same test do nothing.
+     */
+    public static synchronized void finish() {
+        GeneratorSnapshot snapshot = current;
+        current = null;
+        if (snapshot == null) {
+            return;
+        }
+        try {
+            snapshot.toSnapshot(System.currentTimeMillis() - snapshot.startMillis).write(snapshot.file);
+            logger.info("Snapshot of generator {} of {} written to {}.", snapshot.partition.getIndex(), snapshot.partition.getCount(),
+                    snapshot.file);
+        } catch (IOException e) {
+            logger.error("Failed to write the snapshot to " + snapshot.file + ": " + e.getMessage(), e);
+        }
+    }
+
+    void add(SampleResult result, LatencyHistogram messageLatencies) {
+        samples.addAndGet(result.getSampleCount());
+        errors.addAndGet(result.getErrorCount());
+        sentBytes.addAndGet(result.getSentBytes());
+        receivedBytes.addAndGet(result.getBytesAsLong());
+        elapsed.record(result.getTime() * 1000000L);
+        if (messageLatencies != null && messageLatencies.getCount() > 0) {
+            latencies.add(messageLatencies);
+        }
+    }
+
+    LoadSnapshot toSnapshot(long elapsedMillis) {
+        LoadReport report = new LoadReport();
+        report.add(SAMPLES, samples.get());
+        report.add(ERRORS, errors.get());
+        report.add(SENT_BYTES, sentBytes.get());
+        report.add(RECEIVED_BYTES, receivedBytes.get());
+        report.add(ELAPSED, elapsed);
+        if (latencies.getCount() > 0) {
+            report.add(LATENCY, latencies);
+        }
+        return new LoadSnapshot(partition.getIndex(), partition.getCount(), elapsedMillis, report);
+    }
+}
@@ -0,0 +1,189 @@
+package net.xmeter.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-memory latency recorder with log-linear buckets (in the spirit of HdrHistogram).
+ * Values are nanoseconds; every power of two is split into 64 linear sub-buckets, which keeps
+ * the relative error of reported values below 1.6% from 1 ns up to {@link #MAX_VALUE}.
+ * Larger values are counted in the top bucket. Recording never allocates and is lock-free, so
+ * several receiver threads may record into the same instance; reads taken while values are
+ * still being recorded can be off by the in-flight values.
+ */
+public class LatencyHistogram {
+    /** Largest value tracked with full precision, about 18 minutes. */
+    public static final long MAX_VALUE = (1L << 40) - 1;
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+    private static final int BUCKET_COUNT = indexOf(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKET_HALF * shift + (int) (value >>> shift);
+    }
+
+    /**
+     * @return the highest value that is counted in the bucket at index.
+     */
+    static long highestValueAt(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_HALF - 1;
+        long subBucket = index - SUB_BUCKET_HALF * shift;
+        return (subBucket << shift) + (1L << shift) - 1;
+    }
+
+    public void record(long valueNanos) {
+        long value = valueNanos < 0 ? 0 : valueNanos;
+        counts.incrementAndGet(indexOf(Math.min(value, MAX_VALUE)));
+        sum.addAndGet(value);
+        updateMin(value);
+        updateMax(value);
+        totalCount.incrementAndGet();
+    }
+
+    private void updateMin(long value) {
+        long current;
+        while (value < (current = min.get()) && !min.compareAndSet(current, value)) {
+        }
+    }
+
+    private void updateMax(long value) {
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+        }
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = other.counts.get(i);
+            if (count != 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+        sum.addAndGet(other.sum.get());
+        updateMin(other.min.get());
+        updateMax(other.max.get());
+        totalCount.addAndGet(other.totalCount.get());
+    }
+
+    /**
+     * Adds values recorded elsewhere, e.g. read back from a snapshot file written with
+     * {@link #getCounts()}, {@link #getMin()}, {@link #getMax()} and {@link #getSum()}.
+     * @param bucketCounts number of values in each bucket, at most {@link #getBucketCount()} long.
+     */
+    public void add(long[] bucketCounts, long min, long max, long sum) {
+        if (bucketCounts.length > BUCKET_COUNT) {
+            throw new IllegalArgumentException("Expected at most " + BUCKET_COUNT + " buckets, got " + bucketCounts.length + ".");
+        }
+        long count = 0;
+        for (int i = 0; i < bucketCounts.length; i++) {
+            if (bucketCounts[i] != 0) {
+                counts.addAndGet(i, bucketCounts[i]);
+                count += bucketCounts[i];
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        this.sum.addAndGet(sum);
+        updateMin(min);
+        updateMax(max);
+        totalCount.addAndGet(count);
+    }
+
+    /**
+     * Clears the histogram for reuse. Only the buckets between the minimum and the maximum can hold
+     * values, so resetting a histogram of a few close values is cheap. Must not run concurrently
+     * with {@link #record(long)}.
+     */
+    public void reset() {
+        if (totalCount.get() != 0) {
+            int last = indexOf(Math.min(max.get(), MAX_VALUE));
+            for (int i = indexOf(Math.min(min.get(), MAX_VALUE)); i <= last; i++) {
+                counts.set(i, 0);
+            }
+        }
+        totalCount.set(0);
+        sum.set(0);
+        min.set(Long.MAX_VALUE);
+        max.set(0);
+    }
+
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    public long getMin() {
+        return totalCount.get() == 0 ? 0 : min.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return the sum of all recorded values, values above {@link #MAX_VALUE} included as recorded.
+     */
+    public long getSum() {
+        return sum.get();
+    }
+
+    public double getMean() {
+        long count = totalCount.get();
+        return count == 0 ? 0 : (double) sum.get() / count;
+    }
+
+    /**
+     * @param percentile between 0 and 100.
+     * @return the value below or at which the given percentage of recorded values fall.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        double p = Math.min(Math.max(percentile, 0), 100);
+        long rank = Math.max(1, (long) Math.ceil(p / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.max(Math.min(highestValueAt(i), getMax()), getMin());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * @return the number of values recorded in each bucket, the array is a copy.
+     */
+    public long[] getCounts() {
+        long[] copy = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts.get(i);
+        }
+        return copy;
+    }
+
+    public static int getBucketCount() {
+        return BUCKET_COUNT;
+    }
+
+    public static long getBucketUpperBound(int index) {
+        return highestValueAt(index);
+    }
+}
@@ -0,0 +1,97 @@
+package net.xmeter.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Observe notifications sent by one simulated device within one sample.
+ * Updated from the shared timer and Californium threads without locking.
+ */
+public class NotificationStats {
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong changes = new AtomicLong();
+    private final AtomicLong observations = new AtomicLong();
+    private final AtomicLong notifications = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong maxSize = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * @param resources number of resources whose value changed.
+     */
+    public void recordChanges(int resources) {
+        changes.addAndGet(resources);
+    }
+
+    public void recordObservation() {
+        observations.incrementAndGet();
+    }
+
+    public void recordNotification(int size) {
+        notifications.incrementAndGet();
+        bytes.addAndGet(size);
+        long max = maxSize.get();
+        while (size > max && !maxSize.compareAndSet(max, size)) {
+            max = maxSize.get();
+        }
+    }
+
+    /**
+     * A confirmable notification timed out or was rejected, or a notification could not be sent.
+     */
+    public void recordFailure() {
+        failed.incrementAndGet();
+    }
+
+    /**
+     * @return resource value changes fired by the simulated objects.
+     */
+    public long getChanges() {
+        return changes.get();
+    }
+
+    /**
+     * @return Observe requests received from the server.
+     */
+    public long getObservations() {
+        return observations.get();
+    }
+
+    /**
+     * @return responses sent with the Observe option, including the first answer to each Observe request.
+     */
+    public long getNotifications() {
+        return notifications.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getMaxSize() {
+        return maxSize.get();
+    }
+
+    public double getMeanSize() {
+        long count = notifications.get();
+        return count > 0 ? (double) bytes.get() / count : 0;
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return time since these statistics were started.
+     */
+    public long getElapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * @return notifications per second since these statistics were started.
+     */
+    public double getRate() {
+        long elapsed = getElapsedNanos();
+        return elapsed > 0 ? notifications.get() * 1000000000.0 / elapsed : 0;
+    }
+}
@@ -0,0 +1,61 @@
+package net.xmeter.stats;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the first or the last N payloads of a batch in a fixed-size ring, so that debugging a long
+ * run needs constant memory. Payloads that do not fit are counted as dropped. Adding is lock-free.
+ */
+public class PayloadCapture {
+    private final AtomicReferenceArray<byte[]> slots;
+    private final boolean keepLast;
+    private final AtomicLong offered = new AtomicLong();
+
+    /**
+     * @param capacity number of payloads to keep.
+     * @param keepLast true to keep the most recent payloads, false to keep the first ones.
+     */
+    public PayloadCapture(int capacity, boolean keepLast) {
+        this.slots = new AtomicReferenceArray<byte[]>(Math.max(capacity, 1));
+        this.keepLast = keepLast;
+    }
+
+    public void add(byte[] payload) {
+        long index = offered.getAndIncrement();
+        int capacity = slots.length();
+        if (index < capacity) {
+            slots.set((int) index, payload);
+        } else if (keepLast) {
+            slots.set((int) (index % capacity), payload);
+        }
+    }
+
+    /**
+     * @return the kept payloads, oldest first.
+     */
+    public List<byte[]> getPayloads() {
+        long total = offered.get();
+        int capacity = slots.length();
+        int kept = (int) Math.min(total, capacity);
+        List<byte[]> payloads = new ArrayList<byte[]>(kept);
+        long first = keepLast ? total - kept : 0;
+        for (long i = first; i < first + kept; i++) {
+            byte[] payload = slots.get((int) (i % capacity));
+            if (payload != null) {
+                payloads.add(payload);
+            }
+        }
+        return payloads;
+    }
+
+    public long getOfferedCount() {
+        return offered.get();
+    }
+
+    public long getDroppedCount() {
+        return Math.max(0, offered.get() - slots.length());
+    }
+}
@@ -0,0 +1,112 @@
+package net.xmeter.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latencies of asynchronously published messages within one sample.
+ * Updated from Californium threads without locking.
+ */
+public class PublishStats {
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final LatencyHistogram inFlightDepth = new LatencyHistogram();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong missed = new AtomicLong();
+    private final AtomicLong late = new AtomicLong();
+    private final AtomicLong sentBytes = new AtomicLong();
+    private final AtomicLong receivedBytes = new AtomicLong();
+
+    /**
+     * @return latency of completed requests, in nanoseconds.
+     */
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    /**
+     * @param depth requests outstanding right after this one was sent, including it.
+     */
+    public void recordSent(int bytes, boolean lateSend, int depth) {
+        inFlightDepth.record(depth);
+        sent.incrementAndGet();
+        sentBytes.addAndGet(bytes);
+        if (lateSend) {
+            late.incrementAndGet();
+        }
+    }
+
+    public void recordResponse(long latencyNanos, int bytes, boolean success) {
+        latencies.record(latencyNanos);
+        receivedBytes.addAndGet(bytes);
+        if (success) {
+            succeeded.incrementAndGet();
+        } else {
+            failed.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return number of outstanding requests seen at each send.
+     */
+    public LatencyHistogram getInFlightDepth() {
+        return inFlightDepth;
+    }
+
+    /**
+     * Counts a request that failed without a response, e.g. rejected by the endpoint.
+     */
+    public void recordError() {
+        failed.incrementAndGet();
+    }
+
+    public void recordTimeout() {
+        timedOut.incrementAndGet();
+    }
+
+    public void recordMissed() {
+        missed.incrementAndGet();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getSucceeded() {
+        return succeeded.get();
+    }
+
+    /**
+     * @return requests answered with an error code or failed without a response.
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getTimedOut() {
+        return timedOut.get();
+    }
+
+    /**
+     * @return send slots that passed while the in-flight window was full.
+     */
+    public long getMissed() {
+        return missed.get();
+    }
+
+    /**
+     * @return messages sent more than one send interval after their intended time.
+     */
+    public long getLate() {
+        return late.get();
+    }
+
+    public long getSentBytes() {
+        return sentBytes.get();
+    }
+
+    public long getReceivedBytes() {
+        return receivedBytes.get();
+    }
+}
@@ -0,0 +1,62 @@
+package net.xmeter.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scheduled registration updates of one simulated device within one sample.
+ * Updated from the registration scheduler and the client observer without locking.
+ */
+public class UpdateStats {
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final AtomicLong triggered = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong missed = new AtomicLong();
+
+    /**
+     * @return time from sending an update to its success, in nanoseconds.
+     */
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    public void recordTriggered() {
+        triggered.incrementAndGet();
+    }
+
+    public void recordSuccess(long latencyNanos) {
+        latencies.record(latencyNanos);
+        succeeded.incrementAndGet();
+    }
+
+    /**
+     * The update was rejected or timed out.
+     */
+    public void recordFailure() {
+        failed.incrementAndGet();
+    }
+
+    /**
+     * An update fell due while the previous one was still in flight, the device was not registered,
+     * or the scheduler ran it more than one period late.
+     */
+    public void recordMissed() {
+        missed.incrementAndGet();
+    }
+
+    public long getTriggered() {
+        return triggered.get();
+    }
+
+    public long getSucceeded() {
+        return succeeded.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getMissed() {
+        return missed.get();
+    }
+}
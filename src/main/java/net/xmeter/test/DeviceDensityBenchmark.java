@@ -0,0 +1,138 @@
+package net.xmeter.test;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import net.xmeter.CoAPConstants;
+import net.xmeter.coap.EndpointPool;
+import net.xmeter.driver.DriverConfig;
+import net.xmeter.driver.LoadReport;
+import net.xmeter.driver.PublisherGroup;
+import net.xmeter.engine.DeviceExecutor;
+
+/**
+ * Measures how many simulated devices fit into memory when every device runs on a thread of its
+ * own, on platform threads and on virtual threads. The devices are the publishers of the load
+ * driver with driver.device_threads set: each publishes to an in-process {@link StandInServer} and
+ * blocks for the response, as a JMeter thread running Publish does.
+ * <p>
+ * Usage: DeviceDensityBenchmark [platform|virtual|both] [devices] [publishRate] [payloadBytes]
+ * <p>
+ * Platform thread stacks live outside the heap, so the resident set size of the process is
+ * reported next to the heap; compare devices per GB on both. The responses received while
+ * measuring show that the devices were active.
+ */
+public class DeviceDensityBenchmark implements CoAPConstants {
+    private static final long MB = 1024 * 1024;
+    private static final long SETTLE_MILLIS = 3000;
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "both";
+        int devices = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        String publishRate = args.length > 2 ? args[2] : "1";
+        String payloadBytes = args.length > 3 ? args[3] : "64";
+
+        System.out.println("Virtual threads supported: " + DeviceExecutor.isVirtualThreadSupported());
+        StandInServer server = new StandInServer(0);
+        server.start();
+        EndpointPool pool = EndpointPool.acquire(Math.max(1, Runtime.getRuntime().availableProcessors()));
+        try {
+            if ("both".equalsIgnoreCase(mode)) {
+                run(DeviceExecutor.MODE_PLATFORM, devices, publishRate, payloadBytes, server, pool);
+                run(DeviceExecutor.MODE_VIRTUAL, devices, publishRate, payloadBytes, server, pool);
+            } else {
+                run(mode, devices, publishRate, payloadBytes, server, pool);
+            }
+        } finally {
+            EndpointPool.release(pool);
+            server.stop();
+        }
+    }
+
+    private static void run(String mode, int devices, String publishRate, String payloadBytes, StandInServer server,
+            EndpointPool pool) throws Exception {
+        DriverConfig config = new DriverConfig();
+        config.set(SERVER, "127.0.0.1");
+        config.set(PORT, String.valueOf(server.getPort()));
+        config.set(LWM2M_OPERATION, OPERATION_PUBLISH);
+        config.set(PUBLISH_RATE, publishRate);
+        config.set(PAYLOAD_FIX_LENGTH, payloadBytes);
+        config.set(DriverConfig.DEVICE_THREADS, mode);
+
+        long heapBefore = usedHeap();
+        long rssBefore = residentSetSize();
+        PublisherGroup group = new PublisherGroup(config, pool);
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < devices; i++) {
+                group.start(i);
+            }
+            long startMillis = (System.nanoTime() - start) / 1000000;
+            // Let every device go through a few requests before measuring.
+            TimeUnit.MILLISECONDS.sleep(SETTLE_MILLIS);
+            group.collect(new LoadReport());
+
+            long measureStart = System.nanoTime();
+            long heapDelta = usedHeap() - heapBefore;
+            long rssDelta = residentSetSize() - rssBefore;
+            LoadReport interval = new LoadReport();
+            group.collect(interval);
+            double seconds = (System.nanoTime() - measureStart) / 1e9;
+            System.out.println(String.format(Locale.ROOT,
+                    "%-8s devices=%d/%d started in %d ms, heap +%d MB (%s devices/GB), RSS +%s MB (%s devices/GB), "
+                            + "live threads=%d, responses %.0f/s, failed %d",
+                    mode, group.getStarted(), devices, startMillis, heapDelta / MB, perGb(devices, heapDelta),
+                    rssBefore < 0 ? "n/a" : String.valueOf(rssDelta / MB), rssBefore < 0 ? "n/a" : perGb(devices, rssDelta),
+                    Thread.activeCount(), interval.getCounter("succeeded") / seconds,
+                    interval.getCounter("failed") + interval.getCounter("timed_out")));
+        } finally {
+            group.stop();
+        }
+    }
+
+    private static String perGb(int devices, long bytes) {
+        if (bytes <= 0) {
+            return "n/a";
+        }
+        return String.valueOf((long) (devices * (1024.0 * MB) / bytes));
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * @return resident set size of this process in bytes, or -1 where /proc is not available.
+     */
+    private static long residentSetSize() {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader("/proc/self/status"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException e) {
+            // not on Linux
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,408 @@
+package net.xmeter.test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.MessageObserverAdapter;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.interceptors.MessageInterceptorAdapter;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.eclipse.californium.core.server.resources.Resource;
+import org.eclipse.californium.elements.AddressEndpointContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.xmeter.Util;
+import net.xmeter.coap.EndpointPool;
+
+/**
+ * In-process stand-in for the servers the samplers talk to, so that both samplers can be run and
+ * benchmarked on one machine:
+ * <ul>
+ * <li>a pub/sub broker under mqtt/ and ps/: PUT or POST to a topic stores the payload and notifies
+ * every observer of the topic (a GET with Observe). With a fan-out of n the publish also goes to the
+ * observers of the next n - 1 topics of the prefix, in the order the topics were created, so one
+ * publisher reaches the subscribers of n topics;</li>
+ * <li>an LwM2M registration interface under rd/ answering register, update and deregister, which
+ * can observe given paths (e.g. /3303/0/5700) on every registered device.</li>
+ * </ul>
+ * Responses can be delayed, and a share of the incoming requests (retransmissions included) can be
+ * dropped as if lost on the network. Plain UDP only.
+ * <p>
+ * Usage: StandInServer [port] [delayMillis] [dropRate] [fanOut] [observePaths]
+ */
+public class StandInServer {
+    private transient static Logger logger = LoggerFactory.getLogger(StandInServer.class.getName());
+
+    private final int port;
+    private long responseDelayMillis = 0;
+    private double dropRate = 0;
+    private int fanOut = 1;
+    private List<String> observePaths = Collections.emptyList();
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong blockRequests = new AtomicLong();
+    private final AtomicLong publishes = new AtomicLong();
+    private final AtomicLong notifications = new AtomicLong();
+    private final AtomicLong registrations = new AtomicLong();
+    private final AtomicLong updates = new AtomicLong();
+    private final AtomicLong deregistrations = new AtomicLong();
+    private final AtomicLong deviceNotifications = new AtomicLong();
+    private final AtomicLong registrationIds = new AtomicLong();
+
+    private CoapServer server;
+    private CoapEndpoint endpoint;
+    private ScheduledExecutorService delayExecutor;
+
+    /**
+     * @param port UDP port on 127.0.0.1, 0 for any free port.
+     */
+    public StandInServer(int port) {
+        this.port = port;
+    }
+
+    public StandInServer setResponseDelayMillis(long responseDelayMillis) {
+        this.responseDelayMillis = responseDelayMillis;
+        return this;
+    }
+
+    /**
+     * @param dropRate share of incoming requests silently dropped, 0 to 1.
+     */
+    public StandInServer setDropRate(double dropRate) {
+        this.dropRate = dropRate;
+        return this;
+    }
+
+    /**
+     * @param fanOut number of topics, the published one first, whose observers get every publish.
+     */
+    public StandInServer setFanOut(int fanOut) {
+        this.fanOut = Math.max(1, fanOut);
+        return this;
+    }
+
+    /**
+     * @param observePaths resources observed on every device right after it registered.
+     */
+    public StandInServer setObservePaths(List<String> observePaths) {
+        this.observePaths = new ArrayList<>(observePaths);
+        return this;
+    }
+
+    public synchronized void start() {
+        if (server != null) {
+            return;
+        }
+        delayExecutor = Executors.newSingleThreadScheduledExecutor(Util.newThreadFactory("stand-in-delay"));
+        endpoint = new CoapEndpoint.Builder()
+                .setNetworkConfig(EndpointPool.createNetworkConfig())
+                .setInetSocketAddress(new InetSocketAddress("127.0.0.1", port))
+                .build();
+        endpoint.addInterceptor(new MessageInterceptorAdapter() {
+            @Override
+            public void receiveRequest(Request request) {
+                received.incrementAndGet();
+                if (request.getOptions().hasBlock1() || request.getOptions().hasBlock2()) {
+                    blockRequests.incrementAndGet();
+                }
+                if (dropRate > 0 && ThreadLocalRandom.current().nextDouble() < dropRate) {
+                    dropped.incrementAndGet();
+                    request.setCanceled(true);
+                }
+            }
+        });
+        server = new CoapServer();
+        server.addEndpoint(endpoint);
+        server.add(new BrokerResource("mqtt"), new BrokerResource("ps"), new RegistrationResource());
+        server.start();
+        logger.info("Stand-in server listening on {}, delay {} ms, drop rate {}, fan-out {}.", getUri(), responseDelayMillis, dropRate, fanOut);
+    }
+
+    public synchronized void stop() {
+        if (server != null) {
+            server.destroy();
+            server = null;
+            delayExecutor.shutdownNow();
+            logger.info("Stand-in server stopped. {}", getSummary());
+        }
+    }
+
+    /**
+     * @return the actual port, useful after starting on port 0.
+     */
+    public int getPort() {
+        return endpoint.getAddress().getPort();
+    }
+
+    public String getUri() {
+        return "coap://127.0.0.1:" + getPort();
+    }
+
+    public long getReceived() {
+        return received.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return received requests carrying a Block1 or Block2 option, one per block of a block-wise transfer.
+     */
+    public long getBlockRequests() {
+        return blockRequests.get();
+    }
+
+    public long getPublishes() {
+        return publishes.get();
+    }
+
+    /**
+     * @return notifications triggered by publishes, one per observer reached.
+     */
+    public long getNotifications() {
+        return notifications.get();
+    }
+
+    public long getRegistrations() {
+        return registrations.get();
+    }
+
+    public long getUpdates() {
+        return updates.get();
+    }
+
+    public long getDeregistrations() {
+        return deregistrations.get();
+    }
+
+    /**
+     * @return notifications received from observed devices.
+     */
+    public long getDeviceNotifications() {
+        return deviceNotifications.get();
+    }
+
+    public String getSummary() {
+        return "Received " + received.get() + " requests, dropped " + dropped.get() + ", blocks " + blockRequests.get()
+                + ", publishes " + publishes.get()
+                + ", topic notifications " + notifications.get() + ", registrations " + registrations.get() + ", updates "
+                + updates.get() + ", deregistrations " + deregistrations.get() + ", device notifications " + deviceNotifications.get() + ".";
+    }
+
+    private void respond(final CoapExchange exchange, final Response response) {
+        if (responseDelayMillis <= 0) {
+            exchange.respond(response);
+            return;
+        }
+        delayExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                exchange.respond(response);
+            }
+        }, responseDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void respond(CoapExchange exchange, ResponseCode code) {
+        respond(exchange, new Response(code));
+    }
+
+    /**
+     * The mqtt or ps prefix, creating a topic on first use.
+     */
+    private class BrokerResource extends CoapResource {
+        private final ConcurrentMap<String, TopicResource> topics = new ConcurrentHashMap<>();
+        private final List<TopicResource> order = new CopyOnWriteArrayList<>();
+
+        BrokerResource(String name) {
+            super(name);
+        }
+
+        @Override
+        public Resource getChild(String name) {
+            TopicResource topic = topics.get(name);
+            return topic != null ? topic : create(name);
+        }
+
+        private synchronized TopicResource create(String name) {
+            TopicResource topic = topics.get(name);
+            if (topic == null) {
+                topic = new TopicResource(name, this, order.size());
+                order.add(topic);
+                topics.put(name, topic);
+                add(topic);
+            }
+            return topic;
+        }
+
+        /**
+         * Stores the payload on the published topic and the fan-out - 1 topics after it and notifies their observers.
+         */
+        void publish(TopicResource published, byte[] content) {
+            int size = order.size();
+            int targets = Math.min(fanOut, size);
+            for (int i = 0; i < targets; i++) {
+                TopicResource topic = order.get((published.position + i) % size);
+                topic.payload = content;
+                int observers = topic.getObserverCount();
+                if (observers > 0) {
+                    notifications.addAndGet(observers);
+                    topic.changed();
+                }
+            }
+        }
+    }
+
+    private class TopicResource extends CoapResource {
+        private final BrokerResource broker;
+        private final int position;
+        private volatile byte[] payload = new byte[0];
+
+        TopicResource(String name, BrokerResource broker, int position) {
+            super(name);
+            this.broker = broker;
+            this.position = position;
+            setObservable(true);
+            setObserveType(CoAP.Type.NON);
+            getAttributes().setObservable();
+        }
+
+        @Override
+        public void handleGET(CoapExchange exchange) {
+            Response response = new Response(ResponseCode.CONTENT);
+            response.setPayload(payload);
+            // notifications must not wait for the delay
+            exchange.respond(response);
+        }
+
+        @Override
+        public void handlePUT(CoapExchange exchange) {
+            publish(exchange);
+        }
+
+        @Override
+        public void handlePOST(CoapExchange exchange) {
+            publish(exchange);
+        }
+
+        private void publish(CoapExchange exchange) {
+            byte[] content = exchange.getRequestPayload();
+            publishes.incrementAndGet();
+            respond(exchange, ResponseCode.CHANGED);
+            broker.publish(this, content != null ? content : new byte[0]);
+        }
+    }
+
+    /**
+     * The rd resource of the LwM2M registration interface, one child per registration.
+     */
+    private class RegistrationResource extends CoapResource {
+        RegistrationResource() {
+            super("rd");
+        }
+
+        @Override
+        public void handlePOST(CoapExchange exchange) {
+            String endpointName = exchange.getQueryParameter("ep");
+            if (endpointName == null) {
+                respond(exchange, ResponseCode.BAD_REQUEST);
+                return;
+            }
+            String id = Long.toString(registrationIds.incrementAndGet(), 36);
+            InetSocketAddress device = new InetSocketAddress(exchange.getSourceAddress(), exchange.getSourcePort());
+            add(new Registration(id, endpointName, device));
+            registrations.incrementAndGet();
+            Response response = new Response(ResponseCode.CREATED);
+            response.getOptions().addLocationPath("rd").addLocationPath(id);
+            respond(exchange, response);
+            observe(device);
+        }
+
+        private void observe(InetSocketAddress device) {
+            for (String path : observePaths) {
+                Request request = Request.newGet();
+                request.getOptions().setUriPath(path);
+                request.setObserve();
+                request.setDestinationContext(new AddressEndpointContext(device));
+                request.addMessageObserver(new MessageObserverAdapter() {
+                    @Override
+                    public void onResponse(Response response) {
+                        deviceNotifications.incrementAndGet();
+                    }
+                });
+                endpoint.sendRequest(request);
+            }
+        }
+    }
+
+    private class Registration extends CoapResource {
+        private final String endpointName;
+        private final InetSocketAddress device;
+
+        Registration(String id, String endpointName, InetSocketAddress device) {
+            super(id);
+            this.endpointName = endpointName;
+            this.device = device;
+        }
+
+        @Override
+        public void handlePOST(CoapExchange exchange) {
+            updates.incrementAndGet();
+            respond(exchange, ResponseCode.CHANGED);
+        }
+
+        @Override
+        public void handleDELETE(CoapExchange exchange) {
+            delete();
+            deregistrations.incrementAndGet();
+            logger.debug("Deregistered {} at {}.", endpointName, device);
+            respond(exchange, ResponseCode.DELETED);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 5683;
+        final StandInServer server = new StandInServer(port)
+                .setResponseDelayMillis(args.length > 1 ? Long.parseLong(args[1]) : 0)
+                .setDropRate(args.length > 2 ? Double.parseDouble(args[2]) : 0)
+                .setFanOut(args.length > 3 ? Integer.parseInt(args[3]) : 1);
+        if (args.length > 4) {
+            List<String> paths = new ArrayList<>();
+            for (String path : args[4].split(",")) {
+                if (!"".equals(path.trim())) {
+                    paths.add(path.trim());
+                }
+            }
+            server.setObservePaths(paths);
+        }
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                server.stop();
+            }
+        });
+        while (true) {
+            Thread.sleep(5000);
+            System.out.println(server.getSummary());
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package net.xmeter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class DevicePartitionTest {
+    @Test
+    public void withoutGeneratorsDevicesFollowTheOffset() {
+        DevicePartition partition = new DevicePartition(100, 0, 0);
+        assertFalse(partition.isPartitioned());
+        assertEquals(100, partition.getDevice(0));
+        assertEquals(105, partition.getDevice(5));
+    }
+
+    @Test
+    public void generatorsShareTheDevicesWithoutOverlap() {
+        Set<Long> devices = new HashSet<>();
+        for (int generator = 0; generator < 3; generator++) {
+            DevicePartition partition = new DevicePartition(10, generator, 3);
+            assertTrue(partition.isPartitioned());
+            for (int local = 0; local < 4; local++) {
+                assertTrue(devices.add(partition.getDevice(local)));
+            }
+        }
+        // every device from the offset on, each exactly once
+        for (long device = 10; device < 22; device++) {
+            assertTrue(devices.contains(device));
+        }
+        assertEquals(3 * 5 + 1 + 10, new DevicePartition(10, 1, 3).getDevice(5));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void indexBeyondTheGeneratorsIsRejected() {
+        new DevicePartition(0, 3, 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeCountIsRejected() {
+        new DevicePartition(0, 0, -1);
+    }
+
+    @Test
+    public void generatorFilesCarryTheIndex() {
+        assertEquals(new File("snapshot.txt"), new DevicePartition(0, 0, 0).getGeneratorFile("snapshot.txt"));
+        DevicePartition partition = new DevicePartition(0, 2, 4);
+        assertEquals(new File("snapshot-2.txt"), partition.getGeneratorFile("snapshot.txt"));
+        assertEquals(new File("out", "histogram-2"), partition.getGeneratorFile("out" + File.separator + "histogram"));
+        assertEquals(new File(".hidden-2"), partition.getGeneratorFile(".hidden"));
+    }
+}
@@ -0,0 +1,55 @@
+package net.xmeter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class GroupDeviceRangesTest {
+    private final Object first = new Object();
+    private final Object second = new Object();
+
+    @Test
+    public void separateRangesAreAcceptedInEitherOrder() {
+        GroupDeviceRanges ranges = new GroupDeviceRanges();
+        ranges.register(first, "first", new DevicePartition(0, 1, 2), 5);
+        ranges.register(second, "second", new DevicePartition(10, 1, 2), 3);
+        // every thread of a group registers it again
+        ranges.register(first, "first", new DevicePartition(0, 1, 2), 5);
+
+        ranges.clear();
+        ranges.register(second, "second", new DevicePartition(10, 0, 2), 3);
+        ranges.register(first, "first", new DevicePartition(0, 0, 2), 5);
+    }
+
+    @Test
+    public void overlappingRangesAreRejectedInEitherOrder() {
+        // 5 threads on each of 2 generators take devices 0 to 9
+        assertRejected(new DevicePartition(0, 0, 2), 5, new DevicePartition(9, 0, 2), 3);
+        assertRejected(new DevicePartition(9, 0, 2), 3, new DevicePartition(0, 0, 2), 5);
+        assertRejected(new DevicePartition(0, 0, 0), 5, new DevicePartition(4, 0, 0), 1);
+        assertRejected(new DevicePartition(4, 0, 0), 1, new DevicePartition(0, 0, 0), 5);
+    }
+
+    @Test
+    public void otherFirstDeviceOfTheSameGroupIsRejected() {
+        GroupDeviceRanges ranges = new GroupDeviceRanges();
+        ranges.register(first, "first", new DevicePartition(0, 0, 0), 5);
+        try {
+            ranges.register(first, "first", new DevicePartition(100, 0, 0), 5);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("The samplers of thread group first use different first devices, 0 and 100.", e.getMessage());
+        }
+    }
+
+    private void assertRejected(DevicePartition firstPartition, int firstThreads, DevicePartition secondPartition, int secondThreads) {
+        GroupDeviceRanges ranges = new GroupDeviceRanges();
+        ranges.register(first, "first", firstPartition, firstThreads);
+        try {
+            ranges.register(second, "second", secondPartition, secondThreads);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package net.xmeter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import net.xmeter.stats.LatencyHistogram;
+
+public class SubBeanWindowTest {
+
+    @Test
+    public void countModeHandsOutFullBatches() throws InterruptedException {
+        SubBeanWindow window = new SubBeanWindow(2);
+        for (int i = 0; i < 4; i++) {
+            SubBean bean = window.claim();
+            bean.getLatencies().record(i + 1);
+            window.complete(bean);
+        }
+        SubBean first = window.awaitBatch();
+        SubBean second = window.awaitBatch();
+        assertNotSame(first, second);
+        assertEquals(2, first.getReceivedCount());
+        assertEquals(2, first.getLatencies().getCount());
+        assertEquals(2, second.getReceivedCount());
+        assertEquals(3, second.getLatencies().getMin());
+    }
+
+    @Test
+    public void recycledHistogramIsResetAndReused() throws InterruptedException {
+        SubBeanWindow window = new SubBeanWindow(1);
+        SubBean bean = window.claim();
+        bean.getLatencies().record(1000);
+        window.complete(bean);
+        SubBean batch = window.awaitBatch();
+        LatencyHistogram latencies = batch.getLatencies();
+        window.recycle(batch);
+
+        // The bean after the current one gets the recycled histogram.
+        SubBean next = window.claim();
+        window.complete(next);
+        SubBean following = window.claim();
+        assertSame(latencies, following.getLatencies());
+        assertEquals(0, following.getLatencies().getCount());
+    }
+
+    @Test
+    public void timeModeRotatesWindows() {
+        SubBeanWindow window = new SubBeanWindow(0);
+        SubBean bean = window.claim();
+        bean.addReceivedMessageSize(10);
+        window.complete(bean);
+        SubBean closed = window.rotate();
+        assertSame(bean, closed);
+        assertEquals(1, closed.getReceivedCount());
+        assertEquals(0, window.rotate().getReceivedCount());
+    }
+
+    @Test
+    public void timeModeKeepsEveryMessageAcrossRotations() throws InterruptedException {
+        final SubBeanWindow window = new SubBeanWindow(0);
+        final int receivers = 4;
+        final int messages = 200000;
+        final CountDownLatch done = new CountDownLatch(receivers);
+        for (int i = 0; i < receivers; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < messages; j++) {
+                        SubBean bean = window.claim();
+                        bean.getLatencies().record(j);
+                        bean.addReceivedMessageSize(1);
+                        window.complete(bean);
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        long received = 0;
+        long recorded = 0;
+        long bytes = 0;
+        while (done.getCount() > 0) {
+            SubBean bean = window.rotate();
+            received += bean.getReceivedCount();
+            recorded += bean.getLatencies().getCount();
+            bytes += bean.getReceivedMessageSize();
+            window.recycle(bean);
+        }
+        done.await();
+        SubBean last = window.rotate();
+        received += last.getReceivedCount();
+        recorded += last.getLatencies().getCount();
+        bytes += last.getReceivedMessageSize();
+        assertEquals(receivers * messages, received);
+        assertEquals(receivers * messages, recorded);
+        assertEquals(receivers * messages, bytes);
+    }
+}
@@ -0,0 +1,76 @@
+package net.xmeter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class UtilTest {
+
+    @Test
+    public void clientIdIsFilledUpToMaxLength() {
+        String clientId = Util.generateClientId("dev_");
+        assertTrue(clientId.startsWith("dev_"));
+        assertEquals(CoAPConstants.MAX_CLIENT_ID_LENGTH, clientId.length());
+        assertNotEquals(clientId, Util.generateClientId("dev_"));
+    }
+
+    @Test
+    public void longPrefixIsKeptWithoutSuffix() {
+        String prefix = "a_prefix_longer_than_the_client_id_limit";
+        assertEquals(prefix, Util.generateClientId(prefix));
+        String exact = "abcdefghijklmnopqrstuvw";
+        assertEquals(CoAPConstants.MAX_CLIENT_ID_LENGTH, exact.length());
+        assertEquals(exact, Util.generateClientId(exact));
+    }
+
+    @Test
+    public void emptyPrefix() {
+        assertEquals(CoAPConstants.MAX_CLIENT_ID_LENGTH, Util.generateClientId("").length());
+    }
+
+    @Test
+    public void hexIsDecoded() {
+        assertArrayEquals(new byte[] { 0x00, 0x7f, (byte) 0x80, (byte) 0xff, 0x1a }, Util.parseHex("007F80ff1A"));
+        assertEquals(0, Util.parseHex("").length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void oddHexIsRejected() {
+        Util.parseHex("abc");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidHexIsRejected() {
+        Util.parseHex("0g");
+    }
+
+    @Test
+    public void base64IsDecodedForEveryPadding() throws Exception {
+        // the vectors of RFC 4648, section 10
+        String[][] vectors = { { "", "" }, { "f", "Zg==" }, { "fo", "Zm8=" }, { "foo", "Zm9v" }, { "foob", "Zm9vYg==" },
+                { "fooba", "Zm9vYmE=" }, { "foobar", "Zm9vYmFy" } };
+        for (String[] vector : vectors) {
+            assertArrayEquals(vector[1], vector[0].getBytes("US-ASCII"), Util.parseBase64(vector[1]));
+        }
+        assertArrayEquals(new byte[] { (byte) 0xfb, (byte) 0xff, (byte) 0xbf, 0x00, 0x10, (byte) 0x83 }, Util.parseBase64("+/+/ABCD"));
+    }
+
+    @Test
+    public void wrappedBase64IsDecoded() {
+        // the bytes 0 to 39 wrapped as in a PEM file
+        String encoded = "AAECAwQFBgcICQoL\r\nDA0ODxAREhMUFRYX\nGBkaGxwdHh8gISIj\n  JCUmJw==\n";
+        byte[] bytes = new byte[40];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        assertArrayEquals(bytes, Util.parseBase64(encoded));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidBase64IsRejected() {
+        Util.parseBase64("QUJD*A==");
+    }
+}
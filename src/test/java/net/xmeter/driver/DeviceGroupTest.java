@@ -0,0 +1,50 @@
+package net.xmeter.driver;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.Test;
+
+import net.xmeter.CoAPConstants;
+import net.xmeter.lwm2m.DeviceDefinition;
+
+public class DeviceGroupTest {
+    @Test
+    public void startFailuresAreCountedByCause() throws IOException {
+        DeviceGroup group = new DeviceGroup(new DriverConfig(), null) {
+            @Override
+            protected boolean startDevice(int device, DeviceDefinition definition, String name) throws Exception {
+                if (device % 3 == 0) {
+                    throw new IOException("unreachable");
+                }
+                return device % 3 == 1;
+            }
+
+            @Override
+            public void collect(LoadReport report) {
+            }
+
+            @Override
+            public void stop() {
+            }
+        };
+        for (int i = 0; i < 9; i++) {
+            group.start(i);
+        }
+        assertEquals(3, group.getStarted());
+        assertEquals(6, group.getFailed());
+        Map<String, Integer> failures = group.getFailures();
+        assertEquals(2, failures.size());
+        assertEquals(Integer.valueOf(3), failures.get("IOException: unreachable"));
+        assertEquals(Integer.valueOf(3), failures.get("Rejected or timed out"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void perSampleOperationIsRejected() throws IOException {
+        DriverConfig config = new DriverConfig();
+        config.set(CoAPConstants.LWM2M_OPERATION, CoAPConstants.LWM2M_OPERATION_UPDATE);
+        DeviceGroup.create(config, null);
+    }
+}
@@ -0,0 +1,118 @@
+package net.xmeter.driver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.xmeter.stats.LatencyHistogram;
+
+public class LoadSnapshotTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void snapshotIsReadBackAsWritten() throws IOException {
+        LoadReport report = new LoadReport();
+        report.add("sent", 120);
+        report.add("failed", 3);
+        for (long latency = 1; latency <= 1000; latency++) {
+            report.record("latency", latency * 1000L);
+        }
+        report.getHistogram("empty");
+        File file = folder.newFile("snapshot-1.txt");
+        new LoadSnapshot(1, 2, 60012, report).write(file);
+
+        LoadSnapshot read = LoadSnapshot.read(file);
+        assertEquals(1, read.getGeneratorIndex());
+        assertEquals(2, read.getGeneratorCount());
+        assertEquals(60012, read.getElapsedMillis());
+        assertEquals(120, read.getReport().getCounter("sent"));
+        assertEquals(3, read.getReport().getCounter("failed"));
+        assertSameValues(report.getHistogram("latency"), read.getReport().getHistogram("latency"));
+        assertEquals(0, read.getReport().getHistogram("empty").getCount());
+    }
+
+    @Test
+    public void mergedPercentilesAreThoseOfAllValues() throws IOException {
+        LoadReport first = new LoadReport();
+        LoadReport second = new LoadReport();
+        LatencyHistogram all = new LatencyHistogram();
+        for (long latency = 1; latency <= 2000; latency++) {
+            // the slow half on one generator, so neither has the percentiles of the whole
+            (latency <= 1000 ? first : second).record("latency", latency * 1000000L);
+            all.record(latency * 1000000L);
+        }
+        first.add("sent", 1000);
+        second.add("sent", 1000);
+        second.add("timed_out", 7);
+
+        File firstFile = folder.newFile("snapshot-0.txt");
+        File secondFile = folder.newFile("snapshot-1.txt");
+        new LoadSnapshot(0, 2, 30000, first).write(firstFile);
+        new LoadSnapshot(1, 2, 31000, second).write(secondFile);
+
+        LoadSnapshot merged = MergeSnapshots.merge(Arrays.asList(LoadSnapshot.read(firstFile), LoadSnapshot.read(secondFile)));
+        assertEquals(2, merged.getGeneratorCount());
+        assertEquals(31000, merged.getElapsedMillis());
+        assertEquals(2000, merged.getReport().getCounter("sent"));
+        assertEquals(7, merged.getReport().getCounter("timed_out"));
+        assertSameValues(all, merged.getReport().getHistogram("latency"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void generatorTwiceIsRejected() {
+        MergeSnapshots.merge(Arrays.asList(new LoadSnapshot(0, 2, 1000, new LoadReport()), new LoadSnapshot(0, 2, 1000, new LoadReport())));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void differentGeneratorCountsAreRejected() {
+        MergeSnapshots.merge(Arrays.asList(new LoadSnapshot(0, 2, 1000, new LoadReport()), new LoadSnapshot(1, 3, 1000, new LoadReport())));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unpartitionedSnapshotsAreRejected() {
+        MergeSnapshots.merge(Arrays.asList(new LoadSnapshot(0, 0, 1000, new LoadReport()), new LoadSnapshot(0, 0, 1000, new LoadReport())));
+    }
+
+    @Test(expected = IOException.class)
+    public void otherBucketsAreRejected() throws IOException {
+        read("generator=0/2\nbuckets=4992\n");
+    }
+
+    @Test(expected = IOException.class)
+    public void bucketsNotAddingUpAreRejected() throws IOException {
+        read("generator=0/2\nhistogram.latency=5 1 9 20 3:2,9:2\n");
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFileIsRejected() throws IOException {
+        read("sent=10\n");
+    }
+
+    private LoadSnapshot read(String content) throws IOException {
+        File file = folder.newFile();
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8")) {
+            out.write(content);
+        }
+        return LoadSnapshot.read(file);
+    }
+
+    private static void assertSameValues(LatencyHistogram expected, LatencyHistogram actual) {
+        assertEquals(expected.getCount(), actual.getCount());
+        assertEquals(expected.getMin(), actual.getMin());
+        assertEquals(expected.getMax(), actual.getMax());
+        assertEquals(expected.getSum(), actual.getSum());
+        assertArrayEquals(expected.getCounts(), actual.getCounts());
+        assertEquals(expected.getValueAtPercentile(99), actual.getValueAtPercentile(99));
+    }
+}
@@ -0,0 +1,82 @@
+package net.xmeter.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.xmeter.coap.EndpointPool;
+import net.xmeter.coap.RequestTemplate;
+import net.xmeter.payload.BlockSource;
+import net.xmeter.test.StandInServer;
+
+/**
+ * Runs block-wise transfers against the stand-in server and checks that every block is a request
+ * of its own on the wire.
+ */
+public class BlockTransferTest {
+    private static final int SIZE = 1000;
+    private static final int BLOCK_SIZE = 64;
+    private static final int BLOCKS = (SIZE + BLOCK_SIZE - 1) / BLOCK_SIZE;
+
+    private StandInServer server;
+    private CoapEndpoint endpoint;
+    private CoapClient client;
+
+    @Before
+    public void start() throws Exception {
+        server = new StandInServer(0);
+        server.start();
+        endpoint = EndpointPool.newNonBlockwiseEndpoint();
+        client = new CoapClient();
+        client.setEndpoint(endpoint);
+        client.setTimeout(5000L);
+    }
+
+    @After
+    public void stop() {
+        client.shutdown();
+        endpoint.destroy();
+        server.stop();
+    }
+
+    @Test
+    public void uploadSendsOneRequestPerBlock() throws Exception {
+        BlockTransfer transfer = new BlockTransfer(client, template("PUT"), BLOCK_SIZE);
+        try (BlockSource source = BlockSource.generated(SIZE)) {
+            assertTrue(transfer.getOutcome(), transfer.upload(source));
+        }
+        assertEquals(BLOCKS, transfer.getBlocks());
+        assertEquals(SIZE, transfer.getBytes());
+        assertEquals(BLOCKS, transfer.getLatencies().getCount());
+        assertEquals(BLOCKS, server.getBlockRequests());
+        assertEquals(1, server.getPublishes());
+    }
+
+    @Test
+    public void downloadSendsOneRequestPerBlock() throws Exception {
+        try (BlockSource source = BlockSource.generated(SIZE)) {
+            assertTrue(new BlockTransfer(client, template("PUT"), BLOCK_SIZE).upload(source));
+        }
+        BlockTransfer transfer = new BlockTransfer(client, template("GET"), BLOCK_SIZE);
+        assertTrue(transfer.getOutcome(), transfer.download());
+        assertEquals(BLOCKS, transfer.getBlocks());
+        assertEquals(SIZE, transfer.getBytes());
+        assertEquals(2 * BLOCKS, server.getBlockRequests());
+    }
+
+    private RequestTemplate template(String method) {
+        return new RequestTemplate.Builder()
+                .setMethod(method)
+                .setMessageType("CON")
+                .setDestination("127.0.0.1", server.getPort())
+                .setResourcePath("ps/blocks")
+                .setContentFormat(MediaTypeRegistry.APPLICATION_OCTET_STREAM)
+                .build();
+    }
+}
@@ -0,0 +1,61 @@
+package net.xmeter.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class DeviceExecutorTest {
+
+    @Test
+    public void platformThreadsRunBlockedDevicesSideBySide() throws Exception {
+        assertEveryDeviceHasAThread(DeviceExecutor.create(DeviceExecutor.MODE_PLATFORM, "test-device"));
+    }
+
+    @Test
+    public void virtualThreadsRunBlockedDevicesSideBySide() throws Exception {
+        // Falls back to platform threads before Java 21.
+        assertEveryDeviceHasAThread(DeviceExecutor.create(DeviceExecutor.MODE_VIRTUAL, "test-device"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownModeIsRejected() {
+        DeviceExecutor.create("green", "test-device");
+    }
+
+    private static void assertEveryDeviceHasAThread(ExecutorService executor) throws Exception {
+        int devices = 200;
+        final CountDownLatch started = new CountDownLatch(devices);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+        try {
+            for (int i = 0; i < devices; i++) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        threads.add(Thread.currentThread());
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+            }
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            assertEquals(devices, threads.size());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+}
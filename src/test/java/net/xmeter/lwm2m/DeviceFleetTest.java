@@ -0,0 +1,92 @@
+package net.xmeter.lwm2m;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DeviceFleetTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void devicesAreLookedUpByPosition() throws IOException {
+        File file = write("fleet.txt", "# endpoint,identity,key,lifetime,binding,paths\n"
+                + "dev-0,id-0,0a0B,300,U,/3303/0/5700;/3304/0/5700\n"
+                + "\n"
+                + "  # not a device\n"
+                + "dev-1\r\n"
+                + "dev-2,,,,UQ,");
+        DeviceFleet fleet = DeviceFleet.forFile(file);
+        assertEquals(3, fleet.size());
+        assertTrue(new File(file.getPath() + ".idx").isFile());
+
+        DeviceDefinition first = fleet.get(0);
+        assertEquals(0, first.getIndex());
+        assertEquals("dev-0", first.getEndpoint());
+        assertEquals("id-0", first.getPskIdentity());
+        assertArrayEquals(new byte[] { 0x0a, 0x0b }, first.getPskKey());
+        assertEquals(300, first.getLifetime());
+        assertEquals("U", first.getBinding());
+        assertEquals(Arrays.asList("/3303/0/5700", "/3304/0/5700"), first.getResourcePaths());
+
+        DeviceDefinition second = fleet.get(1);
+        assertEquals("dev-1", second.getEndpoint());
+        assertFalse(second.hasPsk());
+        assertEquals(-1, second.getLifetime());
+        assertNull(second.getBinding());
+        assertEquals("/default", second.getResourcePath("/default"));
+
+        DeviceDefinition last = fleet.get(2);
+        assertEquals("dev-2", last.getEndpoint());
+        assertEquals("dev-2", last.getPskIdentity());
+        assertEquals("UQ", last.getBinding());
+    }
+
+    @Test
+    public void longLinesAreReadWhole() throws IOException {
+        StringBuilder paths = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            paths.append(i > 0 ? ";" : "").append("/3303/").append(i).append("/5700");
+        }
+        DeviceFleet fleet = DeviceFleet.forFile(write("long.txt", "dev-0,,,,," + paths + "\ndev-1\n"));
+        assertEquals(200, fleet.get(0).getResourcePaths().size());
+        assertEquals("dev-1", fleet.get(1).getEndpoint());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void deviceBeyondTheFleetIsRejected() throws IOException {
+        DeviceFleet.forFile(write("small.txt", "dev-0\ndev-1\n")).get(2);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void hugeDeviceNumberIsRejected() throws IOException {
+        // Must not wrap around to the offset of a small device number.
+        DeviceFleet.forFile(write("wrap.txt", "dev-0\ndev-1\n")).get((1L << 32) + 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void malformedKeyIsRejected() throws IOException {
+        DeviceFleet.forFile(write("bad-key.txt", "dev-0,id-0,xyz\n")).get(0);
+    }
+
+    private File write(String name, String content) throws IOException {
+        File file = folder.newFile(name);
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8")) {
+            out.write(content);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,56 @@
+package net.xmeter.lwm2m;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class RegistrationSchedulerTest {
+
+    @Test
+    public void updatesAreTriggeredWhileTheExecutorIsBusy() throws Exception {
+        RegistrationScheduler scheduler = RegistrationScheduler.acquire();
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            // every protocol thread waits for a round trip
+            int threads = scheduler.getExecutor().getCorePoolSize();
+            final CountDownLatch busy = new CountDownLatch(threads);
+            for (int i = 0; i < threads; i++) {
+                scheduler.getExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        busy.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+            }
+            assertTrue(busy.await(10, TimeUnit.SECONDS));
+
+            final CountDownLatch triggered = new CountDownLatch(1);
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    triggered.countDown();
+                }
+            }, 10);
+            assertTrue(triggered.await(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            RegistrationScheduler.release(scheduler);
+        }
+    }
+
+    @Test
+    public void jitterStaysWithinTheFraction() {
+        for (int i = 0; i < 1000; i++) {
+            long delay = RegistrationScheduler.jitteredDelay(1000, 0.1);
+            assertTrue(delay >= 900 && delay <= 1100);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package net.xmeter.lwm2m;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.coap.Token;
+import org.eclipse.californium.core.network.interceptors.MessageInterceptorAdapter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.xmeter.SharedScheduler;
+import net.xmeter.stats.NotificationStats;
+
+public class SensorSimulationTest {
+    private final BlockingQueue<Runnable> handedOff = new LinkedBlockingQueue<>();
+    private final Executor executor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            handedOff.add(command);
+        }
+    };
+
+    @Before
+    public void start() {
+        SharedScheduler.acquire();
+    }
+
+    @After
+    public void stop() {
+        SharedScheduler.release();
+    }
+
+    @Test
+    public void valuesChangeOnTheExecutorNotOnTheTimer() throws Exception {
+        SensorSimulation sensors = SensorSimulation.forObjects("3303,7");
+        sensors.start(10, executor);
+        try {
+            Runnable tick = handedOff.poll(5, TimeUnit.SECONDS);
+            assertTrue(tick != null);
+            // several periods pass while the tick waits for the executor
+            Thread.sleep(100);
+            assertEquals(0, sensors.rotate().getChanges());
+            assertEquals(0, handedOff.size());
+
+            tick.run();
+            assertTrue(sensors.rotate().getChanges() > 0);
+            assertTrue(handedOff.poll(5, TimeUnit.SECONDS) != null);
+        } finally {
+            sensors.stop();
+        }
+    }
+
+    @Test
+    public void responseToTheObserveRequestIsNoNotification() {
+        SensorSimulation sensors = SensorSimulation.forObjects("3303");
+        MessageInterceptorAdapter interceptor = sensors.newInterceptor();
+        Token token = new Token(new byte[] { 1, 2, 3, 4 });
+        Request observe = Request.newGet();
+        observe.setToken(token);
+        observe.getOptions().setObserve(0);
+        interceptor.receiveRequest(observe);
+        // the current value answers the request, the changes follow as notifications
+        for (int sequence = 2; sequence < 5; sequence++) {
+            Response response = new Response(ResponseCode.CONTENT);
+            response.setToken(token);
+            response.getOptions().setObserve(sequence);
+            response.setPayload("21.5");
+            interceptor.sendResponse(response);
+        }
+
+        NotificationStats stats = sensors.rotate();
+        assertEquals(1, stats.getObservations());
+        assertEquals(2, stats.getNotifications());
+    }
+}
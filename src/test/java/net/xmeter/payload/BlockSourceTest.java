@@ -0,0 +1,62 @@
+package net.xmeter.payload;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BlockSourceTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void generatedSourceIsRepeatable() throws IOException {
+        BlockSource source = BlockSource.generated(10000);
+        assertEquals(10000, source.size());
+        byte[] first = readAll(source, 1024);
+        assertEquals(10000, first.length);
+        source.rewind();
+        assertArrayEquals(first, readAll(source, 333));
+    }
+
+    @Test
+    public void fileSourceReadsTheFileBlockByBlock() throws IOException {
+        byte[] content = new byte[5000];
+        new Random(2).nextBytes(content);
+        File file = folder.newFile("firmware.bin");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+        try (BlockSource source = BlockSource.open(file)) {
+            assertEquals(content.length, source.size());
+            assertArrayEquals(content, readAll(source, 1024));
+            source.rewind();
+            assertArrayEquals(content, readAll(source, 64));
+        }
+    }
+
+    @Test
+    public void emptySource() throws IOException {
+        BlockSource source = BlockSource.generated(0);
+        assertEquals(0, source.read(new byte[16], 16));
+    }
+
+    private static byte[] readAll(BlockSource source, int blockSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] block = new byte[blockSize];
+        int read;
+        do {
+            read = source.read(block, blockSize);
+            out.write(block, 0, read);
+        } while (read == blockSize);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,57 @@
+package net.xmeter.payload;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import net.xmeter.CoAPConstants;
+
+public class LatencyHeaderTest {
+
+    @Test
+    public void roundTrip() {
+        byte[] content = { 1, 2, 3 };
+        byte[] payload = LatencyHeader.prepend(content, -7, Long.MAX_VALUE - 1, 1234567890123456789L);
+        assertEquals(LatencyHeader.SIZE + content.length, payload.length);
+        assertTrue(LatencyHeader.isPresent(payload));
+        assertEquals(-7, LatencyHeader.readPublisherId(payload));
+        assertEquals(Long.MAX_VALUE - 1, LatencyHeader.readSequence(payload));
+        assertEquals(1234567890123456789L, LatencyHeader.readSendTimeNanos(payload));
+        assertArrayEquals(content, Arrays.copyOfRange(payload, LatencyHeader.SIZE, payload.length));
+    }
+
+    @Test
+    public void elapsedTimeOfAFreshHeader() {
+        byte[] payload = LatencyHeader.prepend(new byte[0], 1, 0);
+        long elapsed = LatencyHeader.elapsedNanos(payload);
+        assertTrue(elapsed >= 0 && elapsed < 1000000000L);
+    }
+
+    @Test
+    public void payloadWithoutHeader() {
+        assertFalse(LatencyHeader.isPresent(null));
+        assertFalse(LatencyHeader.isPresent(new byte[LatencyHeader.SIZE]));
+        assertFalse(LatencyHeader.isPresent("XM".getBytes(Charset.forName("US-ASCII"))));
+        assertEquals(-1, LatencyHeader.elapsedNanos(new byte[] { 'a', 'b' }));
+    }
+
+    @Test
+    public void legacyTextTimestamp() {
+        byte[] payload = ("1500000000000" + CoAPConstants.TIME_STAMP_SEP_FLAG + "hello").getBytes(Charset.forName("US-ASCII"));
+        assertEquals(1500000000000L, LatencyHeader.readLegacyTimestampMillis(payload));
+        assertEquals(-1, LatencyHeader.readLegacyTimestampMillis("hello".getBytes(Charset.forName("US-ASCII"))));
+        assertEquals(-1, LatencyHeader.readLegacyTimestampMillis("123".getBytes(Charset.forName("US-ASCII"))));
+    }
+
+    @Test
+    public void epochConversionMatchesTheWallClock() {
+        long now = LatencyHeader.toEpochNanos(System.nanoTime()) / 1000000;
+        assertEquals(System.currentTimeMillis(), now, 50);
+    }
+}
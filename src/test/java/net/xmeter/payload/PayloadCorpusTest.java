@@ -0,0 +1,118 @@
+package net.xmeter.payload;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PayloadCorpusTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recordsAreReadBackInOrder() throws IOException {
+        List<byte[]> records = randomRecords(100, 50);
+        PayloadCorpus corpus = PayloadCorpus.acquire(write(records));
+        try {
+            assertEquals(records.size(), corpus.size());
+            for (int i = 0; i < records.size(); i++) {
+                assertArrayEquals(records.get(i), corpus.get(i));
+            }
+            assertArrayEquals(records.get(0), corpus.get(records.size()));
+            assertArrayEquals(records.get(records.size() - 1), corpus.get(-1));
+        } finally {
+            PayloadCorpus.release(corpus);
+        }
+    }
+
+    @Test
+    public void recordsAndIndexSpanSeveralWindows() throws IOException {
+        List<byte[]> records = randomRecords(500, 40);
+        // 256 byte windows, so both the payloads and the offsets (32 per window) take many mappings.
+        PayloadCorpus corpus = new PayloadCorpus(write(records), 256);
+        assertEquals(records.size(), corpus.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertArrayEquals(records.get(i), corpus.get(i));
+        }
+    }
+
+    @Test
+    public void cursorContinuesFromTheStartIndex() throws IOException {
+        List<byte[]> records = randomRecords(10, 8);
+        PayloadCorpus corpus = PayloadCorpus.acquire(write(records));
+        try {
+            PayloadCorpus.Cursor cursor = corpus.newCursor(false, 8);
+            assertArrayEquals(records.get(8), cursor.next());
+            assertArrayEquals(records.get(9), cursor.next());
+            assertArrayEquals(records.get(0), cursor.next());
+        } finally {
+            PayloadCorpus.release(corpus);
+        }
+    }
+
+    @Test
+    public void corpusIsSharedUntilTheLastRelease() throws IOException {
+        File file = write(randomRecords(10, 8));
+        PayloadCorpus first = PayloadCorpus.acquire(file);
+        PayloadCorpus second = PayloadCorpus.acquire(file);
+        assertSame(first, second);
+        PayloadCorpus.release(first);
+        PayloadCorpus third = PayloadCorpus.acquire(file);
+        assertSame(first, third);
+        PayloadCorpus.release(second);
+        PayloadCorpus.release(third);
+
+        PayloadCorpus reloaded = PayloadCorpus.acquire(file);
+        assertNotSame(first, reloaded);
+        PayloadCorpus.release(reloaded);
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedRecordIsRejected() throws IOException {
+        File file = folder.newFile("truncated.bin");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(100);
+            out.write(new byte[10]);
+        }
+        PayloadCorpus.acquire(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void emptyCorpusIsRejected() throws IOException {
+        PayloadCorpus.acquire(folder.newFile("empty.bin"));
+    }
+
+    private static List<byte[]> randomRecords(int count, int maxLength) {
+        Random random = new Random(count);
+        List<byte[]> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] record = new byte[random.nextInt(maxLength + 1)];
+            random.nextBytes(record);
+            records.add(record);
+        }
+        return records;
+    }
+
+    private File write(List<byte[]> records) throws IOException {
+        File file = folder.newFile();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            for (byte[] record : records) {
+                out.writeInt(record.length);
+                out.write(record);
+            }
+        }
+        return file;
+    }
+}
@@ -0,0 +1,47 @@
+package net.xmeter.payload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class PayloadPoolTest {
+
+    @After
+    public void clear() {
+        PayloadPool.clear();
+    }
+
+    @Test
+    public void smallPayloadsFillThePool() {
+        PayloadPool pool = PayloadPool.forSpec("64-128");
+        assertEquals(1024, pool.size());
+        for (int i = 0; i < 100; i++) {
+            int length = pool.next().length;
+            assertTrue(length >= 64 && length <= 128);
+        }
+        assertSame(pool, PayloadPool.forSpec("64 - 128"));
+    }
+
+    @Test
+    public void largePayloadsStayWithinTheCap() {
+        PayloadPool pool = PayloadPool.forSpec(String.valueOf(16 * 1024 * 1024));
+        assertEquals(4, pool.size());
+        assertTrue(pool.getTotalBytes() <= PayloadPool.MAX_POOL_BYTES);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void payloadsAboveTheCapAreRejected() {
+        PayloadPool.forSpec("1024:1," + (PayloadPool.MAX_POOL_BYTES + 1) + ":1");
+    }
+
+    @Test
+    public void clearDropsThePools() {
+        PayloadPool pool = PayloadPool.forSpec("32");
+        PayloadPool.clear();
+        assertNotSame(pool, PayloadPool.forSpec("32"));
+    }
+}
@@ -0,0 +1,70 @@
+package net.xmeter.payload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PayloadSizeDistributionTest {
+
+    @Test
+    public void fixedSize() {
+        PayloadSizeDistribution distribution = PayloadSizeDistribution.parse(" 1024 ");
+        assertTrue(distribution.isFixed());
+        assertEquals(1024, distribution.next(new Random()));
+    }
+
+    @Test
+    public void uniformRangeIncludesBothBounds() {
+        PayloadSizeDistribution distribution = PayloadSizeDistribution.parse("10-12");
+        assertFalse(distribution.isFixed());
+        assertEquals(10, distribution.getMin());
+        assertEquals(12, distribution.getMax());
+        boolean[] seen = new boolean[3];
+        Random random = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            int size = distribution.next(random);
+            assertTrue(size >= 10 && size <= 12);
+            seen[size - 10] = true;
+        }
+        assertTrue(seen[0] && seen[1] && seen[2]);
+    }
+
+    @Test
+    public void weightedSizesFollowTheWeights() {
+        PayloadSizeDistribution distribution = PayloadSizeDistribution.parse("64:70, 512:20, 4096:10");
+        assertEquals(64, distribution.getMin());
+        assertEquals(4096, distribution.getMax());
+        Random random = new Random(5);
+        int small = 0;
+        int large = 0;
+        for (int i = 0; i < 100000; i++) {
+            int size = distribution.next(random);
+            if (size == 64) {
+                small++;
+            } else if (size == 4096) {
+                large++;
+            }
+        }
+        assertEquals(70000, small, 1000);
+        assertEquals(10000, large, 1000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeSizeIsRejected() {
+        PayloadSizeDistribution.parse("-5");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroWeightsAreRejected() {
+        PayloadSizeDistribution.parse("64:0,128:0");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void malformedEntryIsRejected() {
+        PayloadSizeDistribution.parse("64:1:2");
+    }
+}
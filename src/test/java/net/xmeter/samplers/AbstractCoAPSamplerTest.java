@@ -0,0 +1,101 @@
+package net.xmeter.samplers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.jmeter.threads.JMeterContext;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.JMeterVariables;
+import org.apache.jmeter.threads.ThreadGroup;
+import org.junit.After;
+import org.junit.Test;
+
+import net.xmeter.CoAPConstants;
+
+public class AbstractCoAPSamplerTest {
+    @After
+    public void tearDown() {
+        AbstractCoAPSampler.clearThreadGroups();
+    }
+
+    @Test
+    public void groupsGetTheSameDevicesInEitherStartOrder() throws IOException {
+        ThreadGroup sensors = newThreadGroup("sensors", 3);
+        ThreadGroup meters = newThreadGroup("meters", 2);
+
+        List<Long> sensorsFirst = new ArrayList<>();
+        sensorsFirst.addAll(startThreads(sensors, "0", 1));
+        sensorsFirst.addAll(startThreads(meters, "6", 1));
+        AbstractCoAPSampler.clearThreadGroups();
+        List<Long> metersFirst = new ArrayList<>(startThreads(meters, "6", 1));
+        metersFirst.addAll(0, startThreads(sensors, "0", 1));
+
+        assertEquals(sensorsFirst, metersFirst);
+        // thread N of a group simulates device first + N * 2 + 1 on the second of two generators
+        assertEquals(list(1, 3, 5, 7, 9), sensorsFirst);
+    }
+
+    @Test
+    public void overlappingGroupsFailInEitherStartOrder() throws IOException {
+        ThreadGroup sensors = newThreadGroup("sensors", 3);
+        ThreadGroup meters = newThreadGroup("meters", 2);
+
+        startThreads(sensors, "0", 0);
+        assertRejected(meters, "0");
+        AbstractCoAPSampler.clearThreadGroups();
+        startThreads(meters, "0", 0);
+        assertRejected(sensors, "0");
+    }
+
+    /**
+     * Starts the threads of a group on one of two generators, as JMeter does.
+     * @return the devices of the threads.
+     */
+    static List<Long> startThreads(ThreadGroup group, String firstDevice, int generator) throws IOException {
+        List<Long> devices = new ArrayList<>();
+        for (int thread = 0; thread < group.getNumThreads(); thread++) {
+            devices.add(startThread(group, thread, firstDevice, generator));
+        }
+        return devices;
+    }
+
+    static ThreadGroup newThreadGroup(String name, int threads) {
+        ThreadGroup group = new ThreadGroup();
+        group.setName(name);
+        group.setNumThreads(threads);
+        return group;
+    }
+
+    private static long startThread(ThreadGroup group, int thread, String firstDevice, int generator) throws IOException {
+        JMeterContext context = JMeterContextService.getContext();
+        context.setVariables(new JMeterVariables());
+        context.setThreadGroup(group);
+        context.setThreadNum(thread);
+        CoAPSubSampler sampler = new CoAPSubSampler();
+        sampler.setFleetOffset(firstDevice);
+        sampler.setGeneratorIndex(String.valueOf(generator));
+        sampler.setGeneratorCount("2");
+        sampler.loadFleetDevice();
+        return Long.parseLong(context.getVariables().get(CoAPConstants.DEVICE_INDEX));
+    }
+
+    private static void assertRejected(ThreadGroup group, String firstDevice) throws IOException {
+        try {
+            startThread(group, 0, firstDevice, 0);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static List<Long> list(long... devices) {
+        List<Long> list = new ArrayList<>();
+        for (long device : devices) {
+            list.add(device);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,54 @@
+package net.xmeter.samplers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.JMeterVariables;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.xmeter.CoAPConstants;
+import net.xmeter.SubBean;
+import net.xmeter.stats.LatencyHistogram;
+
+public class CoAPSubSamplerTest {
+    private CoAPSubSampler sampler;
+
+    @Before
+    public void setUp() {
+        JMeterContextService.getContext().setVariables(new JMeterVariables());
+        sampler = new CoAPSubSampler();
+        sampler.setAddTimestamp(true);
+    }
+
+    @Test
+    public void sampleTimeIsTheWindowNotTheMeanLatency() {
+        SubBean bean = new SubBean(new LatencyHistogram(), null);
+        for (int i = 0; i < 10; i++) {
+            bean.incrementReceivedCount();
+            bean.addReceivedMessageSize(100);
+            // 10 s per message, far beyond the time the window takes here
+            bean.getLatencies().record(10000000000L);
+        }
+        SampleResult result = new SampleResult();
+        result.sampleStart();
+        result = sampler.fillWindowResult(result, bean);
+
+        assertTrue(result.isSuccessful());
+        assertEquals(10, result.getSampleCount());
+        assertTrue("sample time " + result.getTime() + " ms", result.getTime() < 5000);
+        assertEquals("10000.000", JMeterContextService.getContext().getVariables().get(CoAPConstants.LATENCY_P50));
+    }
+
+    @Test
+    public void emptyWindowFails() {
+        SampleResult result = new SampleResult();
+        result.sampleStart();
+        result = sampler.fillWindowResult(result, new SubBean(new LatencyHistogram(), null));
+
+        assertEquals(false, result.isSuccessful());
+        assertEquals(0, result.getTime());
+    }
+}
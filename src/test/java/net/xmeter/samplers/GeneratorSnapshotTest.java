@@ -0,0 +1,115 @@
+package net.xmeter.samplers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.threads.ThreadGroup;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.xmeter.DevicePartition;
+import net.xmeter.driver.LoadReport;
+import net.xmeter.driver.LoadSnapshot;
+import net.xmeter.driver.MergeSnapshots;
+import net.xmeter.stats.LatencyHistogram;
+
+public class GeneratorSnapshotTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void snapshotsOfTwoInstancesAreMerged() throws IOException {
+        File first = runInstance(0, 3, 0);
+        File second = runInstance(1, 2, 1);
+
+        LoadReport merged = MergeSnapshots.merge(Arrays.asList(LoadSnapshot.read(first), LoadSnapshot.read(second))).getReport();
+        assertEquals(5 * 10, merged.getCounter(GeneratorSnapshot.SAMPLES));
+        // one failed sample, its errors counted as JMeter's listeners do
+        assertEquals(newResult(false).getErrorCount(), merged.getCounter(GeneratorSnapshot.ERRORS));
+        assertEquals(5 * 100, merged.getCounter(GeneratorSnapshot.SENT_BYTES));
+        assertEquals(5 * 200, merged.getCounter(GeneratorSnapshot.RECEIVED_BYTES));
+        assertEquals(5, merged.getHistogram(GeneratorSnapshot.ELAPSED).getCount());
+        assertEquals(5 * 3, merged.getHistogram(GeneratorSnapshot.LATENCY).getCount());
+    }
+
+    @Test
+    public void instancesWithSeveralThreadGroupsShareTheDevices() throws IOException {
+        ThreadGroup sensors = AbstractCoAPSamplerTest.newThreadGroup("sensors", 3);
+        ThreadGroup meters = AbstractCoAPSamplerTest.newThreadGroup("meters", 2);
+        TreeSet<Long> devices = new TreeSet<>();
+        File[] files = new File[2];
+        for (int index = 0; index < 2; index++) {
+            DevicePartition partition = new DevicePartition(0, index, 2);
+            files[index] = partition.getGeneratorFile(new File(folder.getRoot(), "groups.txt").getPath());
+            GeneratorSnapshot.start(partition, files[index]);
+            // the groups start in another order on each instance
+            List<Long> started = AbstractCoAPSamplerTest.startThreads(index == 0 ? sensors : meters, index == 0 ? "0" : "6", index);
+            started.addAll(AbstractCoAPSamplerTest.startThreads(index == 0 ? meters : sensors, index == 0 ? "6" : "0", index));
+            for (Long device : started) {
+                assertTrue("device " + device + " twice", devices.add(device));
+                GeneratorSnapshot.record(newResult(true), null);
+            }
+            GeneratorSnapshot.finish();
+            AbstractCoAPSampler.clearThreadGroups();
+        }
+        // both instances together simulate the devices 0 to 9 of the plan, each once
+        assertEquals(10, devices.size());
+        assertEquals(Long.valueOf(9), devices.last());
+
+        LoadReport merged = MergeSnapshots.merge(Arrays.asList(LoadSnapshot.read(files[0]), LoadSnapshot.read(files[1]))).getReport();
+        assertEquals(10 * 10, merged.getCounter(GeneratorSnapshot.SAMPLES));
+        assertEquals(0, merged.getCounter(GeneratorSnapshot.ERRORS));
+        assertEquals(10, merged.getHistogram(GeneratorSnapshot.ELAPSED).getCount());
+    }
+
+    @Test
+    public void nothingIsWrittenWithoutStart() throws IOException {
+        File file = new File(folder.getRoot(), "never.txt");
+        GeneratorSnapshot.record(newResult(true), null);
+        GeneratorSnapshot.finish();
+        assertFalse(file.exists());
+    }
+
+    /**
+     * Records samples as the samplers of one JMeter instance do, the first of them failed.
+     */
+    private File runInstance(int index, int samples, int failedSamples) throws IOException {
+        DevicePartition partition = new DevicePartition(0, index, 2);
+        File file = partition.getGeneratorFile(new File(folder.getRoot(), "snapshot.txt").getPath());
+        GeneratorSnapshot.start(partition, file);
+        // a second sampler of the same test keeps the snapshot already started
+        GeneratorSnapshot.start(partition, new File(folder.getRoot(), "other.txt"));
+        LatencyHistogram latencies = new LatencyHistogram();
+        latencies.record(1000000L);
+        latencies.record(2000000L);
+        latencies.record(3000000L);
+        for (int i = 0; i < samples; i++) {
+            GeneratorSnapshot.record(newResult(i >= failedSamples), latencies);
+        }
+        GeneratorSnapshot.finish();
+        GeneratorSnapshot.finish();
+        assertFalse(new File(folder.getRoot(), "other.txt").exists());
+        assertEquals(new File(folder.getRoot(), "snapshot-" + index + ".txt"), file);
+        return file;
+    }
+
+    private static SampleResult newResult(boolean success) {
+        SampleResult result = new SampleResult();
+        result.sampleStart();
+        result.sampleEnd();
+        result.setSuccessful(success);
+        result.setSampleCount(10);
+        result.setSentBytes(100);
+        result.setBytes(200);
+        return result;
+    }
+}
@@ -0,0 +1,125 @@
+package net.xmeter.stats;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(99), 0);
+        assertEquals(0, histogram.getMean(), 0);
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(1, histogram.getMin());
+        assertEquals(100, histogram.getMax());
+        assertEquals(50, histogram.getValueAtPercentile(50));
+        assertEquals(99, histogram.getValueAtPercentile(99));
+        assertEquals(100, histogram.getValueAtPercentile(100));
+        assertEquals(50.5, histogram.getMean(), 1e-9);
+        assertEquals(5050, histogram.getSum());
+    }
+
+    @Test
+    public void percentilesWithinRelativeError() {
+        Random random = new Random(7);
+        long[] values = new long[100000];
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) (Math.exp(random.nextDouble() * 20) * 1000);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (double percentile : new double[] { 10, 50, 90, 99, 99.9 }) {
+            long expected = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long actual = histogram.getValueAtPercentile(percentile);
+            assertTrue(percentile + ": " + actual + " vs " + expected, Math.abs(actual - expected) <= expected * 0.016 + 1);
+        }
+    }
+
+    @Test
+    public void negativeAndHugeValuesAreClamped() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE / 2);
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(Long.MAX_VALUE / 2, histogram.getMax());
+        // Values above MAX_VALUE share the top bucket.
+        assertEquals(LatencyHistogram.MAX_VALUE, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void addMergesExactly() {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        LatencyHistogram all = new LatencyHistogram();
+        Random random = new Random(3);
+        for (int i = 0; i < 10000; i++) {
+            long value = random.nextInt(50000000);
+            (i % 2 == 0 ? a : b).record(value);
+            all.record(value);
+        }
+        a.add(b);
+        assertArrayEquals(all.getCounts(), a.getCounts());
+        assertEquals(all.getMin(), a.getMin());
+        assertEquals(all.getMax(), a.getMax());
+        assertEquals(all.getSum(), a.getSum());
+    }
+
+    @Test
+    public void addBucketsRestoresASnapshot() {
+        LatencyHistogram source = new LatencyHistogram();
+        source.record(1500);
+        source.record(2000000);
+        LatencyHistogram restored = new LatencyHistogram();
+        restored.add(source.getCounts(), source.getMin(), source.getMax(), source.getSum());
+        assertArrayEquals(source.getCounts(), restored.getCounts());
+        assertEquals(2, restored.getCount());
+        assertEquals(1500, restored.getMin());
+        assertEquals(2000000, restored.getMax());
+        assertEquals(source.getMean(), restored.getMean(), 0);
+    }
+
+    @Test
+    public void resetClearsEverything() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10);
+        histogram.record(123456789);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertArrayEquals(new long[LatencyHistogram.getBucketCount()], histogram.getCounts());
+        histogram.record(42);
+        assertEquals(42, histogram.getMin());
+        assertEquals(42, histogram.getMax());
+    }
+
+    @Test
+    public void bucketBoundsAreIncreasing() {
+        long previous = -1;
+        for (int i = 0; i < LatencyHistogram.getBucketCount(); i++) {
+            long upper = LatencyHistogram.getBucketUpperBound(i);
+            assertTrue(upper > previous);
+            assertEquals(i, LatencyHistogram.indexOf(upper));
+            previous = upper;
+        }
+        assertEquals(LatencyHistogram.MAX_VALUE, previous);
+    }
+}
@@ -0,0 +1,45 @@
+package net.xmeter.stats;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class PayloadCaptureTest {
+
+    @Test
+    public void keepsTheFirstPayloads() {
+        PayloadCapture capture = new PayloadCapture(2, false);
+        for (int i = 0; i < 5; i++) {
+            capture.add(new byte[] { (byte) i });
+        }
+        List<byte[]> payloads = capture.getPayloads();
+        assertEquals(2, payloads.size());
+        assertArrayEquals(new byte[] { 0 }, payloads.get(0));
+        assertArrayEquals(new byte[] { 1 }, payloads.get(1));
+        assertEquals(5, capture.getOfferedCount());
+        assertEquals(3, capture.getDroppedCount());
+    }
+
+    @Test
+    public void keepsTheLastPayloadsOldestFirst() {
+        PayloadCapture capture = new PayloadCapture(3, true);
+        for (int i = 0; i < 7; i++) {
+            capture.add(new byte[] { (byte) i });
+        }
+        List<byte[]> payloads = capture.getPayloads();
+        assertEquals(3, payloads.size());
+        assertArrayEquals(new byte[] { 4 }, payloads.get(0));
+        assertArrayEquals(new byte[] { 6 }, payloads.get(2));
+    }
+
+    @Test
+    public void fewerPayloadsThanCapacity() {
+        PayloadCapture capture = new PayloadCapture(10, true);
+        capture.add(new byte[] { 9 });
+        assertEquals(1, capture.getPayloads().size());
+        assertEquals(0, capture.getDroppedCount());
+    }
+}
@@ -0,0 +1,140 @@
+package net.xmeter.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapObserveRelation;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.Request;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.xmeter.lwm2m.LwM2mDevice;
+import net.xmeter.lwm2m.ObjectModelRegistry;
+
+/**
+ * Starts the stand-in server on a free port and talks to it as the samplers do. Block transfers
+ * are covered by {@link net.xmeter.engine.BlockTransferTest}.
+ */
+public class StandInServerTest {
+    private static final byte[] MESSAGE = "hello".getBytes();
+
+    private StandInServer server;
+    private CoapClient client;
+
+    @Before
+    public void start() {
+        server = new StandInServer(0).setFanOut(2);
+        server.start();
+        client = new CoapClient();
+        client.setTimeout(5000L);
+    }
+
+    @After
+    public void stop() {
+        client.shutdown();
+        server.stop();
+    }
+
+    @Test
+    public void publishIsStoredOnTheTopic() throws Exception {
+        CoapResponse response = client.advanced(newRequest(Request.newPut(), "ps/pub", MESSAGE));
+        assertEquals(ResponseCode.CHANGED, response.getCode());
+        assertEquals(1, server.getPublishes());
+
+        response = client.advanced(newRequest(Request.newGet(), "ps/pub"));
+        assertEquals(ResponseCode.CONTENT, response.getCode());
+        assertArrayEquals(MESSAGE, response.getPayload());
+    }
+
+    @Test
+    public void publishFansOutToTheSubscribersOfTheNextTopic() throws Exception {
+        Subscriber first = new Subscriber("mqtt/a");
+        Subscriber second = new Subscriber("mqtt/a");
+        Subscriber other = new Subscriber("mqtt/b");
+        Subscriber beyondFanOut = new Subscriber("mqtt/c");
+        try {
+            client.advanced(newRequest(Request.newPost(), "mqtt/a", MESSAGE));
+            assertTrue(first.received.await(5, TimeUnit.SECONDS));
+            assertTrue(second.received.await(5, TimeUnit.SECONDS));
+            assertTrue(other.received.await(5, TimeUnit.SECONDS));
+            assertEquals(3, server.getNotifications());
+            assertEquals(1, beyondFanOut.received.getCount());
+        } finally {
+            first.relation.proactiveCancel();
+            second.relation.proactiveCancel();
+            other.relation.proactiveCancel();
+            beyondFanOut.relation.proactiveCancel();
+        }
+    }
+
+    @Test
+    public void largePublishIsTransferredInBlocks() throws Exception {
+        byte[] firmware = new byte[3000];
+        Arrays.fill(firmware, (byte) 7);
+        CoapResponse response = client.advanced(newRequest(Request.newPut(), "ps/firmware", firmware));
+        assertEquals(ResponseCode.CHANGED, response.getCode());
+        assertTrue(server.getBlockRequests() > 1);
+        assertEquals(1, server.getPublishes());
+    }
+
+    @Test
+    public void deviceRegistersUpdatesAndDeregisters() throws Exception {
+        LwM2mDevice device = new LwM2mDevice("stand-in-test", server.getUri(), 300, ObjectModelRegistry.getModel());
+        try {
+            assertTrue(device.getOutcomeMessage(), device.register(5000));
+            assertEquals(1, server.getRegistrations());
+            assertTrue(device.getOutcomeMessage(), device.update(5000));
+            assertEquals(1, server.getUpdates());
+            assertTrue(device.getOutcomeMessage(), device.deregister(5000));
+            assertEquals(1, server.getDeregistrations());
+        } finally {
+            device.destroy();
+        }
+    }
+
+    private Request newRequest(Request request, String path) {
+        request.setURI(server.getUri() + "/" + path);
+        return request;
+    }
+
+    private Request newRequest(Request request, String path, byte[] payload) {
+        newRequest(request, path).setPayload(payload);
+        return request;
+    }
+
+    /**
+     * Observes a topic and counts down once it is notified of the message.
+     */
+    private class Subscriber {
+        final CountDownLatch observing = new CountDownLatch(1);
+        final CountDownLatch received = new CountDownLatch(1);
+        final CoapObserveRelation relation;
+
+        Subscriber(String path) throws InterruptedException {
+            relation = client.observe(newRequest(Request.newGet(), path).setObserve(), new CoapHandler() {
+                @Override
+                public void onLoad(CoapResponse response) {
+                    observing.countDown();
+                    if (Arrays.equals(MESSAGE, response.getPayload())) {
+                        received.countDown();
+                    }
+                }
+
+                @Override
+                public void onError() {
+                }
+            });
+            assertTrue(observing.await(5, TimeUnit.SECONDS));
+        }
+    }
+}